@@ -27,13 +27,20 @@ case $CMD in
   $SSH $BOX "ls -ld \$(find $WORKSPACE/target -type f)"
   ;;
 "run")
-  $SSH $BOX "cd $WORKSPACE; nohup java -classpath $WORKSPACE/target/classes  com.lagodiuk.agent.evolution.Runner $WORKSPACE/world.xml > $WORKSPACE/Runner.out 2>&1 &"
+  $SSH $BOX "cd $WORKSPACE; nohup java -Dmetrics.port=9100 -Dstream.port=9200 -classpath $WORKSPACE/target/classes  com.lagodiuk.agent.evolution.Runner $WORKSPACE/world.xml > $WORKSPACE/Runner.out 2>&1 &"
   $SSH $BOX "ps -ef | grep com[.]lagodiuk.agent.evolution.Runner"
   ;;
 "status")
   $SSH $BOX "ps -ef | grep com[.]lagodiuk.agent.evolution.Runner"
   $SSH $BOX "head $WORKSPACE/world.xml && echo ... && tail -3 $WORKSPACE/world.xml"
   ;;
+"metrics")
+  $SSH $BOX "curl -s http://localhost:9100/metrics | grep -v '^#'"
+  ;;
+"watch")
+  echo "Open http://localhost:9200/ (Runner must be started with -Dstream.port=9200)"
+  $SSH -N -L 9200:localhost:9200 $BOX
+  ;;
 "get")
   $SCP $BOX:$WORKSPACE/world.xml $PWD
   ls -ld $PWD/world.xml
@@ -48,7 +55,7 @@ case $CMD in
   ;;
 *)
   printf "Error: wrong parameters\n"
-  printf "Usage:\n       $0 [load|run|status|get]\n"
+  printf "Usage:\n       $0 [load|run|status|metrics|watch|get]\n"
   exit 1
   ;;
 esac
@@ -15,16 +15,25 @@
  ******************************************************************************/
 package com.lagodiuk.agent;
 
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlTransient;
 
 import com.lagodiuk.environment.IEnvironment;
 
-abstract public class AbstractAgent implements IAgent {
+abstract public class AbstractAgent implements IAgent, Cloneable {
 	private static final double NORMAL_ENERGY = 10;
 	private static final double NORMAL_RADIUS = 5;
 	private static final double RADIUS_FACTOR = (NORMAL_RADIUS + 1) * (NORMAL_RADIUS + 1) / NORMAL_ENERGY;
 
+	private static final AtomicLong lastId = new AtomicLong();
+
+	// Unique within the process, kept by clones
+	private transient long id = lastId.incrementAndGet();
+
 	private double x;
 	private double y;
 
@@ -48,6 +57,25 @@ abstract public class AbstractAgent implements IAgent {
 		this.y = y;
 	}
 
+	public long getId() {
+		return this.id;
+	}
+
+	/**
+	 * New id, unique within the process, for agents kept outside of objects
+	 * (see {@link com.lagodiuk.environment.FoodStore})
+	 */
+	public static long newId() {
+		return lastId.incrementAndGet();
+	}
+
+	/**
+	 * Radius of an agent with the given energy
+	 */
+	public static double radiusOf(int energy) {
+		return Math.sqrt(energy * RADIUS_FACTOR);
+	}
+
 	@Override
 	public double getX() {
 		return this.x;
@@ -80,10 +108,19 @@ abstract public class AbstractAgent implements IAgent {
 			throw new RuntimeException("Attempt to set negative energy=" + newEnergy);
 		}
 		energy = newEnergy;
-		radius = Math.sqrt(energy * RADIUS_FACTOR);
+		radius = radiusOf(energy);
 		isAlive = energy > 0;
 	}
 
+	/**
+	 * JAXB sets energy field directly, so radius and liveness have to be
+	 * derived after unmarshalling
+	 */
+	@SuppressWarnings("unused")
+	private void afterUnmarshal(Unmarshaller unmarshaller, Object parent) {
+		setEnergy(energy);
+	}
+
 	@Override
 	public double getRadius() {
 		return radius;
@@ -103,4 +140,33 @@ abstract public class AbstractAgent implements IAgent {
 	public boolean isAlive() {
 		return isAlive;
 	}
+
+	/**
+	 * Takes over caches of the original agent, of which this agent is a clone,
+	 * in a copy of the world (see
+	 * {@link com.lagodiuk.environment.Environment#fork()}), so the clone needs
+	 * no evaluation
+	 *
+	 * @param clones
+	 *            clones of all agents of the world, by original
+	 */
+	public void copyCaches(AbstractAgent original, Map<AbstractAgent, AbstractAgent> clones, IEnvironment env) {
+		isEvaluated = original.isEvaluated;
+	}
+
+	/**
+	 * Shallow copy of the agent state. <br/>
+	 * Caches which depend on the environment are not copied, so the copy
+	 * evaluates itself again before the first interaction.
+	 */
+	@Override
+	public AbstractAgent clone() {
+		try {
+			AbstractAgent clone = (AbstractAgent) super.clone();
+			clone.isEvaluated = false;
+			return clone;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
 }
@@ -15,17 +15,22 @@
  ******************************************************************************/
 package com.lagodiuk.agent;
 
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlTransient;
 
+import com.lagodiuk.environment.FoodStore;
 import com.lagodiuk.environment.IEnvironment;
+import com.lagodiuk.environment.SpatialIndex;
+import com.lagodiuk.environment.TimingWheel;
 
 abstract public class FertileAgent extends MovingAgent {
 	private static final int PARENT_POSTBIRTH_ENERGY_DEFAULT = 10;
 	public static final int NEWBORN_ENERGY_DEFAULT = 6;
+	private static final int RADIATE_ENERGY = 1;
 
 	@XmlElement
 	private double age;
@@ -36,6 +41,51 @@ abstract public class FertileAgent extends MovingAgent {
 	@XmlTransient
 	private SortedSet<AbstractAgent> foodInReach = null;
 
+	@XmlTransient
+	private Dissipation dissipation = null;
+
+	/**
+	 * Radiates energy whenever the age of the fish is a multiple of the
+	 * period, which is the shorter the larger the fish is
+	 */
+	private class Dissipation extends TimingWheel.Timer {
+		private final TimingWheel timers;
+		private final IEnvironment env;
+		// Period as of the last time the timer was asked when to fire
+		private int period = 0;
+		// Fish was removed from the world, and not added back (yet)
+		private boolean away = false;
+
+		Dissipation(TimingWheel timers, IEnvironment env) {
+			this.timers = timers;
+			this.env = env;
+		}
+
+		@Override
+		protected long next(long now, long from) {
+			period = dissipationPeriod(getRadius());
+			if (!isAlive() || (period <= 0)) {
+				return TimingWheel.NEVER;
+			}
+			// Age grows by one every time step
+			long ageNow = (long) age;
+			long ageFrom = ageNow + (from - now);
+			long multiple = Math.max(1, (ageFrom + period - 1) / period) * period;
+			return now + (multiple - ageNow);
+		}
+
+		@Override
+		protected void fire(long time) {
+			if (away) {
+				// Moving fish are back by now, this one has left the world
+				cancelTimers();
+			} else if (isAlive()) {
+				setEnergy(getEnergy() - RADIATE_ENERGY);
+				env.addEnergyReserve(RADIATE_ENERGY);
+			}
+		}
+	}
+
 	protected FertileAgent() {
 	}
 
@@ -61,14 +111,19 @@ abstract public class FertileAgent extends MovingAgent {
 
 		final double fishRadius = getRadius();
 		foodInReach = new TreeSet<AbstractAgent>(sorterByDistance);
-		for (AbstractAgent agent : env.getAgents()) {
-			if (agent.isAlive() && agent instanceof IFood) {
-				double distanceSquare = env.squareOfDistance(this, agent);
-				if (distanceSquare < fishRadius * fishRadius) {
-					foodInReach.add(agent);
-				}
-			}
-		}
+		// Only food of the cells within reach is looked at
+		env.getSpatialIndex().query(getX() - fishRadius, getY() - fishRadius, 2 * fishRadius, 2 * fishRadius, null,
+				new SpatialIndex.FoodVisitor() {
+					@Override
+					public void visitFood(FoodStore food, int slot, double x, double y) {
+						if (food.isAlive(slot)) {
+							double distanceSquare = env.squareOfDistance(FertileAgent.this, food.getX(slot), food.getY(slot));
+							if (distanceSquare < fishRadius * fishRadius) {
+								foodInReach.add(food.getView(slot));
+							}
+						}
+					}
+				});
 	}
 
 	@Override
@@ -82,21 +137,60 @@ abstract public class FertileAgent extends MovingAgent {
 		}
 	}
 
-	private void dissipateEnergy(IEnvironment env) {
-		final int radiateEnergy = 1;
-		if (isAlive()) {
-			double radius = getRadius();
-			if (radius > 0 && (age % (int) (500.0 / radius) == 0)) {
-				int energy = getEnergy();
-				setEnergy(energy - radiateEnergy);
-				env.addEnergyReserve(radiateEnergy);
-			}
-		}
+	/**
+	 * Number of time steps between radiating energy, 0 for never
+	 */
+	public static int dissipationPeriod(double radius) {
+		return (radius > 0) ? (int) (500.0 / radius) : 0;
 	}
 
+	/**
+	 * Energy is radiated by the timer of the fish (see
+	 * {@link #scheduleTimers(TimingWheel, IEnvironment)}), at the end of the
+	 * time step
+	 */
 	public void grow(IEnvironment env) {
 		age++;
-		dissipateEnergy(env);
+	}
+
+	/**
+	 * Registers timers of the fish (radiating energy) on the timing wheel of
+	 * the environment, instead of the ones registered before, if any. Timers
+	 * of a fish which is added back (e.g. after a move) are kept as they are
+	 */
+	public void scheduleTimers(TimingWheel timers, IEnvironment env) {
+		if ((dissipation != null) && (dissipation.timers == timers) && (dissipation.env == env)) {
+			dissipation.away = false;
+			return;
+		}
+		cancelTimers();
+		dissipation = new Dissipation(timers, env);
+		timers.add(dissipation);
+	}
+
+	/**
+	 * Timers of a fish removed from the world stop when they are due next,
+	 * unless the fish is added back by then
+	 */
+	public void detachTimers() {
+		if (dissipation != null) {
+			dissipation.away = true;
+		}
+	}
+
+	public void cancelTimers() {
+		if (dissipation != null) {
+			dissipation.cancel();
+			dissipation = null;
+		}
+	}
+
+	@Override
+	public void setEnergy(int newEnergy) {
+		super.setEnergy(newEnergy);
+		if ((dissipation != null) && (dissipationPeriod(getRadius()) != dissipation.period)) {
+			dissipation.changed();
+		}
 	}
 
 	public void feed(IFood food) {
@@ -104,6 +198,18 @@ abstract public class FertileAgent extends MovingAgent {
 		food.setEnergy(0);
 	}
 
+	@XmlTransient
+	public double getAge() {
+		return age;
+	}
+
+	public void setAge(double age) {
+		this.age = age;
+		if (dissipation != null) {
+			dissipation.changed();
+		}
+	}
+
 	public int getParentingEnergy() {
 		return parentPostBirthEnergy;
 	}
@@ -126,4 +232,18 @@ abstract public class FertileAgent extends MovingAgent {
 	}
 
 	abstract public FertileAgent reproduce(IEnvironment env);
+
+	@Override
+	public synchronized void copyCaches(AbstractAgent original, Map<AbstractAgent, AbstractAgent> clones, IEnvironment env) {
+		super.copyCaches(original, clones, env);
+		foodInReach = copyOf(((FertileAgent) original).foodInReach, clones);
+	}
+
+	@Override
+	public FertileAgent clone() {
+		FertileAgent clone = (FertileAgent) super.clone();
+		clone.foodInReach = null;
+		clone.dissipation = null;
+		return clone;
+	}
 }
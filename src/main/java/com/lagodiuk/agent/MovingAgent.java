@@ -16,6 +16,9 @@
 package com.lagodiuk.agent;
 
 import java.util.Comparator;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import javax.xml.bind.annotation.XmlTransient;
 
@@ -161,4 +164,38 @@ public abstract class MovingAgent extends AbstractAgent {
 
 		move(env);
 	}
+
+	@Override
+	public void copyCaches(AbstractAgent original, Map<AbstractAgent, AbstractAgent> clones, IEnvironment env) {
+		super.copyCaches(original, clones, env);
+		if (((MovingAgent) original).sorterByDistance != null) {
+			sorterByDistance = new SortByDistance(env);
+		}
+	}
+
+	/**
+	 * @return set ordered by distance to this agent, of clones of agents of
+	 *         the given set
+	 */
+	protected SortedSet<AbstractAgent> copyOf(SortedSet<AbstractAgent> agents, Map<AbstractAgent, AbstractAgent> clones) {
+		if (agents == null) {
+			return null;
+		}
+		SortedSet<AbstractAgent> copy = new TreeSet<AbstractAgent>(sorterByDistance);
+		for (AbstractAgent agent : agents) {
+			AbstractAgent clone = clones.get(agent);
+			if (clone != null) {
+				copy.add(clone);
+			}
+		}
+		return copy;
+	}
+
+	@Override
+	public MovingAgent clone() {
+		MovingAgent clone = (MovingAgent) super.clone();
+		// Comparator is bound to this agent
+		clone.sorterByDistance = null;
+		return clone;
+	}
 }
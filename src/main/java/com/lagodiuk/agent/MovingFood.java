@@ -20,12 +20,11 @@ import java.util.Random;
 import com.lagodiuk.environment.IEnvironment;
 
 public class MovingFood extends MovingAgent implements IFood {
-	private static int ENERGY = 1;
+	public static final int ENERGY = 1;
 	public static final double MAX_SPEED = 3;
 
-	@SuppressWarnings("unused")
-	private MovingFood() {
-		// Required by JAXB
+	protected MovingFood() {
+		// Required by JAXB and by views of FoodStore
 	}
 
 	public MovingFood(double x, double y, double angle, double speed) {
@@ -36,7 +35,7 @@ public class MovingFood extends MovingAgent implements IFood {
 
 	@Override
 	public MovingFood reproduce(IEnvironment env) {
-		Random random = new Random();
+		Random random = env.getRandom();
 		double angle = random.nextDouble() * 2*Math.PI;
 		double speed = random.nextDouble() * MAX_SPEED;
 		MovingFood newFood = new MovingFood(getX(), getY(), angle, speed);
@@ -44,4 +43,8 @@ public class MovingFood extends MovingAgent implements IFood {
 		return newFood;
 	}
 
+	@Override
+	public MovingFood clone() {
+		return (MovingFood) super.clone();
+	}
 }
@@ -20,11 +20,10 @@ import java.util.Random;
 import com.lagodiuk.environment.IEnvironment;
 
 public class StaticFood extends AbstractAgent implements IFood {
-	private static int ENERGY = 1;
+	public static final int ENERGY = 1;
 
-	@SuppressWarnings("unused")
-	private StaticFood() {
-		// Required by JAXB
+	protected StaticFood() {
+		// Required by JAXB and by views of FoodStore
 	}
 
 	public StaticFood(double x, double y) {
@@ -35,11 +34,16 @@ public class StaticFood extends AbstractAgent implements IFood {
 
 	@Override
 	public StaticFood reproduce(IEnvironment env) {
-		Random random = new Random();
+		Random random = env.getRandom();
 		int x = random.nextInt(env.getWidth());
 		int y = random.nextInt(env.getHeight());
 		StaticFood newFood = new StaticFood(x, y);
 		env.addAgent(newFood);
 		return newFood;
 	}
+
+	@Override
+	public StaticFood clone() {
+		return (StaticFood) super.clone();
+	}
 }
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.agent.evolution;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.snapshot.CheckpointChain;
+
+/**
+ * Writes checkpoints of the world in background. <br/>
+ * Simulation thread only pays for {@link Environment#snapshot()}, the
+ * snapshot is serialized to a temporary file by the writer thread and then
+ * atomically renamed over the checkpoint, so the checkpoint file is always
+ * complete. <br/>
+ * Checkpoints may be written as a chain of deltas (see
+ * {@link CheckpointChain}), folding of the chain into a new full checkpoint
+ * happens on the writer thread as well. <br/>
+ * At most one snapshot is in flight: if the previous one is still being
+ * written, a new checkpoint is skipped.
+ */
+public class CheckpointWriter {
+	private final CheckpointChain chain;
+	private final SimulationMetrics metrics;
+	private final AtomicBoolean inFlight = new AtomicBoolean(false);
+	private volatile boolean written = false;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "checkpoint-writer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * @param maxDeltas
+	 *            number of delta checkpoints between full ones
+	 */
+	public CheckpointWriter(File file, int maxDeltas, SimulationMetrics metrics) {
+		this.chain = new CheckpointChain(file, maxDeltas);
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Must be called at the tick boundary, by the thread which runs the
+	 * simulation
+	 *
+	 * @return false if checkpoint was skipped because previous one is still
+	 *         being written
+	 */
+	public boolean checkpoint(Environment environment) {
+		if (!inFlight.compareAndSet(false, true)) {
+			metrics.recordCheckpointSkipped();
+			return false;
+		}
+		long start = System.nanoTime();
+		final Environment snapshot = environment.snapshot();
+		metrics.recordCheckpointSnapshot(System.nanoTime() - start);
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					long start = System.nanoTime();
+					chain.write(snapshot);
+					written = true;
+					metrics.recordCheckpoint(System.nanoTime() - start);
+				} catch (Exception e) {
+					e.printStackTrace();
+				} finally {
+					inFlight.set(false);
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * @return true once at least one checkpoint reached the disk
+	 */
+	public boolean hasWritten() {
+		return written;
+	}
+
+	/**
+	 * Waits for the checkpoint in flight, if any
+	 */
+	public void close() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.agent.evolution;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import com.lagodiuk.environment.Environment;
+
+/**
+ * Records the world as a sequence of PNG images, one every given number of
+ * time steps, named by time ("frame-00001000.png"), e.g. to make a movie of a
+ * long run on a headless server. <br/>
+ * Simulation thread only pays for a {@link RenderFrame} of the world, which
+ * is drawn offscreen by {@link WorldPainter} (as in {@link Visualizator}) and
+ * encoded by a pool of encoder threads. Frames wait for encoders in a bounded
+ * queue: when the queue is full, the frame is dropped, so the simulation
+ * never waits for encoding.
+ */
+public class FrameRecorder {
+	private static final String FILE_PREFIX = "frame-";
+	private static final String FILE_EXTENSION = ".png";
+
+	private final File directory;
+	private final int interval;
+	private final double zoom;
+	private final SimulationMetrics metrics;
+	private final AtomicLong recorded = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	// Every encoder thread draws with its own painter into its own image
+	private final ThreadLocal<WorldPainter> painters = new ThreadLocal<WorldPainter>() {
+		@Override
+		protected WorldPainter initialValue() {
+			return new WorldPainter();
+		}
+	};
+	private final ThreadLocal<BufferedImage> images = new ThreadLocal<BufferedImage>();
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * @param interval
+	 *            number of time steps between frames
+	 * @param zoom
+	 *            pixels per unit of the world, the whole world is recorded
+	 * @param threads
+	 *            number of encoder threads
+	 * @param queueCapacity
+	 *            number of frames which may wait for encoders
+	 */
+	public FrameRecorder(File directory, int interval, double zoom, int threads, int queueCapacity, SimulationMetrics metrics)
+			throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can not create directory " + directory);
+		}
+		this.directory = directory;
+		this.interval = Math.max(1, interval);
+		this.zoom = zoom;
+		this.metrics = metrics;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "frame-encoder-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+						dropped.incrementAndGet();
+						FrameRecorder.this.metrics.recordFrameDropped();
+					}
+				});
+	}
+
+	/**
+	 * Records a frame, if it is time to. Must be called at the tick boundary,
+	 * by the thread which runs the simulation
+	 *
+	 * @return false if it is not time to record, or the frame was dropped
+	 *         because encoders fall behind
+	 */
+	public boolean record(Environment environment) {
+		long time = (long) environment.getTime();
+		if (time % interval != 0) {
+			return false;
+		}
+		if (executor.getQueue().remainingCapacity() == 0) {
+			// Frame would be dropped anyway, do not bother making it
+			dropped.incrementAndGet();
+			metrics.recordFrameDropped();
+			return false;
+		}
+		int width = (int) Math.ceil(environment.getWidth() * zoom);
+		int height = (int) Math.ceil(environment.getHeight() * zoom);
+		final RenderFrame frame = RenderFrame.of(environment, null, "", new Viewport(0, 0, zoom, width, height));
+		final File file = new File(directory, String.format("%s%08d%s", FILE_PREFIX, time, FILE_EXTENSION));
+
+		long droppedBefore = dropped.get();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					long start = System.nanoTime();
+					encode(frame, file);
+					recorded.incrementAndGet();
+					metrics.recordFrame(System.nanoTime() - start);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		return dropped.get() == droppedBefore;
+	}
+
+	private void encode(RenderFrame frame, File file) throws IOException {
+		BufferedImage image = images.get();
+		if ((image == null) || (image.getWidth() != frame.viewWidth) || (image.getHeight() != frame.viewHeight)) {
+			image = new BufferedImage(frame.viewWidth, frame.viewHeight, BufferedImage.TYPE_INT_RGB);
+			images.set(image);
+		}
+		Graphics2D canvas = image.createGraphics();
+		try {
+			canvas.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			painters.get().paint(canvas, frame);
+		} finally {
+			canvas.dispose();
+		}
+		if (!ImageIO.write(image, "png", file)) {
+			throw new IOException("No PNG encoder");
+		}
+	}
+
+	/**
+	 * Number of frames written
+	 */
+	public long getRecordedCount() {
+		return recorded.get();
+	}
+
+	/**
+	 * Number of frames dropped because encoders fell behind
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Waits for the frames in flight
+	 */
+	public void close() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+}
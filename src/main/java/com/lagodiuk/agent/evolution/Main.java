@@ -15,22 +15,75 @@
  ******************************************************************************/
 package com.lagodiuk.agent.evolution;
 
+import java.io.File;
+
 import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.journal.EventJournal;
+import com.lagodiuk.environment.snapshot.RewindBuffer;
+import com.lagodiuk.nn.RandomStreams;
 
 public class Main {
+	private static final String REWIND_MEMORY_PROPERTY = "rewind.memory";
+	private static final int DEFAULT_REWIND_MEMORY = 64;
+	private static final String REWIND_INTERVAL_PROPERTY = "rewind.interval";
+	private static final int DEFAULT_REWIND_INTERVAL = 10;
+
 	private static Visualizator visualizator;
 
 	public static void main(String[] args) throws Exception {
+		String randomSeed = System.getProperty(Runner.RANDOM_SEED_PROPERTY);
+		if (randomSeed != null) {
+			RandomStreams.setSeed(Long.parseLong(randomSeed));
+			System.out.println("Info: Random numbers seeded with " + randomSeed);
+		}
+
 		Environment environment = new Environment(DefaultWorldParameters.environmentWidth, DefaultWorldParameters.environmentHeight);
 		environment.initialize(DefaultWorldParameters.agentsDensity, DefaultWorldParameters.foodDensity);
 		environment.setMinNumberOfAgents(DefaultWorldParameters.minNumberOfAgents);
 
+		String journalFile = System.getProperty(Runner.JOURNAL_FILE_PROPERTY);
+		if (journalFile != null) {
+			environment.setJournal(new EventJournal(new File(journalFile)));
+		}
+
 		visualizator = new Visualizator(environment);
+		// Memory budget is in megabytes, 0 turns rewinding off
+		int rewindMemory = Integer.getInteger(REWIND_MEMORY_PROPERTY, DEFAULT_REWIND_MEMORY);
+		if (rewindMemory > 0) {
+			visualizator.setRewindBuffer(new RewindBuffer((long) rewindMemory << 20),
+					Integer.getInteger(REWIND_INTERVAL_PROPERTY, DEFAULT_REWIND_INTERVAL));
+		}
 		visualizator.initialize(DefaultWorldParameters.environmentWidth, DefaultWorldParameters.environmentHeight);
 
-		// Main Environment Loop
-		for (;;) {
-			visualizator.timeStep();
-		}
+		final int journalKeyframes = Math.max(1, Integer.getInteger(Runner.JOURNAL_KEYFRAMES_PROPERTY, Runner.DEFAULT_JOURNAL_KEYFRAMES));
+
+		// Simulation runs on its own thread, Visualizator draws on the event
+		// dispatch thread
+		Thread simulation = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				double lastKeyframeTime = visualizator.getEnvironment().getTime();
+				try {
+					// Main Environment Loop
+					for (;;) {
+						visualizator.timeStep();
+
+						Environment current = visualizator.getEnvironment();
+						if (current.getJournal() != null) {
+							if (current.getTime() < lastKeyframeTime) {
+								// Another world was loaded
+								lastKeyframeTime = current.getTime();
+							} else if (current.getTime() >= lastKeyframeTime + journalKeyframes) {
+								current.getJournal().recordKeyframe(current);
+								lastKeyframeTime = current.getTime();
+							}
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "simulation");
+		simulation.start();
 	}
 }
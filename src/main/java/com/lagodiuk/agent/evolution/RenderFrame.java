@@ -0,0 +1,395 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.agent.evolution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.FertileAgent;
+import com.lagodiuk.agent.IFood;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.FoodStore;
+import com.lagodiuk.environment.SpatialIndex;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+
+/**
+ * Everything needed to draw the shown part of the world at one time step,
+ * column by column. <br/>
+ * Built by the simulation thread at the tick boundary (see
+ * {@link #of(Environment, NeuralNetworkDrivenAgent, String, Viewport)}) and
+ * never changed afterwards, so it can be drawn by another thread while the
+ * world goes on. <br/>
+ * Only agents inside of the viewport, and a halo around it, are taken, found
+ * through the {@link SpatialIndex} of the world. Their coordinates are as
+ * seen from the viewport: shifted by the world size when found over the
+ * border, so agents near the border may be taken twice, once from each
+ * side. <br/>
+ * Below {@link #HEAT_MAP_ZOOM} agents are too small to be told apart, so
+ * instead of them the frame holds tiles of the world with numbers of fish and
+ * food inside, read from the coarsest level of the index whose cells are
+ * still {@link #MIN_TILE_PIXELS} wide on screen. Only the selected fish is
+ * taken then. <br/>
+ * Either way the cost follows the size of the viewport, not of the world.
+ * <br/>
+ * Food marks are pieces of food seen by the selected fish and by leaders, the
+ * closest one of every fish first.
+ */
+public class RenderFrame {
+	public static final byte FLAG_NONE = 0;
+	public static final byte FLAG_LEADER = 1;
+	public static final byte FLAG_SELECTED = 2;
+	// Member of the group selected by region
+	public static final byte FLAG_GROUP = 3;
+
+	public static final double HEAT_MAP_ZOOM = 0.25;
+	public static final int MIN_TILE_PIXELS = 4;
+	// Reach of drawings around agents: bodies and tails in world units,
+	// flags in pixels
+	private static final double HALO = 24;
+	private static final double HALO_PIXELS = 20;
+
+	public final double time;
+	public final int width;
+	public final int height;
+	public final String status;
+
+	public final double viewLeft;
+	public final double viewTop;
+	public final double zoom;
+	public final int viewWidth;
+	public final int viewHeight;
+
+	public final int fishCount;
+	public final double[] fishX;
+	public final double[] fishY;
+	public final double[] fishRadius;
+	public final double[] fishAngle;
+	public final double[] fishSpeed;
+	public final int[] fishEnergy;
+	public final int[] fishParentingEnergy;
+	public final int[] fishNewbornEnergy;
+	public final byte[] fishFlag;
+	// Index of the selected fish, or -1
+	public final int selected;
+
+	public final int foodCount;
+	public final double[] foodX;
+	public final double[] foodY;
+	public final double[] foodRadius;
+
+	public final int marksCount;
+	public final double[] markX;
+	public final double[] markY;
+	public final double[] markRadius;
+	public final boolean[] markClosest;
+	public final byte[] markFlag;
+
+	public final boolean heatMap;
+	public final int tilesCount;
+	public final double[] tileX;
+	public final double[] tileY;
+	public final double[] tileWidth;
+	public final double[] tileHeight;
+	public final int[] tileFish;
+	public final int[] tileFood;
+
+	/**
+	 * Agents found in the viewport, at coordinates as seen from it
+	 */
+	private static class Culling implements SpatialIndex.Visitor, SpatialIndex.FoodVisitor {
+		final List<FertileAgent> fish = new ArrayList<FertileAgent>();
+		double[] fishX = new double[16];
+		double[] fishY = new double[16];
+		int foodCount = 0;
+		double[] foodX = new double[256];
+		double[] foodY = new double[256];
+		double[] foodRadius = new double[256];
+
+		@Override
+		public void visit(AbstractAgent agent, double x, double y) {
+			if (agent instanceof IFood) {
+				addFood(agent.getRadius(), x, y);
+			} else if (agent instanceof FertileAgent) {
+				addFish((FertileAgent) agent, x, y);
+			}
+		}
+
+		@Override
+		public void visitFood(FoodStore food, int slot, double x, double y) {
+			addFood(food.getRadius(slot), x, y);
+		}
+
+		void addFish(FertileAgent agent, double x, double y) {
+			int i = fish.size();
+			if (i == fishX.length) {
+				fishX = Arrays.copyOf(fishX, i * 2);
+				fishY = Arrays.copyOf(fishY, i * 2);
+			}
+			fish.add(agent);
+			fishX[i] = x;
+			fishY[i] = y;
+		}
+
+		void addFood(double radius, double x, double y) {
+			int i = foodCount++;
+			if (i == foodX.length) {
+				foodX = Arrays.copyOf(foodX, i * 2);
+				foodY = Arrays.copyOf(foodY, i * 2);
+				foodRadius = Arrays.copyOf(foodRadius, i * 2);
+			}
+			foodX[i] = x;
+			foodY[i] = y;
+			foodRadius[i] = radius;
+		}
+	}
+
+	/**
+	 * Tiles covering the viewport and the halo, row by row. Tiles over the
+	 * border of the world are shifted by the world size, as agents are.
+	 */
+	private static class Tiles {
+		final int count;
+		final double[] x;
+		final double[] y;
+		final double[] width;
+		final double[] height;
+		final int[] fish;
+		final int[] food;
+
+		Tiles(SpatialIndex index, int level, double left, double top, double right, double bottom) {
+			int size = index.getCellSize(level);
+			int fromColumn = (int) Math.floor(left / size);
+			int toColumn = (int) Math.floor(right / size);
+			int fromRow = (int) Math.floor(top / size);
+			int toRow = (int) Math.floor(bottom / size);
+			int columns = index.getColumns(level);
+			int rows = index.getRows(level);
+			int worldWidth = index.getWidth();
+			int worldHeight = index.getHeight();
+
+			this.count = (toColumn - fromColumn + 1) * (toRow - fromRow + 1);
+			this.x = new double[count];
+			this.y = new double[count];
+			this.width = new double[count];
+			this.height = new double[count];
+			this.fish = new int[count];
+			this.food = new int[count];
+
+			int tile = 0;
+			for (int row = fromRow; row <= toRow; row++) {
+				int gridRow = Math.floorMod(row, rows);
+				double tileY = (double) Math.floorDiv(row, rows) * worldHeight + (double) gridRow * size;
+				double tileHeight = Math.min(size, worldHeight - (double) gridRow * size);
+				for (int column = fromColumn; column <= toColumn; column++) {
+					int gridColumn = Math.floorMod(column, columns);
+					x[tile] = (double) Math.floorDiv(column, columns) * worldWidth + (double) gridColumn * size;
+					y[tile] = tileY;
+					width[tile] = Math.min(size, worldWidth - (double) gridColumn * size);
+					height[tile] = tileHeight;
+					fish[tile] = index.getFishCount(level, gridColumn, gridRow);
+					food[tile] = index.getFoodCount(level, gridColumn, gridRow);
+					tile++;
+				}
+			}
+		}
+	}
+
+	private RenderFrame(Environment env, Viewport viewport, Culling culled, Tiles tiles, NeuralNetworkDrivenAgent selectedAgent,
+			Set<? extends AbstractAgent> group, int marksCount, String status) {
+		this.time = env.getTime();
+		this.width = env.getWidth();
+		this.height = env.getHeight();
+		this.status = status;
+
+		this.viewLeft = viewport.getLeft();
+		this.viewTop = viewport.getTop();
+		this.zoom = viewport.getZoom();
+		this.viewWidth = viewport.getWidth();
+		this.viewHeight = viewport.getHeight();
+
+		List<FertileAgent> fish = culled.fish;
+		this.fishCount = fish.size();
+		this.fishX = Arrays.copyOf(culled.fishX, fishCount);
+		this.fishY = Arrays.copyOf(culled.fishY, fishCount);
+		this.fishRadius = new double[fishCount];
+		this.fishAngle = new double[fishCount];
+		this.fishSpeed = new double[fishCount];
+		this.fishEnergy = new int[fishCount];
+		this.fishParentingEnergy = new int[fishCount];
+		this.fishNewbornEnergy = new int[fishCount];
+		this.fishFlag = new byte[fishCount];
+		int selected = -1;
+
+		this.foodCount = culled.foodCount;
+		this.foodX = Arrays.copyOf(culled.foodX, foodCount);
+		this.foodY = Arrays.copyOf(culled.foodY, foodCount);
+		this.foodRadius = Arrays.copyOf(culled.foodRadius, foodCount);
+
+		this.marksCount = marksCount;
+		this.markX = new double[marksCount];
+		this.markY = new double[marksCount];
+		this.markRadius = new double[marksCount];
+		this.markClosest = new boolean[marksCount];
+		this.markFlag = new byte[marksCount];
+
+		this.heatMap = tiles != null;
+		this.tilesCount = heatMap ? tiles.count : 0;
+		this.tileX = heatMap ? tiles.x : new double[0];
+		this.tileY = heatMap ? tiles.y : new double[0];
+		this.tileWidth = heatMap ? tiles.width : new double[0];
+		this.tileHeight = heatMap ? tiles.height : new double[0];
+		this.tileFish = heatMap ? tiles.fish : new int[0];
+		this.tileFood = heatMap ? tiles.food : new int[0];
+
+		int longestGeneration = env.getLongestGeneration();
+		int mark = 0;
+		for (int i = 0; i < fishCount; i++) {
+			FertileAgent agent = fish.get(i);
+			fishRadius[i] = agent.getRadius();
+			fishAngle[i] = agent.getAngle();
+			fishSpeed[i] = agent.getSpeed();
+			fishEnergy[i] = agent.getEnergy();
+			fishParentingEnergy[i] = agent.getParentingEnergy();
+			fishNewbornEnergy[i] = agent.getNewbornEnergy();
+			fishFlag[i] = flagOf(agent, selectedAgent, group, longestGeneration);
+			if (fishFlag[i] == FLAG_SELECTED) {
+				selected = i;
+			}
+			if (hasMarks(fishFlag[i])) {
+				boolean closest = true;
+				for (AbstractAgent seen : foodInSight(agent)) {
+					// Seen food is near, maybe over the border
+					markX[mark] = fishX[i] + wrappedDistance(seen.getX() - agent.getX(), width);
+					markY[mark] = fishY[i] + wrappedDistance(seen.getY() - agent.getY(), height);
+					markRadius[mark] = seen.getRadius();
+					markClosest[mark] = closest;
+					markFlag[mark] = fishFlag[i];
+					closest = false;
+					mark++;
+				}
+			}
+		}
+		this.selected = selected;
+	}
+
+	/**
+	 * Must be called at the tick boundary, by the thread which runs the
+	 * simulation
+	 *
+	 * @param selected
+	 *            selected fish, or null
+	 * @param group
+	 *            fish selected by region
+	 * @param status
+	 *            text of status bar
+	 */
+	public static RenderFrame of(Environment env, NeuralNetworkDrivenAgent selected, Set<? extends AbstractAgent> group, String status,
+			Viewport viewport) {
+		SpatialIndex index = env.getSpatialIndex();
+		double halo = HALO + HALO_PIXELS / viewport.getZoom();
+		double left = viewport.getLeft() - halo;
+		double top = viewport.getTop() - halo;
+		double right = viewport.getLeft() + viewport.getWorldWidth() + halo;
+		double bottom = viewport.getTop() + viewport.getWorldHeight() + halo;
+
+		Culling culled = new Culling();
+		Tiles tiles = null;
+		if (viewport.getZoom() >= HEAT_MAP_ZOOM) {
+			index.query(left, top, right - left, bottom - top, culled, culled);
+		} else {
+			tiles = new Tiles(index, tilesLevel(index, viewport.getZoom()), left, top, right, bottom);
+			if ((selected != null) && selected.isAlive()) {
+				double centerX = viewport.getLeft() + viewport.getWorldWidth() / 2;
+				double centerY = viewport.getTop() + viewport.getWorldHeight() / 2;
+				double x = centerX - wrappedDistance(centerX - selected.getX(), env.getWidth());
+				double y = centerY - wrappedDistance(centerY - selected.getY(), env.getHeight());
+				if ((x >= left) && (x <= right) && (y >= top) && (y <= bottom)) {
+					culled.addFish(selected, x, y);
+				}
+			}
+		}
+
+		int longestGeneration = env.getLongestGeneration();
+		int marksCount = 0;
+		for (FertileAgent agent : culled.fish) {
+			if (hasMarks(flagOf(agent, selected, group, longestGeneration))) {
+				marksCount += foodInSight(agent).size();
+			}
+		}
+		return new RenderFrame(env, viewport, culled, tiles, selected, group, marksCount, status);
+	}
+
+	public static RenderFrame of(Environment env, NeuralNetworkDrivenAgent selected, String status, Viewport viewport) {
+		return of(env, selected, Collections.<AbstractAgent> emptySet(), status, viewport);
+	}
+
+	/**
+	 * Whole world, pixel per unit
+	 */
+	public static RenderFrame of(Environment env, NeuralNetworkDrivenAgent selected, String status) {
+		return of(env, selected, status, Viewport.of(env.getWidth(), env.getHeight()));
+	}
+
+	/**
+	 * Finest level of the index whose cells are wide enough on screen
+	 */
+	private static int tilesLevel(SpatialIndex index, double zoom) {
+		int level = 0;
+		while ((level < index.getLevels() - 1) && (index.getCellSize(level) * zoom < MIN_TILE_PIXELS)) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Distance along a wrapping axis to the nearest copy
+	 */
+	private static double wrappedDistance(double distance, int period) {
+		return distance - Math.rint(distance / period) * period;
+	}
+	private static byte flagOf(FertileAgent agent, NeuralNetworkDrivenAgent selected, Set<? extends AbstractAgent> group,
+			int longestGeneration) {
+		if (agent == selected) {
+			return FLAG_SELECTED;
+		}
+		if (group.contains(agent)) {
+			return FLAG_GROUP;
+		}
+		if ((agent instanceof NeuralNetworkDrivenAgent) && (((NeuralNetworkDrivenAgent) agent).getGeneration() == longestGeneration)) {
+			return FLAG_LEADER;
+		}
+		return FLAG_NONE;
+	}
+
+	private static boolean hasMarks(byte flag) {
+		return (flag == FLAG_SELECTED) || (flag == FLAG_LEADER);
+	}
+
+	private static Collection<AbstractAgent> foodInSight(FertileAgent agent) {
+		if (agent instanceof NeuralNetworkDrivenAgent) {
+			Collection<AbstractAgent> food = ((NeuralNetworkDrivenAgent) agent).getFoodInSight();
+			if (food != null) {
+				return food;
+			}
+		}
+		return Collections.<AbstractAgent> emptyList();
+	}
+}
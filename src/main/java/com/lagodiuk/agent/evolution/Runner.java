@@ -16,21 +16,72 @@
 package com.lagodiuk.agent.evolution;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 
 import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.UpdateOrders;
+import com.lagodiuk.environment.journal.EventJournal;
+import com.lagodiuk.environment.snapshot.CheckpointChain;
+import com.lagodiuk.environment.snapshot.WorldFiles;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+import com.lagodiuk.nn.RandomStreams;
+import com.lagodiuk.nn.serializing.binary.BrainArchive;
 
 public class Runner {
 	private static final int MAX_ITERATIONS = 1000000;
+	// Optional, e.g. -Dmetrics.port=9100
+	private static final String METRICS_PORT_PROPERTY = "metrics.port";
+	// Optional, e.g. -Darchive.file=leaders.brains -Darchive.generations=10
+	private static final String ARCHIVE_FILE_PROPERTY = "archive.file";
+	private static final String ARCHIVE_GENERATIONS_PROPERTY = "archive.generations";
+	private static final int DEFAULT_ARCHIVE_GENERATIONS = 100;
+	// Optional, e.g. -Dcheckpoint.deltas=9: full checkpoint is written after
+	// every 9 delta ones
+	private static final String CHECKPOINT_DELTAS_PROPERTY = "checkpoint.deltas";
+	// Optional, e.g. -Djournal.file=world.journal -Djournal.keyframes=10000:
+	// inputs are journaled, keyframe is written every 10000 time steps
+	static final String JOURNAL_FILE_PROPERTY = "journal.file";
+	static final String JOURNAL_KEYFRAMES_PROPERTY = "journal.keyframes";
+	static final int DEFAULT_JOURNAL_KEYFRAMES = 10000;
+	// Optional, e.g. -Drecord.dir=frames -Drecord.interval=100
+	// -Drecord.zoom=0.5: image of the world is written every 100 time steps
+	private static final String RECORD_DIR_PROPERTY = "record.dir";
+	private static final String RECORD_INTERVAL_PROPERTY = "record.interval";
+	private static final String RECORD_ZOOM_PROPERTY = "record.zoom";
+	private static final int DEFAULT_RECORD_INTERVAL = 100;
+	// Frames waiting for encoders, per encoder
+	private static final int RECORD_QUEUE_PER_THREAD = 2;
+	// Optional, e.g. -Dstream.port=9200 -Dstream.fps=10: world is streamed
+	// to browsers on http://localhost:9200/ at most 10 times per second
+	private static final String STREAM_PORT_PROPERTY = "stream.port";
+	private static final String STREAM_FPS_PROPERTY = "stream.fps";
+	private static final String DEFAULT_STREAM_FPS = "10";
+	// Optional, e.g. -Dfood.lazy=true: positions of food are computed when
+	// read, instead of moving all food every time step
+	private static final String LAZY_FOOD_PROPERTY = "food.lazy";
+	// Optional, e.g. -Dupdate.order=rotation: order agents interact in, one
+	// of UpdateOrders (shuffle by default)
+	private static final String UPDATE_ORDER_PROPERTY = "update.order";
+	// Optional, e.g. -Drandom.seed=42: all randomness is derived from the
+	// seed, so runs of a new world are reproducible
+	static final String RANDOM_SEED_PROPERTY = "random.seed";
 
 	private static Environment environment;
 	private static String filename = null;
 	private static boolean justStarted = true;
+	private static boolean worldLoaded = false;
+	private static SimulationMetrics metrics = new SimulationMetrics();
+	private static CheckpointWriter checkpointWriter;
+	private static BrainArchive archive = null;
+	private static int archiveGenerations;
+	private static int nextArchivedGeneration;
+	private static EventJournal journal = null;
+	private static int journalKeyframes;
+	private static FrameRecorder recorder = null;
+	private static StateStreamServer streamServer = null;
 
 	public static void main(String[] args) throws Exception {
 		if (args.length < 1) {
-			System.out.println("Usage: Provide file.xml as an argument");
+			System.out.println("Usage: Provide file.xml or file" + WorldFiles.SNAPSHOT_EXTENSION + " as an argument");
 			return;
 		}
 
@@ -39,28 +90,121 @@ public class Runner {
 			filename = System.getProperty("user.dir") + File.separator + filename;
 		}
 
+		String randomSeed = System.getProperty(RANDOM_SEED_PROPERTY);
+		if (randomSeed != null) {
+			RandomStreams.setSeed(Long.parseLong(randomSeed));
+			System.out.println("Info: Random numbers seeded with " + randomSeed);
+		}
+
 		if (new File(filename).exists()) {
 			loadWorld(filename);
 			justStarted = false;
+			worldLoaded = true;
 		} else {
 			createWorld();
 			justStarted = true;
 		}
 
-		mainEnvironmentLoop();
+		if (Boolean.getBoolean(LAZY_FOOD_PROPERTY)) {
+			environment.getFoodStore().setLazy(true);
+			System.out.println("Info: Computing positions of food lazily");
+		}
+
+		String updateOrder = System.getProperty(UPDATE_ORDER_PROPERTY);
+		if (updateOrder != null) {
+			environment.setUpdateOrder(UpdateOrders.valueOf(updateOrder.toUpperCase()));
+			System.out.println("Info: Agents interact in " + environment.getUpdateOrder() + " order");
+		}
+
+		MetricsServer metricsServer = null;
+		int metricsPort = Integer.getInteger(METRICS_PORT_PROPERTY, 0);
+		if (metricsPort > 0) {
+			metricsServer = new MetricsServer(metricsPort, metrics);
+			metricsServer.start();
+			System.out.println("Info: Serving metrics on http://localhost:" + metricsServer.getPort() + "/metrics");
+		}
+
+		String archiveFile = System.getProperty(ARCHIVE_FILE_PROPERTY);
+		if (archiveFile != null) {
+			openArchive(new File(archiveFile));
+		}
+
+		String journalFile = System.getProperty(JOURNAL_FILE_PROPERTY);
+		if (journalFile != null) {
+			journal = new EventJournal(new File(journalFile));
+			journalKeyframes = Math.max(1, Integer.getInteger(JOURNAL_KEYFRAMES_PROPERTY, DEFAULT_JOURNAL_KEYFRAMES));
+			environment.setJournal(journal);
+			System.out.println("Info: Journaling inputs to " + journalFile + ", keyframe every " + journalKeyframes + " steps");
+		}
+
+		String recordDir = System.getProperty(RECORD_DIR_PROPERTY);
+		if (recordDir != null) {
+			int interval = Math.max(1, Integer.getInteger(RECORD_INTERVAL_PROPERTY, DEFAULT_RECORD_INTERVAL));
+			double zoom = Double.parseDouble(System.getProperty(RECORD_ZOOM_PROPERTY, "1"));
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+			recorder = new FrameRecorder(new File(recordDir), interval, zoom, threads, threads * RECORD_QUEUE_PER_THREAD, metrics);
+			System.out.println("Info: Recording frames to " + recordDir + " every " + interval + " steps");
+		}
+
+		int streamPort = Integer.getInteger(STREAM_PORT_PROPERTY, 0);
+		if (streamPort > 0) {
+			double fps = Double.parseDouble(System.getProperty(STREAM_FPS_PROPERTY, DEFAULT_STREAM_FPS));
+			streamServer = new StateStreamServer(streamPort, fps);
+			streamServer.start();
+			System.out.println("Info: Streaming world on http://localhost:" + streamServer.getPort() + "/");
+		}
+
+		int checkpointDeltas = Math.max(0, Integer.getInteger(CHECKPOINT_DELTAS_PROPERTY, 0));
+		checkpointWriter = new CheckpointWriter(new File(filename), checkpointDeltas, metrics);
+		try {
+			mainEnvironmentLoop();
+		} finally {
+			checkpointWriter.close();
+			if (recorder != null) {
+				recorder.close();
+				System.out.println("Info: " + recorder.getRecordedCount() + " frames recorded, " + recorder.getDroppedCount() + " dropped");
+			}
+			if (archive != null) {
+				archive.close();
+			}
+			if (journal != null) {
+				journal.close();
+			}
+			if (metricsServer != null) {
+				metricsServer.stop();
+			}
+			if (streamServer != null) {
+				streamServer.stop();
+			}
+		}
 	}
 
 	private static void mainEnvironmentLoop() throws Exception {
 		for (;;) {
 			environment.timeStep();
+			metrics.recordTick(environment);
+			if ((archive != null) && (environment.getLongestGeneration() >= nextArchivedGeneration)) {
+				archiveLeader();
+			}
 			int time = (int) environment.getTime();
+			if (recorder != null) {
+				recorder.record(environment);
+			}
+			if (streamServer != null) {
+				streamServer.publish(environment);
+			}
+			if ((journal != null) && (time % journalKeyframes == 0)) {
+				journal.recordKeyframe(environment);
+			}
 			if (time % 1000 == 0) {
-				if (!justStarted && !new File(filename).exists()) {
+				// File of a new world appears once its first checkpoint is written
+				boolean fileExpected = worldLoaded || checkpointWriter.hasWritten();
+				if (fileExpected && !new File(filename).exists()) {
 					System.out.println("Info: Time=" + time + ", " + filename + " was moved, exiting");
 					break;
 				}
 
-				saveWorld(filename);
+				checkpointWriter.checkpoint(environment);
 
 				if (!justStarted && time % MAX_ITERATIONS == 0) {
 					System.out.println("Info: Time=" + time + " exceeded limit, exiting");
@@ -71,6 +215,29 @@ public class Runner {
 		}
 	}
 
+	private static void openArchive(File file) throws Exception {
+		archive = new BrainArchive(file);
+		archiveGenerations = Math.max(1, Integer.getInteger(ARCHIVE_GENERATIONS_PROPERTY, DEFAULT_ARCHIVE_GENERATIONS));
+		nextArchivedGeneration = 0;
+		if (archive.size() > 0) {
+			nextArchivedGeneration = nextArchivedGeneration(archive.getGeneration(archive.size() - 1));
+		}
+		System.out.println("Info: Archiving leader of every " + archiveGenerations + "-th generation to " + file + " (" + archive.size() + " brains)");
+	}
+
+	private static int nextArchivedGeneration(int generation) {
+		return ((generation / archiveGenerations) + 1) * archiveGenerations;
+	}
+
+	private static void archiveLeader() throws Exception {
+		NeuralNetworkDrivenAgent leader = environment.getLeader();
+		if ((leader == null) || (leader.getBrain() == null)) {
+			return;
+		}
+		archive.append(leader.getBrain(), leader.getGeneration(), System.currentTimeMillis());
+		nextArchivedGeneration = nextArchivedGeneration(leader.getGeneration());
+	}
+
 	private static void createWorld() {
 		environment = new Environment(DefaultWorldParameters.environmentWidth, DefaultWorldParameters.environmentHeight);
 		environment.initialize(DefaultWorldParameters.agentsDensity, DefaultWorldParameters.foodDensity);
@@ -78,16 +245,6 @@ public class Runner {
 	}
 
 	private static void loadWorld(String filename) throws Exception {
-		File file = new File(filename);
-		FileInputStream in = new FileInputStream(file);
-		environment = Environment.unmarshall(in);
-		in.close();
-	}
-
-	private static void saveWorld(String filename) throws Exception {
-		File file = new File(filename);
-		FileOutputStream out = new FileOutputStream(file);
-		Environment.marshall(environment, out);
-		out.close();
+		environment = CheckpointChain.restore(new File(filename));
 	}
 }
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.agent.evolution;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.PopulationStats;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+
+/**
+ * Counters of a running simulation. <br/>
+ * Simulation thread publishes values once per tick from the counters which
+ * Environment maintains anyway, so scraping never touches the agents.
+ */
+public class SimulationMetrics {
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private final AtomicLong ticks = new AtomicLong();
+	private volatile double time;
+	private volatile double ticksPerSecond;
+	private volatile int population;
+	private volatile int food;
+	private volatile int energyReserve;
+	private volatile long energyTotal;
+	private volatile int shortestGeneration;
+	private volatile int longestGeneration;
+	private volatile long mutations;
+
+	private final AtomicLong checkpoints = new AtomicLong();
+	private final AtomicLong checkpointNanosTotal = new AtomicLong();
+	private volatile long checkpointNanosLast;
+	private volatile long snapshotNanosLast;
+	private final AtomicLong checkpointsSkipped = new AtomicLong();
+
+	private final AtomicLong frames = new AtomicLong();
+	private volatile long frameNanosLast;
+	private final AtomicLong framesDropped = new AtomicLong();
+
+	// Accessed only by the simulation thread
+	private long rateWindowStart = System.nanoTime();
+	private long rateWindowTicks = 0;
+
+	public void recordTick(Environment env) {
+		ticks.incrementAndGet();
+		time = env.getTime();
+		PopulationStats stats = env.getStats();
+		population = stats.getFishCount();
+		food = stats.getFoodCount();
+		energyReserve = stats.getEnergyReserve();
+		energyTotal = stats.getTotalEnergy();
+		shortestGeneration = stats.getMinGeneration();
+		longestGeneration = stats.getMaxGeneration();
+		mutations = NeuralNetworkDrivenAgent.getMutationCount();
+
+		rateWindowTicks++;
+		long now = System.nanoTime();
+		long elapsed = now - rateWindowStart;
+		if (elapsed >= NANOS_PER_SECOND) {
+			ticksPerSecond = rateWindowTicks * (double) NANOS_PER_SECOND / elapsed;
+			rateWindowStart = now;
+			rateWindowTicks = 0;
+		}
+	}
+
+	public void recordCheckpoint(long durationNanos) {
+		checkpoints.incrementAndGet();
+		checkpointNanosTotal.addAndGet(durationNanos);
+		checkpointNanosLast = durationNanos;
+	}
+
+	public void recordCheckpointSnapshot(long durationNanos) {
+		snapshotNanosLast = durationNanos;
+	}
+
+	public void recordCheckpointSkipped() {
+		checkpointsSkipped.incrementAndGet();
+	}
+
+	public void recordFrame(long durationNanos) {
+		frames.incrementAndGet();
+		frameNanosLast = durationNanos;
+	}
+
+	public void recordFrameDropped() {
+		framesDropped.incrementAndGet();
+	}
+
+	/**
+	 * Renders all metrics in Prometheus text exposition format (version 0.0.4)
+	 */
+	public String toPrometheusText() {
+		StringBuilder sb = new StringBuilder();
+		metric(sb, "evonn_ticks_total", "counter", "Time steps executed by this process", ticks.get());
+		metric(sb, "evonn_time", "gauge", "Simulation time of the world", time);
+		metric(sb, "evonn_ticks_per_second", "gauge", "Time steps per second", ticksPerSecond);
+		metric(sb, "evonn_population", "gauge", "Living fish", population);
+		metric(sb, "evonn_food", "gauge", "Living pieces of food", food);
+		metric(sb, "evonn_energy_reserve", "gauge", "Energy not bound to any agent", energyReserve);
+		metric(sb, "evonn_energy_total", "gauge", "Energy of all agents and energy reserve", energyTotal);
+		metric(sb, "evonn_shortest_generation", "gauge", "Shortest generation among living fish", shortestGeneration);
+		metric(sb, "evonn_longest_generation", "gauge", "Longest generation among living fish", longestGeneration);
+		metric(sb, "evonn_mutations_total", "counter", "Brain mutations since the world was created", mutations);
+
+		header(sb, "evonn_checkpoint_duration_seconds", "summary", "Time spent serializing and writing checkpoints in background");
+		value(sb, "evonn_checkpoint_duration_seconds_count", null, checkpoints.get());
+		value(sb, "evonn_checkpoint_duration_seconds_sum", null, seconds(checkpointNanosTotal.get()));
+		metric(sb, "evonn_checkpoint_last_duration_seconds", "gauge", "Duration of the latest checkpoint", seconds(checkpointNanosLast));
+		metric(sb, "evonn_checkpoint_snapshot_last_duration_seconds", "gauge", "Simulation pause taken by the latest checkpoint", seconds(snapshotNanosLast));
+		metric(sb, "evonn_checkpoint_skipped_total", "counter", "Checkpoints skipped because the previous one was still being written", checkpointsSkipped.get());
+
+		metric(sb, "evonn_frames_recorded_total", "counter", "Frames drawn and encoded by the frame recorder", frames.get());
+		metric(sb, "evonn_frame_last_duration_seconds", "gauge", "Time spent drawing and encoding the latest frame", seconds(frameNanosLast));
+		metric(sb, "evonn_frames_dropped_total", "counter", "Frames dropped because encoders were behind", framesDropped.get());
+
+		header(sb, "jvm_gc_collections_total", "counter", "Garbage collections per collector");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			value(sb, "jvm_gc_collections_total", gc.getName(), gc.getCollectionCount());
+		}
+		header(sb, "jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection per collector");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			value(sb, "jvm_gc_collection_seconds_total", gc.getName(), gc.getCollectionTime() / 1000.0);
+		}
+		return sb.toString();
+	}
+
+	private static double seconds(long nanos) {
+		return nanos / (double) NANOS_PER_SECOND;
+	}
+
+	private static void metric(StringBuilder sb, String name, String type, String help, double value) {
+		header(sb, name, type, help);
+		value(sb, name, null, value);
+	}
+
+	private static void header(StringBuilder sb, String name, String type, String help) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void value(StringBuilder sb, String name, String gc, double value) {
+		sb.append(name);
+		if (gc != null) {
+			sb.append("{gc=\"").append(gc.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"}");
+		}
+		sb.append(' ');
+		if (value == Math.rint(value) && !Double.isInfinite(value)) {
+			sb.append((long) value);
+		} else {
+			sb.append(value);
+		}
+		sb.append('\n');
+	}
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.agent.evolution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.FertileAgent;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.FoodStore;
+
+/**
+ * Encodes states of the world as differences from the previous state, for
+ * viewers which keep the state themselves (see {@link StateStreamServer}).
+ * <br/>
+ * Agents are told apart by {@link AbstractAgent#getId()}. Positions are
+ * quantised to 16 bits per axis, relative to the world size, so small moves
+ * are not sent at all. <br/>
+ * Message (big-endian): type byte ({@value #KEYFRAME} - the whole state,
+ * {@value #DELTA} - differences), time, width and height of the world (int
+ * each), then four sections, each an int count followed by records: <br/>
+ * <ul>
+ * <li>births: id (int), kind (byte: {@value #KIND_FOOD} food,
+ * {@value #KIND_FISH} fish), x, y (unsigned short each), energy (int)</li>
+ * <li>deaths: id (int)</li>
+ * <li>moves: id (int), x, y (unsigned short each)</li>
+ * <li>energy changes: id (int), energy (int)</li>
+ * </ul>
+ * Keyframe has all agents as births and empty other sections. <br/>
+ * Not thread safe: states must be encoded one after another.
+ */
+public class StateStreamEncoder {
+	public static final byte KEYFRAME = 0;
+	public static final byte DELTA = 1;
+	public static final byte KIND_FOOD = 0;
+	public static final byte KIND_FISH = 1;
+
+	private static final int QUANTS = 1 << 16;
+
+	/**
+	 * State of the world at a tick boundary, quantised. Taken by the
+	 * simulation thread, encoded by another one
+	 */
+	public static class Capture {
+		final int time;
+		final int width;
+		final int height;
+		final int count;
+		final int[] id;
+		final byte[] kind;
+		final char[] x;
+		final char[] y;
+		final int[] energy;
+
+		Capture(Environment env) {
+			List<FertileAgent> fish = env.getFishes();
+			FoodStore food = env.getFoodStore();
+			int size = fish.size() + food.size();
+			this.time = (int) env.getTime();
+			this.width = env.getWidth();
+			this.height = env.getHeight();
+			this.id = new int[size];
+			this.kind = new byte[size];
+			this.x = new char[size];
+			this.y = new char[size];
+			this.energy = new int[size];
+			int count = 0;
+			for (FertileAgent agent : fish) {
+				id[count] = (int) agent.getId();
+				kind[count] = KIND_FISH;
+				x[count] = quantise(agent.getX(), width);
+				y[count] = quantise(agent.getY(), height);
+				energy[count] = agent.getEnergy();
+				count++;
+			}
+			// Food is read from the store, without views
+			for (int i = 0; i < food.size(); i++) {
+				if (!food.isAlive(i)) {
+					continue;
+				}
+				id[count] = (int) food.getId(i);
+				kind[count] = KIND_FOOD;
+				x[count] = quantise(food.getX(i), width);
+				y[count] = quantise(food.getY(i), height);
+				energy[count] = food.getEnergy(i);
+				count++;
+			}
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Last encoded state of an agent
+	 */
+	private static class Known {
+		final byte kind;
+		char x;
+		char y;
+		int energy;
+		int seen;
+
+		Known(byte kind) {
+			this.kind = kind;
+		}
+	}
+
+	private final Map<Integer, Known> known = new HashMap<Integer, Known>();
+	private int time;
+	private int width;
+	private int height;
+	// Number of the state being encoded, to find agents which are gone
+	private int state = 0;
+
+	/**
+	 * Must be called at the tick boundary, by the thread which runs the
+	 * simulation
+	 */
+	public static Capture capture(Environment env) {
+		return new Capture(env);
+	}
+
+	static char quantise(double coordinate, int size) {
+		return (char) Math.min(QUANTS - 1, Math.max(0, (int) (coordinate * QUANTS / size)));
+	}
+
+	/**
+	 * Differences of the state from the previously encoded one (from nothing,
+	 * for the first state)
+	 */
+	public byte[] encodeDelta(Capture capture) throws IOException {
+		state++;
+		List<Integer> births = new ArrayList<Integer>();
+		List<Integer> moves = new ArrayList<Integer>();
+		List<Integer> changes = new ArrayList<Integer>();
+		for (int i = 0; i < capture.count; i++) {
+			Known agent = known.get(capture.id[i]);
+			if (agent == null) {
+				agent = new Known(capture.kind[i]);
+				agent.x = capture.x[i];
+				agent.y = capture.y[i];
+				agent.energy = capture.energy[i];
+				known.put(capture.id[i], agent);
+				births.add(i);
+			} else {
+				if ((agent.x != capture.x[i]) || (agent.y != capture.y[i])) {
+					agent.x = capture.x[i];
+					agent.y = capture.y[i];
+					moves.add(i);
+				}
+				if (agent.energy != capture.energy[i]) {
+					agent.energy = capture.energy[i];
+					changes.add(i);
+				}
+			}
+			agent.seen = state;
+		}
+		List<Integer> deaths = new ArrayList<Integer>();
+		for (Iterator<Map.Entry<Integer, Known>> it = known.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Integer, Known> entry = it.next();
+			if (entry.getValue().seen != state) {
+				deaths.add(entry.getKey());
+				it.remove();
+			}
+		}
+		this.time = capture.time;
+		this.width = capture.width;
+		this.height = capture.height;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + births.size() * 13 + (deaths.size() + moves.size() + changes.size()) * 8);
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeHeader(out, DELTA);
+		out.writeInt(births.size());
+		for (int i : births) {
+			writeBirth(out, capture.id[i], capture.kind[i], capture.x[i], capture.y[i], capture.energy[i]);
+		}
+		out.writeInt(deaths.size());
+		for (int id : deaths) {
+			out.writeInt(id);
+		}
+		out.writeInt(moves.size());
+		for (int i : moves) {
+			out.writeInt(capture.id[i]);
+			out.writeChar(capture.x[i]);
+			out.writeChar(capture.y[i]);
+		}
+		out.writeInt(changes.size());
+		for (int i : changes) {
+			out.writeInt(capture.id[i]);
+			out.writeInt(capture.energy[i]);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * The whole previously encoded state, for viewers which join
+	 */
+	public byte[] encodeKeyframe() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + known.size() * 13);
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeHeader(out, KEYFRAME);
+		out.writeInt(known.size());
+		for (Map.Entry<Integer, Known> entry : known.entrySet()) {
+			Known agent = entry.getValue();
+			writeBirth(out, entry.getKey(), agent.kind, agent.x, agent.y, agent.energy);
+		}
+		// No deaths, moves and energy changes
+		out.writeInt(0);
+		out.writeInt(0);
+		out.writeInt(0);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private void writeHeader(DataOutputStream out, byte type) throws IOException {
+		out.writeByte(type);
+		out.writeInt(time);
+		out.writeInt(width);
+		out.writeInt(height);
+	}
+
+	private static void writeBirth(DataOutputStream out, int id, byte kind, char x, char y, int energy) throws IOException {
+		out.writeInt(id);
+		out.writeByte(kind);
+		out.writeChar(x);
+		out.writeChar(y);
+		out.writeInt(energy);
+	}
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.agent.evolution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lagodiuk.environment.Environment;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Streams the world to browsers on http://localhost:port/ (a canvas viewer)
+ * as messages of {@link StateStreamEncoder}, each preceded by its length
+ * (int), in a long lived response of http://localhost:port/stream <br/>
+ * Simulation thread only pays for a {@link StateStreamEncoder.Capture} of the
+ * world, at most a given number of times per second and only while somebody
+ * is watching. Encoding is done by a single encoder thread: when it is still
+ * busy with the previous state, the state is skipped. <br/>
+ * Every viewer starts with a keyframe and then gets deltas through a short
+ * queue. When a viewer can not keep up, its queue is dropped and it gets a
+ * keyframe again.
+ */
+public class StateStreamServer {
+	private static final String VIEWER_RESOURCE = "viewer.html";
+	private static final String VIEWER_CONTENT_TYPE = "text/html; charset=utf-8";
+	private static final String STREAM_CONTENT_TYPE = "application/octet-stream";
+	// Messages which may wait for a slow viewer
+	private static final int VIEWER_QUEUE_CAPACITY = 16;
+	// How often a waiting viewer checks whether the server is stopped
+	private static final long POLL_MILLIS = 500;
+
+	private static class Viewer {
+		final BlockingQueue<byte[]> messages = new ArrayBlockingQueue<byte[]>(VIEWER_QUEUE_CAPACITY);
+		volatile boolean needsKeyframe = true;
+	}
+
+	private final HttpServer server;
+	private final long minNanosBetweenStates;
+	private final List<Viewer> viewers = new CopyOnWriteArrayList<Viewer>();
+	private final StateStreamEncoder encoder = new StateStreamEncoder();
+	private final AtomicBoolean encoding = new AtomicBoolean(false);
+	private final ExecutorService encoderExecutor;
+	private final ExecutorService handlersExecutor;
+	private volatile boolean stopped = false;
+	private long lastPublished = 0;
+
+	/**
+	 * @param maxStatesPerSecond
+	 *            states of the world are streamed at most so often
+	 */
+	public StateStreamServer(int port, double maxStatesPerSecond) throws IOException {
+		if (maxStatesPerSecond <= 0) {
+			throw new IllegalArgumentException("Number of states per second must be positive");
+		}
+		this.minNanosBetweenStates = (long) (TimeUnit.SECONDS.toNanos(1) / maxStatesPerSecond);
+		this.encoderExecutor = Executors.newSingleThreadExecutor(daemonThreads("stream-encoder"));
+		// Streams are long lived, every one needs its own thread
+		this.handlersExecutor = Executors.newCachedThreadPool(daemonThreads("stream-viewer"));
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(handlersExecutor);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if (!"/".equals(exchange.getRequestURI().getPath())) {
+					exchange.sendResponseHeaders(404, -1);
+					exchange.close();
+					return;
+				}
+				byte[] body = readViewer();
+				exchange.getResponseHeaders().set("Content-Type", VIEWER_CONTENT_TYPE);
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.createContext("/stream", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				stream(exchange);
+			}
+		});
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static byte[] readViewer() throws IOException {
+		InputStream in = StateStreamServer.class.getResourceAsStream(VIEWER_RESOURCE);
+		if (in == null) {
+			throw new IOException("No " + VIEWER_RESOURCE + " on the classpath");
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private void stream(HttpExchange exchange) throws IOException {
+		Viewer viewer = new Viewer();
+		exchange.getResponseHeaders().set("Content-Type", STREAM_CONTENT_TYPE);
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		// Length 0: chunked, until the viewer goes away
+		exchange.sendResponseHeaders(200, 0);
+		DataOutputStream out = new DataOutputStream(exchange.getResponseBody());
+		viewers.add(viewer);
+		try {
+			while (!stopped) {
+				byte[] message = viewer.messages.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (message == null) {
+					continue;
+				}
+				out.writeInt(message.length);
+				out.write(message);
+				out.flush();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			viewers.remove(viewer);
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Streams the state of the world to viewers, if anybody watches and it is
+	 * time to. Must be called at the tick boundary, by the thread which runs
+	 * the simulation
+	 *
+	 * @return false if the state was skipped
+	 */
+	public boolean publish(Environment environment) {
+		if (viewers.isEmpty()) {
+			return false;
+		}
+		long now = System.nanoTime();
+		if ((lastPublished != 0) && (now - lastPublished < minNanosBetweenStates)) {
+			return false;
+		}
+		if (!encoding.compareAndSet(false, true)) {
+			// Encoder is still busy with the previous state
+			return false;
+		}
+		lastPublished = now;
+		final StateStreamEncoder.Capture capture = StateStreamEncoder.capture(environment);
+		encoderExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					send(capture);
+				} catch (Exception e) {
+					e.printStackTrace();
+				} finally {
+					encoding.set(false);
+				}
+			}
+		});
+		return true;
+	}
+
+	private void send(StateStreamEncoder.Capture capture) throws IOException {
+		byte[] delta = encoder.encodeDelta(capture);
+		byte[] keyframe = null;
+		for (Viewer viewer : viewers) {
+			if (viewer.needsKeyframe) {
+				if (keyframe == null) {
+					keyframe = encoder.encodeKeyframe();
+				}
+				// Keyframe replaces whatever the viewer has not got yet
+				viewer.messages.clear();
+				viewer.messages.offer(keyframe);
+				viewer.needsKeyframe = false;
+			} else if (!viewer.messages.offer(delta)) {
+				viewer.messages.clear();
+				viewer.needsKeyframe = true;
+			}
+		}
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		stopped = true;
+		server.stop(0);
+		encoderExecutor.shutdownNow();
+		handlersExecutor.shutdownNow();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Number of viewers watching
+	 */
+	public int getViewersCount() {
+		return viewers.size();
+	}
+}
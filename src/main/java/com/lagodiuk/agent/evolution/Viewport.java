@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.agent.evolution;
+
+/**
+ * Part of the world shown on screen: world point (left, top) is drawn at the
+ * top left pixel, and every unit of the world takes zoom pixels. <br/>
+ * As the world wraps around its borders, left and top may be anywhere.
+ * Immutable, so it is handed over between threads as it is.
+ */
+public class Viewport {
+	public static final double MIN_ZOOM = 1.0 / 64;
+	public static final double MAX_ZOOM = 8;
+
+	private final double left;
+	private final double top;
+	private final double zoom;
+	private final int width;
+	private final int height;
+
+	/**
+	 * @param width
+	 *            in pixels
+	 * @param height
+	 *            in pixels
+	 */
+	public Viewport(double left, double top, double zoom, int width, int height) {
+		this.left = left;
+		this.top = top;
+		this.zoom = Math.max(MIN_ZOOM, Math.min(zoom, MAX_ZOOM));
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Whole world, pixel per unit
+	 */
+	public static Viewport of(int worldWidth, int worldHeight) {
+		return new Viewport(0, 0, 1, worldWidth, worldHeight);
+	}
+
+	public double getLeft() {
+		return left;
+	}
+
+	public double getTop() {
+		return top;
+	}
+
+	public double getZoom() {
+		return zoom;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Width of the shown part of the world
+	 */
+	public double getWorldWidth() {
+		return width / zoom;
+	}
+
+	/**
+	 * Height of the shown part of the world
+	 */
+	public double getWorldHeight() {
+		return height / zoom;
+	}
+
+	public double toWorldX(double pixelX) {
+		return left + pixelX / zoom;
+	}
+
+	public double toWorldY(double pixelY) {
+		return top + pixelY / zoom;
+	}
+
+	/**
+	 * Moves the picture by the given number of pixels
+	 */
+	public Viewport panned(double dx, double dy) {
+		return new Viewport(left - dx / zoom, top - dy / zoom, zoom, width, height);
+	}
+
+	/**
+	 * Zooms by the factor, keeping the world point under the given pixel in
+	 * place
+	 */
+	public Viewport zoomed(double factor, double pixelX, double pixelY) {
+		double newZoom = Math.max(MIN_ZOOM, Math.min(zoom * factor, MAX_ZOOM));
+		return new Viewport(toWorldX(pixelX) - pixelX / newZoom, toWorldY(pixelY) - pixelY / newZoom, newZoom, width, height);
+	}
+}
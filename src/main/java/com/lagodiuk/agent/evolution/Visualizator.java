@@ -18,46 +18,84 @@ package com.lagodiuk.agent.evolution;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GridLayout;
+import java.awt.Point;
 import java.awt.RenderingHints;
+import java.awt.Shape;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.geom.Arc2D;
-import java.awt.image.BufferedImage;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.VolatileImage;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.prefs.Preferences;
 
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JSlider;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import com.lagodiuk.agent.AbstractAgent;
-import com.lagodiuk.agent.FertileAgent;
-import com.lagodiuk.agent.IAgent;
-import com.lagodiuk.agent.IFood;
-import com.lagodiuk.agent.MovingAgent;
 import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.PopulationStats;
+import com.lagodiuk.environment.SpatialIndex;
+import com.lagodiuk.environment.snapshot.RewindBuffer;
+import com.lagodiuk.environment.snapshot.WorldFiles;
 import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
-
+import com.lagodiuk.nn.serializing.binary.BrainArchive;
+
+/**
+ * Simulation and drawing run in different threads. The simulation thread
+ * calls {@link #timeStep()} in a loop: it runs the world and, when the
+ * renderer asks for it, publishes an immutable {@link RenderFrame} of the
+ * world at the tick boundary. The renderer draws the latest frame on the
+ * event dispatch thread at display rate. <br/>
+ * Requests from UI which change the world (load, rewind, selection) are
+ * handed over to the simulation thread as well. <br/>
+ * Worlds larger than the screen are shown through a {@link Viewport}: drag
+ * the world to move it, turn the mouse wheel to zoom. Frames hold only what
+ * is in the viewport. <br/>
+ * Click picks the nearest fish. Many fish are selected at once by dragging a
+ * rectangle with Shift held, or a lasso with Ctrl held, and brains of them
+ * are exported to a {@link BrainArchive}. Both are looked up in the
+ * {@link SpatialIndex} of the world, so they cost the same in any world.
+ */
 public class Visualizator {
 	private static final String PREFS_KEY_SAVE_DIRECTORY = "BrainsDirectory";
-
-	private Environment environment;
+	private static final int REFRESH_MILLIS = 16;
+	private static final int PAUSED_MILLIS = 15;
+	private static final int MAX_VIEW_WIDTH = 1470;
+	private static final int MAX_VIEW_HEIGHT = 850;
+	// Zoom factor of one notch of the mouse wheel
+	private static final double ZOOM_STEP = 1.25;
+	// Distance from click within which fish are picked
+	private static final double PICK_RANGE = 200;
+
+	private volatile Environment environment;
+	private volatile Viewport viewport;
 
 	private static JFrame appFrame;
 	private static JPanel environmentPanel;
@@ -65,55 +103,38 @@ public class Visualizator {
 	private static JButton playPauseButton;
 	private static JButton loadButton;
 	private static JButton saveButton;
+	private static JButton exportButton;
+	private static JSlider rewindSlider;
 	private static JLabel statusBar;
-	private static BufferedImage displayEnvironmentBufferedImage;
-	private static Graphics2D displayEnvironmentCanvas;
+	// Drawn on the event dispatch thread only
+	private static VolatileImage backBuffer;
+	private static RenderFrame shownFrame;
+	// Region being dragged, in pixels
+	private static Path2D draggedRegion;
 	private static JFileChooser fileChooser;
 	private static Preferences prefs;
 	volatile boolean play = true;
-	private int timeBetweenFrames = 5;
+	private volatile int timeBetweenFrames = 5;
 
-	private static NeuralNetworkDrivenAgent selectedAgent;
+	private final WorldPainter painter = new WorldPainter();
+	// Latest frame not drawn yet, handed over from simulation to renderer
+	private final AtomicReference<RenderFrame> frame = new AtomicReference<RenderFrame>();
+	private final AtomicBoolean frameRequested = new AtomicBoolean(true);
 
-	abstract private class Replicator {
-		abstract protected void action(int x, int y);
+	// Requests from UI, done by simulation thread
+	private final AtomicReference<Environment> loadedWorld = new AtomicReference<Environment>();
+	private final AtomicReference<Point2D> selectionPoint = new AtomicReference<Point2D>();
+	private final AtomicReference<Shape> selectionRegion = new AtomicReference<Shape>();
+	private final AtomicReference<Double> rewindRequest = new AtomicReference<Double>();
 
-		private void replicate(AbstractAgent agent, int distanceFromBorder) {
-			int x = (int) agent.getX();
-			int y = (int) agent.getY();
+	private RewindBuffer rewindBuffer;
+	private int rewindInterval;
+	private boolean rewound = false;
 
-			int envWidth = environment.getWidth();
-			int envHeight = environment.getHeight();
-
-			action(x, y);
-			// Replicate on the other sides of the boundaries
-			if (x - distanceFromBorder < 0) {
-				action(x + envWidth, y);
-			}
-			if (x + distanceFromBorder > envWidth) {
-				action(x - envWidth, y);
-			}
-			if (y - distanceFromBorder < 0) {
-				action(x, y + envHeight);
-			}
-			if (y + distanceFromBorder > envHeight) {
-				action(x, y - envHeight);
-			}
-			if (x - distanceFromBorder < 0 && y - distanceFromBorder < 0) {
-				action(x + envWidth, y + envHeight);
-			}
-
-			if (x + distanceFromBorder > envWidth && y - distanceFromBorder < 0) {
-				action(x - envWidth, y + envHeight);
-			}
-			if (x - distanceFromBorder < 0 && y + distanceFromBorder > envHeight) {
-				action(x + envWidth, y - envHeight);
-			}
-			if (x + distanceFromBorder > envWidth && y + distanceFromBorder > envHeight) {
-				action(x - envWidth, y - envHeight);
-			}
-		}
-	}
+	private volatile NeuralNetworkDrivenAgent selectedAgent;
+	private volatile List<NeuralNetworkDrivenAgent> selectedGroup = Collections.emptyList();
+	// Same fish as the selected group, for lookups by simulation thread
+	private Set<AbstractAgent> selectedGroupSet = Collections.emptySet();
 
 	public Visualizator(Environment environment) {
 		this.environment = environment;
@@ -123,12 +144,14 @@ public class Visualizator {
 		return environment;
 	}
 
-	private static void initializeCanvas(int environmentWidth, int environmentHeight) {
-		displayEnvironmentBufferedImage = new BufferedImage(environmentWidth, environmentHeight,
-				BufferedImage.TYPE_INT_RGB);
-
-		displayEnvironmentCanvas = (Graphics2D) displayEnvironmentBufferedImage.getGraphics();
-		displayEnvironmentCanvas.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+	/**
+	 * Keeps recent states of the world, captured every given number of time
+	 * steps, so the world can be rewound. Must be set before
+	 * {@link #initialize(int, int)}
+	 */
+	public void setRewindBuffer(RewindBuffer rewindBuffer, int rewindInterval) {
+		this.rewindBuffer = rewindBuffer;
+		this.rewindInterval = Math.max(1, rewindInterval);
 	}
 
 	private static void displayUI() {
@@ -181,7 +204,46 @@ public class Visualizator {
 		return speedSlider;
 	}
 
+	private JSlider createRewindSlider() {
+		JSlider slider = new JSlider(JSlider.HORIZONTAL, 0, 0, 0);
+		slider.setToolTipText("Rewind (when paused)");
+		slider.setPreferredSize(new Dimension(126, 20));
+		slider.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				JSlider source = (JSlider) e.getSource();
+				// Slider follows the world while it plays
+				if (!play && !source.getValueIsAdjusting() && (source.getValue() != (int) environment.getTime())) {
+					rewindRequest.set((double) source.getValue());
+				}
+			}
+		});
+		return slider;
+	}
+
+	private void updateRewindSlider() {
+		if (rewindBuffer == null) {
+			return;
+		}
+		final double oldest = rewindBuffer.getOldestTime();
+		final int time = (int) environment.getTime();
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (play && !Double.isNaN(oldest)) {
+					rewindSlider.setMinimum((int) oldest);
+					rewindSlider.setMaximum(Math.max(time, rewindSlider.getMaximum()));
+					rewindSlider.setValue(time);
+				}
+			}
+		});
+	}
+
 	private void initializeUI(int environmentWidth, int environmentHeight) {
+		int viewWidth = Math.min(environmentWidth, MAX_VIEW_WIDTH);
+		int viewHeight = Math.min(environmentHeight, MAX_VIEW_HEIGHT);
+		viewport = new Viewport(0, 0, 1, viewWidth, viewHeight);
+
 		int buttonWidth = 100;
 		int buttonHeight = 40;
 		int horButtonGap = 10;
@@ -190,25 +252,44 @@ public class Visualizator {
 		int horFrameGap = 20;
 
 		appFrame = new JFrame("Evolving neural network driven agents");
-		appFrame.setSize(environmentWidth + buttonWidth + horButtonGap * 2 + horFrameGap, environmentHeight + statusBarHeight);
+		appFrame.setSize(viewWidth + buttonWidth + horButtonGap * 2 + horFrameGap, viewHeight + statusBarHeight);
 		appFrame.setResizable(false);
 		appFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
 		appFrame.setLayout(new BorderLayout());
 
-		environmentPanel = new JPanel();
-		environmentPanel.setSize(environmentWidth, environmentHeight);
+		environmentPanel = new JPanel() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void paintComponent(Graphics g) {
+				super.paintComponent(g);
+				if ((backBuffer != null) && (backBuffer.validate(getGraphicsConfiguration()) != VolatileImage.IMAGE_OK)) {
+					// Contents of video memory were lost
+					drawBackBuffer();
+				}
+				if (backBuffer != null) {
+					g.drawImage(backBuffer, 0, 0, null);
+				}
+				if (draggedRegion != null) {
+					g.setColor(Color.ORANGE);
+					((Graphics2D) g).draw(draggedRegion);
+				}
+			}
+		};
+		environmentPanel.setSize(viewWidth, viewHeight);
 		appFrame.add(environmentPanel, BorderLayout.CENTER);
 
 		Dimension buttonSize = new Dimension(buttonWidth, buttonHeight);
-		int envHeight = environment.getHeight();
-		int buttonRows = (int) (envHeight / (buttonSize.getHeight() + verButtonGap + 5));
+		int buttonRows = (int) (viewHeight / (buttonSize.getHeight() + verButtonGap + 5));
 		controlsPanel = new JPanel();
 		appFrame.add(controlsPanel, BorderLayout.EAST);
 		controlsPanel.setLayout(new GridLayout(buttonRows, 1, horButtonGap, verButtonGap));
 
 		saveButton = addNewButton(controlsPanel, "Save", buttonSize, !play);
 		loadButton = addNewButton(controlsPanel, "Load", buttonSize, !play);
+		exportButton = addNewButton(controlsPanel, "Export", buttonSize, !play);
+		exportButton.setToolTipText("Export brains of fish selected by region");
 
 		statusBar = new JLabel();
 		statusBar.setPreferredSize(new Dimension(100, 16));
@@ -220,6 +301,8 @@ public class Visualizator {
 
 		JSlider speedSlider = createSpeedSlider();
 		controlsPanel.add(speedSlider, java.awt.BorderLayout.EAST);
+		rewindSlider = createRewindSlider();
+		controlsPanel.add(rewindSlider);
 		playPauseButton = addNewButton(controlsPanel, play ? "Pause" : "Start", buttonSize, true);
 	}
 
@@ -235,9 +318,7 @@ public class Visualizator {
 						File file = fileChooser.getSelectedFile();
 						prefs.put(PREFS_KEY_SAVE_DIRECTORY, file.getParent());
 
-						FileInputStream in = new FileInputStream(file);
-						environment = Environment.unmarshall(in);
-						in.close();
+						loadedWorld.set(WorldFiles.load(file));
 					} catch (Exception e) {
 						e.printStackTrace();
 					}
@@ -260,9 +341,7 @@ public class Visualizator {
 						File file = fileChooser.getSelectedFile();
 						prefs.put(PREFS_KEY_SAVE_DIRECTORY, file.getParent());
 
-						FileOutputStream out = new FileOutputStream(file);
-						Environment.marshall(environment, out);
-						out.close();
+						WorldFiles.save(environment.snapshot(), file);
 					} catch (Exception e) {
 						e.printStackTrace();
 					}
@@ -273,32 +352,150 @@ public class Visualizator {
 		});
 	}
 
+	private void initializeExportFunctionality() {
+		exportButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				List<NeuralNetworkDrivenAgent> group = selectedGroup;
+				if (group.isEmpty()) {
+					JOptionPane.showMessageDialog(appFrame, "Select fish first: drag a rectangle with Shift, or a lasso with Ctrl");
+					return;
+				}
+				disableControls();
+
+				int returnVal = fileChooser.showSaveDialog(appFrame);
+				if (returnVal == JFileChooser.APPROVE_OPTION) {
+					try {
+						File file = fileChooser.getSelectedFile();
+						prefs.put(PREFS_KEY_SAVE_DIRECTORY, file.getParent());
+
+						exportBrains(group, file);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+
+				enableControls();
+			}
+		});
+	}
+
+	/**
+	 * Appends brains of the fish to the archive (created, if there is no such
+	 * file). Equal brains are stored once.
+	 */
+	public static void exportBrains(List<NeuralNetworkDrivenAgent> fish, File file) throws IOException {
+		BrainArchive archive = new BrainArchive(file);
+		try {
+			long timestamp = System.currentTimeMillis();
+			for (NeuralNetworkDrivenAgent agent : fish) {
+				archive.append(agent.getBrain(), agent.getGeneration(), timestamp);
+			}
+		} finally {
+			archive.close();
+		}
+	}
+
 	private static void disableControls() {
 		loadButton.setEnabled(false);
 		saveButton.setEnabled(false);
+		exportButton.setEnabled(false);
 	}
 
 	private void enableControls() {
 		loadButton.setEnabled(!play);
 		saveButton.setEnabled(!play);
+		exportButton.setEnabled(!play);
+		rewindSlider.setEnabled(!play && (rewindBuffer != null));
 	}
 
 	private void initializeAddingFoodFunctionality() {
 		environmentPanel.addMouseListener(new MouseAdapter() {
 			@Override
 			public void mouseClicked(MouseEvent click) {
-				int x = click.getX();
-				int y = click.getY();
+				if (click.isShiftDown() || click.isControlDown()) {
+					// Region selection
+					return;
+				}
+				Environment env = environment;
+				double x = Math.floorMod((long) Math.floor(viewport.toWorldX(click.getX())), env.getWidth());
+				double y = Math.floorMod((long) Math.floor(viewport.toWorldY(click.getY())), env.getHeight());
 
 				if (SwingUtilities.isLeftMouseButton(click)) {
-					setSelectedAgent(x, y);
+					selectionPoint.set(new Point2D.Double(x, y));
 				} else if (SwingUtilities.isRightMouseButton(click)) {
-					environment.seedFood(x, y);
+					env.seedFood((int) x, (int) y);
 				}
 			}
 		});
 	}
 
+	private void initializeViewportFunctionality() {
+		MouseAdapter adapter = new MouseAdapter() {
+			private Point dragged;
+			private Point regionStart;
+			private boolean lasso;
+
+			@Override
+			public void mousePressed(MouseEvent press) {
+				if (!SwingUtilities.isLeftMouseButton(press)) {
+					return;
+				}
+				if (press.isShiftDown() || press.isControlDown()) {
+					regionStart = press.getPoint();
+					lasso = press.isControlDown();
+					draggedRegion = new Path2D.Double();
+					draggedRegion.moveTo(press.getX(), press.getY());
+				} else {
+					dragged = press.getPoint();
+				}
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent drag) {
+				if (regionStart != null) {
+					if (lasso) {
+						draggedRegion.lineTo(drag.getX(), drag.getY());
+					} else {
+						draggedRegion = new Path2D.Double(new Rectangle2D.Double(Math.min(regionStart.getX(), drag.getX()),
+								Math.min(regionStart.getY(), drag.getY()), Math.abs(drag.getX() - regionStart.getX()),
+								Math.abs(drag.getY() - regionStart.getY())));
+					}
+					environmentPanel.repaint();
+				} else if (dragged != null) {
+					viewport = viewport.panned(drag.getX() - dragged.getX(), drag.getY() - dragged.getY());
+					dragged = drag.getPoint();
+				}
+			}
+
+			@Override
+			public void mouseReleased(MouseEvent release) {
+				if (regionStart != null) {
+					draggedRegion.closePath();
+					// Region in the world, as seen from the viewport
+					Viewport view = viewport;
+					AffineTransform toWorld = new AffineTransform();
+					toWorld.translate(view.getLeft(), view.getTop());
+					toWorld.scale(1 / view.getZoom(), 1 / view.getZoom());
+					selectionRegion.set(toWorld.createTransformedShape(draggedRegion));
+					draggedRegion = null;
+					regionStart = null;
+					environmentPanel.repaint();
+				}
+				dragged = null;
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent wheel) {
+				double factor = Math.pow(ZOOM_STEP, -wheel.getPreciseWheelRotation());
+				viewport = viewport.zoomed(factor, wheel.getX(), wheel.getY());
+			}
+		};
+		environmentPanel.addMouseListener(adapter);
+		environmentPanel.addMouseMotionListener(adapter);
+		environmentPanel.addMouseWheelListener(adapter);
+	}
+
 	private void initializePlayPauseButtonFunctionality() {
 		playPauseButton.addActionListener(new ActionListener() {
 			@Override
@@ -314,52 +511,28 @@ public class Visualizator {
 		});
 	}
 
-	private void updateStatusBar(Environment env) {
-		int countFishes = 0;
-		int countFood = 0;
-		int energyReserve = env.getEnergyReserve();
-		int countEnergy = env.countEnergy();
-		int longestGeneration = 0;
-		int shortestGeneration = Integer.MAX_VALUE;
-		HashMap<Integer, Integer> generationCountMap = new HashMap<>();
-		for (IAgent agent : env.getAgents()) {
-			if (agent instanceof IFood) {
-				countFood++;
-			} else if (agent instanceof FertileAgent) {
-				countFishes++;
-				if (agent instanceof NeuralNetworkDrivenAgent) {
-					int generation = ((NeuralNetworkDrivenAgent) agent).getGeneration();
-					longestGeneration = Math.max(generation, longestGeneration);
-					shortestGeneration = Math.min(generation, shortestGeneration);
-					Integer count = generationCountMap.get(generation);
-					if (count == null) {
-						count = 0;
+	private String statusText(Environment env) {
+		PopulationStats stats = env.getStats();
+		String generationStatus = "";
+		if (stats.getMaxGeneration() >= 0) {
+			int shortest = stats.getMinGeneration();
+			int longest = stats.getMaxGeneration();
+			StringBuilder biggest = new StringBuilder();
+			for (int generation = shortest; generation <= longest; generation++) {
+				if (stats.getGenerationCount(generation) == stats.getBiggestGenerationCount()) {
+					if (biggest.length() > 0) {
+						biggest.append(", ");
 					}
-					count++;
-					generationCountMap.put(generation, count);
+					biggest.append(generation).append('(').append(stats.getGenerationCount(generation)).append(" fish)");
 				}
 			}
-		}
-		String biggestGenerationStr = "";
-		int biggestCount = 0;
-		for (Entry<Integer, Integer> entry : generationCountMap.entrySet()) {
-			Integer gen = entry.getKey();
-			Integer count = entry.getValue();
-			if (count >= biggestCount) {
-				if (count > biggestCount) {
-					biggestGenerationStr = "" + gen + "(" + count + " fish)";
-				} else {
-					biggestGenerationStr = biggestGenerationStr + ", " + gen + "(" + count + " fish)";
-				}
-				biggestCount = count;
-			}
-		}
-		String generationStatus = "";
-		if (countFishes > 0) {
 			generationStatus = ",   Shortest/Biggest/Longest Generation: "
-							+ shortestGeneration + "(" + generationCountMap.get(shortestGeneration) + " fish)" + "/"
-							+ biggestGenerationStr + "/" + longestGeneration + "(" + generationCountMap.get(longestGeneration)
-							+ " fish)";
+							+ shortest + "(" + stats.getGenerationCount(shortest) + " fish)" + "/"
+							+ biggest + "/" + longest + "(" + stats.getGenerationCount(longest) + " fish)";
+		}
+		String groupStatus = "";
+		if (!selectedGroup.isEmpty()) {
+			groupStatus = ",  Group: " + selectedGroup.size() + " fish";
 		}
 		String selectedStatus = "";
 		if (selectedAgent != null) {
@@ -367,297 +540,196 @@ public class Visualizator {
 					+ ", generation=" + selectedAgent.getGeneration()
 					+ ", mommy energy=" + selectedAgent.getParentingEnergy() + ", child energy=" + selectedAgent.getNewbornEnergy() + ", fertile=" + selectedAgent.isFertile();
 		}
-		statusBar.setText("Time: " + (int) env.getTime() + ",   Energy Total: " + countEnergy + ",   Energy Reserve: "
-				+ energyReserve + ",   Food: " + countFood + ",   Fishes: " + countFishes + ",   Mutations: "
-				+ NeuralNetworkDrivenAgent.getMutationCount() + generationStatus + selectedStatus);
+		return "Time: " + (int) env.getTime() + ",   Energy Total: " + stats.getTotalEnergy() + ",   Energy Reserve: "
+				+ stats.getEnergyReserve() + ",   Food: " + stats.getFoodCount() + ",   Fishes: " + stats.getFishCount() + ",   Mutations: "
+				+ NeuralNetworkDrivenAgent.getMutationCount() + generationStatus + selectedStatus + groupStatus;
 	}
 
 	public NeuralNetworkDrivenAgent getSelectedAgent() {
 		return selectedAgent;
 	}
 
+	/**
+	 * Selects the fish nearest to the point, if it is close enough, or
+	 * nothing. Must be called by the thread which runs the simulation
+	 */
 	public void setSelectedAgent(double x, double y) {
-		double min = Double.MAX_VALUE;
-		NeuralNetworkDrivenAgent closestAgent = null;
-		for (IAgent agent : getEnvironment().getAgents()) {
-			if (agent instanceof NeuralNetworkDrivenAgent) {
-				double dx = x - agent.getX();
-				double dy = y - agent.getY();
-				double distFactor = dx * dx + dy * dy;
-				if (distFactor < min) {
-					min = distFactor;
-					closestAgent = (NeuralNetworkDrivenAgent) agent;
-				}
-			}
-		}
-		double dist = Math.sqrt(min);
-		double range = 2 * closestAgent.getRadius() + 200;
-		if (dist <= range) {
-			selectedAgent = closestAgent;
-		} else {
-			selectedAgent = null;
-		}
-	}
-
-	private Color getColorFood() {
-		Color colorFood = new Color(255, 255, 0);
-		return colorFood;
-	}
-
-	private Color getColorRadar(FertileAgent agent) {
-		Color colorRadar = null;
-		if (agent == selectedAgent) {
-			colorRadar = new Color(0x4c, 0xaf, 0x50);
-		}
-		return colorRadar;
+		SpatialIndex index = getEnvironment().getSpatialIndex();
+		selectedAgent = (NeuralNetworkDrivenAgent) index.nearest(x, y, PICK_RANGE, NeuralNetworkDrivenAgent.class);
+	}
+
+	public List<NeuralNetworkDrivenAgent> getSelectedGroup() {
+		return selectedGroup;
+	}
+
+	/**
+	 * Selects all fish inside of the region (which may reach over the borders
+	 * of the world), or nobody when the region is empty. Must be called by
+	 * the thread which runs the simulation
+	 */
+	public void setSelectedGroup(final Shape region) {
+		final List<NeuralNetworkDrivenAgent> group = new ArrayList<NeuralNetworkDrivenAgent>();
+		final Set<AbstractAgent> groupSet = Collections.newSetFromMap(new IdentityHashMap<AbstractAgent, Boolean>());
+		Rectangle2D bounds = region.getBounds2D();
+		getEnvironment().getSpatialIndex().query(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(),
+				new SpatialIndex.Visitor() {
+					@Override
+					public void visit(AbstractAgent agent, double x, double y) {
+						if ((agent instanceof NeuralNetworkDrivenAgent) && region.contains(x, y) && groupSet.add(agent)) {
+							group.add((NeuralNetworkDrivenAgent) agent);
+						}
+					}
+				}, null);
+		selectedGroupSet = groupSet;
+		selectedGroup = Collections.unmodifiableList(group);
 	}
 
-	private Color getColorBody(FertileAgent agent) {
-		Color colorBody = Color.GRAY;
-		if (!agent.isAlive()) {
-			colorBody = Color.BLACK;
-		} else if (agent.isFertile()) {
-			int greenness = 255 * agent.getEnergy() / (agent.getParentingEnergy() + agent.getNewbornEnergy());
-			int red = Math.max(255 - greenness, 0);
-			int green = Math.min(greenness, 255);
-			colorBody = new Color(red, green, 0);
-		}
-		return colorBody;
+	private void clearSelection() {
+		selectedAgent = null;
+		selectedGroupSet = Collections.emptySet();
+		selectedGroup = Collections.emptyList();
 	}
 
-	private Color colorBodyOutline(FertileAgent agent) {
-		Color colorBodyOutline = Color.GRAY;
-		if (!agent.isAlive()) {
-			colorBodyOutline = Color.WHITE;
-		} else if (agent.isFertile()) {
-			int agentEnergy = agent.getEnergy();
-			if (agentEnergy <= 1) {
-				colorBodyOutline = Color.RED;
-			} else if (agentEnergy >= (agent.getParentingEnergy() + agent.getNewbornEnergy())) {
-				colorBodyOutline = Color.GREEN;
-			} else {
-				colorBodyOutline = Color.WHITE;
-			}
-		} else if (agent.getRadius() > 2) {
-			colorBodyOutline = Color.LIGHT_GRAY;
-		}
-		return colorBodyOutline;
+	/**
+	 * Draws the whole world as it is now, pixel per unit. Must be called by
+	 * the thread which runs the simulation
+	 */
+	public void paintEnvironment(Graphics2D canvas) {
+		painter.paint(canvas, createFrame(Viewport.of(environment.getWidth(), environment.getHeight())));
 	}
 
-	private Color getColorFlag(FertileAgent agent) {
-		Color colorFlag = null;
-		if (agent instanceof NeuralNetworkDrivenAgent) {
-			final int maxGeneration = environment.getLongestGeneration();
-			int generation = ((NeuralNetworkDrivenAgent) agent).getGeneration();
-			if (agent == selectedAgent) {
-				colorFlag = Color.CYAN;
-			} else if (generation == maxGeneration) {
-				colorFlag = Color.MAGENTA;
-			}
+	private RenderFrame createFrame(Viewport viewport) {
+		if ((selectedAgent != null) && !selectedAgent.isAlive()) {
+			selectedAgent = null;
 		}
-		return colorFlag;
+		return RenderFrame.of(environment, selectedAgent, selectedGroupSet, statusText(environment), viewport);
 	}
 
-	private void markFood(Graphics2D canvas, AbstractAgent food, Color color) {
-		if (food != null) {
-			canvas.setColor(color);
-			// Small triangle flag
-			int x0 = (int) food.getX();
-			int y0 = (int) food.getY() - (int)food.getRadius()*2 - 1;
-			int x1 = x0;
-			int y1 = y0 - 8;
-			int x2 = x0 + 6;
-			int y2 = y0 - 6;
-			int x3 = x0;
-			int y3 = y0 - 4;
-			canvas.drawLine(x0, y0, x1, y1);
-			canvas.drawLine(x1, y1, x2, y2);
-			canvas.drawLine(x3, y3, x2, y2);
+	/**
+	 * Draws the latest published frame, if there is a new one. Runs on the
+	 * event dispatch thread
+	 */
+	private void render() {
+		RenderFrame latest = frame.getAndSet(null);
+		if (latest == null) {
+			return;
 		}
-	}
-
-	private void drawFood(Graphics2D canvas) {
-		Color colorFood = getColorFood();
-		canvas.setColor(colorFood);
-		for (IFood food : environment.getFood()) {
-			int x = (int) food.getX();
-			int y = (int) food.getY();
-			int foodRadius = (int) food.getRadius();
-
-			canvas.fillOval(x - foodRadius, y - foodRadius, foodRadius * 2, foodRadius * 2);
+		shownFrame = latest;
+		drawBackBuffer();
+		statusBar.setText(latest.status);
+		environmentPanel.repaint();
+		frameRequested.set(true);
+	}
+
+	/**
+	 * Draws the shown frame into the back buffer, which lives in video memory
+	 * where possible
+	 */
+	private void drawBackBuffer() {
+		if (shownFrame == null) {
+			return;
 		}
-	}
-
-	private void drawRadar(Graphics2D canvas, FertileAgent agent) {
-		Replicator radarReplicator = new Replicator() {
-			Color colorRadar = getColorRadar(agent);
-
-			@Override
-			public void action(int x, int y) {
-				canvas.setColor(colorRadar);
-				double diameterArc = NeuralNetworkDrivenAgent.EYESIGHT_DISTANCE * 2;
-				double xArc = x - diameterArc / 2;
-				double yArc = y - diameterArc / 2;
-				int startingAngleArc = -(int) ((agent.getAngle() + NeuralNetworkDrivenAgent.EYSIGHT_ANGLE) * 180 / Math.PI);
-				int extentAngleArc = (int) (NeuralNetworkDrivenAgent.EYSIGHT_ANGLE * 2 * 180 / Math.PI);
-				Arc2D arc = new Arc2D.Double(xArc, yArc, diameterArc, diameterArc, startingAngleArc, extentAngleArc, Arc2D.PIE);
-				canvas.fill(arc);
+		do {
+			if ((backBuffer == null) || (backBuffer.getWidth() != shownFrame.viewWidth) || (backBuffer.getHeight() != shownFrame.viewHeight)
+					|| (backBuffer.validate(environmentPanel.getGraphicsConfiguration()) == VolatileImage.IMAGE_INCOMPATIBLE)) {
+				backBuffer = environmentPanel.createVolatileImage(shownFrame.viewWidth, shownFrame.viewHeight);
+				if (backBuffer == null) {
+					// Panel is not displayable yet
+					return;
+				}
 			}
-		};
-		radarReplicator.replicate(agent, (int) NeuralNetworkDrivenAgent.EYESIGHT_DISTANCE);
+			Graphics2D canvas = backBuffer.createGraphics();
+			try {
+				canvas.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+				painter.paint(canvas, shownFrame);
+			} finally {
+				canvas.dispose();
+			}
+		} while (backBuffer.contentsLost());
 	}
 
-	private void markAgent(Graphics2D canvas, MovingAgent agent, int x, int y, Color color) {
-		int agentRadius = (int) agent.getRadius();
-		canvas.setColor(color);
-		{
-			// Big triangle flag
-			int triX1 = x;
-			int triY1 = y - agentRadius - 16;
-			int triX2 = x + 10;
-			int triY2 = triY1 + 4;
-			int triX3 = x;
-			int triY3 = triY2 + 4;
-			canvas.drawLine(x, y - agentRadius, triX1, triY1);
-			canvas.drawLine(triX1, triY1, triX2, triY2);
-			canvas.drawLine(triX3, triY3, triX2, triY2);
+	/**
+	 * One iteration of the simulation thread: takes requests from UI, runs
+	 * the world one time step (unless paused), and publishes a frame when
+	 * renderer is ready for it
+	 */
+	public void timeStep() throws InterruptedException {
+		Environment loaded = loadedWorld.getAndSet(null);
+		if (loaded != null) {
+			// Loaded world is not derivable, so the journal continues with its
+			// keyframe
+			loaded.setJournal(environment.getJournal());
+			environment = loaded;
+			clearSelection();
+			if (rewindBuffer != null) {
+				rewindBuffer.clear();
+			}
 		}
-		{
-			// Small triangle flag inside the big one
-			int triX1 = x;
-			int triY1 = y - agentRadius - 14;
-			int triX2 = x + 6;
-			int triY2 = triY1 + 2;
-			int triX3 = x;
-			int triY3 = triY2 + 2;
-			canvas.drawLine(x, y - agentRadius, triX1, triY1);
-			canvas.drawLine(triX1, triY1, triX2, triY2);
-			canvas.drawLine(triX3, triY3, triX2, triY2);
+		Double time = rewindRequest.getAndSet(null);
+		if (time != null) {
+			rewind(time);
 		}
-	}
-
-	private void drawAgentBody(Graphics2D canvas, FertileAgent agent, int x, int y, Color colorBody, Color colorBodyOutline) {
-		int agentRadius = (int) agent.getRadius();
-		canvas.setColor(colorBody);
-		canvas.fillOval(x - agentRadius, y - agentRadius, agentRadius * 2, agentRadius * 2);
-		canvas.setColor(colorBodyOutline);
-		canvas.drawOval(x - agentRadius, y - agentRadius, agentRadius * 2, agentRadius * 2);
-	}
-
-	private void drawAgentEye(Graphics2D canvas, MovingAgent agent, double theta) {
-		int radiusEyeBase = (int) agent.getRadius() - 1;
-		int radiusEye = 1;
-		int diameterEye = radiusEye * 2;
-		double angleEye = agent.getAngle() + theta;
-		double rx = Math.cos(angleEye);
-		int x = (int) (rx * radiusEyeBase + agent.getX() - radiusEye);
-		double ry = Math.sin(angleEye);
-		int y = (int) (ry * radiusEyeBase + agent.getY() - radiusEye);
-
-		canvas.drawOval(x, y, diameterEye, diameterEye);
-	}
-
-	private void drawAgentTail(Graphics2D canvas, FertileAgent agent, int x, int y) {
-		int signSpeed = -(int) Math.signum(agent.getSpeed());
-		double agentRadius = agent.getRadius();
-		int rx = (int) ((agent.getRx() * (agentRadius + 4) * signSpeed) + x);
-		int ry = (int) ((agent.getRy() * (agentRadius + 4) * signSpeed) + y);
-
-		canvas.drawLine(x, y, rx, ry);
-	}
-
-	private void replicateAgentAt(Graphics2D canvas, FertileAgent agent, int x, int y, Color colorBody, Color colorBodyOutline, Color colorFlag) {
-		drawAgentBody(canvas, agent, x, y, colorBody, colorBodyOutline);
-		canvas.setColor(colorBodyOutline);
-		drawAgentEye(canvas, agent, 0.3);
-		drawAgentEye(canvas, agent, -0.3);
-		drawAgentTail(canvas, agent, x, y);
-
-		if (colorFlag != null) {
-			markAgent(canvas, agent, x, y, colorFlag);
+		Point2D point = selectionPoint.getAndSet(null);
+		if (point != null) {
+			setSelectedAgent(point.getX(), point.getY());
+		}
+		Shape region = selectionRegion.getAndSet(null);
+		if (region != null) {
+			setSelectedGroup(region);
 		}
-	}
-
-	private void drawAgent(Graphics2D canvas, FertileAgent agent) {
-		Color colorBody = getColorBody(agent);
-		Color colorBodyOutline = colorBodyOutline(agent);
-		Color colorFlag = getColorFlag(agent);
 
-		Replicator agentReplicator = new Replicator() {
-			@Override
-			public void action(int x, int y) {
-				replicateAgentAt(canvas, agent, x, y, colorBody, colorBodyOutline, colorFlag);
+		if (play) {
+			if (rewound) {
+				// Frames after the rewound time are another history now
+				rewindBuffer.discardAfter(environment.getTime());
+				rewound = false;
 			}
-		};
-		int distanceFromBorder = (int) (agent.getRadius() * 3);
-		agentReplicator.replicate(agent, distanceFromBorder);
-
-		if (colorFlag != null) {
-			if (agent instanceof NeuralNetworkDrivenAgent) {
-				boolean closest = true;
-				for (AbstractAgent food : ((NeuralNetworkDrivenAgent) agent).getFoodInSight()) {
-					if (closest) {
-						markFood(canvas, food, Color.WHITE);
-						closest = false;
-					} else {
-						markFood(canvas, food, colorFlag);
-					}
-				}
+			environment.timeStep();
+			if ((rewindBuffer != null) && ((long) environment.getTime() % rewindInterval == 0)) {
+				rewindBuffer.capture(environment);
 			}
+			updateRewindSlider();
 		}
-	}
 
-	private void drawAgents(Graphics2D canvas) {
-		List<FertileAgent> agents = environment.getFishes();
-		if (agents.contains(selectedAgent)) {
-			drawRadar(canvas, selectedAgent);
+		if (frameRequested.compareAndSet(true, false)) {
+			frame.set(createFrame(viewport));
 		}
-		for (FertileAgent agent : agents) {
-			if (agent != selectedAgent) {
-				drawAgent(canvas, agent);
-			}
-		}
-		if (agents.contains(selectedAgent)) {
-			drawAgent(canvas, selectedAgent);
-		} else {
-			selectedAgent = null;
+		int sleep = play ? timeBetweenFrames : PAUSED_MILLIS;
+		if (sleep > 0) {
+			Thread.sleep(sleep);
 		}
 	}
 
-	public void paintEnvironment(Graphics2D canvas) {
-		canvas.clearRect(0, 0, environment.getWidth(), environment.getHeight());
-
-		drawAgents(canvas);
-		drawFood(canvas);
-	}
-
-	public void paintEnvironment() throws InterruptedException {
-		paintEnvironment(displayEnvironmentCanvas);
-		updateStatusBar(environment);
-		SwingUtilities.invokeLater(new Runnable() {
-			@Override
-			public void run() {
-				environmentPanel.getGraphics().drawImage(displayEnvironmentBufferedImage, 0, 0, null);
-			}
-		});
-		Thread.sleep(play ? timeBetweenFrames : 150);
-	}
-
-	public void timeStep() throws InterruptedException {
-		if (play) {
-			environment.timeStep();
+	private void rewind(double time) {
+		try {
+			Environment restored = rewindBuffer.restore(time);
+			// Rewound world is not derivable, so the journal continues with
+			// its keyframe
+			restored.setJournal(environment.getJournal());
+			environment = restored;
+			clearSelection();
+			rewound = true;
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
-		paintEnvironment();
 	}
 
 	public void initialize(int environmentWidth, int environmentHeight) {
-		initializeCanvas(environmentWidth, environmentHeight);
 		initializeUI(environmentWidth, environmentHeight);
 		initializePlayPauseButtonFunctionality();
 		initializeAddingFoodFunctionality();
+		initializeViewportFunctionality();
 		initializeLoadFunctionality();
 		initializeSaveFunctionality();
+		initializeExportFunctionality();
 		displayUI();
 		enableControls();
+
+		new Timer(REFRESH_MILLIS, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				render();
+			}
+		}).start();
 	}
 }
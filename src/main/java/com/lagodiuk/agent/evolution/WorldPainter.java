@@ -0,0 +1,450 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.agent.evolution;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Arc2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+
+/**
+ * Draws {@link RenderFrame}s. Needs nothing but the frame, so it may run in
+ * any thread (one thread at a time). The canvas is the size of the viewport
+ * of the frame, and world coordinates are scaled to it. <br/>
+ * Bodies of fish are drawn from sprites, pre-rendered once for every size and
+ * pair of colors, so drawing a fish is an image copy (accelerated when the
+ * canvas is a {@link java.awt.image.VolatileImage}) plus a few lines. All
+ * food, and marks of food seen by flagged fish, is drawn in one pass straight
+ * into the pixels of a layer, from pre-rendered pixels of every size, and the
+ * layer is copied to the canvas at once. <br/>
+ * When the frame is a heat map, its tiles are filled into the same layer,
+ * yellow by density of food and red by density of fish, relative to the
+ * densest tile in view. <br/>
+ * Colors are created once and reused.
+ */
+public class WorldPainter {
+	private static final Color COLOR_FOOD = new Color(255, 255, 0);
+	private static final Color COLOR_RADAR = new Color(0x4c, 0xaf, 0x50);
+	private static final Color[] COLORS_BODY_FERTILE = new Color[256];
+
+	static {
+		for (int greenness = 0; greenness < COLORS_BODY_FERTILE.length; greenness++) {
+			COLORS_BODY_FERTILE[greenness] = new Color(255 - greenness, greenness, 0);
+		}
+	}
+
+	// Sprites are dropped all at once when there are too many of them
+	private static final int MAX_SPRITES = 4096;
+	// Samples per pixel side for coverage of food masks
+	private static final int MASK_SAMPLES = 4;
+
+	private final Map<Long, BufferedImage> bodySprites = new HashMap<Long, BufferedImage>();
+	private final Map<Integer, Sprite> foodSprites = new HashMap<Integer, Sprite>();
+	private final Map<Color, Sprite> markSprites = new HashMap<Color, Sprite>();
+	private BufferedImage foodLayer;
+	private int[] foodPixels;
+
+	public void paint(Graphics2D canvas, RenderFrame frame) {
+		canvas.clearRect(0, 0, frame.viewWidth, frame.viewHeight);
+
+		if (frame.heatMap) {
+			drawLayer(canvas, frame);
+			drawAgents(canvas, frame);
+		} else {
+			drawAgents(canvas, frame);
+			drawLayer(canvas, frame);
+		}
+	}
+
+	private static int screenX(RenderFrame frame, double x) {
+		return (int) Math.floor((x - frame.viewLeft) * frame.zoom);
+	}
+
+	private static int screenY(RenderFrame frame, double y) {
+		return (int) Math.floor((y - frame.viewTop) * frame.zoom);
+	}
+
+	/**
+	 * Size on screen, at least a pixel
+	 */
+	private static int screenSize(RenderFrame frame, double size) {
+		return Math.max(1, (int) (size * frame.zoom));
+	}
+
+	private static boolean isFertile(RenderFrame frame, int i) {
+		return frame.fishNewbornEnergy[i] > 0 && frame.fishParentingEnergy[i] > 0;
+	}
+
+	private Color getColorBody(RenderFrame frame, int i) {
+		Color colorBody = Color.GRAY;
+		if (isFertile(frame, i)) {
+			int greenness = 255 * frame.fishEnergy[i] / (frame.fishParentingEnergy[i] + frame.fishNewbornEnergy[i]);
+			colorBody = COLORS_BODY_FERTILE[Math.max(0, Math.min(greenness, 255))];
+		}
+		return colorBody;
+	}
+
+	private Color colorBodyOutline(RenderFrame frame, int i) {
+		Color colorBodyOutline = Color.GRAY;
+		if (isFertile(frame, i)) {
+			int agentEnergy = frame.fishEnergy[i];
+			if (agentEnergy <= 1) {
+				colorBodyOutline = Color.RED;
+			} else if (agentEnergy >= (frame.fishParentingEnergy[i] + frame.fishNewbornEnergy[i])) {
+				colorBodyOutline = Color.GREEN;
+			} else {
+				colorBodyOutline = Color.WHITE;
+			}
+		} else if (frame.fishRadius[i] > 2) {
+			colorBodyOutline = Color.LIGHT_GRAY;
+		}
+		return colorBodyOutline;
+	}
+
+	private Color getColorFlag(byte flag) {
+		if (flag == RenderFrame.FLAG_SELECTED) {
+			return Color.CYAN;
+		} else if (flag == RenderFrame.FLAG_LEADER) {
+			return Color.MAGENTA;
+		} else if (flag == RenderFrame.FLAG_GROUP) {
+			return Color.ORANGE;
+		}
+		return null;
+	}
+
+	/**
+	 * Draws food, and marks of food seen by flagged fish under it, or tiles of
+	 * the heat map, into the layer, then copies the layer to the canvas
+	 */
+	private void drawLayer(Graphics2D canvas, RenderFrame frame) {
+		int width = frame.viewWidth;
+		int height = frame.viewHeight;
+		if ((foodLayer == null) || (foodLayer.getWidth() != width) || (foodLayer.getHeight() != height)) {
+			foodLayer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+			foodPixels = ((DataBufferInt) foodLayer.getRaster().getDataBuffer()).getData();
+		}
+		Arrays.fill(foodPixels, 0);
+		if (frame.heatMap) {
+			fillTiles(frame);
+		} else {
+			stampFood(frame);
+		}
+		canvas.drawImage(foodLayer, 0, 0, null);
+	}
+
+	private void stampFood(RenderFrame frame) {
+		int width = frame.viewWidth;
+		int height = frame.viewHeight;
+		for (int mark = 0; mark < frame.marksCount; mark++) {
+			Sprite sprite = markSprite(frame.markClosest[mark] ? Color.WHITE : getColorFlag(frame.markFlag[mark]));
+			int x = screenX(frame, frame.markX[mark]);
+			int y = screenY(frame, frame.markY[mark]) - (int) (frame.markRadius[mark] * frame.zoom) * 2 - 1;
+			stamp(sprite, x, y, width, height);
+		}
+		for (int i = 0; i < frame.foodCount; i++) {
+			if ((int) frame.foodRadius[i] <= 0) {
+				continue;
+			}
+			int foodRadius = screenSize(frame, (int) frame.foodRadius[i]);
+			stamp(foodSprite(foodRadius), screenX(frame, frame.foodX[i]), screenY(frame, frame.foodY[i]), width, height);
+		}
+	}
+
+	private void fillTiles(RenderFrame frame) {
+		double maxFish = 0;
+		double maxFood = 0;
+		for (int tile = 0; tile < frame.tilesCount; tile++) {
+			double area = frame.tileWidth[tile] * frame.tileHeight[tile];
+			maxFish = Math.max(maxFish, frame.tileFish[tile] / area);
+			maxFood = Math.max(maxFood, frame.tileFood[tile] / area);
+		}
+		int width = frame.viewWidth;
+		int height = frame.viewHeight;
+		for (int tile = 0; tile < frame.tilesCount; tile++) {
+			if ((frame.tileFish[tile] == 0) && (frame.tileFood[tile] == 0)) {
+				continue;
+			}
+			double area = frame.tileWidth[tile] * frame.tileHeight[tile];
+			double food = (maxFood > 0) ? Math.sqrt(frame.tileFood[tile] / area / maxFood) : 0;
+			double fish = (maxFish > 0) ? Math.sqrt(frame.tileFish[tile] / area / maxFish) : 0;
+			int red = (int) (255 * Math.max(food, fish));
+			int green = (int) (255 * food * (1 - fish));
+			int color = 0xff000000 | (red << 16) | (green << 8);
+
+			int fromX = Math.max(0, screenX(frame, frame.tileX[tile]));
+			int toX = Math.min(width, screenX(frame, frame.tileX[tile] + frame.tileWidth[tile]));
+			int fromY = Math.max(0, screenY(frame, frame.tileY[tile]));
+			int toY = Math.min(height, screenY(frame, frame.tileY[tile] + frame.tileHeight[tile]));
+			if (fromX >= toX) {
+				continue;
+			}
+			for (int y = fromY; y < toY; y++) {
+				Arrays.fill(foodPixels, y * width + fromX, y * width + toX, color);
+			}
+		}
+	}
+
+	/**
+	 * Pre-rendered premultiplied pixels, drawn with its origin at the given
+	 * point
+	 */
+	private static class Sprite {
+		final int width;
+		final int height;
+		final int originX;
+		final int originY;
+		final int[] pixels;
+
+		Sprite(int width, int height, int originX, int originY, int[] pixels) {
+			this.width = width;
+			this.height = height;
+			this.originX = originX;
+			this.originY = originY;
+			this.pixels = pixels;
+		}
+	}
+
+	private void stamp(Sprite sprite, int x, int y, int width, int height) {
+		int[] pixels = foodPixels;
+		int left = x - sprite.originX;
+		int top = y - sprite.originY;
+		int fromX = Math.max(0, -left);
+		int toX = Math.min(sprite.width, width - left);
+		int fromY = Math.max(0, -top);
+		int toY = Math.min(sprite.height, height - top);
+		for (int sy = fromY; sy < toY; sy++) {
+			int row = (top + sy) * width + left;
+			int spriteRow = sy * sprite.width;
+			for (int sx = fromX; sx < toX; sx++) {
+				int src = sprite.pixels[spriteRow + sx];
+				if (src != 0) {
+					pixels[row + sx] = blend(src, pixels[row + sx]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Source over destination, both premultiplied
+	 */
+	private static int blend(int src, int dst) {
+		int srcAlpha = src >>> 24;
+		if ((srcAlpha == 255) || (dst == 0)) {
+			return src;
+		}
+		int keep = 255 - srcAlpha;
+		int a = srcAlpha + ((dst >>> 24) * keep) / 255;
+		int r = ((src >> 16) & 0xff) + (((dst >> 16) & 0xff) * keep) / 255;
+		int g = ((src >> 8) & 0xff) + (((dst >> 8) & 0xff) * keep) / 255;
+		int b = (src & 0xff) + ((dst & 0xff) * keep) / 255;
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	/**
+	 * Food of the given radius, filling a square of 2 * radius pixels side
+	 * around its center, as fillOval does
+	 */
+	private Sprite foodSprite(int radius) {
+		Sprite sprite = foodSprites.get(radius);
+		if (sprite != null) {
+			return sprite;
+		}
+		int size = radius * 2;
+		int[] pixels = new int[size * size];
+		double squareRadius = (double) radius * radius;
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				int covered = 0;
+				for (int sy = 0; sy < MASK_SAMPLES; sy++) {
+					for (int sx = 0; sx < MASK_SAMPLES; sx++) {
+						double dx = x + (sx + 0.5) / MASK_SAMPLES - radius;
+						double dy = y + (sy + 0.5) / MASK_SAMPLES - radius;
+						if (dx * dx + dy * dy <= squareRadius) {
+							covered++;
+						}
+					}
+				}
+				int alpha = covered * 255 / (MASK_SAMPLES * MASK_SAMPLES);
+				pixels[y * size + x] = (alpha << 24) | ((COLOR_FOOD.getRed() * alpha / 255) << 16)
+						| ((COLOR_FOOD.getGreen() * alpha / 255) << 8) | (COLOR_FOOD.getBlue() * alpha / 255);
+			}
+		}
+		sprite = new Sprite(size, size, radius, radius, pixels);
+		foodSprites.put(radius, sprite);
+		return sprite;
+	}
+
+	/**
+	 * Small triangle flag, with its pole standing at the origin
+	 */
+	private Sprite markSprite(Color color) {
+		Sprite sprite = markSprites.get(color);
+		if (sprite != null) {
+			return sprite;
+		}
+		BufferedImage image = new BufferedImage(9, 11, BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setColor(color);
+		int x0 = 1;
+		int y0 = 9;
+		int x1 = x0;
+		int y1 = y0 - 8;
+		int x2 = x0 + 6;
+		int y2 = y0 - 6;
+		int x3 = x0;
+		int y3 = y0 - 4;
+		g.drawLine(x0, y0, x1, y1);
+		g.drawLine(x1, y1, x2, y2);
+		g.drawLine(x3, y3, x2, y2);
+		g.dispose();
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		sprite = new Sprite(image.getWidth(), image.getHeight(), x0, y0, pixels);
+		markSprites.put(color, sprite);
+		return sprite;
+	}
+
+	private void drawRadar(Graphics2D canvas, RenderFrame frame, int i) {
+		canvas.setColor(COLOR_RADAR);
+		double diameterArc = NeuralNetworkDrivenAgent.EYESIGHT_DISTANCE * 2 * frame.zoom;
+		double xArc = screenX(frame, frame.fishX[i]) - diameterArc / 2;
+		double yArc = screenY(frame, frame.fishY[i]) - diameterArc / 2;
+		int startingAngleArc = -(int) ((frame.fishAngle[i] + NeuralNetworkDrivenAgent.EYSIGHT_ANGLE) * 180 / Math.PI);
+		int extentAngleArc = (int) (NeuralNetworkDrivenAgent.EYSIGHT_ANGLE * 2 * 180 / Math.PI);
+		Arc2D arc = new Arc2D.Double(xArc, yArc, diameterArc, diameterArc, startingAngleArc, extentAngleArc, Arc2D.PIE);
+		canvas.fill(arc);
+	}
+
+	private void markAgent(Graphics2D canvas, int agentRadius, int x, int y, Color color) {
+		canvas.setColor(color);
+		{
+			// Big triangle flag
+			int triX1 = x;
+			int triY1 = y - agentRadius - 16;
+			int triX2 = x + 10;
+			int triY2 = triY1 + 4;
+			int triX3 = x;
+			int triY3 = triY2 + 4;
+			canvas.drawLine(x, y - agentRadius, triX1, triY1);
+			canvas.drawLine(triX1, triY1, triX2, triY2);
+			canvas.drawLine(triX3, triY3, triX2, triY2);
+		}
+		{
+			// Small triangle flag inside the big one
+			int triX1 = x;
+			int triY1 = y - agentRadius - 14;
+			int triX2 = x + 6;
+			int triY2 = triY1 + 2;
+			int triX3 = x;
+			int triY3 = triY2 + 2;
+			canvas.drawLine(x, y - agentRadius, triX1, triY1);
+			canvas.drawLine(triX1, triY1, triX2, triY2);
+			canvas.drawLine(triX3, triY3, triX2, triY2);
+		}
+	}
+
+	private void drawAgentBody(Graphics2D canvas, int agentRadius, int x, int y, Color colorBody, Color colorBodyOutline) {
+		BufferedImage sprite = bodySprite(agentRadius, colorBody, colorBodyOutline);
+		// Outline takes one more pixel than the body
+		canvas.drawImage(sprite, x - agentRadius - 1, y - agentRadius - 1, null);
+	}
+
+	/**
+	 * Body of the given radius as fillOval and drawOval would draw it, with
+	 * antialiasing, at offset of one pixel
+	 */
+	private BufferedImage bodySprite(int agentRadius, Color colorBody, Color colorBodyOutline) {
+		long key = ((long) agentRadius << 48) | ((long) (colorBody.getRGB() & 0xffffff) << 24) | (colorBodyOutline.getRGB() & 0xffffff);
+		BufferedImage sprite = bodySprites.get(key);
+		if (sprite != null) {
+			return sprite;
+		}
+		if (bodySprites.size() >= MAX_SPRITES) {
+			bodySprites.clear();
+		}
+		int size = agentRadius * 2 + 3;
+		sprite = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g = sprite.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setColor(colorBody);
+		g.fillOval(1, 1, agentRadius * 2, agentRadius * 2);
+		g.setColor(colorBodyOutline);
+		g.drawOval(1, 1, agentRadius * 2, agentRadius * 2);
+		g.dispose();
+		bodySprites.put(key, sprite);
+		return sprite;
+	}
+
+	private void drawAgentEye(Graphics2D canvas, RenderFrame frame, int i, int x, int y, double theta) {
+		int radiusEyeBase = screenSize(frame, (int) frame.fishRadius[i]) - 1;
+		int radiusEye = 1;
+		int diameterEye = radiusEye * 2;
+		double angleEye = frame.fishAngle[i] + theta;
+		int eyeX = (int) (Math.cos(angleEye) * radiusEyeBase + x - radiusEye);
+		int eyeY = (int) (Math.sin(angleEye) * radiusEyeBase + y - radiusEye);
+
+		canvas.drawOval(eyeX, eyeY, diameterEye, diameterEye);
+	}
+
+	private void drawAgentTail(Graphics2D canvas, RenderFrame frame, int i, int x, int y) {
+		int signSpeed = -(int) Math.signum(frame.fishSpeed[i]);
+		double tailLength = (frame.fishRadius[i] + 4) * frame.zoom;
+		int rx = (int) ((Math.cos(frame.fishAngle[i]) * tailLength * signSpeed) + x);
+		int ry = (int) ((Math.sin(frame.fishAngle[i]) * tailLength * signSpeed) + y);
+
+		canvas.drawLine(x, y, rx, ry);
+	}
+
+	private void drawAgent(Graphics2D canvas, RenderFrame frame, int i) {
+		Color colorBody = getColorBody(frame, i);
+		Color colorBodyOutline = colorBodyOutline(frame, i);
+		Color colorFlag = getColorFlag(frame.fishFlag[i]);
+		int agentRadius = screenSize(frame, (int) frame.fishRadius[i]);
+		int x = screenX(frame, frame.fishX[i]);
+		int y = screenY(frame, frame.fishY[i]);
+
+		drawAgentBody(canvas, agentRadius, x, y, colorBody, colorBodyOutline);
+		canvas.setColor(colorBodyOutline);
+		drawAgentEye(canvas, frame, i, x, y, 0.3);
+		drawAgentEye(canvas, frame, i, x, y, -0.3);
+		drawAgentTail(canvas, frame, i, x, y);
+
+		if (colorFlag != null) {
+			markAgent(canvas, agentRadius, x, y, colorFlag);
+		}
+	}
+
+	private void drawAgents(Graphics2D canvas, RenderFrame frame) {
+		if (frame.selected >= 0) {
+			drawRadar(canvas, frame, frame.selected);
+		}
+		for (int i = 0; i < frame.fishCount; i++) {
+			if (i != frame.selected) {
+				drawAgent(canvas, frame, i);
+			}
+		}
+		if (frame.selected >= 0) {
+			drawAgent(canvas, frame, frame.selected);
+		}
+	}
+}
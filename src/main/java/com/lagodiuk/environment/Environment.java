@@ -18,11 +18,12 @@ package com.lagodiuk.environment;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.annotation.XmlElement;
@@ -38,8 +39,11 @@ import com.lagodiuk.agent.IFood;
 import com.lagodiuk.agent.MovingAgent;
 import com.lagodiuk.agent.MovingFood;
 import com.lagodiuk.agent.StaticFood;
+import com.lagodiuk.environment.journal.EventJournal;
+import com.lagodiuk.environment.snapshot.WorldXmlCodec;
 import com.lagodiuk.nn.NeuralNetwork;
 import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+import com.lagodiuk.nn.RandomStreams;
 import com.lagodiuk.nn.genetic.OptimizableNeuralNetwork;
 
 @XmlSeeAlso({ StaticFood.class, MovingFood.class, OptimizableNeuralNetwork.class, NeuralNetworkDrivenAgent.class })
@@ -48,6 +52,10 @@ import com.lagodiuk.nn.genetic.OptimizableNeuralNetwork;
 public class Environment implements IEnvironment {
 	public static final boolean FOOD_CELL_DIVISION = true;
 	private static final boolean FOOD_STATIC = false;
+	// Energy of every new piece of food, static and moving alike
+	private static final int FOOD_ENERGY = MovingFood.ENERGY;
+	// Spreads seeds of consecutive time steps
+	private static final long SEED_INCREMENT = 0x9E3779B97F4A7C15L;
 
 	@XmlElement
 	private int width;
@@ -61,29 +69,81 @@ public class Environment implements IEnvironment {
 	private int minNumberOfAgents = 10;
 	@XmlElement
 	private long countMutation;
+	@XmlElement
+	private long seed;
 
+	// Agents as JAXB sees them, fish and food, only while (un)marshalling
 	@XmlElementWrapper(name = "agents")
 	@XmlElement(name = "agent")
+	private List<AbstractAgent> xmlAgents = null;
+
+	// Food seeded, but not added yet
+	@XmlElementWrapper(name = "seedAgents")
+	@XmlElement(name = "agent")
+	private ArrayList<AbstractAgent> seedAgents = new ArrayList<AbstractAgent>();
+
+	// All agents but food
+	@XmlTransient
 	private List<AbstractAgent> agents = new ArrayList<AbstractAgent>();
 
 	@XmlTransient
-	private ArrayList<AbstractAgent> seedAgents = new ArrayList<AbstractAgent>();
+	private FoodStore food = new FoodStore();
+
+	@XmlTransient
+	private Random random;
+
+	@XmlTransient
+	private EventJournal journal = null;
+
+	@XmlTransient
+	private boolean isSnapshot = false;
+
+	@XmlTransient
+	private PopulationStats stats = null;
+
+	@XmlTransient
+	private NeuralNetworkDrivenAgent leader = null;
+
+	@XmlTransient
+	private SpatialIndex spatialIndex = null;
+
+	// Timers of fish, made at the first time step
+	@XmlTransient
+	private TimingWheel timers = null;
+
+	@XmlTransient
+	private UpdateOrder updateOrder = UpdateOrders.SHUFFLE;
 
+	// Living agents of the time step and the order they interact in, reused
 	@XmlTransient
-	private List<IFood> foodAgents = null;
+	private AbstractAgent[] updated = new AbstractAgent[0];
 
 	@XmlTransient
-	private Random random = new Random();
+	private int[] order = new int[0];
 
 	@SuppressWarnings("unused")
 	private Environment() {
+		this.random = new RandomStreams.Stream(seed);
 	}
 
+	/**
+	 * New world, seeded from {@link RandomStreams}
+	 */
 	public Environment(int width, int height) {
+		this(width, height, RandomStreams.nextSeed());
+	}
+
+	/**
+	 * World with the given seed, e.g. one restored from a file. <br/>
+	 * Does not draw from {@link RandomStreams}.
+	 */
+	public Environment(int width, int height, long seed) {
 		this.width = width;
 		this.height = height;
 		this.time = 0;
 		this.energyReserve = 0;
+		this.seed = seed;
+		this.random = new RandomStreams.Stream(seed);
 	}
 
 	@Override
@@ -106,16 +166,26 @@ public class Environment implements IEnvironment {
 
 	@Override
 	public double squareOfDistance(AbstractAgent agent1, AbstractAgent agent2) {
-		double vx = distanceOverBoundary(agent1.getX(), agent2.getX(), width);
-		double vy = distanceOverBoundary(agent1.getY(), agent2.getY(), height);
+		return squareOfDistance(agent1, agent2.getX(), agent2.getY());
+	}
+
+	@Override
+	public double squareOfDistance(AbstractAgent agent, double x, double y) {
+		double vx = distanceOverBoundary(agent.getX(), x, width);
+		double vy = distanceOverBoundary(agent.getY(), y, height);
 		return (vx * vx) + (vy * vy);
 	}
 
 	@Override
+	@XmlTransient
 	public double getTime() {
 		return this.time;
 	}
 
+	public void setTime(double time) {
+		this.time = time;
+	}
+
 	@Override
 	public List<FertileAgent> getFishes() {
 		List<FertileAgent> filtered = new ArrayList<FertileAgent>();
@@ -127,9 +197,24 @@ public class Environment implements IEnvironment {
 		return filtered;
 	}
 
+	/**
+	 * Living food, as views of the {@link FoodStore}
+	 */
 	@Override
 	public List<IFood> getFood() {
-		return foodAgents;
+		List<IFood> living = new ArrayList<IFood>(food.size());
+		for (int i = 0; i < food.size(); i++) {
+			if (food.isAlive(i)) {
+				living.add((IFood) food.getView(i));
+			}
+		}
+		return living;
+	}
+
+	@Override
+	@XmlTransient
+	public FoodStore getFoodStore() {
+		return food;
 	}
 
 	private void initializeFish(int agentsCount) {
@@ -140,7 +225,7 @@ public class Environment implements IEnvironment {
 			double speed = random.nextDouble() * MovingAgent.MAX_SPEED;
 
 			NeuralNetworkDrivenAgent agent = new NeuralNetworkDrivenAgent(x, y, direction, speed);
-			NeuralNetwork brain = NeuralNetworkDrivenAgent.randomNeuralNetworkBrain();
+			NeuralNetwork brain = NeuralNetworkDrivenAgent.randomNeuralNetworkBrain(random);
 			agent.setBrain(brain);
 
 			addAgent(agent);
@@ -160,6 +245,7 @@ public class Environment implements IEnvironment {
 		int agentsCount = area * agentsDensity / 1000000;
 		int foodCount = area * foodDensity / 1000000;
 
+		reseed(-1);
 		initializeFish(agentsCount);
 		initializeFood(foodCount);
 
@@ -179,33 +265,79 @@ public class Environment implements IEnvironment {
 		return food;
 	}
 
-	public void seedFood(int x, int y) {
-		IFood food = createRandomFood(x, y);
+	public synchronized void seedFood(int x, int y) {
+		seedFood(createRandomFood(x, y));
+	}
+
+	/**
+	 * Food is added as soon as energy reserve allows. <br/>
+	 * Recorded in the journal, if any.
+	 */
+	public synchronized void seedFood(IFood food) {
+		if (journal != null) {
+			journal.recordSeedFood(time, food);
+		}
 		this.seedAgents.add((AbstractAgent) food);
 	}
 
-	private IFood addNewRandomFood() {
+	/**
+	 * Food seeded, but not added yet
+	 */
+	@XmlTransient
+	public synchronized List<IFood> getSeedFood() {
+		List<IFood> food = new ArrayList<IFood>(seedAgents.size());
+		for (AbstractAgent agent : seedAgents) {
+			food.add((IFood) agent);
+		}
+		return food;
+	}
+
+	/**
+	 * Replaces brain of the agent (e.g. with one loaded from file). <br/>
+	 * Recorded in the journal, if any.
+	 */
+	public synchronized void setBrain(NeuralNetworkDrivenAgent agent, NeuralNetwork brain) {
+		int index = agents.indexOf(agent);
+		if (index < 0) {
+			throw new IllegalArgumentException("Agent is not in this world");
+		}
+		if (journal != null) {
+			journal.recordBrain(time, index, brain);
+		}
+		agent.setBrain(brain);
+	}
+
+	/**
+	 * Same as {@link #createRandomFood(int, int)} at a random place, made in
+	 * the food store
+	 *
+	 * @return slot of the new food
+	 */
+	private int addNewRandomFood() {
 		int x = random.nextInt(width);
 		int y = random.nextInt(height);
-		IFood newFood = createRandomFood(x, y);
-		addAgent((AbstractAgent) newFood);
-		return newFood;
+		if (FOOD_STATIC) {
+			return food.addStatic(x, y, StaticFood.ENERGY);
+		}
+		double speed = random.nextDouble() * MovingFood.MAX_SPEED;
+		double direction = random.nextDouble() * 2 * Math.PI;
+		return food.addMoving(x, y, direction, speed, MovingFood.ENERGY);
 	}
 
+	/**
+	 * Spends the whole energy reserve on food at once: living pieces divide
+	 * (every one once at most), the rest is made at random
+	 */
 	private void addNewFood() {
-		ArrayList<IFood> foodPool = new ArrayList<IFood>(getFood());
-		while (energyReserve > 0) {
-			if (FOOD_CELL_DIVISION && foodPool.size() > 0) {
-				int index = random.nextInt(foodPool.size());
-				IFood food = foodPool.get(index);
-				IFood newFood = food.reproduce(this);
-				foodPool.remove(food);
-				energyReserve -= newFood.getEnergy();
-			} else {
-				IFood newFood = addNewRandomFood();
-				energyReserve -= newFood.getEnergy();
-			}
+		if (energyReserve <= 0) {
+			return;
 		}
+		int pieces = (energyReserve + FOOD_ENERGY - 1) / FOOD_ENERGY;
+		int divided = FOOD_CELL_DIVISION ? food.divide(pieces, random, width, height) : 0;
+		for (int i = divided; i < pieces; i++) {
+			addNewRandomFood();
+		}
+		energyReserve -= pieces * FOOD_ENERGY;
 	}
 
 	private void addNewRandomFish() {
@@ -216,7 +348,7 @@ public class Environment implements IEnvironment {
 			double direction = random.nextDouble() * 2 * Math.PI;
 			double speed = random.nextDouble() * MovingAgent.MAX_SPEED;
 			NeuralNetworkDrivenAgent newAgent = new NeuralNetworkDrivenAgent(x, y, direction, speed);
-			OptimizableNeuralNetwork newBrain = NeuralNetworkDrivenAgent.randomNeuralNetworkBrain().mutate();
+			OptimizableNeuralNetwork newBrain = NeuralNetworkDrivenAgent.randomNeuralNetworkBrain(random).mutate(random);
 			newAgent.setBrain(newBrain);
 			this.addAgent(newAgent);
 			energyReserve -= newAgent.getEnergy();
@@ -224,7 +356,13 @@ public class Environment implements IEnvironment {
 	}
 
 	private void removeDeadAgents() {
+		for (AbstractAgent agent : agents) {
+			if (!agent.isAlive() && (agent instanceof FertileAgent)) {
+				((FertileAgent) agent).cancelTimers();
+			}
+		}
 		agents.removeIf(agent -> !agent.isAlive());
+		food.removeEaten();
 	}
 
 	private void addNewbornAgents() {
@@ -248,10 +386,21 @@ public class Environment implements IEnvironment {
 		}
 	}
 
+	/**
+	 * All agents, living food (as views of the {@link FoodStore}) after the
+	 * others
+	 */
 	@Override
 	public List<AbstractAgent> getAgents() {
 		// to avoid concurrent modification exception
-		return new ArrayList<AbstractAgent>(this.agents);
+		List<AbstractAgent> all = new ArrayList<AbstractAgent>(agents.size() + food.size());
+		all.addAll(agents);
+		for (int i = 0; i < food.size(); i++) {
+			if (food.isAlive(i)) {
+				all.add(food.getView(i));
+			}
+		}
+		return all;
 	}
 
 	@Override
@@ -278,53 +427,243 @@ public class Environment implements IEnvironment {
 
 		agent.setX(x);
 		agent.setY(y);
-		this.agents.add(agent);
+		if (food.slotOf(agent) >= 0) {
+			// Food of this world is there already
+			return;
+		}
+		if (agent instanceof IFood) {
+			food.add(agent);
+		} else {
+			this.agents.add(agent);
+			if ((timers != null) && (agent instanceof FertileAgent)) {
+				((FertileAgent) agent).scheduleTimers(timers, this);
+			}
+		}
 	}
 
+	/**
+	 * Food is removed at the end of the time step
+	 */
 	@Override
 	public synchronized void removeAgent(AbstractAgent agent) {
-		this.agents.remove(agent);
+		int slot = food.slotOf(agent);
+		if (slot >= 0) {
+			food.setEnergy(slot, 0);
+		} else if (this.agents.remove(agent) && (agent instanceof FertileAgent)) {
+			// Moving fish are removed and added back every time step
+			((FertileAgent) agent).detachTimers();
+		}
 	}
 
 	private void evaluate() {
-		foodAgents = new ArrayList<IFood>();
+		PopulationStats.Builder stats = new PopulationStats.Builder();
+		int longestGeneration = -1;
+		NeuralNetworkDrivenAgent leader = null;
+		stats.addFood(food.getLivingCount(), food.getLivingEnergy());
 		for (AbstractAgent agent : agents) {
-			if (agent instanceof IFood && agent.isAlive()) {
-				foodAgents.add((IFood) agent);
+			if (!agent.isAlive()) {
+				continue;
+			}
+			stats.add(agent);
+			if (agent instanceof NeuralNetworkDrivenAgent) {
+				NeuralNetworkDrivenAgent nnAgent = (NeuralNetworkDrivenAgent) agent;
+				if (nnAgent.getGeneration() > longestGeneration) {
+					longestGeneration = nnAgent.getGeneration();
+					leader = nnAgent;
+				}
 			}
 		}
+		this.stats = stats.build(energyReserve);
+		this.leader = leader;
+
+		if ((spatialIndex == null) || (spatialIndex.getWidth() != width) || (spatialIndex.getHeight() != height)) {
+			spatialIndex = new SpatialIndex(width, height, SpatialIndex.DEFAULT_CELL_SIZE);
+		}
+		spatialIndex.rebuild(agents, food);
 	}
 
 	@Override
 	public synchronized void timeStep() {
-		List<AbstractAgent> agents = new ArrayList<AbstractAgent>(this.agents);
-		Collections.shuffle(agents);
+		reseed((long) time);
+		prepareTimers();
+
+		// Agents born meanwhile interact from the next time step on
+		int count = 0;
+		if (updated.length < agents.size()) {
+			updated = new AbstractAgent[agents.size() * 2];
+			order = new int[updated.length];
+		}
 		for (AbstractAgent agent : agents) {
+			if (agent.isAlive()) {
+				updated[count++] = agent;
+			}
+		}
+		updateOrder.arrange(order, count, this);
+		for (int i = 0; i < count; i++) {
+			AbstractAgent agent = updated[order[i]];
 			if (agent.isAlive()) {
 				agent.interact(this);
 			}
 		}
+		Arrays.fill(updated, 0, count, null);
+		food.move(width, height);
+		// Agents are as of this time step now
+		timers.reschedule((long) time);
+		timers.advance((long) time);
 
 		removeDeadAgents();
 		addNewbornAgents();
 
-		for (AbstractAgent agent : this.agents) {
-			agent.evaluate(this);
+		evaluateAll();
+
+		this.time++;
+	}
+
+	/**
+	 * Makes timers of fish anew, unless they are up to the last time step
+	 * (the world was just made, restored or forked)
+	 */
+	private void prepareTimers() {
+		long passed = (long) time - 1;
+		if ((timers == null) || (timers.getTime() != passed)) {
+			timers = new TimingWheel(passed);
+			for (AbstractAgent agent : agents) {
+				if (agent instanceof FertileAgent) {
+					((FertileAgent) agent).scheduleTimers(timers, this);
+				}
+			}
+		}
+		timers.reschedule(passed);
+	}
+
+	/**
+	 * Random numbers of every time step depend on the seed and the time only,
+	 * so a world restored from a snapshot continues exactly as the original
+	 * one did, given the same seed
+	 */
+	private void reseed(long step) {
+		random.setSeed(seed + step * SEED_INCREMENT);
+	}
+
+	@Override
+	@XmlTransient
+	public Random getRandom() {
+		return random;
+	}
+
+	@XmlTransient
+	public UpdateOrder getUpdateOrder() {
+		return updateOrder;
+	}
+
+	/**
+	 * Not recorded in the journal: must be the same for the world and its
+	 * replays
+	 */
+	public synchronized void setUpdateOrder(UpdateOrder updateOrder) {
+		if (updateOrder == null) {
+			throw new IllegalArgumentException("Update order must not be null");
 		}
+		this.updateOrder = updateOrder;
+	}
 
+	@XmlTransient
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Recorded in the journal, if any
+	 */
+	public synchronized void setSeed(long seed) {
+		if (journal != null) {
+			journal.recordSeed(time, seed);
+		}
+		this.seed = seed;
+	}
+
+	@XmlTransient
+	public EventJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Starts recording of inputs of this world to the journal (or stops, when
+	 * null), beginning with a keyframe of the current state
+	 */
+	public synchronized void setJournal(EventJournal journal) {
+		this.journal = journal;
+		if (journal != null) {
+			journal.recordKeyframe(this);
+		}
+	}
+
+	/**
+	 * Recomputes everything agents and environment derive from the current
+	 * state of the world, as it is done at the end of every time step. <br/>
+	 * Needed when the world was assembled agent by agent, e.g. when loaded
+	 */
+	public synchronized void evaluateAll() {
+		// Agents look around them through the spatial index
 		evaluate();
 
-		this.time++;
+		for (AbstractAgent agent : this.agents) {
+			agent.evaluate(this);
+		}
 	}
 
+	/**
+	 * Longest generation among living fish, as of the end of the last time
+	 * step
+	 */
 	public int getLongestGeneration() {
-		int maxGeneration = -1;
-		for (FertileAgent agent : this.getFishes()) {
-			if (agent instanceof NeuralNetworkDrivenAgent) {
-				maxGeneration = Math.max(((NeuralNetworkDrivenAgent) agent).getGeneration(), maxGeneration);
-			}
+		return getStats().getMaxGeneration();
+	}
+
+	/**
+	 * Living fish of the longest generation (the first one found), as of the
+	 * end of the last time step, or null
+	 */
+	public NeuralNetworkDrivenAgent getLeader() {
+		return leader;
+	}
+
+	/**
+	 * Number of living fish, as of the end of the last time step
+	 */
+	public int getFishCount() {
+		return getStats().getFishCount();
+	}
+
+	/**
+	 * Population statistics as of the end of the last time step
+	 */
+	@XmlTransient
+	public PopulationStats getStats() {
+		if (stats == null) {
+			evaluate();
 		}
-		return maxGeneration;
+		return stats;
+	}
+
+	/**
+	 * Living agents by place, as of the end of the last time step. Must be
+	 * used by the thread which runs the simulation, at the tick boundary.
+	 */
+	@Override
+	@XmlTransient
+	public SpatialIndex getSpatialIndex() {
+		if (spatialIndex == null) {
+			evaluate();
+		}
+		return spatialIndex;
+	}
+
+	/**
+	 * Number of living pieces of food, as of the end of the last time step
+	 */
+	public int getFoodCount() {
+		return getStats().getFoodCount();
 	}
 
 	@XmlTransient
@@ -346,27 +685,134 @@ public class Environment implements IEnvironment {
 		for (IAgent agent : agents) {
 			countEnergy += agent.getEnergy();
 		}
+		countEnergy += food.getLivingEnergy();
 		return countEnergy;
 	}
 
-	public void setMinNumberOfAgents(int minNumberOfAgents) {
+	@XmlTransient
+	public int getMinNumberOfAgents() {
+		return minNumberOfAgents;
+	}
+
+	/**
+	 * Recorded in the journal, if any
+	 */
+	public synchronized void setMinNumberOfAgents(int minNumberOfAgents) {
+		if (journal != null) {
+			journal.recordMinNumberOfAgents(time, minNumberOfAgents);
+		}
 		this.minNumberOfAgents = minNumberOfAgents;
 	}
 
+	/**
+	 * Consistent copy of the world, suitable for serialization in another
+	 * thread while this one keeps running. <br/>
+	 * Copies agents state, the seed and food seeded, brains are shared.
+	 */
+	public synchronized Environment snapshot() {
+		Environment snapshot = new Environment(width, height, seed);
+		snapshot.isSnapshot = true;
+		snapshot.time = time;
+		snapshot.energyReserve = energyReserve;
+		snapshot.minNumberOfAgents = minNumberOfAgents;
+		snapshot.countMutation = NeuralNetworkDrivenAgent.getMutationCount();
+		snapshot.agents = new ArrayList<AbstractAgent>(agents.size());
+		for (AbstractAgent agent : agents) {
+			snapshot.agents.add(agent.clone());
+		}
+		snapshot.food = food.copy();
+		snapshot.seedAgents = new ArrayList<AbstractAgent>(seedAgents.size());
+		for (AbstractAgent agent : seedAgents) {
+			snapshot.seedAgents.add(agent.clone());
+		}
+		snapshot.evaluate();
+		return snapshot;
+	}
+
+	/**
+	 * Independent copy of the world, which continues exactly as this one
+	 * would, given the same inputs. Many forks may run in parallel, e.g. to
+	 * try out what-if scenarios. <br/>
+	 * Agents are copied field by field and take over the caches of their
+	 * originals instead of being evaluated anew. Brains are shared, as they
+	 * are never changed in place (mutation makes a new one). <br/>
+	 * The journal, if any, is not taken over.
+	 */
+	public synchronized Environment fork() {
+		Environment fork = new Environment(width, height, seed);
+		fork.time = time;
+		fork.energyReserve = energyReserve;
+		fork.minNumberOfAgents = minNumberOfAgents;
+		fork.updateOrder = updateOrder;
+
+		Map<AbstractAgent, AbstractAgent> clones = new IdentityHashMap<AbstractAgent, AbstractAgent>(agents.size() * 2);
+		fork.agents = new ArrayList<AbstractAgent>(agents.size());
+		for (AbstractAgent agent : agents) {
+			AbstractAgent clone = agent.clone();
+			clones.put(agent, clone);
+			fork.agents.add(clone);
+		}
+		fork.food = food.copy();
+		food.mapViews(fork.food, clones);
+		for (AbstractAgent agent : agents) {
+			clones.get(agent).copyCaches(agent, clones, fork);
+		}
+		fork.seedAgents = new ArrayList<AbstractAgent>(seedAgents.size());
+		for (AbstractAgent agent : seedAgents) {
+			fork.seedAgents.add(agent.clone());
+		}
+		fork.evaluate();
+		return fork;
+	}
+
+	/**
+	 * JAXB writes food as agents, as it was kept before the food store
+	 */
+	@SuppressWarnings("unused")
+	private void beforeMarshal(Marshaller marshaller) {
+		xmlAgents = new ArrayList<AbstractAgent>(agents.size() + food.size());
+		xmlAgents.addAll(agents);
+		for (int i = 0; i < food.size(); i++) {
+			if (food.isAlive(i)) {
+				xmlAgents.add(food.toAgent(i));
+			}
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private void afterMarshal(Marshaller marshaller) {
+		xmlAgents = null;
+	}
+
+	@SuppressWarnings("unused")
+	private void afterUnmarshal(Unmarshaller unmarshaller, Object parent) {
+		random = new RandomStreams.Stream(seed);
+		if (xmlAgents != null) {
+			for (AbstractAgent agent : xmlAgents) {
+				addAgent(agent);
+			}
+			xmlAgents = null;
+		}
+	}
+
+	/**
+	 * Mutations count as it has to be stored along with this world
+	 */
+	public long getMutationCount() {
+		return isSnapshot ? countMutation : NeuralNetworkDrivenAgent.getMutationCount();
+	}
+
+	/**
+	 * Writes world as XML, see {@link WorldXmlCodec}
+	 */
 	public static void marshall(Environment env, OutputStream out) throws Exception {
-		env.countMutation = NeuralNetworkDrivenAgent.getMutationCount();
-		JAXBContext context = JAXBContext.newInstance(Environment.class);
-		Marshaller marshaller = context.createMarshaller();
-		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-		marshaller.marshal(env, out);
-		out.flush();
+		WorldXmlCodec.write(env, out);
 	}
 
+	/**
+	 * Reads world from XML, see {@link WorldXmlCodec}
+	 */
 	public static Environment unmarshall(InputStream in) throws Exception {
-		JAXBContext context = JAXBContext.newInstance(Environment.class);
-		Unmarshaller unmarshaller = context.createUnmarshaller();
-		Environment env = (Environment) unmarshaller.unmarshal(in);
-		NeuralNetworkDrivenAgent.setMutationCount(env.countMutation);
-		return env;
+		return WorldXmlCodec.read(in);
 	}
 }
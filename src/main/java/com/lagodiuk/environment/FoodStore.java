@@ -0,0 +1,869 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.MovingFood;
+import com.lagodiuk.agent.StaticFood;
+
+/**
+ * All food of the world, column by column: food outnumbers fish many times,
+ * and every piece of it is just a point moving straight with constant
+ * velocity, so it is kept in arrays and moved by a single loop per time step
+ * ({@link #move(int, int)}). <br/>
+ * Pieces are addressed by slot, slots of eaten food are reused by
+ * {@link #removeEaten()} at the end of the time step. <br/>
+ * In lazy mode ({@link #setLazy(boolean)}) food is not moved at all: the
+ * position of a piece is kept as of the time step it was placed at, and is
+ * computed from its velocity whenever it is read. Slots of eaten food are
+ * then freed, not compacted, so slots do not change while their food lives,
+ * and the slots which were added, removed or placed anew are told to the
+ * {@link SpatialIndex}, which re-bins those only. <br/>
+ * Whoever needs a piece of food as an agent (fish which see it, writers of
+ * snapshots) gets a view ({@link #getView(int)}): a {@link MovingFood} or a
+ * {@link StaticFood} which reads and writes the columns. Views are created on
+ * demand and live as long as their food does; when the food is removed, the
+ * view keeps its last state. <br/>
+ * Not thread safe.
+ */
+public class FoodStore {
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int count = 0;
+	private long[] id = new long[INITIAL_CAPACITY];
+	private boolean[] moving = new boolean[INITIAL_CAPACITY];
+	// Position, as of time step since[slot] in lazy mode
+	private double[] x = new double[INITIAL_CAPACITY];
+	private double[] y = new double[INITIAL_CAPACITY];
+	private long[] since = new long[INITIAL_CAPACITY];
+	private double[] angle = new double[INITIAL_CAPACITY];
+	private double[] speed = new double[INITIAL_CAPACITY];
+	// Velocity, zero for static food
+	private double[] vx = new double[INITIAL_CAPACITY];
+	private double[] vy = new double[INITIAL_CAPACITY];
+	private int[] energy = new int[INITIAL_CAPACITY];
+	// Views created so far, null for food nobody asked for
+	private View[] views = new View[INITIAL_CAPACITY];
+
+	private int livingCount = 0;
+	private long livingEnergy = 0;
+
+	// Time steps moved, and the world moved in
+	private long time = 0;
+	private int width = 0;
+	private int height = 0;
+
+	private boolean lazy = false;
+	// Free slots and slots of food eaten during this time step, lazy mode
+	private boolean[] vacant = new boolean[INITIAL_CAPACITY];
+	private int[] free = new int[INITIAL_CAPACITY];
+	private int freeCount = 0;
+	private int[] eaten = new int[INITIAL_CAPACITY];
+	private int eatenCount = 0;
+	// Slots in the order they are drawn by divide(), which puts it back
+	private int[] order = new int[0];
+	private int[] draws = new int[0];
+	private int[] parents = new int[0];
+	// Slots added, removed or placed anew since the index looked, lazy mode
+	private int[] changes = new int[INITIAL_CAPACITY];
+	private int changesCount = 0;
+	private boolean changedAll = true;
+
+	/**
+	 * View of a slot, or detached from the store (slot -1) when its food is
+	 * gone
+	 */
+	private interface View {
+		void moveTo(int slot);
+
+		void detach();
+	}
+
+	/**
+	 * Number of slots, including those of food eaten during this time step
+	 * and, in lazy mode, free ones
+	 */
+	public int size() {
+		return count;
+	}
+
+	public long getId(int slot) {
+		return id[slot];
+	}
+
+	public boolean isMoving(int slot) {
+		return moving[slot];
+	}
+
+	public double getX(int slot) {
+		if (!lazy || (since[slot] == time)) {
+			return x[slot];
+		}
+		return wrap(x[slot] + vx[slot] * (time - since[slot]), width);
+	}
+
+	public double getY(int slot) {
+		if (!lazy || (since[slot] == time)) {
+			return y[slot];
+		}
+		return wrap(y[slot] + vy[slot] * (time - since[slot]), height);
+	}
+
+	private static double wrap(double coordinate, int size) {
+		double wrapped = coordinate - Math.floor(coordinate / size) * size;
+		// Rounding may bring tiny negative coordinates to the size itself
+		return (wrapped < size) ? wrapped : 0;
+	}
+
+	public double getAngle(int slot) {
+		return angle[slot];
+	}
+
+	public double getSpeed(int slot) {
+		return speed[slot];
+	}
+
+	double getVelocityX(int slot) {
+		return vx[slot];
+	}
+
+	double getVelocityY(int slot) {
+		return vy[slot];
+	}
+
+	public int getEnergy(int slot) {
+		return energy[slot];
+	}
+
+	public double getRadius(int slot) {
+		return AbstractAgent.radiusOf(energy[slot]);
+	}
+
+	public boolean isAlive(int slot) {
+		return energy[slot] > 0;
+	}
+
+	public void setEnergy(int slot, int newEnergy) {
+		if (newEnergy < 0) {
+			throw new RuntimeException("Attempt to set negative energy=" + newEnergy);
+		}
+		int oldEnergy = energy[slot];
+		if (oldEnergy > 0) {
+			livingCount--;
+			livingEnergy -= oldEnergy;
+		}
+		if (newEnergy > 0) {
+			livingCount++;
+			livingEnergy += newEnergy;
+		} else if (lazy && (oldEnergy > 0)) {
+			eaten = push(eaten, eatenCount++, slot);
+		}
+		energy[slot] = newEnergy;
+	}
+
+	/**
+	 * Number of living pieces of food
+	 */
+	public int getLivingCount() {
+		return livingCount;
+	}
+
+	/**
+	 * Energy of all living food
+	 */
+	public long getLivingEnergy() {
+		return livingEnergy;
+	}
+
+	private void setPosition(int slot, double newX, double newY) {
+		x[slot] = newX;
+		y[slot] = newY;
+		since[slot] = time;
+		changed(slot);
+	}
+
+	private void setVelocity(int slot, double newAngle, double newSpeed) {
+		if (lazy && (since[slot] != time)) {
+			// Sets off anew from where it is now
+			setPosition(slot, getX(slot), getY(slot));
+		}
+		angle[slot] = newAngle;
+		speed[slot] = newSpeed;
+		if (moving[slot]) {
+			// As MovingAgent moves
+			vx[slot] = Math.cos(newAngle) * newSpeed;
+			vy[slot] = Math.sin(newAngle) * newSpeed;
+			changed(slot);
+		}
+	}
+
+	public int addMoving(double x, double y, double angle, double speed, int energy) {
+		return add(AbstractAgent.newId(), true, x, y, angle, speed, energy);
+	}
+
+	public int addStatic(double x, double y, int energy) {
+		return add(AbstractAgent.newId(), false, x, y, 0, 0, energy);
+	}
+
+	/**
+	 * Takes over the state (and the id) of a piece of food, which is not used
+	 * afterwards
+	 */
+	public int add(AbstractAgent food) {
+		if (food instanceof MovingFood) {
+			MovingFood movingFood = (MovingFood) food;
+			return add(food.getId(), true, food.getX(), food.getY(), movingFood.getAngle(), movingFood.getSpeed(), food.getEnergy());
+		} else if (food instanceof StaticFood) {
+			return add(food.getId(), false, food.getX(), food.getY(), 0, 0, food.getEnergy());
+		}
+		throw new IllegalArgumentException("Agent of type " + food.getClass().getName() + " is not food");
+	}
+
+	private int add(long foodId, boolean isMoving, double foodX, double foodY, double foodAngle, double foodSpeed, int foodEnergy) {
+		int slot;
+		if (freeCount > 0) {
+			slot = free[--freeCount];
+			vacant[slot] = false;
+			if (views[slot] != null) {
+				views[slot].detach();
+				views[slot] = null;
+			}
+		} else {
+			if (count == id.length) {
+				grow(count * 2);
+			}
+			slot = count++;
+		}
+		id[slot] = foodId;
+		moving[slot] = isMoving;
+		vx[slot] = 0;
+		vy[slot] = 0;
+		energy[slot] = 0;
+		setPosition(slot, foodX, foodY);
+		setVelocity(slot, foodAngle, foodSpeed);
+		setEnergy(slot, foodEnergy);
+		return slot;
+	}
+
+	private void grow(int capacity) {
+		id = Arrays.copyOf(id, capacity);
+		moving = Arrays.copyOf(moving, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		since = Arrays.copyOf(since, capacity);
+		angle = Arrays.copyOf(angle, capacity);
+		speed = Arrays.copyOf(speed, capacity);
+		vx = Arrays.copyOf(vx, capacity);
+		vy = Arrays.copyOf(vy, capacity);
+		energy = Arrays.copyOf(energy, capacity);
+		views = Arrays.copyOf(views, capacity);
+		vacant = Arrays.copyOf(vacant, capacity);
+	}
+
+	private static int[] push(int[] array, int size, int value) {
+		if (size == array.length) {
+			array = Arrays.copyOf(array, size * 2);
+		}
+		array[size] = value;
+		return array;
+	}
+
+	private void changed(int slot) {
+		if (!lazy || changedAll) {
+			return;
+		}
+		if (changesCount >= Math.max(count, INITIAL_CAPACITY)) {
+			// Index had better be rebuilt anyway
+			changedAll = true;
+			changesCount = 0;
+			return;
+		}
+		changes = push(changes, changesCount++, slot);
+	}
+
+	/**
+	 * New piece of food, as {@link MovingFood#reproduce(IEnvironment)} or
+	 * {@link StaticFood#reproduce(IEnvironment)} would make of the given one
+	 *
+	 * @return slot of the new piece
+	 */
+	public int reproduce(int slot, Random random, int width, int height) {
+		if (moving[slot]) {
+			double newAngle = random.nextDouble() * 2 * Math.PI;
+			double newSpeed = random.nextDouble() * MovingFood.MAX_SPEED;
+			return addMoving(getX(slot), getY(slot), newAngle, newSpeed, MovingFood.ENERGY);
+		}
+		int newX = random.nextInt(width);
+		int newY = random.nextInt(height);
+		return addStatic(newX, newY, StaticFood.ENERGY);
+	}
+
+	/**
+	 * Up to the given number of new pieces of food, every one divided from
+	 * another living piece (as by {@link #reproduce(int, Random, int, int)}),
+	 * drawn at random. <br/>
+	 * Parents are all drawn first, by swapping drawn slots to the front of a
+	 * permutation of slots (which is put back afterwards), so the time taken
+	 * depends on the number of pieces, not on the amount of food. Eaten food
+	 * and free slots are drawn too, and skipped.
+	 *
+	 * @return number of new pieces, less than wanted when there are not
+	 *         enough living pieces
+	 */
+	public int divide(int wanted, Random random, int width, int height) {
+		if (order.length < count) {
+			int oldLength = order.length;
+			int length = Math.max(count, oldLength * 2);
+			order = Arrays.copyOf(order, length);
+			draws = new int[length];
+			for (int i = oldLength; i < length; i++) {
+				order[i] = i;
+			}
+		}
+		if (parents.length < Math.min(wanted, count)) {
+			parents = new int[Math.min(wanted, count)];
+		}
+		int found = 0;
+		int drawn = 0;
+		while ((found < wanted) && (drawn < count)) {
+			int draw = drawn + random.nextInt(count - drawn);
+			int slot = order[draw];
+			order[draw] = order[drawn];
+			order[drawn] = slot;
+			draws[drawn++] = draw;
+			if (isAlive(slot)) {
+				parents[found++] = slot;
+			}
+		}
+		for (int i = drawn - 1; i >= 0; i--) {
+			int slot = order[i];
+			order[i] = order[draws[i]];
+			order[draws[i]] = slot;
+		}
+
+		int needed = count + found - freeCount;
+		if (needed > id.length) {
+			grow(Math.max(needed, id.length * 2));
+		}
+		for (int i = 0; i < found; i++) {
+			reproduce(parents[i], random, width, height);
+		}
+		return found;
+	}
+
+	/**
+	 * Moves all food (eaten too) by one time step, around the borders of the
+	 * world. In lazy mode only the time goes on.
+	 */
+	public void move(int width, int height) {
+		this.time++;
+		this.width = width;
+		this.height = height;
+		if (lazy) {
+			return;
+		}
+		double[] x = this.x;
+		double[] y = this.y;
+		double[] vx = this.vx;
+		double[] vy = this.vy;
+		for (int i = 0; i < count; i++) {
+			double newX = x[i] + vx[i];
+			double newY = y[i] + vy[i];
+			// As Environment.addAgent wraps
+			if (newX < 0) {
+				newX += width;
+			}
+			if (newX >= width) {
+				newX -= width;
+			}
+			if (newY < 0) {
+				newY += height;
+			}
+			if (newY >= height) {
+				newY -= height;
+			}
+			x[i] = newX;
+			y[i] = newY;
+		}
+	}
+
+	/**
+	 * Frees slots of eaten food. Keeps the order of the rest, which changes
+	 * slots of food (views follow their food), unless in lazy mode.
+	 */
+	public void removeEaten() {
+		if (lazy) {
+			for (int i = 0; i < eatenCount; i++) {
+				int slot = eaten[i];
+				if ((energy[slot] > 0) || vacant[slot]) {
+					continue;
+				}
+				if (views[slot] != null) {
+					views[slot].detach();
+					views[slot] = null;
+				}
+				vacant[slot] = true;
+				free = push(free, freeCount++, slot);
+				changed(slot);
+			}
+			eatenCount = 0;
+			return;
+		}
+		int alive = 0;
+		for (int i = 0; i < count; i++) {
+			if (energy[i] <= 0) {
+				if (views[i] != null) {
+					views[i].detach();
+					views[i] = null;
+				}
+				continue;
+			}
+			if (i != alive) {
+				id[alive] = id[i];
+				moving[alive] = moving[i];
+				x[alive] = x[i];
+				y[alive] = y[i];
+				since[alive] = since[i];
+				angle[alive] = angle[i];
+				speed[alive] = speed[i];
+				vx[alive] = vx[i];
+				vy[alive] = vy[i];
+				energy[alive] = energy[i];
+				views[alive] = views[i];
+				views[i] = null;
+				if (views[alive] != null) {
+					views[alive].moveTo(alive);
+				}
+			}
+			alive++;
+		}
+		count = alive;
+	}
+
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	/**
+	 * Switches lazy kinematics on or off. Positions are the same either way,
+	 * up to rounding: lazy positions are computed by a single multiplication,
+	 * not by adding velocity step by step.
+	 */
+	public void setLazy(boolean lazy) {
+		if (lazy == this.lazy) {
+			return;
+		}
+		if (lazy) {
+			// Eaten food must not stay in slots which never change
+			removeEaten();
+			Arrays.fill(since, 0, count, time);
+			this.lazy = true;
+			changedAll = true;
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			x[i] = getX(i);
+			y[i] = getY(i);
+			since[i] = time;
+		}
+		this.lazy = false;
+		// Free slots are empty, compacted as eaten ones
+		Arrays.fill(vacant, 0, count, false);
+		freeCount = 0;
+		eatenCount = 0;
+		changesCount = 0;
+		removeEaten();
+	}
+
+	/**
+	 * Number of time steps moved
+	 */
+	long getTime() {
+		return time;
+	}
+
+	/**
+	 * Whether every slot is to be taken as changed, e.g. after switching to
+	 * lazy mode, or when too many have changed
+	 */
+	boolean isChangedAll() {
+		return changedAll;
+	}
+
+	int getChangesCount() {
+		return changesCount;
+	}
+
+	/**
+	 * Slot which was added, removed or placed anew (maybe more than once)
+	 */
+	int getChange(int i) {
+		return changes[i];
+	}
+
+	void clearChanges() {
+		changesCount = 0;
+		changedAll = false;
+	}
+
+	/**
+	 * The food of the slot as an agent, which reads and writes the store
+	 *
+	 * @return {@link MovingFood} or {@link StaticFood}, the same one for the
+	 *         same piece of food
+	 */
+	public AbstractAgent getView(int slot) {
+		View view = views[slot];
+		if (view == null) {
+			view = moving[slot] ? new MovingView(this, slot) : new StaticView(this, slot);
+			views[slot] = view;
+		}
+		return (AbstractAgent) view;
+	}
+
+	/**
+	 * @return slot of the food, when the agent is a view of this store, or -1
+	 */
+	public int slotOf(AbstractAgent agent) {
+		if ((agent instanceof MovingView) && (((MovingView) agent).store == this)) {
+			return ((MovingView) agent).slot;
+		}
+		if ((agent instanceof StaticView) && (((StaticView) agent).store == this)) {
+			return ((StaticView) agent).slot;
+		}
+		return -1;
+	}
+
+	/**
+	 * Independent copy of the food, as an agent
+	 */
+	public AbstractAgent toAgent(int slot) {
+		AbstractAgent agent;
+		if (moving[slot]) {
+			agent = new MovingFood(getX(slot), getY(slot), angle[slot], speed[slot]);
+		} else {
+			agent = new StaticFood(getX(slot), getY(slot));
+		}
+		agent.setEnergy(energy[slot]);
+		return agent;
+	}
+
+	/**
+	 * Copy of all food, with the same ids and slots, without views
+	 */
+	public FoodStore copy() {
+		FoodStore copy = new FoodStore();
+		copy.count = count;
+		copy.id = Arrays.copyOf(id, count);
+		copy.moving = Arrays.copyOf(moving, count);
+		copy.x = Arrays.copyOf(x, count);
+		copy.y = Arrays.copyOf(y, count);
+		copy.since = Arrays.copyOf(since, count);
+		copy.angle = Arrays.copyOf(angle, count);
+		copy.speed = Arrays.copyOf(speed, count);
+		copy.vx = Arrays.copyOf(vx, count);
+		copy.vy = Arrays.copyOf(vy, count);
+		copy.energy = Arrays.copyOf(energy, count);
+		copy.views = new View[count];
+		copy.vacant = Arrays.copyOf(vacant, count);
+		copy.livingCount = livingCount;
+		copy.livingEnergy = livingEnergy;
+		copy.time = time;
+		copy.width = width;
+		copy.height = height;
+		copy.lazy = lazy;
+		copy.free = Arrays.copyOf(free, Math.max(freeCount, 1));
+		copy.freeCount = freeCount;
+		copy.eaten = Arrays.copyOf(eaten, Math.max(eatenCount, 1));
+		copy.eatenCount = eatenCount;
+		if (count == 0) {
+			copy.grow(INITIAL_CAPACITY);
+		}
+		return copy;
+	}
+
+	/**
+	 * Maps every view of this store to the view of the same slot of the copy
+	 * (see {@link AbstractAgent#copyCaches(AbstractAgent, Map, IEnvironment)})
+	 */
+	public void mapViews(FoodStore copy, Map<AbstractAgent, AbstractAgent> clones) {
+		for (int i = 0; i < count; i++) {
+			if (views[i] != null) {
+				clones.put((AbstractAgent) views[i], copy.getView(i));
+			}
+		}
+	}
+
+	private static class MovingView extends MovingFood implements View {
+		private final FoodStore store;
+		private final long foodId;
+		private int slot;
+
+		MovingView(FoodStore store, int slot) {
+			this.store = store;
+			this.slot = slot;
+			this.foodId = store.id[slot];
+		}
+
+		@Override
+		public void moveTo(int newSlot) {
+			slot = newSlot;
+		}
+
+		@Override
+		public void detach() {
+			super.setX(store.getX(slot));
+			super.setY(store.getY(slot));
+			super.setAngle(store.angle[slot]);
+			slot = -1;
+			super.setEnergy(0);
+		}
+
+		@Override
+		public long getId() {
+			return foodId;
+		}
+
+		@Override
+		public double getX() {
+			return (slot < 0) ? super.getX() : store.getX(slot);
+		}
+
+		@Override
+		public double getY() {
+			return (slot < 0) ? super.getY() : store.getY(slot);
+		}
+
+		@Override
+		public void setX(double x) {
+			if (slot < 0) {
+				super.setX(x);
+			} else {
+				store.setPosition(slot, x, store.getY(slot));
+			}
+		}
+
+		@Override
+		public void setY(double y) {
+			if (slot < 0) {
+				super.setY(y);
+			} else {
+				store.setPosition(slot, store.getX(slot), y);
+			}
+		}
+
+		@Override
+		public int getEnergy() {
+			return (slot < 0) ? super.getEnergy() : store.energy[slot];
+		}
+
+		@Override
+		public void setEnergy(int newEnergy) {
+			if (slot < 0) {
+				super.setEnergy(newEnergy);
+			} else {
+				store.setEnergy(slot, newEnergy);
+			}
+		}
+
+		@Override
+		public double getRadius() {
+			return (slot < 0) ? super.getRadius() : store.getRadius(slot);
+		}
+
+		@Override
+		public boolean isAlive() {
+			return (slot < 0) ? super.isAlive() : store.isAlive(slot);
+		}
+
+		@Override
+		public double getAngle() {
+			return (slot < 0) ? super.getAngle() : store.angle[slot];
+		}
+
+		@Override
+		public void setAngle(double angle) {
+			super.setAngle(angle);
+			if (slot >= 0) {
+				store.setVelocity(slot, angle, store.speed[slot]);
+			}
+		}
+
+		@Override
+		public double getSpeed() {
+			return (slot < 0) ? super.getSpeed() : store.speed[slot];
+		}
+
+		@Override
+		public void setSpeed(double v) {
+			super.setSpeed(v);
+			if (slot >= 0) {
+				store.setVelocity(slot, store.angle[slot], super.getSpeed());
+			}
+		}
+
+		@Override
+		public double getRx() {
+			return Math.cos(getAngle());
+		}
+
+		@Override
+		public double getRy() {
+			return Math.sin(getAngle());
+		}
+
+		@Override
+		public void evaluate(IEnvironment env) {
+			// Food has nothing to evaluate
+		}
+
+		@Override
+		public void interact(IEnvironment env) {
+			// Food is moved by the store, all at once
+		}
+
+		@Override
+		public void move(IEnvironment env) {
+			// Food is moved by the store, all at once
+		}
+
+		@Override
+		public MovingFood reproduce(IEnvironment env) {
+			return (MovingFood) store.getView(store.reproduce(slot, env.getRandom(), env.getWidth(), env.getHeight()));
+		}
+
+		/**
+		 * Independent piece of food in the same state
+		 */
+		@Override
+		public MovingFood clone() {
+			MovingFood clone = new MovingFood(getX(), getY(), getAngle(), getSpeed());
+			clone.setEnergy(getEnergy());
+			return clone;
+		}
+	}
+
+	private static class StaticView extends StaticFood implements View {
+		private final FoodStore store;
+		private final long foodId;
+		private int slot;
+
+		StaticView(FoodStore store, int slot) {
+			this.store = store;
+			this.slot = slot;
+			this.foodId = store.id[slot];
+		}
+
+		@Override
+		public void moveTo(int newSlot) {
+			slot = newSlot;
+		}
+
+		@Override
+		public void detach() {
+			super.setX(store.getX(slot));
+			super.setY(store.getY(slot));
+			slot = -1;
+			super.setEnergy(0);
+		}
+
+		@Override
+		public long getId() {
+			return foodId;
+		}
+
+		@Override
+		public double getX() {
+			return (slot < 0) ? super.getX() : store.getX(slot);
+		}
+
+		@Override
+		public double getY() {
+			return (slot < 0) ? super.getY() : store.getY(slot);
+		}
+
+		@Override
+		public void setX(double x) {
+			if (slot < 0) {
+				super.setX(x);
+			} else {
+				store.setPosition(slot, x, store.getY(slot));
+			}
+		}
+
+		@Override
+		public void setY(double y) {
+			if (slot < 0) {
+				super.setY(y);
+			} else {
+				store.setPosition(slot, store.getX(slot), y);
+			}
+		}
+
+		@Override
+		public int getEnergy() {
+			return (slot < 0) ? super.getEnergy() : store.energy[slot];
+		}
+
+		@Override
+		public void setEnergy(int newEnergy) {
+			if (slot < 0) {
+				super.setEnergy(newEnergy);
+			} else {
+				store.setEnergy(slot, newEnergy);
+			}
+		}
+
+		@Override
+		public double getRadius() {
+			return (slot < 0) ? super.getRadius() : store.getRadius(slot);
+		}
+
+		@Override
+		public boolean isAlive() {
+			return (slot < 0) ? super.isAlive() : store.isAlive(slot);
+		}
+
+		@Override
+		public void evaluate(IEnvironment env) {
+			// Food has nothing to evaluate
+		}
+
+		@Override
+		public void interact(IEnvironment env) {
+			// Static food does nothing
+		}
+
+		@Override
+		public StaticFood reproduce(IEnvironment env) {
+			return (StaticFood) store.getView(store.reproduce(slot, env.getRandom(), env.getWidth(), env.getHeight()));
+		}
+
+		/**
+		 * Independent piece of food in the same state
+		 */
+		@Override
+		public StaticFood clone() {
+			StaticFood clone = new StaticFood(getX(), getY());
+			clone.setEnergy(getEnergy());
+			return clone;
+		}
+	}
+}
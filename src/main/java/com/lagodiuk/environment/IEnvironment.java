@@ -1,6 +1,7 @@
 package com.lagodiuk.environment;
 
 import java.util.List;
+import java.util.Random;
 
 import com.lagodiuk.agent.AbstractAgent;
 import com.lagodiuk.agent.FertileAgent;
@@ -12,6 +13,7 @@ public interface IEnvironment {
 	double getTime();
 
 	double squareOfDistance(AbstractAgent agent1, AbstractAgent agent2);
+	double squareOfDistance(AbstractAgent agent, double x, double y);
 
 	public void addEnergyReserve(int energy);
 
@@ -22,7 +24,24 @@ public interface IEnvironment {
 	List<AbstractAgent> getAgents();
 
 	List<IFood> getFood();
+
+	/**
+	 * All food, column by column, for those who look through all of it
+	 */
+	FoodStore getFoodStore();
+
+	/**
+	 * Living agents by place, for those who look around them
+	 */
+	SpatialIndex getSpatialIndex();
+
 	List<FertileAgent> getFishes();
 
 	void timeStep();
+
+	/**
+	 * Source of all randomness of the simulation: agents must not use other
+	 * ones, otherwise the world can not be replayed
+	 */
+	Random getRandom();
 }
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment;
+
+import java.util.Arrays;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.FertileAgent;
+import com.lagodiuk.agent.IFood;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+
+/**
+ * Population statistics of the world as of the end of a time step. <br/>
+ * Gathered by {@link Environment} in the pass over agents it makes at the end
+ * of every time step anyway, and never changed afterwards, so reading them is
+ * free and safe from any thread. <br/>
+ * Generations are counted for neural network driven fish only.
+ */
+public class PopulationStats {
+	private final int agentsCount;
+	private final int fishCount;
+	private final int foodCount;
+	private final long fishEnergy;
+	private final long foodEnergy;
+	private final int energyReserve;
+
+	private final int minGeneration;
+	private final int maxGeneration;
+	private final int generationsCount;
+	private final long generationsSum;
+	// Number of fish of every generation, from the shortest one
+	private final int[] generations;
+	private final int biggestGenerationCount;
+
+	/**
+	 * Accumulates statistics agent by agent
+	 */
+	static class Builder {
+		private int agentsCount;
+		private int fishCount;
+		private int foodCount;
+		private long fishEnergy;
+		private long foodEnergy;
+
+		private int minGeneration = Integer.MAX_VALUE;
+		private int maxGeneration = -1;
+		private int generationsCount;
+		private long generationsSum;
+		private int[] generations = new int[16];
+
+		void add(AbstractAgent agent) {
+			agentsCount++;
+			if (agent instanceof IFood) {
+				foodCount++;
+				foodEnergy += agent.getEnergy();
+			} else if (agent instanceof FertileAgent) {
+				fishCount++;
+				fishEnergy += agent.getEnergy();
+				if (agent instanceof NeuralNetworkDrivenAgent) {
+					addGeneration(((NeuralNetworkDrivenAgent) agent).getGeneration());
+				}
+			}
+		}
+
+		/**
+		 * Pieces of food kept in the {@link FoodStore}
+		 */
+		void addFood(int count, long energy) {
+			agentsCount += count;
+			foodCount += count;
+			foodEnergy += energy;
+		}
+
+		/**
+		 * Histogram is indexed by generation until the shortest one is
+		 * known, and shifted by it at the end
+		 */
+		private void addGeneration(int generation) {
+			if (generation >= generations.length) {
+				generations = Arrays.copyOf(generations, Math.max(generation + 1, generations.length * 2));
+			}
+			generations[generation]++;
+			minGeneration = Math.min(minGeneration, generation);
+			maxGeneration = Math.max(maxGeneration, generation);
+			generationsCount++;
+			generationsSum += generation;
+		}
+
+		PopulationStats build(int energyReserve) {
+			return new PopulationStats(this, energyReserve);
+		}
+	}
+
+	private PopulationStats(Builder builder, int energyReserve) {
+		this.agentsCount = builder.agentsCount;
+		this.fishCount = builder.fishCount;
+		this.foodCount = builder.foodCount;
+		this.fishEnergy = builder.fishEnergy;
+		this.foodEnergy = builder.foodEnergy;
+		this.energyReserve = energyReserve;
+
+		this.maxGeneration = builder.maxGeneration;
+		this.minGeneration = (maxGeneration < 0) ? -1 : builder.minGeneration;
+		this.generationsCount = builder.generationsCount;
+		this.generationsSum = builder.generationsSum;
+		if (maxGeneration < 0) {
+			this.generations = new int[0];
+		} else {
+			this.generations = Arrays.copyOfRange(builder.generations, minGeneration, maxGeneration + 1);
+		}
+		int biggest = 0;
+		for (int count : generations) {
+			biggest = Math.max(biggest, count);
+		}
+		this.biggestGenerationCount = biggest;
+	}
+
+	/**
+	 * Living agents, fish and food
+	 */
+	public int getAgentsCount() {
+		return agentsCount;
+	}
+
+	public int getFishCount() {
+		return fishCount;
+	}
+
+	public int getFoodCount() {
+		return foodCount;
+	}
+
+	public long getFishEnergy() {
+		return fishEnergy;
+	}
+
+	public long getFoodEnergy() {
+		return foodEnergy;
+	}
+
+	public int getEnergyReserve() {
+		return energyReserve;
+	}
+
+	/**
+	 * Energy of all agents and energy reserve
+	 */
+	public long getTotalEnergy() {
+		return fishEnergy + foodEnergy + energyReserve;
+	}
+
+	/**
+	 * @return shortest generation among living fish, or -1 when there are
+	 *         none
+	 */
+	public int getMinGeneration() {
+		return minGeneration;
+	}
+
+	/**
+	 * @return longest generation among living fish, or -1 when there are
+	 *         none
+	 */
+	public int getMaxGeneration() {
+		return maxGeneration;
+	}
+
+	public double getMeanGeneration() {
+		return (generationsCount == 0) ? 0 : (double) generationsSum / generationsCount;
+	}
+
+	/**
+	 * @return number of fish of the given generation
+	 */
+	public int getGenerationCount(int generation) {
+		int i = generation - minGeneration;
+		return (maxGeneration >= 0) && (i >= 0) && (i < generations.length) ? generations[i] : 0;
+	}
+
+	/**
+	 * Number of fish of the most numerous generation (or generations)
+	 */
+	public int getBiggestGenerationCount() {
+		return biggestGenerationCount;
+	}
+}
@@ -0,0 +1,578 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.FertileAgent;
+import com.lagodiuk.agent.IFood;
+import com.lagodiuk.agent.MovingFood;
+import com.lagodiuk.agent.StaticFood;
+
+/**
+ * Uniform grid of square cells over the world, with living agents sorted by
+ * cell, so agents in a rectangle are found by visiting the cells it covers
+ * only. <br/>
+ * The world wraps around its borders, so does the grid: rectangles may reach
+ * over the borders, and agents found there are reported at coordinates
+ * shifted by the world size, as they are seen from inside the rectangle. <br/>
+ * Food of the {@link FoodStore} is indexed by slot, so it is visited without
+ * views unless the visitor asks for them. <br/>
+ * Counts of fish and food are kept for every cell, and for every level of
+ * coarser cells, each level joining 2 x 2 cells of the previous one, so
+ * density of any part of the world is read at the wanted detail. <br/>
+ * Rebuilt by {@link #rebuild(List, FoodStore)}, which is not thread safe:
+ * fish from scratch (in linear time), food too unless the store is lazy (see
+ * {@link FoodStore#setLazy(boolean)}). Food of a lazy store is re-binned
+ * piece by piece: pieces added, removed or placed anew since the last
+ * rebuild, and pieces due to leave their cell, as scheduled from their
+ * velocity when they were binned.
+ */
+public class SpatialIndex {
+	public static final int DEFAULT_CELL_SIZE = 32;
+	// Time steps of the re-binning schedule, later ones wait for their turn
+	private static final int WHEEL_SIZE = 64;
+	private static final long MAX_WAIT = 1L << 40;
+	// Leaving a cell at a close call is taken as a time step earlier, as
+	// positions of lazy food are rounded
+	private static final double CLOSE_CALL = 1e-3;
+
+	public interface Visitor {
+		/**
+		 * @param x
+		 *            coordinate of the agent, shifted by the world width when
+		 *            found over the border
+		 * @param y
+		 *            coordinate of the agent, shifted by the world height when
+		 *            found over the border
+		 */
+		void visit(AbstractAgent agent, double x, double y);
+	}
+
+	public interface FoodVisitor {
+		/**
+		 * @param slot
+		 *            slot of the food in the store
+		 * @param x
+		 *            coordinate of the food, shifted by the world width when
+		 *            found over the border
+		 * @param y
+		 *            coordinate of the food, shifted by the world height when
+		 *            found over the border
+		 */
+		void visitFood(FoodStore food, int slot, double x, double y);
+	}
+
+	private final int width;
+	private final int height;
+	private final int cellSize;
+	private final int columns;
+	private final int rows;
+
+	// Agents of cell i are cellAgents[cellStart[i] .. cellStart[i + 1] - 1]
+	private final int[] cellStart;
+	private AbstractAgent[] cellAgents = new AbstractAgent[0];
+	private int[] agentCells = new int[0];
+	// Slots of food of cell i are cellFood[i][0 .. cellFoodCount[i] - 1]
+	private final int[][] cellFood;
+	private final int[] cellFoodCount;
+	// Cell of every slot (-1 for none), and place of the slot in the cell
+	private int[] foodCells = new int[0];
+	private int[] foodPlaces = new int[0];
+	private FoodStore food = new FoodStore();
+
+	// Lazy food is binned as of this time step of the store
+	private long binnedTime = 0;
+	// Time step every slot is to be re-binned at, -1 for never
+	private long[] foodDue = new long[0];
+	// Slots due at time step t are in wheelSlots[t % WHEEL_SIZE], along with
+	// their time steps, as slots due later wait for their turn there
+	private final int[][] wheelSlots = new int[WHEEL_SIZE][];
+	private final long[][] wheelDue = new long[WHEEL_SIZE][];
+	private final int[] wheelCount = new int[WHEEL_SIZE];
+	private int[] dueSlots = new int[16];
+
+	// Level 0 is the cells themselves
+	private final int[][] fishCounts;
+	private final int[][] foodCounts;
+
+	public SpatialIndex(int width, int height, int cellSize) {
+		if ((width <= 0) || (height <= 0) || (cellSize <= 0)) {
+			throw new IllegalArgumentException("Size of world and cells must be positive");
+		}
+		this.width = width;
+		this.height = height;
+		this.cellSize = cellSize;
+		this.columns = (width + cellSize - 1) / cellSize;
+		this.rows = (height + cellSize - 1) / cellSize;
+		this.cellStart = new int[columns * rows + 1];
+		this.cellFood = new int[columns * rows][];
+		this.cellFoodCount = new int[columns * rows];
+		for (int cell = 0; cell < columns * rows; cell++) {
+			cellFood[cell] = new int[4];
+		}
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheelSlots[i] = new int[16];
+			wheelDue[i] = new long[16];
+		}
+
+		int levels = 1;
+		while ((columnsOf(levels - 1) > 1) || (rowsOf(levels - 1) > 1)) {
+			levels++;
+		}
+		this.fishCounts = new int[levels][];
+		this.foodCounts = new int[levels][];
+		for (int level = 0; level < levels; level++) {
+			this.fishCounts[level] = new int[columnsOf(level) * rowsOf(level)];
+			this.foodCounts[level] = new int[columnsOf(level) * rowsOf(level)];
+		}
+	}
+
+	private int columnsOf(int level) {
+		return ((columns - 1) >> level) + 1;
+	}
+
+	private int rowsOf(int level) {
+		return ((rows - 1) >> level) + 1;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Number of levels of cells, the last one being a single cell
+	 */
+	public int getLevels() {
+		return fishCounts.length;
+	}
+
+	/**
+	 * Side of cells of the given level. Cells of the last column and row may
+	 * be cut by the border of the world.
+	 */
+	public int getCellSize(int level) {
+		return cellSize << level;
+	}
+
+	public int getColumns(int level) {
+		return columnsOf(level);
+	}
+
+	public int getRows(int level) {
+		return rowsOf(level);
+	}
+
+	/**
+	 * Living fish in the cell. Column and row wrap around.
+	 */
+	public int getFishCount(int level, int column, int row) {
+		return fishCounts[level][cellOf(level, column, row)];
+	}
+
+	/**
+	 * Living pieces of food in the cell. Column and row wrap around.
+	 */
+	public int getFoodCount(int level, int column, int row) {
+		return foodCounts[level][cellOf(level, column, row)];
+	}
+
+	private int cellOf(int level, int column, int row) {
+		int levelColumns = columnsOf(level);
+		return floorMod(row, rowsOf(level)) * levelColumns + floorMod(column, levelColumns);
+	}
+
+	private int cellOf(double x, double y) {
+		int column = Math.max(0, Math.min((int) (x / cellSize), columns - 1));
+		int row = Math.max(0, Math.min((int) (y / cellSize), rows - 1));
+		return row * columns + column;
+	}
+
+	public void rebuild(List<AbstractAgent> agents, FoodStore food) {
+		rebuildFood(food);
+		int count = agents.size();
+		if (agentCells.length < count) {
+			agentCells = new int[count];
+		}
+		Arrays.fill(cellStart, 0);
+		Arrays.fill(fishCounts[0], 0);
+
+		int alive = 0;
+		for (int i = 0; i < count; i++) {
+			AbstractAgent agent = agents.get(i);
+			if (!agent.isAlive()) {
+				agentCells[i] = -1;
+				continue;
+			}
+			int cell = cellOf(agent.getX(), agent.getY());
+			agentCells[i] = cell;
+			cellStart[cell + 1]++;
+			if (agent instanceof IFood) {
+				foodCounts[0][cell]++;
+			} else if (agent instanceof FertileAgent) {
+				fishCounts[0][cell]++;
+			}
+			alive++;
+		}
+		for (int cell = 0; cell < columns * rows; cell++) {
+			cellStart[cell + 1] += cellStart[cell];
+		}
+
+		if ((cellAgents.length < alive) || (cellAgents.length > alive * 4)) {
+			cellAgents = new AbstractAgent[alive];
+		} else {
+			Arrays.fill(cellAgents, alive, cellAgents.length, null);
+		}
+		// cellStart[cell] runs over the cell while it is filled, and ends at
+		// the start of the next one
+		for (int i = 0; i < count; i++) {
+			int cell = agentCells[i];
+			if (cell >= 0) {
+				cellAgents[cellStart[cell]++] = agents.get(i);
+			}
+		}
+		System.arraycopy(cellStart, 0, cellStart, 1, columns * rows);
+		cellStart[0] = 0;
+
+		for (int level = 1; level < fishCounts.length; level++) {
+			sumLevel(fishCounts, level);
+			sumLevel(foodCounts, level);
+		}
+	}
+
+	/**
+	 * Bins slots of living food by cell, anew or only those which may have
+	 * changed their cell
+	 */
+	private void rebuildFood(FoodStore food) {
+		long now = food.getTime();
+		boolean incremental = food.isLazy() && (food == this.food) && !food.isChangedAll() && (now >= binnedTime)
+				&& (now - binnedTime < WHEEL_SIZE);
+		this.food = food;
+		int count = food.size();
+		if (foodCells.length < count) {
+			int oldLength = foodCells.length;
+			foodCells = Arrays.copyOf(foodCells, count);
+			foodPlaces = Arrays.copyOf(foodPlaces, count);
+			foodDue = Arrays.copyOf(foodDue, count);
+			Arrays.fill(foodCells, oldLength, count, -1);
+			Arrays.fill(foodDue, oldLength, count, -1);
+		}
+
+		if (incremental) {
+			for (long step = binnedTime + 1; step <= now; step++) {
+				rebinDue(step);
+			}
+			for (int i = 0; i < food.getChangesCount(); i++) {
+				rebin(food.getChange(i));
+			}
+		} else {
+			Arrays.fill(cellFoodCount, 0);
+			Arrays.fill(wheelCount, 0);
+			for (int i = 0; i < count; i++) {
+				foodCells[i] = -1;
+				foodDue[i] = -1;
+				if (food.isAlive(i)) {
+					double x = food.getX(i);
+					double y = food.getY(i);
+					int cell = cellOf(x, y);
+					bin(i, cell);
+					schedule(i, cell, x, y);
+				}
+			}
+		}
+		food.clearChanges();
+		binnedTime = now;
+		System.arraycopy(cellFoodCount, 0, foodCounts[0], 0, columns * rows);
+	}
+
+	/**
+	 * Re-bins slots due at the time step, keeps those due at later turns of
+	 * the wheel and drops those which were re-binned otherwise meanwhile
+	 */
+	private void rebinDue(long step) {
+		int turn = (int) (step % WHEEL_SIZE);
+		int[] slots = wheelSlots[turn];
+		long[] due = wheelDue[turn];
+		int kept = 0;
+		int dueCount = 0;
+		for (int i = 0; i < wheelCount[turn]; i++) {
+			int slot = slots[i];
+			if (foodDue[slot] != due[i]) {
+				continue;
+			}
+			if (due[i] == step) {
+				if (dueCount == dueSlots.length) {
+					dueSlots = Arrays.copyOf(dueSlots, dueCount * 2);
+				}
+				dueSlots[dueCount++] = slot;
+				// Slot may be in the wheel twice
+				foodDue[slot] = -1;
+			} else {
+				slots[kept] = slot;
+				due[kept] = due[i];
+				kept++;
+			}
+		}
+		wheelCount[turn] = kept;
+		for (int i = 0; i < dueCount; i++) {
+			rebin(dueSlots[i]);
+		}
+	}
+
+	private void rebin(int slot) {
+		foodDue[slot] = -1;
+		if (!food.isAlive(slot)) {
+			unbin(slot);
+			return;
+		}
+		double x = food.getX(slot);
+		double y = food.getY(slot);
+		int cell = cellOf(x, y);
+		if (cell != foodCells[slot]) {
+			unbin(slot);
+			bin(slot, cell);
+		}
+		schedule(slot, cell, x, y);
+	}
+
+	private void bin(int slot, int cell) {
+		int place = cellFoodCount[cell]++;
+		if (place == cellFood[cell].length) {
+			cellFood[cell] = Arrays.copyOf(cellFood[cell], place * 2);
+		}
+		cellFood[cell][place] = slot;
+		foodCells[slot] = cell;
+		foodPlaces[slot] = place;
+	}
+
+	private void unbin(int slot) {
+		int cell = foodCells[slot];
+		if (cell < 0) {
+			return;
+		}
+		int place = foodPlaces[slot];
+		int last = cellFood[cell][--cellFoodCount[cell]];
+		cellFood[cell][place] = last;
+		foodPlaces[last] = place;
+		foodCells[slot] = -1;
+	}
+
+	/**
+	 * Schedules lazy food to be re-binned at the time step it leaves its cell,
+	 * or a bit earlier
+	 */
+	private void schedule(int slot, int cell, double x, double y) {
+		if (!food.isLazy()) {
+			return;
+		}
+		double vx = food.getVelocityX(slot);
+		double vy = food.getVelocityY(slot);
+		if ((vx == 0) && (vy == 0)) {
+			return;
+		}
+		int column = cell % columns;
+		int row = cell / columns;
+		double steps = MAX_WAIT;
+		if (vx > 0) {
+			steps = Math.min(steps, (Math.min((column + 1) * cellSize, width) - x) / vx);
+		} else if (vx < 0) {
+			steps = Math.min(steps, (x - column * cellSize) / -vx);
+		}
+		if (vy > 0) {
+			steps = Math.min(steps, (Math.min((row + 1) * cellSize, height) - y) / vy);
+		} else if (vy < 0) {
+			steps = Math.min(steps, (y - row * cellSize) / -vy);
+		}
+		long due = food.getTime() + Math.max(1, (long) Math.ceil(steps - CLOSE_CALL));
+		int turn = (int) (due % WHEEL_SIZE);
+		int place = wheelCount[turn]++;
+		if (place == wheelSlots[turn].length) {
+			wheelSlots[turn] = Arrays.copyOf(wheelSlots[turn], place * 2);
+			wheelDue[turn] = Arrays.copyOf(wheelDue[turn], place * 2);
+		}
+		wheelSlots[turn][place] = slot;
+		wheelDue[turn][place] = due;
+		foodDue[slot] = due;
+	}
+
+	private void sumLevel(int[][] counts, int level) {
+		int[] fine = counts[level - 1];
+		int[] coarse = counts[level];
+		int fineColumns = columnsOf(level - 1);
+		int fineRows = rowsOf(level - 1);
+		int coarseColumns = columnsOf(level);
+		Arrays.fill(coarse, 0);
+		for (int row = 0; row < fineRows; row++) {
+			for (int column = 0; column < fineColumns; column++) {
+				coarse[(row >> 1) * coarseColumns + (column >> 1)] += fine[row * fineColumns + column];
+			}
+		}
+	}
+
+	/**
+	 * Visits living agents (as of the last rebuild) inside of the rectangle,
+	 * food as views. When the rectangle is larger than the world, agents are
+	 * visited once for every copy of the world inside it.
+	 */
+	public void query(double left, double top, double queryWidth, double queryHeight, final Visitor visitor) {
+		query(left, top, queryWidth, queryHeight, visitor, new FoodVisitor() {
+			@Override
+			public void visitFood(FoodStore food, int slot, double x, double y) {
+				visitor.visit(food.getView(slot), x, y);
+			}
+		});
+	}
+
+	/**
+	 * Visits living agents (as of the last rebuild) inside of the rectangle,
+	 * food by slot
+	 *
+	 * @param visitor
+	 *            visitor of agents but food, or null to skip them
+	 * @param foodVisitor
+	 *            visitor of food, or null to skip food
+	 */
+	public void query(double left, double top, double queryWidth, double queryHeight, Visitor visitor, FoodVisitor foodVisitor) {
+		double right = left + queryWidth;
+		double bottom = top + queryHeight;
+		int fromRow = floorDiv(top, height) * rows + cellIndex(floorMod(top, height));
+		int toRow = floorDiv(bottom, height) * rows + cellIndex(floorMod(bottom, height));
+		int fromColumn = floorDiv(left, width) * columns + cellIndex(floorMod(left, width));
+		int toColumn = floorDiv(right, width) * columns + cellIndex(floorMod(right, width));
+
+		for (int row = fromRow; row <= toRow; row++) {
+			double shiftY = (double) Math.floorDiv(row, rows) * height;
+			int cellsRow = floorMod(row, rows) * columns;
+			for (int column = fromColumn; column <= toColumn; column++) {
+				double shiftX = (double) Math.floorDiv(column, columns) * width;
+				int cell = cellsRow + floorMod(column, columns);
+				for (int i = cellStart[cell]; (visitor != null) && (i < cellStart[cell + 1]); i++) {
+					AbstractAgent agent = cellAgents[i];
+					double x = agent.getX() + shiftX;
+					double y = agent.getY() + shiftY;
+					if ((x >= left) && (x <= right) && (y >= top) && (y <= bottom)) {
+						visitor.visit(agent, x, y);
+					}
+				}
+				if (foodVisitor == null) {
+					continue;
+				}
+				int[] slots = cellFood[cell];
+				for (int i = 0; i < cellFoodCount[cell]; i++) {
+					int slot = slots[i];
+					double x = food.getX(slot) + shiftX;
+					double y = food.getY(slot) + shiftY;
+					if ((x >= left) && (x <= right) && (y >= top) && (y <= bottom)) {
+						foodVisitor.visitFood(food, slot, x, y);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Living agent of the given kind (as of the last rebuild) nearest to the
+	 * point, over the borders too, looking through rings of cells around the
+	 * point until no nearer agent is possible
+	 *
+	 * @return null when there is no such agent within the distance
+	 */
+	public AbstractAgent nearest(double x, double y, double maxDistance, Class<?> kind) {
+		int column = cellIndex(floorMod(x, width));
+		int row = cellIndex(floorMod(y, height));
+		// Further rings would visit the same cells again
+		int maxRing = Math.min((int) Math.ceil(maxDistance / cellSize) + 1, Math.max(columns, rows) / 2 + 1);
+
+		boolean movingFood = kind.isAssignableFrom(MovingFood.class);
+		boolean staticFood = kind.isAssignableFrom(StaticFood.class);
+		AbstractAgent nearest = null;
+		int nearestFood = -1;
+		double nearestSquare = maxDistance * maxDistance;
+		for (int ring = 0; ring <= maxRing; ring++) {
+			// Agents of this ring and further ones are at least this far (a
+			// ring less, as cells at the border of the world may be cut)
+			double ringDistance = Math.max(0, ring - 2) * (double) cellSize;
+			if (ringDistance * ringDistance > nearestSquare) {
+				break;
+			}
+			for (int dr = -ring; dr <= ring; dr++) {
+				boolean edgeRow = (dr == -ring) || (dr == ring);
+				// Inner cells of the ring were visited already
+				int step = edgeRow ? 1 : Math.max(1, 2 * ring);
+				for (int dc = -ring; dc <= ring; dc += step) {
+					int cell = floorMod(row + dr, rows) * columns + floorMod(column + dc, columns);
+					for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+						AbstractAgent agent = cellAgents[i];
+						if (!kind.isInstance(agent)) {
+							continue;
+						}
+						double dx = wrappedDistance(agent.getX() - x, width);
+						double dy = wrappedDistance(agent.getY() - y, height);
+						double square = dx * dx + dy * dy;
+						if (square <= nearestSquare) {
+							nearest = agent;
+							nearestFood = -1;
+							nearestSquare = square;
+						}
+					}
+					int[] slots = cellFood[cell];
+					for (int i = 0; i < cellFoodCount[cell]; i++) {
+						int slot = slots[i];
+						if (!(food.isMoving(slot) ? movingFood : staticFood)) {
+							continue;
+						}
+						double dx = wrappedDistance(food.getX(slot) - x, width);
+						double dy = wrappedDistance(food.getY(slot) - y, height);
+						double square = dx * dx + dy * dy;
+						if (square <= nearestSquare) {
+							nearest = null;
+							nearestFood = slot;
+							nearestSquare = square;
+						}
+					}
+				}
+			}
+		}
+		return (nearestFood >= 0) ? food.getView(nearestFood) : nearest;
+	}
+
+	private static double wrappedDistance(double distance, int period) {
+		return distance - Math.rint(distance / period) * period;
+	}
+
+	private int cellIndex(double coordinate) {
+		return (int) (coordinate / cellSize);
+	}
+
+	private static int floorDiv(double value, int divisor) {
+		return (int) Math.floor(value / divisor);
+	}
+
+	private static double floorMod(double value, int divisor) {
+		return value - Math.floor(value / divisor) * divisor;
+	}
+
+	private static int floorMod(int value, int divisor) {
+		return Math.floorMod(value, divisor);
+	}
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timers of agents, which fire at given time steps (e.g. fish radiating
+ * energy now and then), kept so that a time step costs as much as the timers
+ * which fire at it, however many wait. <br/>
+ * Hierarchical timing wheel: level 0 has a bucket for each of the next 64
+ * time steps, every next level a bucket for each of 64 spans of 64 times
+ * longer ones. Buckets of a span are moved a level down when the span comes,
+ * timers due further than the last level reaches wait in its buckets for
+ * their turn. <br/>
+ * A timer asks its owner when to fire next ({@link Timer#next(long, long)})
+ * when added, after it fires, and after its owner tells that this may have
+ * changed ({@link Timer#changed()}). Changed timers are asked at once by
+ * {@link #reschedule(long)}, at a moment when states of their owners are as
+ * of a known time step. <br/>
+ * Timers due at the same time step fire in no particular order. Not thread
+ * safe.
+ */
+public class TimingWheel {
+	public static final long NEVER = Long.MIN_VALUE;
+
+	private static final int BITS = 6;
+	private static final int SIZE = 1 << BITS;
+	private static final int MASK = SIZE - 1;
+	private static final int LEVELS = 4;
+
+	public abstract static class Timer {
+		private TimingWheel wheel = null;
+		private long due = NEVER;
+		// Bucket the timer is linked into, level * SIZE + index, or -1
+		private int bucket = -1;
+		private Timer previous = null;
+		private Timer next = null;
+		private boolean changed = false;
+
+		/**
+		 * @param now
+		 *            time step the state of the owner is as of
+		 * @param from
+		 *            first time step the timer may fire at
+		 * @return time step to fire at, from the given one on, or
+		 *         {@link TimingWheel#NEVER}
+		 */
+		protected abstract long next(long now, long from);
+
+		/**
+		 * Called at the time step the timer is due, when states of owners
+		 * are as of this time step
+		 */
+		protected abstract void fire(long time);
+
+		/**
+		 * Time step the timer fires at, or {@link TimingWheel#NEVER}
+		 */
+		public long getDue() {
+			return due;
+		}
+
+		/**
+		 * Tells the wheel that the timer may be due at another time step, to
+		 * be asked at the next {@link TimingWheel#reschedule(long)}
+		 */
+		public void changed() {
+			if ((wheel != null) && !changed) {
+				changed = true;
+				wheel.changed.add(this);
+			}
+		}
+
+		/**
+		 * Removes the timer from its wheel, if any
+		 */
+		public void cancel() {
+			if (wheel != null) {
+				wheel.unlink(this);
+				wheel.count--;
+				wheel = null;
+				changed = false;
+				due = NEVER;
+			}
+		}
+	}
+
+	private final Timer[] buckets = new Timer[LEVELS * SIZE];
+	private List<Timer> changed = new ArrayList<Timer>();
+	private long time;
+	private int count = 0;
+
+	/**
+	 * @param time
+	 *            time step which has passed already
+	 */
+	public TimingWheel(long time) {
+		this.time = time;
+	}
+
+	/**
+	 * Last time step passed
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Number of timers added
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Adds the timer (taking it from another wheel, if any), which is asked
+	 * when to fire at the next {@link #reschedule(long)}
+	 */
+	public void add(Timer timer) {
+		timer.cancel();
+		timer.wheel = this;
+		count++;
+		timer.changed();
+	}
+
+	/**
+	 * Asks changed timers when to fire
+	 *
+	 * @param now
+	 *            time step states of owners are as of, the last passed one
+	 *            or the one which is being passed
+	 */
+	public void reschedule(long now) {
+		if ((now != time) && (now != time + 1)) {
+			throw new IllegalArgumentException("Time step " + now + " is neither passed nor being passed, last passed is " + time);
+		}
+		// Owners may change timers while being asked
+		while (!changed.isEmpty()) {
+			List<Timer> timers = changed;
+			changed = new ArrayList<Timer>();
+			for (Timer timer : timers) {
+				if ((timer.wheel == this) && timer.changed) {
+					timer.changed = false;
+					schedule(timer, timer.next(now, time + 1));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Passes time steps up to the given one, firing timers due at them
+	 */
+	public void advance(long until) {
+		while (time < until) {
+			time++;
+			int index = (int) (time & MASK);
+			if (index == 0) {
+				cascade(1);
+			}
+			// Timers which fire may cancel others of the bucket
+			Timer timer;
+			while ((timer = buckets[index]) != null) {
+				unlink(timer);
+				timer.fire(time);
+				if (timer.wheel == this) {
+					schedule(timer, timer.next(time, time + 1));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves timers of the span which comes, from the level to lower ones
+	 */
+	private void cascade(int level) {
+		int index = (int) ((time >>> (BITS * level)) & MASK);
+		if ((index == 0) && (level + 1 < LEVELS)) {
+			cascade(level + 1);
+		}
+		int bucket = level * SIZE + index;
+		Timer timer = buckets[bucket];
+		buckets[bucket] = null;
+		while (timer != null) {
+			Timer following = timer.next;
+			timer.bucket = -1;
+			timer.previous = null;
+			timer.next = null;
+			link(timer);
+			timer = following;
+		}
+	}
+
+	private void schedule(Timer timer, long due) {
+		unlink(timer);
+		if (due == NEVER) {
+			timer.due = NEVER;
+			return;
+		}
+		if (due <= time) {
+			throw new IllegalArgumentException("Timer is due at " + due + ", which has passed already");
+		}
+		timer.due = due;
+		link(timer);
+	}
+
+	private void link(Timer timer) {
+		long delay = timer.due - time;
+		int level = 0;
+		while ((level + 1 < LEVELS) && (delay >= (1L << (BITS * (level + 1))))) {
+			level++;
+		}
+		int bucket = level * SIZE + (int) ((timer.due >>> (BITS * level)) & MASK);
+		timer.bucket = bucket;
+		timer.previous = null;
+		timer.next = buckets[bucket];
+		if (timer.next != null) {
+			timer.next.previous = timer;
+		}
+		buckets[bucket] = timer;
+	}
+
+	private void unlink(Timer timer) {
+		if (timer.bucket < 0) {
+			return;
+		}
+		if (timer.previous != null) {
+			timer.previous.next = timer.next;
+		} else {
+			buckets[timer.bucket] = timer.next;
+		}
+		if (timer.next != null) {
+			timer.next.previous = timer.previous;
+		}
+		timer.bucket = -1;
+		timer.previous = null;
+		timer.next = null;
+	}
+}
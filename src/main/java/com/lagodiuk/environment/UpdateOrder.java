@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment;
+
+/**
+ * Order in which agents interact during a time step. It decides who wins
+ * contests, e.g. for a piece of food two fish reach at once, so every order
+ * must state how fair it is. <br/>
+ * Must take random numbers from the environment only (see
+ * {@link IEnvironment#getRandom()}), or none, so that worlds can be replayed.
+ * See {@link UpdateOrders} for the usual ones.
+ */
+public interface UpdateOrder {
+
+	/**
+	 * @param order
+	 *            to be filled with a permutation of 0 .. count - 1: indices of
+	 *            agents, in the order they interact
+	 * @param count
+	 *            number of agents to interact, at least 0
+	 */
+	void arrange(int[] order, int count, Environment env);
+}
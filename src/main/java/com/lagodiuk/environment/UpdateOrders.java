@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment;
+
+import java.util.Random;
+
+/**
+ * Update orders which need no state of their own, so one world or many may
+ * use them. Agents are listed in the order they were added to the world,
+ * moving ones are added anew every time they move.
+ */
+public enum UpdateOrders implements UpdateOrder {
+
+	/**
+	 * Fisher-Yates shuffle with the random numbers of the world, the same
+	 * ones {@link java.util.Collections#shuffle(java.util.List, Random)}
+	 * takes. <br/>
+	 * Fair: every order is equally likely, every time step. Takes a random
+	 * number per agent.
+	 */
+	SHUFFLE {
+		@Override
+		public void arrange(int[] order, int count, Environment env) {
+			identity(order, count);
+			Random random = env.getRandom();
+			for (int i = count; i > 1; i--) {
+				swap(order, i - 1, random.nextInt(i));
+			}
+		}
+	},
+
+	/**
+	 * Agents go with a fixed stride through the list (about 0.618 of its
+	 * length, coprime to it), starting at a random one. <br/>
+	 * Fair to every agent alone: it is at every place equally likely. Not
+	 * fair to pairs: within a time step two agents are always the same number
+	 * of places apart, so contests between the same agents tend to be won by
+	 * the same one until moves reorder the list. Takes a single random
+	 * number.
+	 */
+	ROTATION {
+		@Override
+		public void arrange(int[] order, int count, Environment env) {
+			if (count == 0) {
+				return;
+			}
+			int stride = (int) (count * GOLDEN_RATIO);
+			while (gcd(stride, count) != 1) {
+				stride++;
+			}
+			int index = env.getRandom().nextInt(count);
+			for (int i = 0; i < count; i++) {
+				order[i] = index;
+				index += stride;
+				if (index >= count) {
+					index -= count;
+				}
+			}
+		}
+	},
+
+	/**
+	 * Fisher-Yates shuffle with a generator of its own (SplitMix64), seeded
+	 * by the seed of the world and the time step. Takes no random numbers of
+	 * the world, so the other random choices of a time step do not depend on
+	 * how many agents there are to order. <br/>
+	 * Fair: every order is equally likely, every time step (as far as the
+	 * generator goes, which is enough for simulation). Cheaper per agent than
+	 * {@link Random}.
+	 */
+	SEEDED {
+		@Override
+		public void arrange(int[] order, int count, Environment env) {
+			identity(order, count);
+			long state = env.getSeed() ^ ((long) env.getTime() * SPLITMIX_INCREMENT);
+			for (int i = count; i > 1; i--) {
+				state += SPLITMIX_INCREMENT;
+				long z = state;
+				z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+				z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+				z = z ^ (z >>> 31);
+				// Upper 31 bits scaled to 0 .. i - 1
+				swap(order, i - 1, (int) (((z >>> 33) * i) >>> 31));
+			}
+		}
+	};
+
+	private static final double GOLDEN_RATIO = 0.6180339887498949;
+	private static final long SPLITMIX_INCREMENT = 0x9E3779B97F4A7C15L;
+
+	private static void identity(int[] order, int count) {
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+	}
+
+	private static void swap(int[] order, int i, int j) {
+		int tmp = order[i];
+		order[i] = order[j];
+		order[j] = tmp;
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int tmp = a % b;
+			a = b;
+			b = tmp;
+		}
+		return a;
+	}
+}
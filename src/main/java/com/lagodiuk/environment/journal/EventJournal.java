@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.IFood;
+import com.lagodiuk.agent.MovingFood;
+import com.lagodiuk.agent.StaticFood;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.snapshot.SnapshotFormat;
+import com.lagodiuk.environment.snapshot.WorldFiles;
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.ThresholdFunction;
+import com.lagodiuk.nn.serializing.binary.BinaryInput;
+import com.lagodiuk.nn.serializing.binary.BinaryOutput;
+import com.lagodiuk.nn.serializing.binary.BrainCodec;
+
+/**
+ * Append-only log of everything a world can not derive by itself: random seed
+ * and inputs from outside (seeded food, replaced brains, changed
+ * parameters). <br/>
+ * World is deterministic given its seed (see {@link Environment#getRandom()}),
+ * so keyframes (snapshots of the world, written next to the journal as
+ * "journal.N{@value #KEYFRAME_EXTENSION}") can be sparse: any time between
+ * them is reproduced by {@link JournalReplay}. <br/>
+ * Journal file: magic, version, threshold functions table (see
+ * {@link BrainCodec}), then records: byte length, type, time of the world,
+ * payload. Record cut off by a crash is dropped on the next opening.
+ */
+public class EventJournal implements Closeable {
+	public static final String KEYFRAME_EXTENSION = WorldFiles.SNAPSHOT_EXTENSION;
+
+	private static final int MAGIC = 0x45564E4A; // "EVNJ"
+	private static final int VERSION = 1;
+
+	private final File file;
+	private final FileOutputStream stream;
+	private final BinaryOutput out;
+	private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+	private final BinaryOutput record = new BinaryOutput(recordBytes);
+	private int keyframesCount = 0;
+
+	/**
+	 * Opens journal for appending, creates it when it does not exist
+	 */
+	public EventJournal(File file) throws IOException {
+		this.file = file;
+		List<JournalEvent> events = new ArrayList<JournalEvent>();
+		long length = file.exists() ? read(file, events) : 0;
+		for (JournalEvent event : events) {
+			if (event.type == JournalEvent.KEYFRAME) {
+				keyframesCount = Math.max(keyframesCount, event.number + 1);
+			}
+		}
+
+		this.stream = new FileOutputStream(file, true);
+		this.stream.getChannel().truncate(length);
+		this.out = new BinaryOutput(this.stream);
+		if (length == 0) {
+			out.writeInt(MAGIC);
+			out.writeVarInt(VERSION);
+			BrainCodec.writeFunctionTable(out);
+			out.flush();
+		}
+	}
+
+	public static File keyframeFile(File journal, int number) {
+		return new File(journal.getPath() + "." + number + KEYFRAME_EXTENSION);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized void recordSeed(double time, long seed) {
+		try {
+			startRecord(JournalEvent.SEED, time);
+			record.writeLong(seed);
+			endRecord();
+		} catch (IOException e) {
+			throw new RuntimeException("Can not write event journal " + file, e);
+		}
+	}
+
+	public synchronized void recordSeedFood(double time, IFood food) {
+		try {
+			startRecord(JournalEvent.SEED_FOOD, time);
+			writeFood(record, food);
+			endRecord();
+		} catch (IOException e) {
+			throw new RuntimeException("Can not write event journal " + file, e);
+		}
+	}
+
+	/**
+	 * @param index
+	 *            index of agent in the list of agents of the world
+	 */
+	public synchronized void recordBrain(double time, int index, NeuralNetwork brain) {
+		try {
+			startRecord(JournalEvent.BRAIN, time);
+			record.writeVarInt(index);
+			BrainCodec.write(record, brain);
+			endRecord();
+		} catch (IOException e) {
+			throw new RuntimeException("Can not write event journal " + file, e);
+		}
+	}
+
+	public synchronized void recordMinNumberOfAgents(double time, int minNumberOfAgents) {
+		try {
+			startRecord(JournalEvent.MIN_NUMBER_OF_AGENTS, time);
+			record.writeVarInt(minNumberOfAgents);
+			endRecord();
+		} catch (IOException e) {
+			throw new RuntimeException("Can not write event journal " + file, e);
+		}
+	}
+
+	/**
+	 * Writes snapshot of the world as the next keyframe. <br/>
+	 * World is locked only while it is copied.
+	 */
+	public void recordKeyframe(Environment env) {
+		Environment snapshot;
+		int number;
+		synchronized (env) {
+			snapshot = env.snapshot();
+			synchronized (this) {
+				number = keyframesCount++;
+				try {
+					startRecord(JournalEvent.KEYFRAME, snapshot.getTime());
+					record.writeVarInt(number);
+					endRecord();
+				} catch (IOException e) {
+					throw new RuntimeException("Can not write event journal " + file, e);
+				}
+			}
+		}
+
+		// Record without keyframe file is skipped by replay, so the file may
+		// appear later than the record
+		File keyframeFile = keyframeFile(file, number);
+		File tmpFile = new File(keyframeFile.getPath() + ".tmp");
+		try {
+			OutputStream tmp = new BufferedOutputStream(new FileOutputStream(tmpFile));
+			try {
+				WorldFiles.write(snapshot, tmp, true);
+			} finally {
+				tmp.close();
+			}
+			Files.move(tmpFile.toPath(), keyframeFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (Exception e) {
+			throw new RuntimeException("Can not write keyframe " + keyframeFile, e);
+		}
+	}
+
+	private void startRecord(int type, double time) throws IOException {
+		recordBytes.reset();
+		record.writeByte(type);
+		record.writeDouble(time);
+	}
+
+	private void endRecord() throws IOException {
+		record.flush();
+		out.writeVarInt(recordBytes.size());
+		out.writeBytes(recordBytes.toByteArray(), 0, recordBytes.size());
+		out.flush();
+	}
+
+	private static void writeFood(BinaryOutput out, IFood food) throws IOException {
+		if (food instanceof MovingFood) {
+			MovingFood movingFood = (MovingFood) food;
+			out.writeByte(SnapshotFormat.KIND_MOVING_FOOD);
+			out.writeDouble(movingFood.getX());
+			out.writeDouble(movingFood.getY());
+			out.writeDouble(movingFood.getAngle());
+			out.writeDouble(movingFood.getSpeed());
+		} else if (food instanceof StaticFood) {
+			out.writeByte(SnapshotFormat.KIND_STATIC_FOOD);
+			out.writeDouble(food.getX());
+			out.writeDouble(food.getY());
+		} else {
+			throw new IllegalArgumentException("Food of type " + food.getClass().getName() + " can not be journaled");
+		}
+		out.writeVarInt(food.getEnergy());
+	}
+
+	private static IFood readFood(BinaryInput in) throws IOException {
+		int kind = in.readByte();
+		AbstractAgent food;
+		if (kind == SnapshotFormat.KIND_MOVING_FOOD) {
+			food = new MovingFood(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+		} else if (kind == SnapshotFormat.KIND_STATIC_FOOD) {
+			food = new StaticFood(in.readDouble(), in.readDouble());
+		} else {
+			throw new IOException("Unknown kind of food: " + kind);
+		}
+		food.setEnergy(in.readVarInt());
+		return (IFood) food;
+	}
+
+	/**
+	 * Reads all complete records of the journal
+	 *
+	 * @return length of the journal up to the end of the last complete record
+	 */
+	static long read(File file, List<JournalEvent> events) throws IOException {
+		BinaryInput in = new BinaryInput(new FileInputStream(file));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not an event journal: " + file);
+			}
+			int version = in.readVarInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported event journal version " + version);
+			}
+			ThresholdFunction[] functions = BrainCodec.readFunctionTable(in);
+			long fileLength = file.length();
+			long length = in.position();
+			for (;;) {
+				byte[] record;
+				try {
+					int size = in.readVarInt();
+					if ((size <= 0) || (size > fileLength - in.position())) {
+						return length;
+					}
+					record = new byte[size];
+					in.readBytes(record, 0, size);
+				} catch (EOFException e) {
+					// End of journal, or the last record was cut off
+					return length;
+				}
+				events.add(readEvent(new BinaryInput(record, 0, record.length), functions));
+				length = in.position();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static JournalEvent readEvent(BinaryInput in, ThresholdFunction[] functions) throws IOException {
+		int type = in.readByte();
+		JournalEvent event = new JournalEvent(type, in.readDouble());
+		switch (type) {
+			case JournalEvent.KEYFRAME: {
+				event.number = in.readVarInt();
+			}
+				break;
+			case JournalEvent.SEED: {
+				event.seed = in.readLong();
+			}
+				break;
+			case JournalEvent.SEED_FOOD: {
+				event.food = readFood(in);
+			}
+				break;
+			case JournalEvent.BRAIN: {
+				event.number = in.readVarInt();
+				event.brain = BrainCodec.read(in, functions);
+			}
+				break;
+			case JournalEvent.MIN_NUMBER_OF_AGENTS: {
+				event.number = in.readVarInt();
+			}
+				break;
+			default:
+				throw new IOException("Unknown type of journal record: " + type);
+		}
+		return event;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.journal;
+
+import com.lagodiuk.agent.IFood;
+import com.lagodiuk.nn.NeuralNetwork;
+
+/**
+ * Record of {@link EventJournal}, as it is read back
+ */
+class JournalEvent {
+	static final int KEYFRAME = 1;
+	static final int SEED = 2;
+	static final int SEED_FOOD = 3;
+	static final int BRAIN = 4;
+	static final int MIN_NUMBER_OF_AGENTS = 5;
+
+	final int type;
+	final double time;
+
+	// KEYFRAME: number of keyframe file; BRAIN: index of agent;
+	// MIN_NUMBER_OF_AGENTS: new value
+	int number;
+	// SEED
+	long seed;
+	// SEED_FOOD
+	IFood food;
+	// BRAIN
+	NeuralNetwork brain;
+
+	JournalEvent(int type, double time) {
+		this.type = type;
+		this.time = time;
+	}
+}
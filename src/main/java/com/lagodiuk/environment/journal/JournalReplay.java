@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.IFood;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.snapshot.WorldFiles;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+
+/**
+ * Reproduces the world recorded by {@link EventJournal} at any time: loads
+ * the latest keyframe not later than that time, then runs the world, applying
+ * recorded inputs at the times they happened. <br/>
+ * When the world was replaced during recording (e.g. another one was loaded),
+ * the latest recorded one is reproduced.
+ */
+public class JournalReplay {
+	private final File file;
+	private final List<JournalEvent> events = new ArrayList<JournalEvent>();
+
+	public JournalReplay(File file) throws IOException {
+		this.file = file;
+		EventJournal.read(file, events);
+	}
+
+	/**
+	 * Times of keyframes, in order of recording
+	 */
+	public List<Double> getKeyframeTimes() {
+		List<Double> times = new ArrayList<Double>();
+		for (JournalEvent event : events) {
+			if (event.type == JournalEvent.KEYFRAME) {
+				times.add(event.time);
+			}
+		}
+		return times;
+	}
+
+	/**
+	 * @return world as it was when it reached the given time, before inputs
+	 *         of that time
+	 */
+	public Environment replay(double time) throws Exception {
+		int start = -1;
+		for (int i = events.size() - 1; i >= 0; i--) {
+			JournalEvent event = events.get(i);
+			if ((event.type == JournalEvent.KEYFRAME) && (event.time <= time)
+					&& EventJournal.keyframeFile(file, event.number).exists()) {
+				start = i;
+				break;
+			}
+		}
+		if (start < 0) {
+			throw new IllegalArgumentException("No keyframe before time " + time + " in " + file);
+		}
+
+		JournalEvent keyframe = events.get(start);
+		Environment env = WorldFiles.load(EventJournal.keyframeFile(file, keyframe.number));
+
+		int next = start + 1;
+		while (env.getTime() < time) {
+			while ((next < events.size()) && (events.get(next).time <= env.getTime())) {
+				apply(env, events.get(next));
+				next++;
+			}
+			env.timeStep();
+		}
+		return env;
+	}
+
+	private static void apply(Environment env, JournalEvent event) {
+		switch (event.type) {
+			case JournalEvent.SEED:
+				env.setSeed(event.seed);
+				break;
+			case JournalEvent.SEED_FOOD:
+				env.seedFood(copyOf(event.food));
+				break;
+			case JournalEvent.BRAIN:
+				NeuralNetworkDrivenAgent agent = (NeuralNetworkDrivenAgent) env.getAgents().get(event.number);
+				env.setBrain(agent, event.brain.clone());
+				break;
+			case JournalEvent.MIN_NUMBER_OF_AGENTS:
+				env.setMinNumberOfAgents(event.number);
+				break;
+			default:
+				// Keyframes of the same world are consistent with replayed state
+				break;
+		}
+	}
+
+	/**
+	 * Food is changed once it is added to a world, so every replay gets its
+	 * own copy
+	 */
+	private static IFood copyOf(IFood food) {
+		return (IFood) ((AbstractAgent) food).clone();
+	}
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+/**
+ * Agents of a snapshot, column by column. <br/>
+ * Columns of moving agents and of fish hold entries only for agents of those
+ * kinds, in the same order as in the agents columns.
+ */
+public class AgentColumns {
+	public final int count;
+	public final byte[] kind;
+	public final double[] x;
+	public final double[] y;
+	public final int[] energy;
+
+	public final int movingCount;
+	public final double[] angle;
+	public final double[] speed;
+
+	public final int fishCount;
+	public final double[] age;
+	public final int[] generation;
+	public final int[] newbornEnergy;
+	public final int[] parentingEnergy;
+	public final int[] brain;
+
+	public AgentColumns(byte[] kind) {
+		this.count = kind.length;
+		this.kind = kind;
+		this.x = new double[count];
+		this.y = new double[count];
+		this.energy = new int[count];
+
+		int movingCount = 0;
+		int fishCount = 0;
+		for (byte k : kind) {
+			if (SnapshotFormat.isMoving(k)) {
+				movingCount++;
+			}
+			if (SnapshotFormat.isFish(k)) {
+				fishCount++;
+			}
+		}
+		this.movingCount = movingCount;
+		this.angle = new double[movingCount];
+		this.speed = new double[movingCount];
+
+		this.fishCount = fishCount;
+		this.age = new double[fishCount];
+		this.generation = new int[fishCount];
+		this.newbornEnergy = new int[fishCount];
+		this.parentingEnergy = new int[fishCount];
+		this.brain = new int[fishCount];
+	}
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import java.io.IOException;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.MovingAgent;
+import com.lagodiuk.agent.MovingFood;
+import com.lagodiuk.agent.StaticFood;
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+import com.lagodiuk.nn.serializing.binary.BinaryInput;
+import com.lagodiuk.nn.serializing.binary.BinaryOutput;
+
+/**
+ * Stored fields of an agent, as they are compared and replayed by
+ * {@link CheckpointChain}
+ */
+class AgentState {
+	static final int X = 1;
+	static final int Y = 1 << 1;
+	static final int ENERGY = 1 << 2;
+	static final int ANGLE = 1 << 3;
+	static final int SPEED = 1 << 4;
+	static final int AGE = 1 << 5;
+	static final int GENERATION = 1 << 6;
+	static final int NEWBORN_ENERGY = 1 << 7;
+	static final int PARENTING_ENERGY = 1 << 8;
+	static final int BRAIN = 1 << 9;
+
+	// Order of columns in delta checkpoints, brain is written separately
+	static final int[] VALUE_FIELDS = { X, Y, ENERGY, ANGLE, SPEED, AGE, GENERATION, NEWBORN_ENERGY, PARENTING_ENERGY };
+
+	// Id of agent within checkpoint chain
+	final long id;
+	final int kind;
+	double x;
+	double y;
+	int energy;
+	double angle;
+	double speed;
+	double age;
+	int generation;
+	int newbornEnergy;
+	int parentingEnergy;
+	NeuralNetwork brain;
+
+	AgentState(long id, int kind) {
+		this.id = id;
+		this.kind = kind;
+	}
+
+	static AgentState of(long id, AbstractAgent agent) {
+		AgentState state = new AgentState(id, SnapshotWriter.kindOf(agent));
+		state.x = agent.getX();
+		state.y = agent.getY();
+		state.energy = agent.getEnergy();
+		if (agent instanceof MovingAgent) {
+			MovingAgent movingAgent = (MovingAgent) agent;
+			state.angle = movingAgent.getAngle();
+			state.speed = movingAgent.getSpeed();
+		}
+		if (agent instanceof NeuralNetworkDrivenAgent) {
+			NeuralNetworkDrivenAgent nnAgent = (NeuralNetworkDrivenAgent) agent;
+			state.age = nnAgent.getAge();
+			state.generation = nnAgent.getGeneration();
+			state.newbornEnergy = nnAgent.getNewbornEnergy();
+			state.parentingEnergy = nnAgent.getParentingEnergy();
+			state.brain = nnAgent.getBrain();
+		}
+		return state;
+	}
+
+	/**
+	 * @return bits of fields which differ from the previous state of the
+	 *         same agent
+	 */
+	int changes(AgentState previous) {
+		int changes = 0;
+		if (Double.doubleToLongBits(x) != Double.doubleToLongBits(previous.x)) {
+			changes |= X;
+		}
+		if (Double.doubleToLongBits(y) != Double.doubleToLongBits(previous.y)) {
+			changes |= Y;
+		}
+		if (energy != previous.energy) {
+			changes |= ENERGY;
+		}
+		if (Double.doubleToLongBits(angle) != Double.doubleToLongBits(previous.angle)) {
+			changes |= ANGLE;
+		}
+		if (Double.doubleToLongBits(speed) != Double.doubleToLongBits(previous.speed)) {
+			changes |= SPEED;
+		}
+		if (Double.doubleToLongBits(age) != Double.doubleToLongBits(previous.age)) {
+			changes |= AGE;
+		}
+		if (generation != previous.generation) {
+			changes |= GENERATION;
+		}
+		if (newbornEnergy != previous.newbornEnergy) {
+			changes |= NEWBORN_ENERGY;
+		}
+		if (parentingEnergy != previous.parentingEnergy) {
+			changes |= PARENTING_ENERGY;
+		}
+		if (brain != previous.brain) {
+			changes |= BRAIN;
+		}
+		return changes;
+	}
+
+	void write(BinaryOutput out, int field) throws IOException {
+		switch (field) {
+			case X:
+				out.writeDouble(x);
+				break;
+			case Y:
+				out.writeDouble(y);
+				break;
+			case ENERGY:
+				out.writeVarInt(energy);
+				break;
+			case ANGLE:
+				out.writeDouble(angle);
+				break;
+			case SPEED:
+				out.writeDouble(speed);
+				break;
+			case AGE:
+				out.writeDouble(age);
+				break;
+			case GENERATION:
+				out.writeVarInt(generation);
+				break;
+			case NEWBORN_ENERGY:
+				out.writeSignedVarInt(newbornEnergy);
+				break;
+			case PARENTING_ENERGY:
+				out.writeSignedVarInt(parentingEnergy);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown field " + field);
+		}
+	}
+
+	void read(BinaryInput in, int field) throws IOException {
+		switch (field) {
+			case X:
+				x = in.readDouble();
+				break;
+			case Y:
+				y = in.readDouble();
+				break;
+			case ENERGY:
+				energy = in.readVarInt();
+				break;
+			case ANGLE:
+				angle = in.readDouble();
+				break;
+			case SPEED:
+				speed = in.readDouble();
+				break;
+			case AGE:
+				age = in.readDouble();
+				break;
+			case GENERATION:
+				generation = in.readVarInt();
+				break;
+			case NEWBORN_ENERGY:
+				newbornEnergy = in.readSignedVarInt();
+				break;
+			case PARENTING_ENERGY:
+				parentingEnergy = in.readSignedVarInt();
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown field " + field);
+		}
+	}
+
+	AbstractAgent createAgent() throws IOException {
+		AbstractAgent agent;
+		switch (kind) {
+			case SnapshotFormat.KIND_STATIC_FOOD:
+				agent = new StaticFood(x, y);
+				break;
+			case SnapshotFormat.KIND_MOVING_FOOD:
+				agent = new MovingFood(x, y, angle, speed);
+				break;
+			case SnapshotFormat.KIND_NEURAL_NETWORK_DRIVEN_AGENT:
+				NeuralNetworkDrivenAgent nnAgent = new NeuralNetworkDrivenAgent(x, y, angle, speed);
+				nnAgent.setAge(age);
+				nnAgent.setGeneration(generation);
+				nnAgent.setNewbornEnergy(newbornEnergy);
+				nnAgent.setParentingEnergy(parentingEnergy);
+				nnAgent.setBrain(brain);
+				agent = nnAgent;
+				break;
+			default:
+				throw new IOException("Unknown agent kind " + kind);
+		}
+		agent.setEnergy(energy);
+		return agent;
+	}
+}
@@ -0,0 +1,416 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.ThresholdFunction;
+import com.lagodiuk.nn.serializing.binary.BinaryInput;
+import com.lagodiuk.nn.serializing.binary.BinaryOutput;
+import com.lagodiuk.nn.serializing.binary.BrainCodec;
+import com.lagodiuk.nn.serializing.binary.BrainTable;
+
+/**
+ * Checkpoints as a chain: full world in the checkpoint file (the base, in
+ * the format chosen by {@link WorldFiles}), followed by delta files
+ * "file.1.delta", "file.2.delta", ... each of which records changes since the
+ * previous checkpoint. After the configured number of deltas the next
+ * checkpoint is a full one again, which folds the chain into a new base. <br/>
+ * Agents of the base get ids in the chain by their position, newborns get
+ * next ids in order of appearance (agents move within the list of the world
+ * as they move in the world, so order is stored as well). Delta file: <br/>
+ * <ul>
+ * <li>magic, version and header, as in snapshot; number of the delta in the
+ * chain and time of the base</li>
+ * <li>threshold functions table</li>
+ * <li>ids of all agents, in order</li>
+ * <li>new brains: count, byte length, brain records (see {@link BrainTable})
+ * </li>
+ * <li>agents which stay: bits of changed fields of every agent, then columns
+ * of changed values field by field (see {@link AgentState}), then brain
+ * references of agents whose brain changed</li>
+ * <li>added agents (those with ids which are not in the previous
+ * checkpoint): columns, as in snapshot</li>
+ * </ul>
+ * Brain reference is an index of new brain, or, if it is not less than the
+ * number of new brains, (number of new brains + id) of an agent of the
+ * previous checkpoint which has the same brain. <br/>
+ * Files are written to temporary ones and then renamed, deltas which do not
+ * belong to the current base (left when a new base was written, but old
+ * deltas were not deleted yet) are ignored by {@link #restore(File)}.
+ */
+public class CheckpointChain {
+	public static final String DELTA_EXTENSION = ".delta";
+
+	private final File file;
+	private final int maxDeltas;
+
+	// State of the last written checkpoint
+	private List<AgentState> previous = null;
+	private Map<Long, AgentState> previousByAgentId = new HashMap<Long, AgentState>();
+	private long nextId;
+	private double baseTime;
+	private int deltas;
+
+	/**
+	 * @param maxDeltas
+	 *            number of delta checkpoints between full ones, 0 means every
+	 *            checkpoint is full
+	 */
+	public CheckpointChain(File file, int maxDeltas) {
+		this.file = file;
+		this.maxDeltas = maxDeltas;
+	}
+
+	public static File deltaFile(File file, int number) {
+		return new File(file.getPath() + "." + number + DELTA_EXTENSION);
+	}
+
+	/**
+	 * Writes the next checkpoint. Checkpoints of the chain have to be written
+	 * one by one, from the same snapshots the simulation produced.
+	 *
+	 * @return true if full checkpoint was written
+	 */
+	public boolean write(Environment snapshot) throws Exception {
+		if ((previous == null) || (deltas >= maxDeltas)) {
+			writeBase(snapshot);
+			return true;
+		}
+		writeDelta(snapshot);
+		return false;
+	}
+
+	/**
+	 * @return number of deltas written after the current base
+	 */
+	public int getDeltasCount() {
+		return deltas;
+	}
+
+	private void writeBase(Environment snapshot) throws Exception {
+		File tmpFile = new File(file.getPath() + ".tmp");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile));
+		try {
+			WorldFiles.write(snapshot, out, WorldFiles.isSnapshot(file));
+		} finally {
+			out.close();
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		deleteDeltas(file);
+
+		List<AbstractAgent> agents = snapshot.getAgents();
+		List<AgentState> states = new ArrayList<AgentState>(agents.size());
+		for (AbstractAgent agent : agents) {
+			states.add(AgentState.of(states.size(), agent));
+		}
+		remember(agents, states);
+		nextId = states.size();
+		baseTime = snapshot.getTime();
+		deltas = 0;
+	}
+
+	private void remember(List<AbstractAgent> agents, List<AgentState> states) {
+		previous = states;
+		previousByAgentId = new HashMap<Long, AgentState>(agents.size() * 2);
+		for (int i = 0; i < agents.size(); i++) {
+			previousByAgentId.put(agents.get(i).getId(), states.get(i));
+		}
+	}
+
+	/**
+	 * Deletes deltas of the checkpoint file
+	 */
+	public static void deleteDeltas(File file) throws IOException {
+		for (int number = 1; deltaFile(file, number).exists(); number++) {
+			Files.delete(deltaFile(file, number).toPath());
+		}
+	}
+
+	private void writeDelta(Environment snapshot) throws Exception {
+		List<AbstractAgent> agents = snapshot.getAgents();
+		List<AgentState> states = new ArrayList<AgentState>(agents.size());
+		List<AgentState> stayed = new ArrayList<AgentState>();
+		List<AgentState> stayedBefore = new ArrayList<AgentState>();
+		List<AbstractAgent> added = new ArrayList<AbstractAgent>();
+		List<AgentState> addedStates = new ArrayList<AgentState>();
+		for (AbstractAgent agent : agents) {
+			AgentState previousState = previousByAgentId.get(agent.getId());
+			if (previousState == null) {
+				AgentState state = AgentState.of(nextId++, agent);
+				states.add(state);
+				added.add(agent);
+				addedStates.add(state);
+				continue;
+			}
+			AgentState state = AgentState.of(previousState.id, agent);
+			states.add(state);
+			stayed.add(state);
+			stayedBefore.add(previousState);
+		}
+
+		// Brains of the previous checkpoint are referred to by their owners
+		Map<NeuralNetwork, Long> owners = new IdentityHashMap<NeuralNetwork, Long>();
+		for (AgentState state : previous) {
+			if ((state.brain != null) && !owners.containsKey(state.brain)) {
+				owners.put(state.brain, state.id);
+			}
+		}
+		BrainTable brains = new BrainTable();
+		for (AgentState state : states) {
+			if ((state.brain != null) && !owners.containsKey(state.brain)) {
+				brains.add(state.brain);
+			}
+		}
+
+		int number = deltas + 1;
+		File deltaFile = deltaFile(file, number);
+		File tmpFile = new File(deltaFile.getPath() + ".tmp");
+		BinaryOutput out = new BinaryOutput(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			SnapshotWriter.writeHeader(out, SnapshotFormat.DELTA_MAGIC, SnapshotFormat.DELTA_VERSION, snapshot);
+			out.writeVarInt(number);
+			out.writeDouble(baseTime);
+			BrainCodec.writeFunctionTable(out);
+
+			out.writeVarInt(states.size());
+			for (AgentState state : states) {
+				out.writeVarLong(state.id);
+			}
+
+			out.writeVarInt(brains.size());
+			out.writeVarLong(brains.getBytesCount());
+			brains.write(out);
+
+			writeStayed(out, stayed, stayedBefore, brains, owners);
+
+			int[] brainReferences = new int[added.size()];
+			int fish = 0;
+			for (AgentState state : addedStates) {
+				if (SnapshotFormat.isFish(state.kind)) {
+					brainReferences[fish++] = brainReference(state.brain, brains, owners);
+				}
+			}
+			SnapshotWriter.writeAgents(out, added, brainReferences);
+			out.flush();
+		} finally {
+			out.close();
+		}
+		Files.move(tmpFile.toPath(), deltaFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+		remember(agents, states);
+		deltas = number;
+	}
+
+	private static void writeStayed(BinaryOutput out, List<AgentState> stayed, List<AgentState> stayedBefore, BrainTable brains,
+			Map<NeuralNetwork, Long> owners) throws IOException {
+		int[] changes = new int[stayed.size()];
+		for (int i = 0; i < stayed.size(); i++) {
+			changes[i] = stayed.get(i).changes(stayedBefore.get(i));
+			out.writeVarInt(changes[i]);
+		}
+		for (int field : AgentState.VALUE_FIELDS) {
+			for (int i = 0; i < stayed.size(); i++) {
+				if ((changes[i] & field) != 0) {
+					stayed.get(i).write(out, field);
+				}
+			}
+		}
+		for (int i = 0; i < stayed.size(); i++) {
+			if ((changes[i] & AgentState.BRAIN) != 0) {
+				out.writeVarInt(brainReference(stayed.get(i).brain, brains, owners));
+			}
+		}
+	}
+
+	private static int brainReference(NeuralNetwork brain, BrainTable brains, Map<NeuralNetwork, Long> owners) throws IOException {
+		Long owner = owners.get(brain);
+		if (owner != null) {
+			return (int) (brains.size() + owner);
+		}
+		return brains.add(brain);
+	}
+
+	/**
+	 * Loads the checkpoint file and replays its deltas
+	 */
+	public static Environment restore(File file) throws Exception {
+		Environment base = WorldFiles.load(file);
+		List<AbstractAgent> agents = base.getAgents();
+		List<AgentState> states = new ArrayList<AgentState>(agents.size());
+		for (AbstractAgent agent : agents) {
+			states.add(AgentState.of(states.size(), agent));
+		}
+
+		SnapshotHeader header = null;
+		for (int number = 1; deltaFile(file, number).exists(); number++) {
+			InputStream in = new BufferedInputStream(new FileInputStream(deltaFile(file, number)));
+			try {
+				SnapshotHeader deltaHeader = readDelta(new BinaryInput(in), number, base.getTime(), states);
+				if (deltaHeader == null) {
+					// Left from the previous base
+					break;
+				}
+				header = deltaHeader;
+			} finally {
+				in.close();
+			}
+		}
+		if (header == null) {
+			return base;
+		}
+
+		List<AbstractAgent> restored = new ArrayList<AbstractAgent>(states.size());
+		for (AgentState state : states) {
+			restored.add(state.createAgent());
+		}
+		return SnapshotReader.createEnvironment(header, restored);
+	}
+
+	/**
+	 * Applies delta to states of agents
+	 *
+	 * @return header of the delta, or null if the delta does not follow the
+	 *         checkpoint
+	 */
+	private static SnapshotHeader readDelta(BinaryInput in, int number, double baseTime, List<AgentState> states) throws IOException {
+		if (in.readInt() != SnapshotFormat.DELTA_MAGIC) {
+			throw new IOException("Not a delta checkpoint");
+		}
+		int version = in.readVarInt();
+		if (version != SnapshotFormat.DELTA_VERSION) {
+			throw new IOException("Unsupported delta checkpoint version " + version);
+		}
+		SnapshotHeader header = SnapshotReader.readHeaderFields(in, version);
+		if ((in.readVarInt() != number) || (in.readDouble() != baseTime)) {
+			return null;
+		}
+		ThresholdFunction[] functions = BrainCodec.readFunctionTable(in);
+
+		Map<Long, AgentState> previous = new HashMap<Long, AgentState>(states.size() * 2);
+		// Brains are referred to by their owners as of the previous
+		// checkpoint, whatever brains the owners get in this delta
+		Map<Long, NeuralNetwork> previousBrains = new HashMap<Long, NeuralNetwork>(states.size() * 2);
+		for (AgentState state : states) {
+			previous.put(state.id, state);
+			if (state.brain != null) {
+				previousBrains.put(state.id, state.brain);
+			}
+		}
+
+		int count = in.readVarInt();
+		long[] ids = new long[count];
+		List<AgentState> stayed = new ArrayList<AgentState>(count);
+		for (int i = 0; i < count; i++) {
+			ids[i] = in.readVarLong();
+			AgentState state = previous.get(ids[i]);
+			if (state != null) {
+				stayed.add(state);
+			}
+		}
+
+		int brainsCount = in.readVarInt();
+		in.readVarLong();
+		NeuralNetwork[] brains = BrainTable.read(in, brainsCount, functions);
+
+		int[] changes = new int[stayed.size()];
+		for (int i = 0; i < stayed.size(); i++) {
+			changes[i] = in.readVarInt();
+		}
+		for (int field : AgentState.VALUE_FIELDS) {
+			for (int i = 0; i < stayed.size(); i++) {
+				if ((changes[i] & field) != 0) {
+					stayed.get(i).read(in, field);
+				}
+			}
+		}
+		NeuralNetwork[] changedBrains = new NeuralNetwork[stayed.size()];
+		for (int i = 0; i < stayed.size(); i++) {
+			if ((changes[i] & AgentState.BRAIN) != 0) {
+				changedBrains[i] = resolveBrain(in.readVarInt(), brains, previousBrains);
+			}
+		}
+		for (int i = 0; i < stayed.size(); i++) {
+			if ((changes[i] & AgentState.BRAIN) != 0) {
+				stayed.get(i).brain = changedBrains[i];
+			}
+		}
+
+		AgentColumns added = SnapshotReader.readAgents(in);
+		if (stayed.size() + added.count != count) {
+			throw new IOException("Delta lists " + count + " agents, but has " + stayed.size() + " known and " + added.count + " new");
+		}
+		states.clear();
+		int s = 0;
+		int a = 0;
+		int moving = 0;
+		int fish = 0;
+		for (int i = 0; i < count; i++) {
+			if (previous.containsKey(ids[i])) {
+				states.add(stayed.get(s++));
+				continue;
+			}
+			AgentState state = new AgentState(ids[i], added.kind[a]);
+			state.x = added.x[a];
+			state.y = added.y[a];
+			state.energy = added.energy[a];
+			if (SnapshotFormat.isMoving(state.kind)) {
+				state.angle = added.angle[moving];
+				state.speed = added.speed[moving];
+				moving++;
+			}
+			if (SnapshotFormat.isFish(state.kind)) {
+				state.age = added.age[fish];
+				state.generation = added.generation[fish];
+				state.newbornEnergy = added.newbornEnergy[fish];
+				state.parentingEnergy = added.parentingEnergy[fish];
+				state.brain = resolveBrain(added.brain[fish], brains, previousBrains);
+				fish++;
+			}
+			states.add(state);
+			a++;
+		}
+		return header;
+	}
+
+	private static NeuralNetwork resolveBrain(int reference, NeuralNetwork[] brains, Map<Long, NeuralNetwork> previousBrains) throws IOException {
+		if (reference < brains.length) {
+			return brains[reference];
+		}
+		NeuralNetwork brain = previousBrains.get((long) (reference - brains.length));
+		if (brain == null) {
+			throw new IOException("Delta refers to brain of unknown agent " + (reference - brains.length));
+		}
+		return brain;
+	}
+}
@@ -0,0 +1,354 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+import com.lagodiuk.nn.ThresholdFunction;
+import com.lagodiuk.nn.serializing.binary.BinaryInput;
+import com.lagodiuk.nn.serializing.binary.BinaryOutput;
+import com.lagodiuk.nn.serializing.binary.BrainCodec;
+
+/**
+ * Keeps recent states of the world in memory, so the world can be rewound to
+ * any time step since the oldest of them. <br/>
+ * Simulation thread only pays for {@link Environment#snapshot()}, the
+ * snapshot is encoded by the encoder thread: header and agents columns as in
+ * snapshot file (see {@link SnapshotFormat}), deflated. At most one snapshot
+ * is in flight: if the previous one is still being encoded, a capture is
+ * skipped. <br/>
+ * Brains are encoded once (see {@link BrainCodec}) and shared by all frames
+ * in which they appear. A brain is decoded only when a frame is restored and
+ * the original brain is gone: brains are never changed in place, so the
+ * original is reused while it is alive. <br/>
+ * Oldest frames are dropped when encoded frames and brains take more than
+ * the memory budget.
+ */
+public class RewindBuffer {
+	private static final ThresholdFunction[] FUNCTIONS = functionTable();
+
+	private final long memoryBudget;
+
+	// Oldest first, guarded by this
+	private final Deque<Frame> frames = new ArrayDeque<Frame>();
+	private long bytesCount = 0;
+
+	// Brains of the last encoded frame, so the next one shares their records.
+	// Used by the encoder thread only
+	private Map<NeuralNetwork, BrainRecord> lastBrains = new IdentityHashMap<NeuralNetwork, BrainRecord>();
+
+	private final AtomicBoolean inFlight = new AtomicBoolean(false);
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "rewind-encoder");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static class BrainRecord {
+		final byte[] bytes;
+		final WeakReference<NeuralNetwork> original;
+		// Number of frames which refer to the record
+		int frames = 0;
+
+		BrainRecord(byte[] bytes, NeuralNetwork original) {
+			this.bytes = bytes;
+			this.original = new WeakReference<NeuralNetwork>(original);
+		}
+	}
+
+	private static class Frame {
+		final double time;
+		final byte[] agents;
+		final BrainRecord[] brains;
+
+		Frame(double time, byte[] agents, BrainRecord[] brains) {
+			this.time = time;
+			this.agents = agents;
+			this.brains = brains;
+		}
+	}
+
+	/**
+	 * @param memoryBudget
+	 *            bytes which encoded frames and brains may take
+	 */
+	public RewindBuffer(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	private static ThresholdFunction[] functionTable() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			BinaryOutput out = new BinaryOutput(bytes);
+			BrainCodec.writeFunctionTable(out);
+			out.flush();
+			return BrainCodec.readFunctionTable(new BinaryInput(bytes.toByteArray(), 0, bytes.size()));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Must be called at the tick boundary, by the thread which runs the
+	 * simulation
+	 *
+	 * @return false if capture was skipped because previous one is still
+	 *         being encoded
+	 */
+	public boolean capture(Environment environment) {
+		if (!inFlight.compareAndSet(false, true)) {
+			return false;
+		}
+		// Takes the seed and seeded food along with agents
+		final Environment snapshot = environment.snapshot();
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					add(encode(snapshot));
+				} catch (Exception e) {
+					e.printStackTrace();
+				} finally {
+					inFlight.set(false);
+				}
+			}
+		});
+		return true;
+	}
+
+	private Frame encode(Environment snapshot) throws IOException {
+		List<AbstractAgent> agents = snapshot.getAgents();
+		Map<NeuralNetwork, BrainRecord> brains = new IdentityHashMap<NeuralNetwork, BrainRecord>();
+		Map<NeuralNetwork, Integer> indexes = new IdentityHashMap<NeuralNetwork, Integer>();
+		List<BrainRecord> records = new ArrayList<BrainRecord>();
+		int[] brainIndexes = new int[agents.size()];
+		int fish = 0;
+		for (AbstractAgent agent : agents) {
+			if (!(agent instanceof NeuralNetworkDrivenAgent)) {
+				continue;
+			}
+			NeuralNetwork brain = ((NeuralNetworkDrivenAgent) agent).getBrain();
+			Integer index = indexes.get(brain);
+			if (index == null) {
+				BrainRecord record = lastBrains.get(brain);
+				if (record == null) {
+					record = new BrainRecord(encodeBrain(brain), brain);
+				}
+				brains.put(brain, record);
+				index = records.size();
+				indexes.put(brain, index);
+				records.add(record);
+			}
+			brainIndexes[fish++] = index;
+		}
+		lastBrains = brains;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryOutput out = new BinaryOutput(bytes);
+		SnapshotWriter.writeHeader(out, SnapshotFormat.MAGIC, SnapshotFormat.VERSION, snapshot);
+		SnapshotWriter.writeAgents(out, agents, brainIndexes);
+		out.flush();
+		return new Frame(snapshot.getTime(), deflate(bytes.toByteArray()),
+				records.toArray(new BrainRecord[records.size()]));
+	}
+
+	private static byte[] encodeBrain(NeuralNetwork brain) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryOutput out = new BinaryOutput(bytes);
+		BrainCodec.write(out, brain);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] bytes) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+			byte[] buffer = new byte[1 << 14];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] bytes) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(bytes);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 3);
+			byte[] buffer = new byte[1 << 14];
+			while (!inflater.finished()) {
+				int count = inflater.inflate(buffer);
+				if ((count == 0) && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated frame");
+				}
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private synchronized void add(Frame frame) {
+		frames.addLast(frame);
+		bytesCount += frame.agents.length;
+		for (BrainRecord record : frame.brains) {
+			if (record.frames++ == 0) {
+				bytesCount += record.bytes.length;
+			}
+		}
+		// The latest frame is kept even if it alone exceeds the budget
+		while ((bytesCount > memoryBudget) && (frames.size() > 1)) {
+			remove(frames.removeFirst());
+		}
+	}
+
+	private void remove(Frame frame) {
+		bytesCount -= frame.agents.length;
+		for (BrainRecord record : frame.brains) {
+			if (--record.frames == 0) {
+				bytesCount -= record.bytes.length;
+			}
+		}
+	}
+
+	/**
+	 * Times of buffered frames, oldest first
+	 */
+	public synchronized List<Double> getTimes() {
+		List<Double> times = new ArrayList<Double>(frames.size());
+		for (Frame frame : frames) {
+			times.add(frame.time);
+		}
+		return times;
+	}
+
+	/**
+	 * @return time of the oldest buffered frame, or NaN if there is none
+	 */
+	public synchronized double getOldestTime() {
+		return frames.isEmpty() ? Double.NaN : frames.getFirst().time;
+	}
+
+	/**
+	 * @return time of the latest buffered frame, or NaN if there is none
+	 */
+	public synchronized double getLatestTime() {
+		return frames.isEmpty() ? Double.NaN : frames.getLast().time;
+	}
+
+	/**
+	 * Bytes taken by encoded frames and brains
+	 */
+	public synchronized long getBytesCount() {
+		return bytesCount;
+	}
+
+	/**
+	 * Drops frames later than the given time, e.g. when the world was rewound
+	 * and goes on from there
+	 */
+	public synchronized void discardAfter(double time) {
+		while (!frames.isEmpty() && (frames.getLast().time > time)) {
+			remove(frames.removeLast());
+		}
+	}
+
+	public synchronized void clear() {
+		discardAfter(Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * @return world as it was at the given time: the latest frame not later
+	 *         than that time, run up to it. Inputs given between the frame and
+	 *         the time (e.g. seeded food) are not repeated
+	 */
+	public Environment restore(double time) throws IOException {
+		Frame frame = null;
+		synchronized (this) {
+			Iterator<Frame> iterator = frames.descendingIterator();
+			while (iterator.hasNext()) {
+				Frame candidate = iterator.next();
+				if (candidate.time <= time) {
+					frame = candidate;
+					break;
+				}
+			}
+		}
+		if (frame == null) {
+			throw new IllegalArgumentException("No frame before time " + time);
+		}
+
+		NeuralNetwork[] brains = new NeuralNetwork[frame.brains.length];
+		for (int i = 0; i < brains.length; i++) {
+			brains[i] = frame.brains[i].original.get();
+			if (brains[i] == null) {
+				brains[i] = BrainCodec.read(new BinaryInput(frame.brains[i].bytes, 0, frame.brains[i].bytes.length), FUNCTIONS);
+			}
+		}
+		byte[] bytes = inflate(frame.agents);
+		BinaryInput in = new BinaryInput(bytes, 0, bytes.length);
+		in.readInt();
+		SnapshotHeader header = SnapshotReader.readHeaderFields(in, in.readVarInt());
+		Environment env = SnapshotReader.createEnvironment(header, brains, SnapshotReader.readAgents(in));
+		while (env.getTime() < time) {
+			env.timeStep();
+		}
+		return env;
+	}
+
+	/**
+	 * Waits for the frame in flight, if any
+	 */
+	public void close() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+}
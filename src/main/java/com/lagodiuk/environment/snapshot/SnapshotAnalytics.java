@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes statistics of many binary snapshots (see {@link SnapshotStats})
+ * in parallel and prints them as CSV, one line per snapshot, ordered by time,
+ * e.g. <br/>
+ * <code>java com.lagodiuk.environment.snapshot.SnapshotAnalytics checkpoints/ &gt; stats.csv</code>
+ * <br/>
+ * Arguments are snapshot files or directories, in which all
+ * "{@value WorldFiles#SNAPSHOT_EXTENSION}" files are taken. Generation
+ * histogram is grouped by -Danalytics.generations=N generations (1 by
+ * default).
+ */
+public class SnapshotAnalytics {
+	private static final String GENERATIONS_BUCKET_PROPERTY = "analytics.generations";
+
+	private static final String CSV_HEADER = "file,time,agents,fish,food,fish_energy,food_energy,energy_reserve,total_energy,"
+			+ "min_generation,max_generation,mean_generation,mutations,brains,largest_brain_family,brain_diversity,generations";
+
+	static class Row {
+		final File file;
+		final SnapshotStats stats;
+
+		Row(File file, SnapshotStats stats) {
+			this.file = file;
+			this.stats = stats;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: SnapshotAnalytics <directory|file" + WorldFiles.SNAPSHOT_EXTENSION + ">...");
+			return;
+		}
+		List<File> files = new ArrayList<File>();
+		for (String arg : args) {
+			addFiles(new File(arg), files);
+		}
+		int bucket = Math.max(1, Integer.getInteger(GENERATIONS_BUCKET_PROPERTY, 1));
+
+		long start = System.nanoTime();
+		List<Row> rows = analyze(files, Runtime.getRuntime().availableProcessors());
+		print(rows, bucket, System.out);
+		System.out.flush();
+		System.err.println("Info: " + rows.size() + " of " + files.size() + " snapshots analyzed in "
+				+ ((System.nanoTime() - start) / 1000000) + " ms");
+	}
+
+	private static void addFiles(File file, List<File> files) {
+		if (!file.isDirectory()) {
+			files.add(file);
+			return;
+		}
+		File[] children = file.listFiles();
+		if (children == null) {
+			return;
+		}
+		Arrays.sort(children);
+		for (File child : children) {
+			if (child.isFile() && WorldFiles.isSnapshot(child)) {
+				files.add(child);
+			}
+		}
+	}
+
+	/**
+	 * Reads snapshots in parallel. Files which can not be read (e.g. not
+	 * snapshots, or being written) are reported and skipped.
+	 *
+	 * @return statistics ordered by time of snapshots
+	 */
+	static List<Row> analyze(List<File> files, int threads) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+		try {
+			List<Future<Row>> futures = new ArrayList<Future<Row>>(files.size());
+			for (final File file : files) {
+				futures.add(executor.submit(new Callable<Row>() {
+					@Override
+					public Row call() throws Exception {
+						return new Row(file, SnapshotStats.of(file));
+					}
+				}));
+			}
+			List<Row> rows = new ArrayList<Row>(files.size());
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					rows.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					System.err.println("Warning: " + files.get(i) + " skipped: " + e.getCause());
+				}
+			}
+			Collections.sort(rows, new Comparator<Row>() {
+				@Override
+				public int compare(Row a, Row b) {
+					int byTime = Double.compare(a.stats.getHeader().getTime(), b.stats.getHeader().getTime());
+					return (byTime != 0) ? byTime : a.file.getPath().compareTo(b.file.getPath());
+				}
+			});
+			return rows;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	static void print(List<Row> rows, int bucket, PrintStream out) {
+		out.println(CSV_HEADER);
+		StringBuilder line = new StringBuilder();
+		for (Row row : rows) {
+			SnapshotStats stats = row.stats;
+			SnapshotHeader header = stats.getHeader();
+			line.setLength(0);
+			line.append(csvText(row.file.getPath())).append(',');
+			line.append((long) header.getTime()).append(',');
+			line.append(stats.getAgentsCount()).append(',');
+			line.append(stats.getFishCount()).append(',');
+			line.append(stats.getFoodCount()).append(',');
+			line.append(stats.getFishEnergy()).append(',');
+			line.append(stats.getFoodEnergy()).append(',');
+			line.append(header.getEnergyReserve()).append(',');
+			line.append(stats.getTotalEnergy()).append(',');
+			line.append(stats.getMinGeneration()).append(',');
+			line.append(stats.getMaxGeneration()).append(',');
+			line.append(String.format(Locale.ROOT, "%.3f", stats.getMeanGeneration())).append(',');
+			line.append(header.getMutationCount()).append(',');
+			line.append(stats.getBrainsCount()).append(',');
+			line.append(stats.getLargestBrainFamily()).append(',');
+			line.append(String.format(Locale.ROOT, "%.4f", stats.getBrainDiversity())).append(',');
+			appendHistogram(line, stats, bucket);
+			out.println(line);
+		}
+	}
+
+	/**
+	 * Non-empty buckets as "first generation of bucket:fish count", separated
+	 * by spaces
+	 */
+	private static void appendHistogram(StringBuilder line, SnapshotStats stats, int bucket) {
+		if (stats.getFishCount() == 0) {
+			return;
+		}
+		boolean first = true;
+		for (int from = (stats.getMinGeneration() / bucket) * bucket; from <= stats.getMaxGeneration(); from += bucket) {
+			int count = 0;
+			for (int generation = from; generation < from + bucket; generation++) {
+				count += stats.getGenerationCount(generation);
+			}
+			if (count > 0) {
+				if (!first) {
+					line.append(' ');
+				}
+				line.append(from).append(':').append(count);
+				first = false;
+			}
+		}
+	}
+
+	private static String csvText(String text) {
+		if ((text.indexOf(',') < 0) && (text.indexOf('"') < 0)) {
+			return text;
+		}
+		return '"' + text.replace("\"", "\"\"") + '"';
+	}
+}
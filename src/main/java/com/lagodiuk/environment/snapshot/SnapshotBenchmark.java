@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import com.lagodiuk.environment.Environment;
+
+/**
+ * Compares size and load time of a world in XML and in binary snapshot
+ * format. <br/>
+ * Usage: <code>SnapshotBenchmark [world.xml|world.snap]</code>, without
+ * arguments a new world is created.
+ */
+public class SnapshotBenchmark {
+	private static final int WIDTH = 1470;
+	private static final int HEIGHT = 850;
+	private static final int AGENTS_DENSITY = 40;
+	private static final int FOOD_DENSITY = 500;
+	private static final int WARMUP_TICKS = 200;
+	private static final int ITERATIONS = 10;
+
+	private interface Loader {
+		Environment load(byte[] bytes) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Environment env;
+		if (args.length > 0) {
+			env = WorldFiles.load(new File(args[0]));
+		} else {
+			env = new Environment(WIDTH, HEIGHT);
+			env.initialize(AGENTS_DENSITY, FOOD_DENSITY);
+			for (int i = 0; i < WARMUP_TICKS; i++) {
+				env.timeStep();
+			}
+		}
+		System.out.println("World: time=" + (int) env.getTime() + ", agents=" + env.getAgents().size() + ", fish=" + env.getFishCount());
+
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		long xmlWrite = System.nanoTime();
+		WorldFiles.write(env, xml, false);
+		xmlWrite = System.nanoTime() - xmlWrite;
+
+		ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+		long snapshotWrite = System.nanoTime();
+		WorldFiles.write(env, snapshot, true);
+		snapshotWrite = System.nanoTime() - snapshotWrite;
+
+		System.out.println("Size: xml=" + xml.size() + " bytes, snapshot=" + snapshot.size() + " bytes, ratio="
+				+ String.format("%.1f", xml.size() / (double) snapshot.size()));
+		SnapshotReader reader = new SnapshotReader(snapshot.toByteArray());
+		reader.readHeader();
+		System.out.println("Brains: fish=" + env.getFishCount() + ", stored=" + reader.skipBrains());
+		System.out.println("First write: xml=" + millis(xmlWrite) + " ms, snapshot=" + millis(snapshotWrite) + " ms");
+
+		double xmlLoad = measure(xml.toByteArray(), new Loader() {
+			@Override
+			public Environment load(byte[] bytes) throws Exception {
+				return Environment.unmarshall(new ByteArrayInputStream(bytes));
+			}
+		});
+		double snapshotLoad = measure(snapshot.toByteArray(), new Loader() {
+			@Override
+			public Environment load(byte[] bytes) throws Exception {
+				return new SnapshotReader(bytes).read();
+			}
+		});
+		System.out.println("Load: xml=" + String.format("%.1f", xmlLoad) + " ms, snapshot=" + String.format("%.1f", snapshotLoad)
+				+ " ms, speedup=" + String.format("%.1f", xmlLoad / snapshotLoad));
+	}
+
+	/**
+	 * @return average milliseconds per load, after one warm-up load
+	 */
+	private static double measure(byte[] bytes, Loader loader) throws Exception {
+		loader.load(bytes);
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			loader.load(bytes);
+		}
+		return millis(System.nanoTime() - start) / ITERATIONS;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+}
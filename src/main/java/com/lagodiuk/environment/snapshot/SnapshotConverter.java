@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import java.io.File;
+
+import com.lagodiuk.environment.Environment;
+
+/**
+ * Converts worlds between XML and binary snapshot format, e.g. <br/>
+ * <code>java com.lagodiuk.environment.snapshot.SnapshotConverter world.xml world.snap</code>
+ */
+public class SnapshotConverter {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.out.println("Usage: SnapshotConverter <input.xml|input" + WorldFiles.SNAPSHOT_EXTENSION + "> <output.xml|output"
+					+ WorldFiles.SNAPSHOT_EXTENSION + ">");
+			return;
+		}
+		File input = new File(args[0]);
+		File output = new File(args[1]);
+
+		Environment env = WorldFiles.load(input);
+		WorldFiles.save(env, output);
+		System.out.println("Info: " + input + " (" + input.length() + " bytes) -> " + output + " (" + output.length() + " bytes)");
+	}
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+/**
+ * Binary snapshot of the world: <br/>
+ * <ul>
+ * <li>magic (4 bytes), version (varint)</li>
+ * <li>header: width, height, time, energy reserve, minimal number of agents,
+ * mutations count, random seed, food seeded but not added yet (as agents,
+ * see below)</li>
+ * <li>threshold functions table (see
+ * {@link com.lagodiuk.nn.serializing.binary.BrainCodec})</li>
+ * <li>brains: count, byte length of the section, brain records (see
+ * {@link com.lagodiuk.nn.serializing.binary.BrainTable}). Every distinct
+ * brain is stored once</li>
+ * <li>agents: count, then columns - kind, x, y, energy of every agent; angle
+ * and speed of every moving agent; age, generation, newborn energy,
+ * parenting energy and brain index of every fish (fish with equal brains
+ * refer to the same record)</li>
+ * </ul>
+ */
+public class SnapshotFormat {
+	public static final int MAGIC = 0x45564E53; // "EVNS"
+	public static final int VERSION = 1;
+
+	// Delta checkpoints, see CheckpointChain
+	public static final int DELTA_MAGIC = 0x45564E44; // "EVND"
+	public static final int DELTA_VERSION = 1;
+
+	public static final int KIND_STATIC_FOOD = 0;
+	public static final int KIND_MOVING_FOOD = 1;
+	public static final int KIND_NEURAL_NETWORK_DRIVEN_AGENT = 2;
+
+	private SnapshotFormat() {
+	}
+
+	public static boolean isMoving(int kind) {
+		return kind != KIND_STATIC_FOOD;
+	}
+
+	public static boolean isFish(int kind) {
+		return kind == KIND_NEURAL_NETWORK_DRIVEN_AGENT;
+	}
+}
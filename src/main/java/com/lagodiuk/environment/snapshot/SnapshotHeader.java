@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import java.util.List;
+
+import com.lagodiuk.agent.IFood;
+
+public class SnapshotHeader {
+	private final int version;
+	private final int width;
+	private final int height;
+	private final double time;
+	private final int energyReserve;
+	private final int minNumberOfAgents;
+	private final long mutationCount;
+	private final long seed;
+	private final List<IFood> seedFood;
+
+	public SnapshotHeader(int version, int width, int height, double time, int energyReserve, int minNumberOfAgents, long mutationCount,
+			long seed, List<IFood> seedFood) {
+		this.version = version;
+		this.width = width;
+		this.height = height;
+		this.time = time;
+		this.energyReserve = energyReserve;
+		this.minNumberOfAgents = minNumberOfAgents;
+		this.mutationCount = mutationCount;
+		this.seed = seed;
+		this.seedFood = seedFood;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	public int getEnergyReserve() {
+		return energyReserve;
+	}
+
+	public int getMinNumberOfAgents() {
+		return minNumberOfAgents;
+	}
+
+	public long getMutationCount() {
+		return mutationCount;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Food seeded, but not added yet
+	 */
+	public List<IFood> getSeedFood() {
+		return seedFood;
+	}
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.IFood;
+import com.lagodiuk.agent.MovingFood;
+import com.lagodiuk.agent.StaticFood;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+import com.lagodiuk.nn.ThresholdFunction;
+import com.lagodiuk.nn.serializing.binary.BinaryInput;
+import com.lagodiuk.nn.serializing.binary.BrainCodec;
+import com.lagodiuk.nn.serializing.binary.BrainTable;
+
+/**
+ * Reads binary snapshots (see {@link SnapshotFormat}) section by section:
+ * {@link #readHeader()}, then {@link #readBrains()} or {@link #skipBrains()},
+ * then {@link #readAgents()}. <br/>
+ * {@link #read()} does all of it and assembles the world. Fish referring to
+ * the same brain record share one brain instance, the same way offspring
+ * share brain of parent in a running world.
+ */
+public class SnapshotReader implements Closeable {
+	private final BinaryInput in;
+	private ThresholdFunction[] functions;
+
+	public SnapshotReader(InputStream in) {
+		this.in = new BinaryInput(in);
+	}
+
+	public SnapshotReader(byte[] bytes) {
+		this.in = new BinaryInput(bytes, 0, bytes.length);
+	}
+
+	public SnapshotHeader readHeader() throws IOException {
+		int magic = in.readInt();
+		if (magic != SnapshotFormat.MAGIC) {
+			throw new IOException("Not a world snapshot");
+		}
+		int version = in.readVarInt();
+		if (version != SnapshotFormat.VERSION) {
+			throw new IOException("Unsupported snapshot version " + version);
+		}
+		SnapshotHeader header = readHeaderFields(in, version);
+		functions = BrainCodec.readFunctionTable(in);
+		return header;
+	}
+
+	static SnapshotHeader readHeaderFields(BinaryInput in, int version) throws IOException {
+		int width = in.readVarInt();
+		int height = in.readVarInt();
+		double time = in.readDouble();
+		int energyReserve = in.readSignedVarInt();
+		int minNumberOfAgents = in.readVarInt();
+		long mutationCount = in.readVarLong();
+		long seed = in.readLong();
+		List<IFood> seedFood = new ArrayList<IFood>();
+		for (AbstractAgent agent : createAgents(new NeuralNetwork[0], readAgents(in))) {
+			if (!(agent instanceof IFood)) {
+				throw new IOException("Only food can be seeded");
+			}
+			seedFood.add((IFood) agent);
+		}
+		return new SnapshotHeader(version, width, height, time, energyReserve, minNumberOfAgents, mutationCount, seed, seedFood);
+	}
+
+	public NeuralNetwork[] readBrains() throws IOException {
+		int count = in.readVarInt();
+		in.readVarLong();
+		return BrainTable.read(in, count, functions);
+	}
+
+	/**
+	 * @return number of brains skipped
+	 */
+	public int skipBrains() throws IOException {
+		int count = in.readVarInt();
+		in.skip(in.readVarLong());
+		return count;
+	}
+
+	public AgentColumns readAgents() throws IOException {
+		return readAgents(in);
+	}
+
+	static AgentColumns readAgents(BinaryInput in) throws IOException {
+		byte[] kind = new byte[in.readVarInt()];
+		in.readBytes(kind, 0, kind.length);
+		AgentColumns columns = new AgentColumns(kind);
+		for (int i = 0; i < columns.count; i++) {
+			columns.x[i] = in.readDouble();
+		}
+		for (int i = 0; i < columns.count; i++) {
+			columns.y[i] = in.readDouble();
+		}
+		for (int i = 0; i < columns.count; i++) {
+			columns.energy[i] = in.readVarInt();
+		}
+		for (int i = 0; i < columns.movingCount; i++) {
+			columns.angle[i] = in.readDouble();
+		}
+		for (int i = 0; i < columns.movingCount; i++) {
+			columns.speed[i] = in.readDouble();
+		}
+		for (int i = 0; i < columns.fishCount; i++) {
+			columns.age[i] = in.readDouble();
+		}
+		for (int i = 0; i < columns.fishCount; i++) {
+			columns.generation[i] = in.readVarInt();
+		}
+		for (int i = 0; i < columns.fishCount; i++) {
+			columns.newbornEnergy[i] = in.readSignedVarInt();
+		}
+		for (int i = 0; i < columns.fishCount; i++) {
+			columns.parentingEnergy[i] = in.readSignedVarInt();
+		}
+		for (int i = 0; i < columns.fishCount; i++) {
+			columns.brain[i] = in.readVarInt();
+		}
+		return columns;
+	}
+
+	public Environment read() throws IOException {
+		SnapshotHeader header = readHeader();
+		NeuralNetwork[] brains = readBrains();
+		AgentColumns agents = readAgents();
+		return createEnvironment(header, brains, agents);
+	}
+
+	public static Environment createEnvironment(SnapshotHeader header, NeuralNetwork[] brains, AgentColumns agents) throws IOException {
+		return createEnvironment(header, createAgents(brains, agents));
+	}
+
+	private static List<AbstractAgent> createAgents(NeuralNetwork[] brains, AgentColumns agents) throws IOException {
+		List<AbstractAgent> list = new ArrayList<AbstractAgent>(agents.count);
+		int moving = 0;
+		int fish = 0;
+		for (int i = 0; i < agents.count; i++) {
+			AbstractAgent agent;
+			switch (agents.kind[i]) {
+				case SnapshotFormat.KIND_STATIC_FOOD:
+					agent = new StaticFood(agents.x[i], agents.y[i]);
+					break;
+				case SnapshotFormat.KIND_MOVING_FOOD:
+					agent = new MovingFood(agents.x[i], agents.y[i], agents.angle[moving], agents.speed[moving]);
+					moving++;
+					break;
+				case SnapshotFormat.KIND_NEURAL_NETWORK_DRIVEN_AGENT:
+					NeuralNetworkDrivenAgent nnAgent =
+							new NeuralNetworkDrivenAgent(agents.x[i], agents.y[i], agents.angle[moving], agents.speed[moving]);
+					moving++;
+					nnAgent.setAge(agents.age[fish]);
+					nnAgent.setGeneration(agents.generation[fish]);
+					nnAgent.setNewbornEnergy(agents.newbornEnergy[fish]);
+					nnAgent.setParentingEnergy(agents.parentingEnergy[fish]);
+					int brain = agents.brain[fish];
+					if (brain >= brains.length) {
+						throw new IOException("Agent refers to brain " + brain + ", but there are only " + brains.length);
+					}
+					nnAgent.setBrain(brains[brain]);
+					fish++;
+					agent = nnAgent;
+					break;
+				default:
+					throw new IOException("Unknown agent kind " + agents.kind[i]);
+			}
+			agent.setEnergy(agents.energy[i]);
+			list.add(agent);
+		}
+		return list;
+	}
+
+	static Environment createEnvironment(SnapshotHeader header, List<AbstractAgent> agents) {
+		Environment env = new Environment(header.getWidth(), header.getHeight(), header.getSeed());
+		env.setTime(header.getTime());
+		env.setEnergyReserve(header.getEnergyReserve());
+		env.setMinNumberOfAgents(header.getMinNumberOfAgents());
+		NeuralNetworkDrivenAgent.setMutationCount(header.getMutationCount());
+		for (AbstractAgent agent : agents) {
+			env.addAgent(agent);
+		}
+		for (IFood food : header.getSeedFood()) {
+			env.seedFood(food);
+		}
+		env.evaluateAll();
+		return env;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
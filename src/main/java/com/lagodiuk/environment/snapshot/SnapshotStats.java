@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Population statistics of a binary snapshot, computed from its agents
+ * columns only: brains are skipped and no agents are created. <br/>
+ * Brains are compared by content (every distinct brain is stored once in a
+ * snapshot, and fish refer to it by index).
+ */
+public class SnapshotStats {
+	private SnapshotHeader header;
+
+	private int agentsCount;
+	private int fishCount;
+	private int foodCount;
+	private long fishEnergy;
+	private long foodEnergy;
+
+	private int minGeneration;
+	private int maxGeneration;
+	private double meanGeneration;
+	// Number of fish of every generation, up to the longest one
+	private int[] generations = new int[0];
+
+	private int brainsCount;
+	private int largestBrainFamily;
+	private double brainDiversity;
+
+	private SnapshotStats() {
+	}
+
+	public static SnapshotStats of(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return of(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public static SnapshotStats of(InputStream in) throws IOException {
+		SnapshotReader reader = new SnapshotReader(in);
+		SnapshotStats stats = new SnapshotStats();
+		stats.header = reader.readHeader();
+		stats.brainsCount = reader.skipBrains();
+		stats.compute(reader.readAgents());
+		return stats;
+	}
+
+	private void compute(AgentColumns agents) throws IOException {
+		agentsCount = agents.count;
+		int fish = 0;
+		for (int i = 0; i < agents.count; i++) {
+			if (SnapshotFormat.isFish(agents.kind[i])) {
+				fishEnergy += agents.energy[i];
+				fish++;
+			} else {
+				foodEnergy += agents.energy[i];
+			}
+		}
+		fishCount = fish;
+		foodCount = agents.count - fish;
+
+		if (fishCount == 0) {
+			return;
+		}
+		minGeneration = Integer.MAX_VALUE;
+		long generationsSum = 0;
+		for (int i = 0; i < fishCount; i++) {
+			int generation = agents.generation[i];
+			minGeneration = Math.min(minGeneration, generation);
+			maxGeneration = Math.max(maxGeneration, generation);
+			generationsSum += generation;
+		}
+		meanGeneration = (double) generationsSum / fishCount;
+		generations = new int[maxGeneration + 1];
+		for (int i = 0; i < fishCount; i++) {
+			generations[agents.generation[i]]++;
+		}
+
+		int[] family = new int[brainsCount];
+		for (int i = 0; i < fishCount; i++) {
+			if (agents.brain[i] >= brainsCount) {
+				throw new IOException("Agent refers to brain " + agents.brain[i] + ", but there are only " + brainsCount);
+			}
+			family[agents.brain[i]]++;
+		}
+		// Gini-Simpson index: chance that two fish picked at random have
+		// different brains
+		double sameBrainChance = 0;
+		for (int size : family) {
+			largestBrainFamily = Math.max(largestBrainFamily, size);
+			double share = (double) size / fishCount;
+			sameBrainChance += share * share;
+		}
+		brainDiversity = 1 - sameBrainChance;
+	}
+
+	public SnapshotHeader getHeader() {
+		return header;
+	}
+
+	public int getAgentsCount() {
+		return agentsCount;
+	}
+
+	public int getFishCount() {
+		return fishCount;
+	}
+
+	public int getFoodCount() {
+		return foodCount;
+	}
+
+	public long getFishEnergy() {
+		return fishEnergy;
+	}
+
+	public long getFoodEnergy() {
+		return foodEnergy;
+	}
+
+	/**
+	 * Energy of all agents and energy reserve
+	 */
+	public long getTotalEnergy() {
+		return fishEnergy + foodEnergy + header.getEnergyReserve();
+	}
+
+	public int getMinGeneration() {
+		return minGeneration;
+	}
+
+	public int getMaxGeneration() {
+		return maxGeneration;
+	}
+
+	public double getMeanGeneration() {
+		return meanGeneration;
+	}
+
+	/**
+	 * @return number of fish of the given generation
+	 */
+	public int getGenerationCount(int generation) {
+		return (generation >= 0) && (generation < generations.length) ? generations[generation] : 0;
+	}
+
+	/**
+	 * Number of distinct brains
+	 */
+	public int getBrainsCount() {
+		return brainsCount;
+	}
+
+	/**
+	 * Largest number of fish with the same brain
+	 */
+	public int getLargestBrainFamily() {
+		return largestBrainFamily;
+	}
+
+	/**
+	 * Chance that two fish picked at random have different brains: 0 when
+	 * all fish share one brain, close to 1 when every fish has its own
+	 */
+	public double getBrainDiversity() {
+		return brainDiversity;
+	}
+}
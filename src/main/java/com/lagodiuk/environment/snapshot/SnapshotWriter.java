@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.IFood;
+import com.lagodiuk.agent.MovingAgent;
+import com.lagodiuk.agent.MovingFood;
+import com.lagodiuk.agent.StaticFood;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+import com.lagodiuk.nn.serializing.binary.BinaryOutput;
+import com.lagodiuk.nn.serializing.binary.BrainCodec;
+import com.lagodiuk.nn.serializing.binary.BrainTable;
+
+/**
+ * Writes worlds in binary snapshot format (see {@link SnapshotFormat}). <br/>
+ * Every distinct brain is written once, agents refer to it by index. Brains
+ * are stored as deltas against relatives where possible (see
+ * {@link BrainTable}). <br/>
+ * The world must not change while it is written: pass a paused world or an
+ * {@link Environment#snapshot()}.
+ */
+public class SnapshotWriter implements Closeable {
+	private final BinaryOutput out;
+
+	public SnapshotWriter(OutputStream out) {
+		this.out = new BinaryOutput(out);
+	}
+
+	public void write(Environment env) throws IOException {
+		List<AbstractAgent> agents = env.getAgents();
+
+		writeHeader(out, SnapshotFormat.MAGIC, SnapshotFormat.VERSION, env);
+		BrainCodec.writeFunctionTable(out);
+
+		BrainTable brains = new BrainTable();
+		int[] brainIndexes = new int[agents.size()];
+		int fish = 0;
+		for (AbstractAgent agent : agents) {
+			if (agent instanceof NeuralNetworkDrivenAgent) {
+				brainIndexes[fish++] = brains.add(((NeuralNetworkDrivenAgent) agent).getBrain());
+			}
+		}
+		writeBrains(brains);
+		writeAgents(out, agents, brainIndexes);
+		out.flush();
+	}
+
+	static void writeHeader(BinaryOutput out, int magic, int version, Environment env) throws IOException {
+		out.writeInt(magic);
+		out.writeVarInt(version);
+		out.writeVarInt(env.getWidth());
+		out.writeVarInt(env.getHeight());
+		out.writeDouble(env.getTime());
+		out.writeSignedVarInt(env.getEnergyReserve());
+		out.writeVarInt(env.getMinNumberOfAgents());
+		out.writeVarLong(env.getMutationCount());
+		out.writeLong(env.getSeed());
+		List<AbstractAgent> seedAgents = new ArrayList<AbstractAgent>();
+		for (IFood food : env.getSeedFood()) {
+			seedAgents.add((AbstractAgent) food);
+		}
+		writeAgents(out, seedAgents, new int[0]);
+	}
+
+	private void writeBrains(BrainTable brains) throws IOException {
+		// Section is prefixed with its length, so readers can skip it
+		out.writeVarInt(brains.size());
+		out.writeVarLong(brains.getBytesCount());
+		brains.write(out);
+	}
+
+	static int kindOf(AbstractAgent agent) {
+		if (agent instanceof NeuralNetworkDrivenAgent) {
+			return SnapshotFormat.KIND_NEURAL_NETWORK_DRIVEN_AGENT;
+		} else if (agent instanceof MovingFood) {
+			return SnapshotFormat.KIND_MOVING_FOOD;
+		} else if (agent instanceof StaticFood) {
+			return SnapshotFormat.KIND_STATIC_FOOD;
+		}
+		throw new IllegalArgumentException("Agent of type " + agent.getClass().getName() + " can not be stored in snapshot");
+	}
+
+	/**
+	 * Writes agents columns, brainIndexes holds brain reference of every fish
+	 */
+	static void writeAgents(BinaryOutput out, List<AbstractAgent> agents, int[] brainIndexes) throws IOException {
+		out.writeVarInt(agents.size());
+		for (AbstractAgent agent : agents) {
+			out.writeByte(kindOf(agent));
+		}
+		for (AbstractAgent agent : agents) {
+			out.writeDouble(agent.getX());
+		}
+		for (AbstractAgent agent : agents) {
+			out.writeDouble(agent.getY());
+		}
+		for (AbstractAgent agent : agents) {
+			out.writeVarInt(agent.getEnergy());
+		}
+
+		for (AbstractAgent agent : agents) {
+			if (agent instanceof MovingAgent) {
+				out.writeDouble(((MovingAgent) agent).getAngle());
+			}
+		}
+		for (AbstractAgent agent : agents) {
+			if (agent instanceof MovingAgent) {
+				out.writeDouble(((MovingAgent) agent).getSpeed());
+			}
+		}
+
+		for (AbstractAgent agent : agents) {
+			if (agent instanceof NeuralNetworkDrivenAgent) {
+				out.writeDouble(((NeuralNetworkDrivenAgent) agent).getAge());
+			}
+		}
+		for (AbstractAgent agent : agents) {
+			if (agent instanceof NeuralNetworkDrivenAgent) {
+				out.writeVarInt(((NeuralNetworkDrivenAgent) agent).getGeneration());
+			}
+		}
+		for (AbstractAgent agent : agents) {
+			if (agent instanceof NeuralNetworkDrivenAgent) {
+				out.writeSignedVarInt(((NeuralNetworkDrivenAgent) agent).getNewbornEnergy());
+			}
+		}
+		for (AbstractAgent agent : agents) {
+			if (agent instanceof NeuralNetworkDrivenAgent) {
+				out.writeSignedVarInt(((NeuralNetworkDrivenAgent) agent).getParentingEnergy());
+			}
+		}
+		int fish = 0;
+		for (AbstractAgent agent : agents) {
+			if (agent instanceof NeuralNetworkDrivenAgent) {
+				out.writeVarInt(brainIndexes[fish++]);
+			}
+		}
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
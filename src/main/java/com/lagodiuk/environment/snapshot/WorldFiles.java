@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.lagodiuk.environment.Environment;
+
+/**
+ * Loads and saves worlds in the format chosen by file extension: binary
+ * snapshot for "{@value #SNAPSHOT_EXTENSION}" files, XML otherwise
+ */
+public class WorldFiles {
+	public static final String SNAPSHOT_EXTENSION = ".snap";
+
+	private WorldFiles() {
+	}
+
+	public static boolean isSnapshot(File file) {
+		return file.getName().endsWith(SNAPSHOT_EXTENSION);
+	}
+
+	public static Environment load(File file) throws Exception {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			if (isSnapshot(file)) {
+				return new SnapshotReader(in).read();
+			}
+			return Environment.unmarshall(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public static void save(Environment env, File file) throws Exception {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			write(env, out, isSnapshot(file));
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void write(Environment env, OutputStream out, boolean snapshot) throws Exception {
+		if (snapshot) {
+			SnapshotWriter writer = new SnapshotWriter(out);
+			writer.write(env);
+			writer.flush();
+		} else {
+			Environment.marshall(env, out);
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.FertileAgent;
+import com.lagodiuk.agent.IFood;
+import com.lagodiuk.agent.MovingAgent;
+import com.lagodiuk.agent.MovingFood;
+import com.lagodiuk.agent.StaticFood;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+import com.lagodiuk.nn.serializing.xml.BrainXmlCodec;
+import com.lagodiuk.nn.serializing.xml.XmlStreams;
+
+/**
+ * Streaming reader and writer of worlds in the XML schema of JAXB mapping of
+ * {@link Environment}. <br/>
+ * Output is identical to the one of JAXB marshaller, agents are read one by
+ * one without building of intermediate object graph.
+ */
+public class WorldXmlCodec {
+	public static final String ROOT_ELEMENT = "environment";
+
+	private static final String STATIC_FOOD_TYPE = "staticFood";
+	private static final String MOVING_FOOD_TYPE = "movingFood";
+	private static final String NEURAL_NETWORK_DRIVEN_AGENT_TYPE = "neuralNetworkDrivenAgent";
+
+	private WorldXmlCodec() {
+	}
+
+	/**
+	 * The world must not change while it is written: pass a paused world or
+	 * an {@link Environment#snapshot()}
+	 */
+	public static void write(Environment env, OutputStream out) throws Exception {
+		XMLStreamWriter writer = XmlStreams.createWriter(out);
+		XmlStreams.writeStart(writer, ROOT_ELEMENT, 0);
+		XmlStreams.writeElement(writer, "width", env.getWidth(), 1);
+		XmlStreams.writeElement(writer, "height", env.getHeight(), 1);
+		XmlStreams.writeElement(writer, "time", env.getTime(), 1);
+		XmlStreams.writeElement(writer, "energyReserve", env.getEnergyReserve(), 1);
+		XmlStreams.writeElement(writer, "minNumberOfAgents", env.getMinNumberOfAgents(), 1);
+		XmlStreams.writeElement(writer, "countMutation", env.getMutationCount(), 1);
+		XmlStreams.writeElement(writer, "seed", env.getSeed(), 1);
+
+		writeAgents(writer, "agents", env.getAgents());
+		List<AbstractAgent> seedAgents = new ArrayList<AbstractAgent>();
+		for (IFood food : env.getSeedFood()) {
+			seedAgents.add((AbstractAgent) food);
+		}
+		writeAgents(writer, "seedAgents", seedAgents);
+		XmlStreams.writeEnd(writer, 0);
+		XmlStreams.endDocument(writer);
+		writer.close();
+		out.flush();
+	}
+
+	private static void writeAgents(XMLStreamWriter writer, String name, List<AbstractAgent> agents) throws XMLStreamException {
+		if (agents.isEmpty()) {
+			XmlStreams.writeEmpty(writer, name, 1);
+		} else {
+			XmlStreams.writeStart(writer, name, 1);
+			for (AbstractAgent agent : agents) {
+				writeAgent(writer, agent);
+			}
+			XmlStreams.writeEnd(writer, 1);
+		}
+	}
+
+	private static String typeOf(AbstractAgent agent) {
+		if (agent instanceof NeuralNetworkDrivenAgent) {
+			return NEURAL_NETWORK_DRIVEN_AGENT_TYPE;
+		} else if (agent instanceof MovingFood) {
+			return MOVING_FOOD_TYPE;
+		} else if (agent instanceof StaticFood) {
+			return STATIC_FOOD_TYPE;
+		}
+		throw new IllegalArgumentException("Agent of type " + agent.getClass().getName() + " can not be stored in XML");
+	}
+
+	private static void writeAgent(XMLStreamWriter writer, AbstractAgent agent) throws XMLStreamException {
+		String type = typeOf(agent);
+		XmlStreams.writeStart(writer, "agent", 2);
+		writer.writeNamespace("xsi", XmlStreams.XSI);
+		XmlStreams.writeType(writer, type);
+
+		XmlStreams.writeElement(writer, "energy", agent.getEnergy(), 3);
+		XmlStreams.writeElement(writer, "x", agent.getX(), 3);
+		XmlStreams.writeElement(writer, "y", agent.getY(), 3);
+		if (agent instanceof MovingAgent) {
+			MovingAgent movingAgent = (MovingAgent) agent;
+			XmlStreams.writeElement(writer, "angle", movingAgent.getAngle(), 3);
+			XmlStreams.writeElement(writer, "speed", movingAgent.getSpeed(), 3);
+		}
+		if (agent instanceof FertileAgent) {
+			FertileAgent fertileAgent = (FertileAgent) agent;
+			XmlStreams.writeElement(writer, "age", fertileAgent.getAge(), 3);
+			XmlStreams.writeElement(writer, "newbornEnergy", fertileAgent.getNewbornEnergy(), 3);
+			XmlStreams.writeElement(writer, "parentingEnergy", fertileAgent.getParentingEnergy(), 3);
+		}
+		if (agent instanceof NeuralNetworkDrivenAgent) {
+			NeuralNetworkDrivenAgent nnAgent = (NeuralNetworkDrivenAgent) agent;
+			NeuralNetwork brain = nnAgent.getBrain();
+			if (brain != null) {
+				BrainXmlCodec.write(writer, brain, "brain", 3);
+			}
+			XmlStreams.writeElement(writer, "generation", nnAgent.getGeneration(), 3);
+		}
+		XmlStreams.writeEnd(writer, 2);
+	}
+
+	public static Environment read(InputStream in) throws Exception {
+		XMLStreamReader reader = XmlStreams.createReader(in);
+		try {
+			XmlStreams.startDocument(reader, ROOT_ELEMENT);
+			return readEnvironment(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static Environment readEnvironment(XMLStreamReader reader) throws XMLStreamException {
+		int width = 0;
+		int height = 0;
+		double time = 0;
+		int energyReserve = 0;
+		int minNumberOfAgents = -1;
+		long countMutation = 0;
+		// Worlds written before the seed was stored get seed 0, as with JAXB
+		long seed = 0;
+		List<AbstractAgent> agents = new ArrayList<AbstractAgent>();
+		List<AbstractAgent> seedAgents = new ArrayList<AbstractAgent>();
+
+		while (XmlStreams.nextChild(reader)) {
+			String name = reader.getLocalName();
+			if ("width".equals(name)) {
+				width = XmlStreams.readInt(reader);
+			} else if ("height".equals(name)) {
+				height = XmlStreams.readInt(reader);
+			} else if ("time".equals(name)) {
+				time = XmlStreams.readDouble(reader);
+			} else if ("energyReserve".equals(name)) {
+				energyReserve = XmlStreams.readInt(reader);
+			} else if ("minNumberOfAgents".equals(name)) {
+				minNumberOfAgents = XmlStreams.readInt(reader);
+			} else if ("countMutation".equals(name)) {
+				countMutation = XmlStreams.readLong(reader);
+			} else if ("seed".equals(name)) {
+				seed = XmlStreams.readLong(reader);
+			} else if ("agents".equals(name)) {
+				readAgents(reader, agents);
+			} else if ("seedAgents".equals(name)) {
+				readAgents(reader, seedAgents);
+			} else {
+				XmlStreams.skipElement(reader);
+			}
+		}
+
+		Environment env = new Environment(width, height, seed);
+		env.setTime(time);
+		env.setEnergyReserve(energyReserve);
+		if (minNumberOfAgents >= 0) {
+			env.setMinNumberOfAgents(minNumberOfAgents);
+		}
+		NeuralNetworkDrivenAgent.setMutationCount(countMutation);
+		for (AbstractAgent agent : agents) {
+			env.addAgent(agent);
+		}
+		for (AbstractAgent agent : seedAgents) {
+			if (!(agent instanceof IFood)) {
+				throw new XMLStreamException("Only food can be seeded", reader.getLocation());
+			}
+			env.seedFood((IFood) agent);
+		}
+		env.evaluateAll();
+		return env;
+	}
+
+	private static void readAgents(XMLStreamReader reader, List<AbstractAgent> agents) throws XMLStreamException {
+		while (XmlStreams.nextChild(reader)) {
+			if ("agent".equals(reader.getLocalName())) {
+				agents.add(readAgent(reader));
+			} else {
+				XmlStreams.skipElement(reader);
+			}
+		}
+	}
+
+	private static AbstractAgent readAgent(XMLStreamReader reader) throws XMLStreamException {
+		String type = XmlStreams.getType(reader);
+		if (!STATIC_FOOD_TYPE.equals(type) && !MOVING_FOOD_TYPE.equals(type) && !NEURAL_NETWORK_DRIVEN_AGENT_TYPE.equals(type)) {
+			throw new XMLStreamException("Unknown type of agent: " + type, reader.getLocation());
+		}
+
+		int energy = 0;
+		double x = 0;
+		double y = 0;
+		double angle = 0;
+		double speed = 0;
+		double age = 0;
+		Integer newbornEnergy = null;
+		Integer parentingEnergy = null;
+		NeuralNetwork brain = null;
+		int generation = 0;
+
+		while (XmlStreams.nextChild(reader)) {
+			String name = reader.getLocalName();
+			if ("energy".equals(name)) {
+				energy = XmlStreams.readInt(reader);
+			} else if ("x".equals(name)) {
+				x = XmlStreams.readDouble(reader);
+			} else if ("y".equals(name)) {
+				y = XmlStreams.readDouble(reader);
+			} else if ("angle".equals(name)) {
+				angle = XmlStreams.readDouble(reader);
+			} else if ("speed".equals(name)) {
+				speed = XmlStreams.readDouble(reader);
+			} else if ("age".equals(name)) {
+				age = XmlStreams.readDouble(reader);
+			} else if ("newbornEnergy".equals(name)) {
+				newbornEnergy = XmlStreams.readInt(reader);
+			} else if ("parentingEnergy".equals(name)) {
+				parentingEnergy = XmlStreams.readInt(reader);
+			} else if ("brain".equals(name)) {
+				brain = BrainXmlCodec.read(reader);
+			} else if ("generation".equals(name)) {
+				generation = XmlStreams.readInt(reader);
+			} else {
+				XmlStreams.skipElement(reader);
+			}
+		}
+
+		AbstractAgent agent;
+		if (STATIC_FOOD_TYPE.equals(type)) {
+			agent = new StaticFood(x, y);
+		} else if (MOVING_FOOD_TYPE.equals(type)) {
+			agent = new MovingFood(x, y, angle, speed);
+		} else {
+			NeuralNetworkDrivenAgent nnAgent = new NeuralNetworkDrivenAgent(x, y, angle, speed);
+			nnAgent.setAge(age);
+			// Missing values keep defaults, as with JAXB
+			if (newbornEnergy != null) {
+				nnAgent.setNewbornEnergy(newbornEnergy);
+			}
+			if (parentingEnergy != null) {
+				nnAgent.setParentingEnergy(parentingEnergy);
+			}
+			nnAgent.setBrain(brain);
+			nnAgent.setGeneration(generation);
+			agent = nnAgent;
+		}
+		agent.setEnergy(energy);
+		return agent;
+	}
+}
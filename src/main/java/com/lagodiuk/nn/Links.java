@@ -36,6 +36,22 @@ public class Links implements Cloneable {
 	@XmlElement(name = "linksCount")
 	private int totalLinksCount = 0;
 
+	public Links() {
+	}
+
+	/**
+	 * Links map is used as is, without copying
+	 */
+	public Links(Map<Integer, Map<Integer, Double>> links, int totalLinksCount) {
+		this.links = links;
+		this.totalLinksCount = totalLinksCount;
+	}
+
+	@XmlTransient
+	public Collection<Integer> getActivators() {
+		return Collections.unmodifiableSet(this.links.keySet());
+	}
+
 	public Collection<Integer> getReceivers(int activatorNeuronNumber) {
 		Collection<Integer> ret = null;
 		if (this.links.containsKey(activatorNeuronNumber)) {
@@ -46,6 +62,11 @@ public class Links implements Cloneable {
 		return ret;
 	}
 
+	@XmlTransient
+	public int getLinksCount() {
+		return this.totalLinksCount;
+	}
+
 	public Double getWeight(int activatorNeuronNumber, int receiverNeuronNumber) {
 		double weight = 0;
 
@@ -18,19 +18,23 @@ package com.lagodiuk.nn;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
+import com.lagodiuk.nn.serializing.xml.BrainXmlCodec;
+
 @XmlRootElement
 public class NeuralNetwork implements Cloneable {
 
+	private static final AtomicLong lastId = new AtomicLong();
+
 	@XmlElementWrapper(name = "neurons")
 	@XmlElement(name = "neuron")
 	protected List<Neuron> neurons;
@@ -41,6 +45,15 @@ public class NeuralNetwork implements Cloneable {
 	@XmlElement
 	protected int activationIterations = 1;
 
+	/**
+	 * Lineage of brains, used only as a hint for compact storage (brains
+	 * stored as differences from their relatives). <br/>
+	 * Not persisted: unique within one run.
+	 */
+	private transient long id = lastId.incrementAndGet();
+
+	protected transient long parentId = 0;
+
 	public NeuralNetwork() {
 		// Required by JAXB
 	}
@@ -81,12 +94,21 @@ public class NeuralNetwork implements Cloneable {
 	}
 
 	public void activate() {
+		this.activate(null);
+	}
+
+	/**
+	 * @param random
+	 *            source of randomness for neurons with random threshold
+	 *            function, or null for the default one
+	 */
+	public void activate(Random random) {
 		for (int iter = 0; iter < this.activationIterations; iter++) {
 
 			for (int i = 0; i < this.neurons.size(); i++) {
 
 				Neuron activator = this.neurons.get(i);
-				activator.activate();
+				activator.activate(random);
 				double activatorSignal = activator.getAfterActivationSignal();
 
 				for (Integer receiverNum : this.neuronsLinks.getReceivers(i)) {
@@ -102,6 +124,41 @@ public class NeuralNetwork implements Cloneable {
 		}
 	}
 
+	/**
+	 * Activates network without changing it: signals are kept in the given
+	 * arrays, so one network may be activated by several agents at once (e.g.
+	 * in forks of a world, see
+	 * {@link com.lagodiuk.environment.Environment#fork()})
+	 *
+	 * @param inputSignals
+	 *            input signal of every neuron, consumed by activation
+	 * @param afterActivationSignals
+	 *            receives signal of every neuron after activation
+	 * @param random
+	 *            source of randomness for neurons with random threshold
+	 *            function
+	 */
+	public void activate(double[] inputSignals, double[] afterActivationSignals, Random random) {
+		for (int iter = 0; iter < this.activationIterations; iter++) {
+
+			for (int i = 0; i < this.neurons.size(); i++) {
+
+				double activatorSignal = this.neurons.get(i).calculate(inputSignals[i], random);
+				afterActivationSignals[i] = activatorSignal;
+				inputSignals[i] = 0;
+
+				for (Integer receiverNum : this.neuronsLinks.getReceivers(i)) {
+					if (receiverNum >= this.neurons.size()) {
+						throw new RuntimeException("Neural network has " + this.neurons.size()
+								+ " neurons. But there was trying to accsess neuron with index " + receiverNum);
+					}
+					double weight = this.neuronsLinks.getWeight(i, receiverNum);
+					inputSignals[receiverNum] += activatorSignal * weight;
+				}
+			}
+		}
+	}
+
 	@XmlTransient
 	public List<Double> getWeightsOfLinks() {
 		return this.neuronsLinks.getAllWeights();
@@ -124,6 +181,40 @@ public class NeuralNetwork implements Cloneable {
 		return this.neurons.size();
 	}
 
+	public ThresholdFunction getNeuronFunction(int neuronNumber) {
+		return this.neurons.get(neuronNumber).getFunction();
+	}
+
+	public int getNeuronParamsCount(int neuronNumber) {
+		return this.neurons.get(neuronNumber).getParamsCount();
+	}
+
+	public double getNeuronParam(int neuronNumber, int paramNumber) {
+		return this.neurons.get(neuronNumber).getParam(paramNumber);
+	}
+
+	/**
+	 * Read only view of activator neurons, to traverse links without copying
+	 * them (see {@link #getNeuronsLinks()})
+	 */
+	@XmlTransient
+	public Collection<Integer> getLinkActivators() {
+		return this.neuronsLinks.getActivators();
+	}
+
+	public Collection<Integer> getLinkReceivers(int activatorNeuronNumber) {
+		return this.neuronsLinks.getReceivers(activatorNeuronNumber);
+	}
+
+	public double getLinkWeight(int activatorNeuronNumber, int receiverNeuronNumber) {
+		return this.neuronsLinks.getWeight(activatorNeuronNumber, receiverNeuronNumber);
+	}
+
+	@XmlTransient
+	public int getLinksCount() {
+		return this.neuronsLinks.getLinksCount();
+	}
+
 	public void setNeurons(List<Neuron> newNeurons) {
 		this.neurons = newNeurons;
 	}
@@ -137,10 +228,31 @@ public class NeuralNetwork implements Cloneable {
 		this.activationIterations = activationIterations;
 	}
 
+	public long getId() {
+		return this.id;
+	}
+
+	/**
+	 * @return id of the network this one was derived from, or 0 if unknown
+	 */
+	@XmlTransient
+	public long getParentId() {
+		return this.parentId;
+	}
+
+	public void setParentId(long parentId) {
+		this.parentId = parentId;
+	}
+
+	@XmlTransient
 	public Links getNeuronsLinks() {
 		return this.neuronsLinks.clone();
 	}
 
+	public void setNeuronsLinks(Links neuronsLinks) {
+		this.neuronsLinks = neuronsLinks;
+	}
+
 	@Override
 	public NeuralNetwork clone() {
 		NeuralNetwork clone = new NeuralNetwork(this.neurons.size());
@@ -158,20 +270,17 @@ public class NeuralNetwork implements Cloneable {
 		return "NeuralNetwork [neurons=" + this.neurons + ", links=" + this.neuronsLinks + ", activationIterations=" + this.activationIterations + "]";
 	}
 
+	/**
+	 * Writes network as XML, see {@link BrainXmlCodec}
+	 */
 	public static void marshall(NeuralNetwork nn, OutputStream out) throws Exception {
-		// TODO refactoring
-		JAXBContext context = JAXBContext.newInstance(NeuralNetwork.class);
-		Marshaller marshaller = context.createMarshaller();
-		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-		marshaller.marshal(nn, out);
-		out.flush();
+		BrainXmlCodec.marshall(nn, out);
 	}
 
+	/**
+	 * Reads network from XML, see {@link BrainXmlCodec}
+	 */
 	public static NeuralNetwork unmarshall(InputStream in) throws Exception {
-		// TODO refactoring
-		JAXBContext context = JAXBContext.newInstance(NeuralNetwork.class);
-		Unmarshaller unmarshaller = context.createUnmarshaller();
-		NeuralNetwork unmarshalledNn = (NeuralNetwork) unmarshaller.unmarshal(in);
-		return unmarshalledNn;
+		return BrainXmlCodec.unmarshall(in);
 	}
 }
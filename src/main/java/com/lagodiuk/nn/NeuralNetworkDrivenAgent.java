@@ -17,9 +17,11 @@ package com.lagodiuk.nn;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlTransient;
@@ -27,8 +29,9 @@ import javax.xml.bind.annotation.XmlTransient;
 import com.lagodiuk.agent.AbstractAgent;
 import com.lagodiuk.agent.FertileAgent;
 import com.lagodiuk.agent.IAgent;
-import com.lagodiuk.agent.IFood;
+import com.lagodiuk.environment.FoodStore;
 import com.lagodiuk.environment.IEnvironment;
+import com.lagodiuk.environment.SpatialIndex;
 import com.lagodiuk.nn.genetic.OptimizableNeuralNetwork;
 
 public class NeuralNetworkDrivenAgent extends FertileAgent {
@@ -50,10 +53,8 @@ public class NeuralNetworkDrivenAgent extends FertileAgent {
 	@XmlTransient
 	private SortedSet<AbstractAgent> foodInSight = null;
 
-	private static volatile long countMutation = 0;
-
-	@XmlTransient
-	private Random random = new Random();
+	// Forks of a world may run in parallel
+	private static final AtomicLong countMutation = new AtomicLong();
 
 	@SuppressWarnings("unused")
 	private NeuralNetworkDrivenAgent() {
@@ -78,6 +79,11 @@ public class NeuralNetworkDrivenAgent extends FertileAgent {
 		this.brain = brain;
 	}
 
+	@XmlTransient
+	public NeuralNetwork getBrain() {
+		return brain;
+	}
+
 	public SortedSet<AbstractAgent> getFoodInSight() {
 		return foodInSight;
 	}
@@ -88,16 +94,21 @@ public class NeuralNetworkDrivenAgent extends FertileAgent {
 
 		agentsInSight = new TreeSet<AbstractAgent>(sorterByDistance);
 		foodInSight = new TreeSet<AbstractAgent>(sorterByDistance);
-		for (IAgent iagent : env.getAgents()) {
-			AbstractAgent agent = (AbstractAgent) iagent;
-			if (agent.isAlive() && inSight(agent, env)) {
-				if (agent instanceof IFood) {
-					foodInSight.add(agent);
-				} else {
-					agentsInSight.add(agent);
-				}
+		for (FertileAgent agent : env.getFishes()) {
+			if (inSight(agent, env)) {
+				agentsInSight.add(agent);
 			}
 		}
+		// Only food of the cells within eyesight is looked at
+		env.getSpatialIndex().query(getX() - EYESIGHT_DISTANCE, getY() - EYESIGHT_DISTANCE, 2 * EYESIGHT_DISTANCE,
+				2 * EYESIGHT_DISTANCE, null, new SpatialIndex.FoodVisitor() {
+					@Override
+					public void visitFood(FoodStore food, int slot, double x, double y) {
+						if (food.isAlive(slot) && inSight(food.getX(slot), food.getY(slot), env)) {
+							foodInSight.add(food.getView(slot));
+						}
+					}
+				});
 	}
 
 	/**
@@ -114,13 +125,13 @@ public class NeuralNetworkDrivenAgent extends FertileAgent {
 		if (isAlive()) {
 			List<Double> nnInputs = this.createNnInputs(env);
 
-			this.activateNeuralNetwork(nnInputs);
+			double[] signals = this.activateNeuralNetwork(nnInputs, env.getRandom());
 
-			int neuronsCount = this.brain.getNeuronsCount();
-			double newBornEnergy = this.brain.getAfterActivationSignal(neuronsCount - 4);
-			double parentPostBirthEnergy = this.brain.getAfterActivationSignal(neuronsCount - 3);
-			double deltaAngle = this.brain.getAfterActivationSignal(neuronsCount - 2);
-			double deltaSpeed = this.brain.getAfterActivationSignal(neuronsCount - 1);
+			int neuronsCount = signals.length;
+			double newBornEnergy = signals[neuronsCount - 4];
+			double parentPostBirthEnergy = signals[neuronsCount - 3];
+			double deltaAngle = signals[neuronsCount - 2];
+			double deltaSpeed = signals[neuronsCount - 1];
 
 			deltaSpeed = this.avoidNaNAndInfinity(deltaSpeed);
 			deltaAngle = this.avoidNaNAndInfinity(deltaAngle);
@@ -142,11 +153,25 @@ public class NeuralNetworkDrivenAgent extends FertileAgent {
 		return x;
 	}
 
-	private void activateNeuralNetwork(List<Double> nnInputs) {
-		for (int i = 0; i < nnInputs.size(); i++) {
-			this.brain.putSignalToNeuron(i, nnInputs.get(i));
+	/**
+	 * Brain is shared with relatives (and with forks of the world), so signals
+	 * are kept outside of it
+	 *
+	 * @return signals of neurons after activation
+	 */
+	private double[] activateNeuralNetwork(List<Double> nnInputs, Random random) {
+		int neuronsCount = this.brain.getNeuronsCount();
+		if (nnInputs.size() > neuronsCount) {
+			throw new IllegalArgumentException("Brain has " + neuronsCount + " neurons, but there are " + nnInputs.size() + " inputs");
+		}
+		double[] inputSignals = new double[neuronsCount];
+		int i = 0;
+		for (Double input : nnInputs) {
+			inputSignals[i++] = input;
 		}
-		this.brain.activate();
+		double[] signals = new double[neuronsCount];
+		this.brain.activate(inputSignals, signals, random);
+		return signals;
 	}
 
 	protected List<Double> createNnInputs(IEnvironment environment) {
@@ -223,12 +248,16 @@ public class NeuralNetworkDrivenAgent extends FertileAgent {
 	}
 
 	public boolean inSight(IAgent agent, IEnvironment env) {
+		return inSight(agent.getX(), agent.getY(), env);
+	}
+
+	private boolean inSight(final double agentX, final double agentY, IEnvironment env) {
 		if (!isAlive()) {
 			return false;
 		}
 
-		double x = agent.getX();
-		double y = agent.getY();
+		double x = agentX;
+		double y = agentY;
 		if (inSightInternal(x, y)) {
 			return true;
 		}
@@ -241,8 +270,8 @@ public class NeuralNetworkDrivenAgent extends FertileAgent {
 		} else if (x > maxX - EYESIGHT_DISTANCE) {
 			x = x - maxX;
 		}
-		if (x != agent.getX()) {
-			if (inSightInternal(x, agent.getY())) {
+		if (x != agentX) {
+			if (inSightInternal(x, agentY)) {
 				return true;
 			}
 		}
@@ -251,12 +280,12 @@ public class NeuralNetworkDrivenAgent extends FertileAgent {
 		} else if (y > maxY - EYESIGHT_DISTANCE) {
 			y = y - maxY;
 		}
-		if (y != agent.getY()) {
-			if (inSightInternal(agent.getX(), y)) {
+		if (y != agentY) {
+			if (inSightInternal(agentX, y)) {
 				return true;
 			}
 		}
-		if (x != agent.getX() && y != agent.getY()) {
+		if (x != agentX && y != agentY) {
 			if (inSightInternal(x, y)) {
 				return true;
 			}
@@ -292,9 +321,13 @@ public class NeuralNetworkDrivenAgent extends FertileAgent {
 	}
 
 	public static OptimizableNeuralNetwork randomNeuralNetworkBrain() {
+		return randomNeuralNetworkBrain(RandomStreams.current());
+	}
+
+	public static OptimizableNeuralNetwork randomNeuralNetworkBrain(Random random) {
 		OptimizableNeuralNetwork nn = new OptimizableNeuralNetwork(15);
 		for (int i = 0; i < 15; i++) {
-			ThresholdFunction f = ThresholdFunction.getRandomFunction();
+			ThresholdFunction f = ThresholdFunction.getRandomFunction(random);
 			nn.setNeuronFunction(i, f, f.getDefaultParams());
 		}
 		for (int i = 0; i < 6; i++) {
@@ -302,27 +335,27 @@ public class NeuralNetworkDrivenAgent extends FertileAgent {
 		}
 		for (int i = 0; i < 6; i++) {
 			for (int j = 6; j < 15; j++) {
-				nn.addLink(i, j, Math.random());
+				nn.addLink(i, j, random.nextDouble());
 			}
 		}
 		for (int i = 6; i < 15; i++) {
 			for (int j = 6; j < 15; j++) {
 				if (i < j) {
-					nn.addLink(i, j, Math.random());
+					nn.addLink(i, j, random.nextDouble());
 				}
 			}
 		}
 		return nn;
 	}
 
-	private void mutate(int mutateChance) {
+	private void mutate(int mutateChance, Random random) {
 		if (brain instanceof OptimizableNeuralNetwork && random.nextInt() % mutateChance == 0) {
-			countMutation++;
-			brain = ((OptimizableNeuralNetwork) brain).mutate();
+			countMutation.incrementAndGet();
+			brain = ((OptimizableNeuralNetwork) brain).mutate(random);
 			if (random.nextInt() % mutateChance == 0) {
 				// double mutation
-				countMutation++;
-				brain = ((OptimizableNeuralNetwork) brain).mutate();
+				countMutation.incrementAndGet();
+				brain = ((OptimizableNeuralNetwork) brain).mutate(random);
 			}
 			generation++;
 		}
@@ -333,12 +366,13 @@ public class NeuralNetworkDrivenAgent extends FertileAgent {
 		NeuralNetworkDrivenAgent newAgent = null;
 		int parentEnergy = getEnergy();
 		int childEnergy = getNewbornEnergy();
+		Random random = env.getRandom();
 		double newAngle = random.nextDouble();
 		double newSpeed = 0;
 		newAgent = new NeuralNetworkDrivenAgent(this.getX(), this.getY(), newAngle, newSpeed);
 		newAgent.generation = this.generation;
 		newAgent.setBrain(brain);
-		newAgent.mutate(MUTATE_CHANCE_NEWBORN);
+		newAgent.mutate(MUTATE_CHANCE_NEWBORN, random);
 		newAgent.setEnergy(childEnergy);
 		setEnergy(parentEnergy - newAgent.getEnergy());
 		env.addAgent(newAgent);
@@ -354,11 +388,30 @@ public class NeuralNetworkDrivenAgent extends FertileAgent {
 		this.generation = gen;
 	}
 
+	@Override
+	public synchronized void copyCaches(AbstractAgent original, Map<AbstractAgent, AbstractAgent> clones, IEnvironment env) {
+		super.copyCaches(original, clones, env);
+		agentsInSight = copyOf(((NeuralNetworkDrivenAgent) original).agentsInSight, clones);
+		foodInSight = copyOf(((NeuralNetworkDrivenAgent) original).foodInSight, clones);
+	}
+
+	/**
+	 * Brain is shared with the clone: brains are never modified in place,
+	 * mutation always produces a new one
+	 */
+	@Override
+	public NeuralNetworkDrivenAgent clone() {
+		NeuralNetworkDrivenAgent clone = (NeuralNetworkDrivenAgent) super.clone();
+		clone.agentsInSight = null;
+		clone.foodInSight = null;
+		return clone;
+	}
+
 	static public long getMutationCount() {
-		return countMutation;
+		return countMutation.get();
 	}
 
 	static public void setMutationCount(long newCountMutation) {
-		countMutation = newCountMutation;
+		countMutation.set(newCountMutation);
 	}
 }
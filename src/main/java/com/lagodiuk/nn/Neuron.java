@@ -17,6 +17,7 @@ package com.lagodiuk.nn;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlElementWrapper;
@@ -61,10 +62,31 @@ public class Neuron implements Cloneable {
 	}
 
 	public void activate() {
-		this.afterActivationSignal = this.thresholdFunction.calculate(this.inputSignal, this.params);
+		this.activate(null);
+	}
+
+	/**
+	 * @param random
+	 *            source of randomness for random threshold function, or null
+	 *            for the default one
+	 */
+	public void activate(Random random) {
+		if (random == null) {
+			this.afterActivationSignal = this.thresholdFunction.calculate(this.inputSignal, this.params);
+		} else {
+			this.afterActivationSignal = this.thresholdFunction.calculate(this.inputSignal, this.params, random);
+		}
 		this.inputSignal = 0;
 	}
 
+	/**
+	 * Signal after activation for the given input signal, state of the neuron
+	 * is not changed
+	 */
+	public double calculate(double inputSignal, Random random) {
+		return this.thresholdFunction.calculate(inputSignal, this.params, random);
+	}
+
 	public double getAfterActivationSignal() {
 		return this.afterActivationSignal;
 	}
@@ -73,6 +95,14 @@ public class Neuron implements Cloneable {
 		return this.thresholdFunction;
 	}
 
+	public int getParamsCount() {
+		return this.params.size();
+	}
+
+	public double getParam(int paramNumber) {
+		return this.params.get(paramNumber);
+	}
+
 	public List<Double> getParams() {
 		List<Double> ret = new ArrayList<Double>(this.params.size());
 		for (Double d : this.params) {
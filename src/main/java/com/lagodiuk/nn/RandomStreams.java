@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.nn;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * All randomness of the program comes from a single root generator, which
+ * may be seeded (e.g. -Drandom.seed=42 for the runner) to make runs
+ * reproducible bit by bit. <br/>
+ * Streams are {@link SplittableRandom}s behind the {@link Random} interface:
+ * <ul>
+ * <li>every new world takes a seed from the root (copies of worlds and
+ * worlds read from files keep theirs), and draws all random numbers of a time
+ * step (agents included) from a stream made from the seed and the time
+ * step</li>
+ * <li>every thread has a stream of its own split from the root, for whatever
+ * is not done for a world (random brains, mutation of brains outside of
+ * worlds): no instances are shared between threads, and none are made per
+ * brain</li>
+ * </ul>
+ * Streams of threads are split from the root in the order threads first ask
+ * for them, so runs with many such threads are reproducible as far as this
+ * order is.
+ */
+public final class RandomStreams {
+
+	/**
+	 * Stream of random numbers, not thread safe. Seeds which differ little
+	 * (e.g. by one) give unrelated streams
+	 */
+	public static class Stream extends Random {
+		private static final long serialVersionUID = 1L;
+
+		private SplittableRandom splittable;
+
+		public Stream(long seed) {
+			// Calls setSeed
+			super(seed);
+		}
+
+		private Stream(SplittableRandom splittable) {
+			super(0);
+			this.splittable = splittable;
+		}
+
+		@Override
+		public void setSeed(long seed) {
+			// Cached gaussian is dropped
+			super.setSeed(seed);
+			this.splittable = new SplittableRandom(seed).split();
+		}
+
+		/**
+		 * Independent stream, which this one goes on apart from
+		 */
+		public Stream split() {
+			return new Stream(splittable.split());
+		}
+
+		@Override
+		protected int next(int bits) {
+			return (int) (splittable.nextLong() >>> (64 - bits));
+		}
+
+		@Override
+		public int nextInt() {
+			return splittable.nextInt();
+		}
+
+		@Override
+		public int nextInt(int bound) {
+			if (bound <= 0) {
+				throw new IllegalArgumentException("Bound must be positive");
+			}
+			return splittable.nextInt(bound);
+		}
+
+		@Override
+		public long nextLong() {
+			return splittable.nextLong();
+		}
+
+		@Override
+		public double nextDouble() {
+			return splittable.nextDouble();
+		}
+
+		@Override
+		public boolean nextBoolean() {
+			return splittable.nextBoolean();
+		}
+	}
+
+	private static class ThreadStream {
+		final int generation;
+		final Stream stream;
+
+		ThreadStream(int generation, Stream stream) {
+			this.generation = generation;
+			this.stream = stream;
+		}
+	}
+
+	private static Stream root = new Stream(new SplittableRandom().nextLong());
+	// Streams of threads split before the root was seeded anew are dropped
+	private static volatile int generation = 0;
+
+	private static final ThreadLocal<ThreadStream> threadStreams = new ThreadLocal<ThreadStream>();
+
+	private RandomStreams() {
+	}
+
+	/**
+	 * Seeds the root, streams of threads are split from it anew
+	 */
+	public static synchronized void setSeed(long seed) {
+		root = new Stream(seed);
+		generation++;
+	}
+
+	/**
+	 * Seed for a new world
+	 */
+	public static synchronized long nextSeed() {
+		return root.nextLong();
+	}
+
+	/**
+	 * New stream, split from the root
+	 */
+	public static synchronized Stream split() {
+		return root.split();
+	}
+
+	/**
+	 * Stream of the current thread
+	 */
+	public static Random current() {
+		ThreadStream threadStream = threadStreams.get();
+		if ((threadStream == null) || (threadStream.generation != generation)) {
+			synchronized (RandomStreams.class) {
+				threadStream = new ThreadStream(generation, root.split());
+			}
+			threadStreams.set(threadStream);
+		}
+		return threadStream.stream;
+	}
+}
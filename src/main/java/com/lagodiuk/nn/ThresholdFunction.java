@@ -50,6 +50,7 @@ public enum ThresholdFunction {
 
 		@Override
 		public List<Double> getRandomParams() {
+			Random random = RandomStreams.current();
 			double a = random.nextDouble() - 0.5;
 			double b = random.nextDouble() - 0.5;
 			List<Double> ret = new LinkedList<Double>();
@@ -80,6 +81,7 @@ public enum ThresholdFunction {
 
 		@Override
 		public List<Double> getRandomParams() {
+			Random random = RandomStreams.current();
 			double threshold = random.nextDouble() - 0.5;
 			List<Double> ret = new LinkedList<Double>();
 			ret.add(threshold);
@@ -110,6 +112,7 @@ public enum ThresholdFunction {
 
 		@Override
 		public List<Double> getRandomParams() {
+			Random random = RandomStreams.current();
 			double a = random.nextDouble() - 0.5;
 			double b = random.nextDouble() - 0.5;
 			double c = random.nextDouble() - 0.5;
@@ -124,13 +127,23 @@ public enum ThresholdFunction {
 	RANDOM {
 		@Override
 		public double calculate(double value, List<Double> params) {
+			return this.calculate(value, params, RandomStreams.current());
+		};
+
+		@Override
+		public double calculate(double value, List<Double> params, Random random) {
 			return random.nextDouble() - 0.5;
 		};
 	};
 
-	private static final Random random = new Random();
-
+	/**
+	 * Random function, taken with the random stream of the current thread
+	 */
 	public static ThresholdFunction getRandomFunction() {
+		return getRandomFunction(RandomStreams.current());
+	}
+
+	public static ThresholdFunction getRandomFunction(Random random) {
 		ThresholdFunction[] allFunctions = values();
 		return allFunctions[random.nextInt(allFunctions.length)];
 	}
@@ -140,6 +153,15 @@ public enum ThresholdFunction {
 		return 0;
 	}
 
+	/**
+	 * Same as {@link #calculate(double, List)}, but functions which need
+	 * randomness take it from the given source (e.g. the one of the world, so
+	 * that the world can be replayed)
+	 */
+	public double calculate(double value, List<Double> params, Random random) {
+		return this.calculate(value, params);
+	}
+
 	public List<Double> getDefaultParams() {
 		// Stub
 		return Collections.emptyList();
@@ -22,19 +22,15 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
-import javax.xml.bind.annotation.XmlTransient;
-
 import com.lagodiuk.nn.NeuralNetwork;
 import com.lagodiuk.nn.Neuron;
+import com.lagodiuk.nn.RandomStreams;
 import com.lagodiuk.nn.ThresholdFunction;
 
 public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosome<OptimizableNeuralNetwork>, Cloneable {
 	private static double weightsMutationInterval = 1;
 	private static double neuronParamsMutationInterval = 1;
 
-	@XmlTransient
-	private Random random = new Random();
-
 	public OptimizableNeuralNetwork() {
 		// Required by JAXB
 	}
@@ -52,13 +48,16 @@ public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosom
 	@Override
 	public List<OptimizableNeuralNetwork> crossover(OptimizableNeuralNetwork anotherChromosome) {
 		OptimizableNeuralNetwork anotherClone = anotherChromosome.clone();
+		anotherClone.parentId = anotherChromosome.getId();
 		OptimizableNeuralNetwork thisClone = this.clone();
+		thisClone.parentId = this.getId();
 
-		switch (this.random.nextInt(4)) {
+		Random random = RandomStreams.current();
+		switch (random.nextInt(4)) {
 			case 0: {
 				List<Double> thisWeights = thisClone.neuronsLinks.getAllWeights();
 				List<Double> anotherWeights = anotherClone.neuronsLinks.getAllWeights();
-				this.twoPointsWeightsCrossover(thisWeights, anotherWeights);
+				this.twoPointsWeightsCrossover(thisWeights, anotherWeights, random);
 				thisClone.neuronsLinks.setAllWeights(thisWeights);
 				anotherClone.neuronsLinks.setAllWeights(anotherWeights);
 			}
@@ -66,17 +65,17 @@ public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosom
 			case 1: {
 				List<Double> thisWeights = thisClone.neuronsLinks.getAllWeights();
 				List<Double> anotherWeights = anotherClone.neuronsLinks.getAllWeights();
-				this.uniformelyDistributedWeightsCrossover(thisWeights, anotherWeights);
+				this.uniformelyDistributedWeightsCrossover(thisWeights, anotherWeights, random);
 				thisClone.neuronsLinks.setAllWeights(thisWeights);
 				anotherClone.neuronsLinks.setAllWeights(anotherWeights);
 			}
 				break;
 			case 2: {
-				this.twoPointsNeuronsCrossover(thisClone.neurons, anotherClone.neurons);
+				this.twoPointsNeuronsCrossover(thisClone.neurons, anotherClone.neurons, random);
 			}
 				break;
 			case 3: {
-				this.uniformelyDistributedNeuronsCrossover(thisClone.neurons, anotherClone.neurons);
+				this.uniformelyDistributedNeuronsCrossover(thisClone.neurons, anotherClone.neurons, random);
 			}
 				break;
 		// TODO
@@ -92,14 +91,14 @@ public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosom
 		List<OptimizableNeuralNetwork> ret = new ArrayList<OptimizableNeuralNetwork>();
 		ret.add(anotherClone);
 		ret.add(thisClone);
-		ret.add(anotherClone.mutate());
-		ret.add(thisClone.mutate());
+		ret.add(anotherClone.mutate(random));
+		ret.add(thisClone.mutate(random));
 		return ret;
 	}
 
-	private void twoPointsWeightsCrossover(List<Double> thisWeights, List<Double> anotherWeights) {
-		int left = this.random.nextInt(thisWeights.size());
-		int right = this.random.nextInt(thisWeights.size());
+	private void twoPointsWeightsCrossover(List<Double> thisWeights, List<Double> anotherWeights, Random random) {
+		int left = random.nextInt(thisWeights.size());
+		int right = random.nextInt(thisWeights.size());
 		if (left > right) {
 			int tmp = right;
 			right = left;
@@ -112,18 +111,18 @@ public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosom
 		}
 	}
 
-	private void uniformelyDistributedWeightsCrossover(List<Double> thisWeights, List<Double> anotherWeights) {
+	private void uniformelyDistributedWeightsCrossover(List<Double> thisWeights, List<Double> anotherWeights, Random random) {
 		int weightsSize = thisWeights.size();
-		int itersCount = this.random.nextInt(weightsSize);
+		int itersCount = random.nextInt(weightsSize);
 		if (itersCount == 0) {
 			itersCount = 1;
 		}
 		Set<Integer> used = new HashSet<Integer>();
 		for (int iter = 0; iter < itersCount; iter++) {
-			int i = this.random.nextInt(weightsSize);
+			int i = random.nextInt(weightsSize);
 			if (weightsSize > 1) {
 				while (used.contains(i)) {
-					i = this.random.nextInt(weightsSize);
+					i = random.nextInt(weightsSize);
 				}
 			}
 			double thisWeight = thisWeights.get(i);
@@ -135,9 +134,9 @@ public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosom
 		}
 	}
 
-	private void twoPointsNeuronsCrossover(List<Neuron> thisNeurons, List<Neuron> anotherNeurons) {
-		int left = this.random.nextInt(thisNeurons.size());
-		int right = this.random.nextInt(thisNeurons.size());
+	private void twoPointsNeuronsCrossover(List<Neuron> thisNeurons, List<Neuron> anotherNeurons, Random random) {
+		int left = random.nextInt(thisNeurons.size());
+		int right = random.nextInt(thisNeurons.size());
 		if (left > right) {
 			int tmp = right;
 			right = left;
@@ -150,18 +149,18 @@ public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosom
 		}
 	}
 
-	private void uniformelyDistributedNeuronsCrossover(List<Neuron> thisNeurons, List<Neuron> anotherNeurons) {
+	private void uniformelyDistributedNeuronsCrossover(List<Neuron> thisNeurons, List<Neuron> anotherNeurons, Random random) {
 		int neuronsSize = thisNeurons.size();
-		int itersCount = this.random.nextInt(neuronsSize);
+		int itersCount = random.nextInt(neuronsSize);
 		if (itersCount == 0) {
 			itersCount = 1;
 		}
 		Set<Integer> used = new HashSet<Integer>();
 		for (int iter = 0; iter < itersCount; iter++) {
-			int i = this.random.nextInt(neuronsSize);
+			int i = random.nextInt(neuronsSize);
 			if (neuronsSize > 1) {
 				while (used.contains(i)) {
-					i = this.random.nextInt(neuronsSize);
+					i = random.nextInt(neuronsSize);
 				}
 			}
 			Neuron thisNeuron = thisNeurons.get(i);
@@ -173,28 +172,40 @@ public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosom
 		}
 	}
 
+	/**
+	 * Mutates with the random stream of the current thread
+	 */
 	@Override
 	public OptimizableNeuralNetwork mutate() {
+		return this.mutate(RandomStreams.current());
+	}
+
+	/**
+	 * Same as {@link #mutate()}, but with randomness taken from the given
+	 * source (e.g. the one of the world, so that the world can be replayed)
+	 */
+	public OptimizableNeuralNetwork mutate(Random random) {
 		OptimizableNeuralNetwork mutated = this.clone();
+		mutated.parentId = this.getId();
 
-		switch (this.random.nextInt(4)) {
+		switch (random.nextInt(4)) {
 			case 0: {
 				List<Double> weights = mutated.neuronsLinks.getAllWeights();
-				this.mutateWeights(weights);
+				this.mutateWeights(weights, random);
 				mutated.neuronsLinks.setAllWeights(weights);
 			}
 				break;
 			case 1: {
-				this.mutateNeuronsFunctionsParams(mutated.neurons);
+				this.mutateNeuronsFunctionsParams(mutated.neurons, random);
 			}
 				break;
 			case 2: {
-				this.mutateChangeNeuronsFunctions(mutated.neurons);
+				this.mutateChangeNeuronsFunctions(mutated.neurons, random);
 			}
 				break;
 			case 3: {
 				List<Double> weights = mutated.neuronsLinks.getAllWeights();
-				this.shuffleWeightsOnSubinterval(weights);
+				this.shuffleWeightsOnSubinterval(weights, random);
 				mutated.neuronsLinks.setAllWeights(weights);
 			}
 				break;
@@ -203,22 +214,22 @@ public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosom
 		return mutated;
 	}
 
-	private void mutateWeights(List<Double> weights) {
+	private void mutateWeights(List<Double> weights, Random random) {
 		int weightsSize = weights.size();
-		int itersCount = this.random.nextInt(weightsSize);
+		int itersCount = random.nextInt(weightsSize);
 		if (itersCount == 0) {
 			itersCount = 1;
 		}
 		Set<Integer> used = new HashSet<Integer>();
 		for (int iter = 0; iter < itersCount; iter++) {
-			int i = this.random.nextInt(weightsSize);
+			int i = random.nextInt(weightsSize);
 			if (weightsSize > 1) {
 				while (used.contains(i)) {
-					i = this.random.nextInt(weightsSize);
+					i = random.nextInt(weightsSize);
 				}
 			}
 			double w = weights.get(i);
-			w += (this.random.nextGaussian() - this.random.nextGaussian()) * weightsMutationInterval;
+			w += (random.nextGaussian() - random.nextGaussian()) * weightsMutationInterval;
 			// w += (this.random.nextDouble() - this.random.nextDouble()) *
 			// weightsMutationInterval;
 			weights.set(i, w);
@@ -226,18 +237,18 @@ public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosom
 		}
 	}
 
-	private void mutateNeuronsFunctionsParams(List<Neuron> neurons) {
+	private void mutateNeuronsFunctionsParams(List<Neuron> neurons, Random random) {
 		int neuronsSize = neurons.size();
-		int itersCount = this.random.nextInt(neuronsSize);
+		int itersCount = random.nextInt(neuronsSize);
 		if (itersCount == 0) {
 			itersCount = 1;
 		}
 		Set<Integer> used = new HashSet<Integer>();
 		for (int iter = 0; iter < itersCount; iter++) {
-			int i = this.random.nextInt(neuronsSize);
+			int i = random.nextInt(neuronsSize);
 			if (neuronsSize > 1) {
 				while (used.contains(i)) {
-					i = this.random.nextInt(neuronsSize);
+					i = random.nextInt(neuronsSize);
 				}
 			}
 			Neuron n = neurons.get(i);
@@ -245,7 +256,7 @@ public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosom
 			List<Double> params = n.getParams();
 			for (int j = 0; j < params.size(); j++) {
 				double param = params.get(j);
-				param += (this.random.nextGaussian() - this.random.nextGaussian()) * neuronParamsMutationInterval;
+				param += (random.nextGaussian() - random.nextGaussian()) * neuronParamsMutationInterval;
 				// param += (this.random.nextDouble() -
 				// this.random.nextDouble()) * neuronParamsMutationInterval;
 				params.set(j, param);
@@ -255,30 +266,30 @@ public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosom
 		}
 	}
 
-	private void mutateChangeNeuronsFunctions(List<Neuron> neurons) {
+	private void mutateChangeNeuronsFunctions(List<Neuron> neurons, Random random) {
 		int neuronsSize = neurons.size();
-		int itersCount = this.random.nextInt(neuronsSize);
+		int itersCount = random.nextInt(neuronsSize);
 		if (itersCount == 0) {
 			itersCount = 1;
 		}
 		Set<Integer> used = new HashSet<Integer>();
 		for (int iter = 0; iter < itersCount; iter++) {
-			int i = this.random.nextInt(neuronsSize);
+			int i = random.nextInt(neuronsSize);
 			if (neuronsSize > 1) {
 				while (used.contains(i)) {
-					i = this.random.nextInt(neuronsSize);
+					i = random.nextInt(neuronsSize);
 				}
 			}
 			Neuron n = neurons.get(i);
-			ThresholdFunction f = ThresholdFunction.getRandomFunction();
+			ThresholdFunction f = ThresholdFunction.getRandomFunction(random);
 			n.setFunctionAndParams(f, f.getDefaultParams());
 			used.add(i);
 		}
 	}
 
-	private void shuffleWeightsOnSubinterval(List<Double> weights) {
-		int left = this.random.nextInt(weights.size());
-		int right = this.random.nextInt(weights.size());
+	private void shuffleWeightsOnSubinterval(List<Double> weights, Random random) {
+		int left = random.nextInt(weights.size());
+		int right = random.nextInt(weights.size());
 		if (left > right) {
 			int tmp = right;
 			right = left;
@@ -288,7 +299,7 @@ public class OptimizableNeuralNetwork extends NeuralNetwork implements Chromosom
 		for (int i = 0; i < ((right - left) + 1); i++) {
 			subListOfWeights.add(weights.get(left + i));
 		}
-		Collections.shuffle(subListOfWeights);
+		Collections.shuffle(subListOfWeights, random);
 		for (int i = 0; i < ((right - left) + 1); i++) {
 			weights.set(left + i, subListOfWeights.get(i));
 		}
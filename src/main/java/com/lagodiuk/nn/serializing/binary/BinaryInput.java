@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.nn.serializing.binary;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffered reader of data written by {@link BinaryOutput}
+ */
+public class BinaryInput implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final InputStream in;
+	private final byte[] buffer;
+	private int position = 0;
+	private int limit = 0;
+	private long consumed = 0;
+
+	public BinaryInput(InputStream in) {
+		this.in = in;
+		this.buffer = new byte[BUFFER_SIZE];
+	}
+
+	/**
+	 * Reads from the given array, without copying it
+	 */
+	public BinaryInput(byte[] bytes, int offset, int length) {
+		this.in = null;
+		this.buffer = bytes;
+		this.position = offset;
+		this.limit = offset + length;
+		this.consumed = -offset;
+	}
+
+	private void require(int bytes) throws IOException {
+		if (limit - position >= bytes) {
+			return;
+		}
+		if (in == null) {
+			throw new EOFException();
+		}
+		int remaining = limit - position;
+		System.arraycopy(buffer, position, buffer, 0, remaining);
+		consumed += position;
+		position = 0;
+		limit = remaining;
+		while (limit < bytes) {
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			limit += read;
+		}
+	}
+
+	public int readByte() throws IOException {
+		require(1);
+		return buffer[position++] & 0xFF;
+	}
+
+	public int readInt() throws IOException {
+		require(4);
+		int value = ((buffer[position] & 0xFF) << 24) | ((buffer[position + 1] & 0xFF) << 16)
+				| ((buffer[position + 2] & 0xFF) << 8) | (buffer[position + 3] & 0xFF);
+		position += 4;
+		return value;
+	}
+
+	public long readLong() throws IOException {
+		require(8);
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (buffer[position++] & 0xFF);
+		}
+		return value;
+	}
+
+	public double readDouble() throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+
+	public int readVarInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	public long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	public int readSignedVarInt() throws IOException {
+		int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public long readSignedVarLong() throws IOException {
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public void readBytes(byte[] bytes, int offset, int length) throws IOException {
+		int buffered = Math.min(length, limit - position);
+		System.arraycopy(buffer, position, bytes, offset, buffered);
+		position += buffered;
+		offset += buffered;
+		length -= buffered;
+		while (length > 0) {
+			if (in == null) {
+				throw new EOFException();
+			}
+			int read = in.read(bytes, offset, length);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			consumed += read;
+			offset += read;
+			length -= read;
+		}
+	}
+
+	public void skip(long bytes) throws IOException {
+		long buffered = Math.min(bytes, limit - position);
+		position += buffered;
+		bytes -= buffered;
+		while (bytes > 0) {
+			if (in == null) {
+				throw new EOFException();
+			}
+			long skipped = in.skip(bytes);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			consumed += skipped;
+			bytes -= skipped;
+		}
+	}
+
+	/**
+	 * @return number of bytes consumed so far
+	 */
+	public long position() {
+		return consumed + position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (in != null) {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.nn.serializing.binary;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered writer of primitives and variable length integers. <br/>
+ * Varints are little endian base 128 (7 bits per byte, high bit means "more
+ * bytes follow"). Signed varints are zigzag encoded, so small negative values
+ * stay short. Doubles are written as 8 bytes, big endian.
+ */
+public class BinaryOutput implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	private long written = 0;
+
+	public BinaryOutput(OutputStream out) {
+		this.out = out;
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (position + bytes > buffer.length) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		out.write(buffer, 0, position);
+		written += position;
+		position = 0;
+	}
+
+	public void writeByte(int value) throws IOException {
+		ensure(1);
+		buffer[position++] = (byte) value;
+	}
+
+	public void writeInt(int value) throws IOException {
+		ensure(4);
+		buffer[position++] = (byte) (value >>> 24);
+		buffer[position++] = (byte) (value >>> 16);
+		buffer[position++] = (byte) (value >>> 8);
+		buffer[position++] = (byte) value;
+	}
+
+	public void writeLong(long value) throws IOException {
+		ensure(8);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			buffer[position++] = (byte) (value >>> shift);
+		}
+	}
+
+	public void writeDouble(double value) throws IOException {
+		writeLong(Double.doubleToRawLongBits(value));
+	}
+
+	public void writeVarInt(int value) throws IOException {
+		ensure(5);
+		while ((value & ~0x7F) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	public void writeVarLong(long value) throws IOException {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	public void writeSignedVarInt(int value) throws IOException {
+		writeVarInt((value << 1) ^ (value >> 31));
+	}
+
+	public void writeSignedVarLong(long value) throws IOException {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+		if (length > buffer.length - position) {
+			flushBuffer();
+			out.write(bytes, offset, length);
+			written += length;
+		} else {
+			System.arraycopy(bytes, offset, buffer, position, length);
+			position += length;
+		}
+	}
+
+	/**
+	 * @return number of bytes written so far
+	 */
+	public long size() {
+		return written + position;
+	}
+
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		out.close();
+	}
+}
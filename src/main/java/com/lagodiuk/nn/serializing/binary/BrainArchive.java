@@ -0,0 +1,592 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.nn.serializing.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.ThresholdFunction;
+
+/**
+ * Append-only archive of brains (e.g. leaders of generations of a long run).
+ * <br/>
+ * Archive consists of two files: <br/>
+ * <ul>
+ * <li>data file: magic, version, threshold functions table (see
+ * {@link BrainCodec}), then brain records one after another</li>
+ * <li>index file ("{@value #INDEX_EXTENSION}" appended to data file name):
+ * header, then an entry of {@value #ENTRY_SIZE} bytes per brain - offset and
+ * length of record, index of base entry (-1 if record is a full brain, or
+ * index of earlier entry the record is a delta against), content hash,
+ * timestamp, generation, length of delta chain</li>
+ * </ul>
+ * Both files are read through memory mapping, so reading of any entry costs
+ * the same regardless of archive size, and iterating over all entries reads
+ * files sequentially. Entries are looked up by generation and timestamp with
+ * binary search in the mapped index, as the runner appends them in that
+ * order. Lookup by hash reads the index once, on the first such lookup. <br/>
+ * Equal brains are stored once: appending a brain which is already in archive
+ * returns index of existing entry. <br/>
+ * Brain is written as delta against previously appended brain, or against its
+ * parent appended in the same session, when delta is smaller (see
+ * {@link BrainTable#MAX_DELTA_CHAIN} for bound of delta chains). <br/>
+ * Index entry is written after the record, so a crash leaves at most an
+ * unreferenced tail of data file, which is cut off on the next opening.
+ */
+public class BrainArchive implements Closeable {
+	public static final String INDEX_EXTENSION = ".idx";
+
+	public static final int ENTRY_SIZE = 40;
+
+	private static final int DATA_MAGIC = 0x45564E42; // "EVNB"
+	private static final int INDEX_MAGIC = 0x45564E49; // "EVNI"
+	private static final int VERSION = 1;
+	private static final int INDEX_HEADER_SIZE = 16;
+
+	private static final int OFFSET = 0;
+	private static final int LENGTH = 8;
+	private static final int BASE = 12;
+	private static final int HASH = 16;
+	private static final int TIMESTAMP = 24;
+	private static final int GENERATION = 32;
+	private static final int DEPTH = 36;
+
+	// Data file is mapped by windows, so it may grow beyond 2Gb
+	private static final int DATA_WINDOW = 64 << 20;
+
+	private static final int CACHE_SIZE = 64;
+
+	public interface Visitor {
+		void visit(int index, NeuralNetwork brain) throws IOException;
+	}
+
+	/**
+	 * Open addressing map of hashes to indexes of entries, without boxing
+	 */
+	private static class HashIndex {
+		private long[] hashes;
+		private int[] indexes;
+		private int count = 0;
+
+		HashIndex(int expected) {
+			int capacity = 16;
+			while (capacity < (expected * 2)) {
+				capacity <<= 1;
+			}
+			hashes = new long[capacity];
+			indexes = new int[capacity];
+			Arrays.fill(indexes, -1);
+		}
+
+		private int slot(long hash) {
+			int mask = indexes.length - 1;
+			int slot = (int) (hash ^ (hash >>> 32)) & mask;
+			while ((indexes[slot] >= 0) && (hashes[slot] != hash)) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		/**
+		 * @return index of entry with hash, or -1
+		 */
+		int get(long hash) {
+			return indexes[slot(hash)];
+		}
+
+		void putIfAbsent(long hash, int index) {
+			int slot = slot(hash);
+			if (indexes[slot] >= 0) {
+				return;
+			}
+			hashes[slot] = hash;
+			indexes[slot] = index;
+			if (++count * 2 > indexes.length) {
+				long[] oldHashes = hashes;
+				int[] oldIndexes = indexes;
+				hashes = new long[oldHashes.length * 2];
+				indexes = new int[oldIndexes.length * 2];
+				Arrays.fill(indexes, -1);
+				for (int i = 0; i < oldIndexes.length; i++) {
+					if (oldIndexes[i] >= 0) {
+						int newSlot = slot(oldHashes[i]);
+						hashes[newSlot] = oldHashes[i];
+						indexes[newSlot] = oldIndexes[i];
+					}
+				}
+			}
+		}
+	}
+
+	private final RandomAccessFile dataFile;
+	private final RandomAccessFile indexFile;
+	private final FileChannel data;
+	private final FileChannel index;
+	private final boolean readOnly;
+
+	private ThresholdFunction[] functions;
+	private int size;
+	private long dataSize;
+	private int lastDepth = 0;
+
+	private MappedByteBuffer indexMap;
+	private int indexMapEntries = 0;
+	private MappedByteBuffer dataMap;
+	private long dataMapOffset = 0;
+
+	// Recently read brains, bases of deltas are usually among them
+	private final int[] cachedIndexes = new int[CACHE_SIZE];
+	private final NeuralNetwork[] cachedBrains = new NeuralNetwork[CACHE_SIZE];
+
+	// First entry of every hash, built on the first lookup by hash
+	private HashIndex indexByHash = null;
+
+	// Appended in this session: delta bases
+	private final Map<Long, Integer> indexByBrainId = new HashMap<Long, Integer>();
+
+	/**
+	 * Opens archive for reading and appending, creates it when it does not
+	 * exist
+	 */
+	public BrainArchive(File file) throws IOException {
+		this(file, false);
+	}
+
+	public BrainArchive(File file, boolean readOnly) throws IOException {
+		this.readOnly = readOnly;
+		String mode = readOnly ? "r" : "rw";
+		File indexFile = new File(file.getPath() + INDEX_EXTENSION);
+		this.dataFile = new RandomAccessFile(file, mode);
+		try {
+			this.indexFile = new RandomAccessFile(indexFile, mode);
+		} catch (IOException e) {
+			this.dataFile.close();
+			throw e;
+		}
+		this.data = this.dataFile.getChannel();
+		this.index = this.indexFile.getChannel();
+		Arrays.fill(cachedIndexes, -1);
+
+		try {
+			if (data.size() == 0) {
+				if (readOnly) {
+					throw new IOException("Brain archive " + file + " is empty");
+				}
+				create();
+			} else {
+				open();
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private void create() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryOutput out = new BinaryOutput(bytes);
+		out.writeInt(DATA_MAGIC);
+		out.writeVarInt(VERSION);
+		BrainCodec.writeFunctionTable(out);
+		out.flush();
+		writeFully(data, ByteBuffer.wrap(bytes.toByteArray()), 0);
+
+		ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+		header.putInt(INDEX_MAGIC).putInt(VERSION).putInt(ENTRY_SIZE).putInt(0);
+		header.flip();
+		index.truncate(0);
+		writeFully(index, header, 0);
+
+		size = 0;
+		dataSize = readHeader(bytes.toByteArray());
+	}
+
+	/**
+	 * @return length of header
+	 */
+	private long readHeader(byte[] header) throws IOException {
+		BinaryInput in = new BinaryInput(header, 0, header.length);
+		if (in.readInt() != DATA_MAGIC) {
+			throw new IOException("Not a brain archive");
+		}
+		int version = in.readVarInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported brain archive version " + version);
+		}
+		functions = BrainCodec.readFunctionTable(in);
+		return in.position();
+	}
+
+	private void open() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate((int) Math.min(data.size(), 4096));
+		readFully(data, header, 0);
+		long dataStart = readHeader(header.array());
+
+		ByteBuffer indexHeader = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+		if (index.size() < INDEX_HEADER_SIZE) {
+			throw new IOException("Index of brain archive is missing");
+		}
+		readFully(index, indexHeader, 0);
+		indexHeader.flip();
+		if ((indexHeader.getInt() != INDEX_MAGIC) || (indexHeader.getInt() != VERSION) || (indexHeader.getInt() != ENTRY_SIZE)) {
+			throw new IOException("Unsupported index of brain archive");
+		}
+
+		size = (int) ((index.size() - INDEX_HEADER_SIZE) / ENTRY_SIZE);
+		dataSize = (size == 0) ? dataStart : (getOffset(size - 1) + getLength(size - 1));
+		if (!readOnly) {
+			// Cut off incomplete entry or record, left by interrupted append
+			index.truncate(INDEX_HEADER_SIZE + ((long) size * ENTRY_SIZE));
+			data.truncate(dataSize);
+		}
+		if (size > 0) {
+			lastDepth = getDepth(size - 1);
+		}
+	}
+
+	private HashIndex hashIndex() throws IOException {
+		if (indexByHash == null) {
+			indexByHash = new HashIndex(size);
+			for (int i = 0; i < size; i++) {
+				indexByHash.putIfAbsent(getHash(i), i);
+			}
+		}
+		return indexByHash;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getHash(int i) throws IOException {
+		return entries(i).getLong(entryPosition(i) + HASH);
+	}
+
+	public long getTimestamp(int i) throws IOException {
+		return entries(i).getLong(entryPosition(i) + TIMESTAMP);
+	}
+
+	public int getGeneration(int i) throws IOException {
+		return entries(i).getInt(entryPosition(i) + GENERATION);
+	}
+
+	public boolean isDelta(int i) throws IOException {
+		return getBase(i) >= 0;
+	}
+
+	private long getOffset(int i) throws IOException {
+		return entries(i).getLong(entryPosition(i) + OFFSET);
+	}
+
+	private int getLength(int i) throws IOException {
+		return entries(i).getInt(entryPosition(i) + LENGTH);
+	}
+
+	private int getBase(int i) throws IOException {
+		return entries(i).getInt(entryPosition(i) + BASE);
+	}
+
+	private int getDepth(int i) throws IOException {
+		return entries(i).getInt(entryPosition(i) + DEPTH);
+	}
+
+	private static int entryPosition(int i) {
+		return i * ENTRY_SIZE;
+	}
+
+	private ByteBuffer entries(int i) throws IOException {
+		if ((i < 0) || (i >= size)) {
+			throw new IndexOutOfBoundsException("Archive has " + size + " brains, requested " + i);
+		}
+		if (i >= indexMapEntries) {
+			indexMap = index.map(FileChannel.MapMode.READ_ONLY, INDEX_HEADER_SIZE, (long) size * ENTRY_SIZE);
+			indexMapEntries = size;
+		}
+		return indexMap;
+	}
+
+	private byte[] readRecord(int i) throws IOException {
+		long offset = getOffset(i);
+		int length = getLength(i);
+		if ((dataMap == null) || (offset < dataMapOffset) || ((offset + length) > (dataMapOffset + dataMap.capacity()))) {
+			long windowSize = Math.max(length, Math.min(DATA_WINDOW, dataSize - offset));
+			dataMap = data.map(FileChannel.MapMode.READ_ONLY, offset, windowSize);
+			dataMapOffset = offset;
+		}
+		byte[] bytes = new byte[length];
+		ByteBuffer record = dataMap.duplicate();
+		record.position((int) (offset - dataMapOffset));
+		record.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return brain of entry, every call returns a new instance
+	 */
+	public NeuralNetwork read(int i) throws IOException {
+		return decode(i).clone();
+	}
+
+	private NeuralNetwork decode(int i) throws IOException {
+		int slot = i % CACHE_SIZE;
+		if (cachedIndexes[slot] == i) {
+			return cachedBrains[slot];
+		}
+		byte[] bytes = readRecord(i);
+		BinaryInput in = new BinaryInput(bytes, 0, bytes.length);
+		int base = getBase(i);
+		NeuralNetwork brain = (base < 0) ? BrainCodec.read(in, functions) : BrainCodec.readDelta(in, decode(base), functions);
+		cache(i, brain);
+		return brain;
+	}
+
+	private void cache(int i, NeuralNetwork brain) {
+		int slot = i % CACHE_SIZE;
+		cachedIndexes[slot] = i;
+		cachedBrains[slot] = brain;
+	}
+
+	private int getDepthOf(int i) throws IOException {
+		// Depth of the last entry is kept, so appending does not remap index
+		return (i == (size - 1)) ? lastDepth : getDepth(i);
+	}
+
+	/**
+	 * Reads entries from first to last
+	 */
+	public void forEach(Visitor visitor) throws IOException {
+		forEach(0, size, visitor);
+	}
+
+	/**
+	 * Reads entries from {@code from} (inclusive) to {@code to} (exclusive)
+	 */
+	public void forEach(int from, int to, Visitor visitor) throws IOException {
+		for (int i = from; i < to; i++) {
+			visitor.visit(i, read(i));
+		}
+	}
+
+	/**
+	 * Reads only brains with matching hash
+	 *
+	 * @return index of entry with the same brain, or -1
+	 */
+	public int find(NeuralNetwork brain) throws IOException {
+		byte[] encoded = encode(brain);
+		return find(encoded, hash(encoded));
+	}
+
+	private int find(byte[] encoded, long hash) throws IOException {
+		int first = hashIndex().get(hash);
+		if (first < 0) {
+			return -1;
+		}
+		// Different brains with the same hash are practically impossible, but
+		// still have to be told apart
+		for (int i = first; i < size; i++) {
+			if ((getHash(i) == hash) && Arrays.equals(encoded, encode(decode(i)))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return index of the first entry with hash, or -1
+	 */
+	public int findByHash(long hash) throws IOException {
+		return hashIndex().get(hash);
+	}
+
+	/**
+	 * Entries must be appended in order of generation, as the runner does
+	 *
+	 * @return index of the first entry of the generation, or -1
+	 */
+	public int findByGeneration(int generation) throws IOException {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getGeneration(middle) < generation) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return ((low < size) && (getGeneration(low) == generation)) ? low : -1;
+	}
+
+	/**
+	 * Entries must be appended in order of timestamp, as the runner does
+	 *
+	 * @return first (inclusive) and last (exclusive) index of entries with
+	 *         timestamps from fromTimestamp (inclusive) to toTimestamp
+	 *         (exclusive), e.g. for {@link #forEach(int, int, Visitor)}
+	 */
+	public int[] range(long fromTimestamp, long toTimestamp) throws IOException {
+		int from = firstByTimestamp(fromTimestamp);
+		int to = Math.max(from, firstByTimestamp(toTimestamp));
+		return new int[] { from, to };
+	}
+
+	/**
+	 * @return index of the first entry not earlier than timestamp, or size
+	 */
+	private int firstByTimestamp(long timestamp) throws IOException {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getTimestamp(middle) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return index of the entry, existing one if archive already has this
+	 *         brain
+	 */
+	public int append(NeuralNetwork brain, int generation, long timestamp) throws IOException {
+		if (readOnly) {
+			throw new IOException("Brain archive is opened for reading only");
+		}
+		byte[] encoded = encode(brain);
+		long hash = hash(encoded);
+		int existing = find(encoded, hash);
+		if (existing >= 0) {
+			indexByBrainId.put(brain.getId(), existing);
+			return existing;
+		}
+
+		byte[] record = encoded;
+		int base = -1;
+		int depth = 0;
+		for (Integer candidate : new Integer[] { indexByBrainId.get(brain.getParentId()), (size > 0) ? (size - 1) : null }) {
+			if ((candidate == null) || (candidate == base) || (getDepthOf(candidate) >= (BrainTable.MAX_DELTA_CHAIN - 1))) {
+				continue;
+			}
+			NeuralNetwork baseBrain = decode(candidate);
+			if (!BrainCodec.isDeltaCompatible(baseBrain, brain)) {
+				continue;
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			BinaryOutput out = new BinaryOutput(bytes);
+			BrainCodec.writeDelta(out, baseBrain, brain);
+			out.flush();
+			if (bytes.size() < record.length) {
+				record = bytes.toByteArray();
+				base = candidate;
+				depth = getDepthOf(candidate) + 1;
+			}
+		}
+
+		writeFully(data, ByteBuffer.wrap(record), dataSize);
+
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+		entry.putLong(OFFSET, dataSize);
+		entry.putInt(LENGTH, record.length);
+		entry.putInt(BASE, base);
+		entry.putLong(HASH, hash);
+		entry.putLong(TIMESTAMP, timestamp);
+		entry.putInt(GENERATION, generation);
+		entry.putInt(DEPTH, depth);
+		writeFully(index, entry, INDEX_HEADER_SIZE + ((long) size * ENTRY_SIZE));
+
+		dataSize += record.length;
+		lastDepth = depth;
+		int appended = size++;
+		// Likely base of the next delta
+		cache(appended, brain.clone());
+		hashIndex().putIfAbsent(hash, appended);
+		indexByBrainId.put(brain.getId(), appended);
+		return appended;
+	}
+
+	/**
+	 * Forces appended brains to disk
+	 */
+	public void flush() throws IOException {
+		data.force(false);
+		index.force(false);
+	}
+
+	private static byte[] encode(NeuralNetwork brain) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryOutput out = new BinaryOutput(bytes);
+		BrainCodec.write(out, brain);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of encoded brain
+	 */
+	public static long hash(NeuralNetwork brain) throws IOException {
+		return hash(encode(brain));
+	}
+
+	private static long hash(byte[] bytes) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : bytes) {
+			hash ^= (b & 0xFF);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				break;
+			}
+			position += read;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		indexMap = null;
+		dataMap = null;
+		try {
+			dataFile.close();
+		} finally {
+			indexFile.close();
+		}
+	}
+}
@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.nn.serializing.binary;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.ThresholdFunction;
+import com.lagodiuk.nn.genetic.OptimizableNeuralNetwork;
+
+/**
+ * Binary encoding of a neural network: <br/>
+ * type, activation iterations, neurons count, function id of every neuron,
+ * parameters of every neuron, then links grouped by activator neuron. <br/>
+ * Threshold functions are referenced by stable numeric ids. Files carry a
+ * table of the ids they use together with parameters count of every
+ * function, so no names are stored. <br/>
+ * <br/>
+ * A network can be also written as a delta against a base network of the
+ * same structure (same type, neurons count, activation iterations and
+ * links): only the neurons and link weights which differ from the base are
+ * stored. Mutation keeps structure of network and touches few values, so
+ * deltas against relatives are small.
+ */
+public class BrainCodec {
+	private static final int TYPE_NEURAL_NETWORK = 0;
+	private static final int TYPE_OPTIMIZABLE_NEURAL_NETWORK = 1;
+
+	// Index is the id of function. Never reorder, only append
+	private static final ThresholdFunction[] FUNCTIONS_BY_ID = {
+			ThresholdFunction.LINEAR,
+			ThresholdFunction.SIGN,
+			ThresholdFunction.SIGMA,
+			ThresholdFunction.RANDOM };
+
+	private static final int[] IDS_BY_ORDINAL = new int[ThresholdFunction.values().length];
+
+	static {
+		for (int id = 0; id < FUNCTIONS_BY_ID.length; id++) {
+			IDS_BY_ORDINAL[FUNCTIONS_BY_ID[id].ordinal()] = id;
+		}
+	}
+
+	public static int functionId(ThresholdFunction function) {
+		return IDS_BY_ORDINAL[function.ordinal()];
+	}
+
+	public static void writeFunctionTable(BinaryOutput out) throws IOException {
+		out.writeVarInt(FUNCTIONS_BY_ID.length);
+		for (int id = 0; id < FUNCTIONS_BY_ID.length; id++) {
+			out.writeVarInt(id);
+			out.writeVarInt(FUNCTIONS_BY_ID[id].getDefaultParams().size());
+		}
+	}
+
+	/**
+	 * @return functions indexed by id used in the file
+	 */
+	public static ThresholdFunction[] readFunctionTable(BinaryInput in) throws IOException {
+		int count = in.readVarInt();
+		ThresholdFunction[] functions = new ThresholdFunction[FUNCTIONS_BY_ID.length];
+		for (int i = 0; i < count; i++) {
+			int id = in.readVarInt();
+			int paramsCount = in.readVarInt();
+			if (id >= FUNCTIONS_BY_ID.length) {
+				throw new IOException("Unknown threshold function id " + id);
+			}
+			ThresholdFunction function = FUNCTIONS_BY_ID[id];
+			if (function.getDefaultParams().size() != paramsCount) {
+				throw new IOException("Function " + function + " needs " + function.getDefaultParams().size()
+						+ " parameters. But file declares " + paramsCount);
+			}
+			functions[id] = function;
+		}
+		return functions;
+	}
+
+	public static void write(BinaryOutput out, NeuralNetwork nn) throws IOException {
+		out.writeByte(nn instanceof OptimizableNeuralNetwork ? TYPE_OPTIMIZABLE_NEURAL_NETWORK : TYPE_NEURAL_NETWORK);
+		out.writeVarInt(nn.getActivationIterations());
+
+		int neuronsCount = nn.getNeuronsCount();
+		out.writeVarInt(neuronsCount);
+		for (int i = 0; i < neuronsCount; i++) {
+			out.writeByte(functionId(nn.getNeuronFunction(i)));
+		}
+		for (int i = 0; i < neuronsCount; i++) {
+			int paramsCount = nn.getNeuronParamsCount(i);
+			for (int p = 0; p < paramsCount; p++) {
+				out.writeDouble(nn.getNeuronParam(i, p));
+			}
+		}
+
+		Collection<Integer> activators = nn.getLinkActivators();
+		out.writeVarInt(activators.size());
+		for (int activator : activators) {
+			Collection<Integer> receivers = nn.getLinkReceivers(activator);
+			out.writeVarInt(activator);
+			out.writeVarInt(receivers.size());
+			for (int receiver : receivers) {
+				out.writeVarInt(receiver);
+				out.writeDouble(nn.getLinkWeight(activator, receiver));
+			}
+		}
+	}
+
+	public static NeuralNetwork read(BinaryInput in, ThresholdFunction[] functions) throws IOException {
+		int type = in.readByte();
+		int activationIterations = in.readVarInt();
+		int neuronsCount = in.readVarInt();
+
+		NeuralNetwork nn;
+		if (type == TYPE_OPTIMIZABLE_NEURAL_NETWORK) {
+			nn = new OptimizableNeuralNetwork(neuronsCount);
+		} else if (type == TYPE_NEURAL_NETWORK) {
+			nn = new NeuralNetwork(neuronsCount);
+		} else {
+			throw new IOException("Unknown neural network type " + type);
+		}
+		nn.setActivationIterations(activationIterations);
+
+		ThresholdFunction[] neuronFunctions = new ThresholdFunction[neuronsCount];
+		for (int i = 0; i < neuronsCount; i++) {
+			int id = in.readByte();
+			if (id >= functions.length || functions[id] == null) {
+				throw new IOException("Threshold function id " + id + " is not declared");
+			}
+			neuronFunctions[i] = functions[id];
+		}
+		for (int i = 0; i < neuronsCount; i++) {
+			ThresholdFunction function = neuronFunctions[i];
+			int paramsCount = function.getDefaultParams().size();
+			List<Double> params = new ArrayList<Double>(paramsCount);
+			for (int p = 0; p < paramsCount; p++) {
+				params.add(in.readDouble());
+			}
+			nn.setNeuronFunction(i, function, params);
+		}
+
+		int activatorsCount = in.readVarInt();
+		for (int a = 0; a < activatorsCount; a++) {
+			int activator = in.readVarInt();
+			int receiversCount = in.readVarInt();
+			for (int r = 0; r < receiversCount; r++) {
+				int receiver = in.readVarInt();
+				nn.addLink(activator, receiver, in.readDouble());
+			}
+		}
+		return nn;
+	}
+
+	public static boolean isDeltaCompatible(NeuralNetwork base, NeuralNetwork nn) {
+		if ((base.getClass() != nn.getClass())
+				|| (base.getActivationIterations() != nn.getActivationIterations())
+				|| (base.getNeuronsCount() != nn.getNeuronsCount())) {
+			return false;
+		}
+		Collection<Integer> baseActivators = base.getLinkActivators();
+		Collection<Integer> activators = nn.getLinkActivators();
+		if (baseActivators.size() != activators.size()) {
+			return false;
+		}
+		Iterator<Integer> baseIterator = baseActivators.iterator();
+		for (int activator : activators) {
+			int baseActivator = baseIterator.next();
+			if (activator != baseActivator) {
+				return false;
+			}
+			Collection<Integer> baseReceivers = base.getLinkReceivers(activator);
+			Collection<Integer> receivers = nn.getLinkReceivers(activator);
+			if ((baseReceivers.size() != receivers.size()) || !sameOrder(baseReceivers, receivers)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean sameOrder(Collection<Integer> a, Collection<Integer> b) {
+		Iterator<Integer> iterator = b.iterator();
+		for (int value : a) {
+			if (value != iterator.next()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Base must be delta compatible with network (see
+	 * {@link #isDeltaCompatible(NeuralNetwork, NeuralNetwork)})
+	 */
+	public static void writeDelta(BinaryOutput out, NeuralNetwork base, NeuralNetwork nn) throws IOException {
+		int neuronsCount = nn.getNeuronsCount();
+		List<Integer> changedNeurons = new ArrayList<Integer>();
+		for (int i = 0; i < neuronsCount; i++) {
+			if (!sameNeuron(base, nn, i)) {
+				changedNeurons.add(i);
+			}
+		}
+		out.writeVarInt(changedNeurons.size());
+		int previous = -1;
+		for (int i : changedNeurons) {
+			out.writeVarInt(i - previous - 1);
+			out.writeByte(functionId(nn.getNeuronFunction(i)));
+			int paramsCount = nn.getNeuronParamsCount(i);
+			for (int p = 0; p < paramsCount; p++) {
+				out.writeDouble(nn.getNeuronParam(i, p));
+			}
+			previous = i;
+		}
+
+		List<Double> baseWeights = base.getWeightsOfLinks();
+		List<Double> weights = nn.getWeightsOfLinks();
+		int changedWeights = 0;
+		for (int i = 0; i < weights.size(); i++) {
+			if (!sameValue(baseWeights.get(i), weights.get(i))) {
+				changedWeights++;
+			}
+		}
+		out.writeVarInt(changedWeights);
+		previous = -1;
+		for (int i = 0; i < weights.size(); i++) {
+			if (!sameValue(baseWeights.get(i), weights.get(i))) {
+				out.writeVarInt(i - previous - 1);
+				out.writeDouble(weights.get(i));
+				previous = i;
+			}
+		}
+	}
+
+	private static boolean sameNeuron(NeuralNetwork base, NeuralNetwork nn, int neuron) {
+		if (base.getNeuronFunction(neuron) != nn.getNeuronFunction(neuron)) {
+			return false;
+		}
+		int paramsCount = nn.getNeuronParamsCount(neuron);
+		for (int p = 0; p < paramsCount; p++) {
+			if (!sameValue(base.getNeuronParam(neuron, p), nn.getNeuronParam(neuron, p))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean sameValue(double a, double b) {
+		return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+	}
+
+	/**
+	 * @return new network, base is not modified
+	 */
+	public static NeuralNetwork readDelta(BinaryInput in, NeuralNetwork base, ThresholdFunction[] functions) throws IOException {
+		NeuralNetwork nn = base.clone();
+		int neuronsCount = nn.getNeuronsCount();
+
+		int changedNeurons = in.readVarInt();
+		int neuron = -1;
+		for (int n = 0; n < changedNeurons; n++) {
+			neuron += in.readVarInt() + 1;
+			if (neuron >= neuronsCount) {
+				throw new IOException("Delta refers to neuron " + neuron + ", but network has " + neuronsCount);
+			}
+			int id = in.readByte();
+			if (id >= functions.length || functions[id] == null) {
+				throw new IOException("Threshold function id " + id + " is not declared");
+			}
+			ThresholdFunction function = functions[id];
+			int paramsCount = function.getDefaultParams().size();
+			List<Double> params = new ArrayList<Double>(paramsCount);
+			for (int p = 0; p < paramsCount; p++) {
+				params.add(in.readDouble());
+			}
+			nn.setNeuronFunction(neuron, function, params);
+		}
+
+		int changedWeights = in.readVarInt();
+		if (changedWeights > 0) {
+			List<Double> weights = nn.getWeightsOfLinks();
+			int index = -1;
+			for (int w = 0; w < changedWeights; w++) {
+				index += in.readVarInt() + 1;
+				if (index >= weights.size()) {
+					throw new IOException("Delta refers to link " + index + ", but network has " + weights.size());
+				}
+				weights.set(index, in.readDouble());
+			}
+			nn.setWeightsOfLinks(weights);
+		}
+		return nn;
+	}
+}
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.nn.serializing.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.ThresholdFunction;
+
+/**
+ * Table of unique brains, written as a sequence of records. <br/>
+ * Offspring usually share brain instance with parent, so brains are looked
+ * up by identity first. Brains which are different instances are compared
+ * by their encoded bytes, so equal networks are stored once as well. <br/>
+ * <br/>
+ * New brain is stored as delta (see {@link BrainCodec}) against a relative
+ * which is already in table: parent, sibling or child (see
+ * {@link NeuralNetwork#getParentId()}). Every {@link #MAX_DELTA_CHAIN}-th
+ * record of a chain is stored in full (keyframe), so reading any brain never
+ * needs to apply more than {@link #MAX_DELTA_CHAIN} deltas. <br/>
+ * Record: tag (0 - full, 1 - delta), then either full brain, or index of
+ * base record (always less than index of record) followed by delta.
+ */
+public class BrainTable {
+	public static final int RECORD_FULL = 0;
+	public static final int RECORD_DELTA = 1;
+
+	public static final int MAX_DELTA_CHAIN = 16;
+
+	private final Map<NeuralNetwork, Integer> indexByInstance = new IdentityHashMap<NeuralNetwork, Integer>();
+	private final Map<EncodedBrain, Integer> indexByContent = new HashMap<EncodedBrain, Integer>();
+	private final Map<Long, Integer> indexById = new HashMap<Long, Integer>();
+	private final Map<Long, Integer> indexByParentId = new HashMap<Long, Integer>();
+	private final List<Record> records = new ArrayList<Record>();
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private long bytesCount = 0;
+	private int deltasCount = 0;
+
+	/**
+	 * @return index of the brain in table
+	 */
+	public int add(NeuralNetwork brain) throws IOException {
+		Integer index = indexByInstance.get(brain);
+		if (index != null) {
+			return index;
+		}
+
+		EncodedBrain encoded = new EncodedBrain(encodeFull(brain));
+		index = indexByContent.get(encoded);
+		if (index == null) {
+			index = records.size();
+			Record record = encodeDelta(brain, encoded.bytes.length);
+			if (record == null) {
+				record = new Record(brain, encoded.bytes, -1, 0);
+			} else {
+				deltasCount++;
+			}
+			records.add(record);
+			indexByContent.put(encoded, index);
+			if ((brain.getParentId() != 0) && !indexByParentId.containsKey(brain.getParentId())) {
+				indexByParentId.put(brain.getParentId(), index);
+			}
+			bytesCount += 1 + (record.isDelta() ? varIntSize(record.base) : 0) + record.bytes.length;
+		}
+		indexByInstance.put(brain, index);
+		indexById.put(brain.getId(), index);
+		return index;
+	}
+
+	private byte[] encodeFull(NeuralNetwork brain) throws IOException {
+		buffer.reset();
+		BinaryOutput out = new BinaryOutput(buffer);
+		BrainCodec.write(out, brain);
+		out.flush();
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * @return smallest delta against relatives, or null if full record is
+	 *         not larger
+	 */
+	private Record encodeDelta(NeuralNetwork brain, int fullSize) throws IOException {
+		Record best = null;
+		for (Integer base : new Integer[] {
+				indexById.get(brain.getParentId()),
+				indexByParentId.get(brain.getParentId()),
+				indexByParentId.get(brain.getId()) }) {
+
+			if ((base == null) || ((best != null) && (best.base == base))) {
+				continue;
+			}
+			Record baseRecord = records.get(base);
+			if ((baseRecord.depth >= (MAX_DELTA_CHAIN - 1)) || !BrainCodec.isDeltaCompatible(baseRecord.brain, brain)) {
+				continue;
+			}
+			buffer.reset();
+			BinaryOutput out = new BinaryOutput(buffer);
+			BrainCodec.writeDelta(out, baseRecord.brain, brain);
+			out.flush();
+			if ((buffer.size() + varIntSize(base) < fullSize) && ((best == null) || (buffer.size() < best.bytes.length))) {
+				best = new Record(brain, buffer.toByteArray(), base, baseRecord.depth + 1);
+			}
+		}
+		return best;
+	}
+
+	private static int varIntSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	public int size() {
+		return records.size();
+	}
+
+	public int getDeltasCount() {
+		return deltasCount;
+	}
+
+	/**
+	 * @return number of bytes {@link #write(BinaryOutput)} writes
+	 */
+	public long getBytesCount() {
+		return bytesCount;
+	}
+
+	public void write(BinaryOutput out) throws IOException {
+		for (Record record : records) {
+			if (record.isDelta()) {
+				out.writeByte(RECORD_DELTA);
+				out.writeVarInt(record.base);
+			} else {
+				out.writeByte(RECORD_FULL);
+			}
+			out.writeBytes(record.bytes, 0, record.bytes.length);
+		}
+	}
+
+	/**
+	 * Reads records written by {@link #write(BinaryOutput)}. <br/>
+	 * Brain read as delta gets base brain as parent, so writing it again
+	 * finds the same base.
+	 */
+	public static NeuralNetwork[] read(BinaryInput in, int count, ThresholdFunction[] functions) throws IOException {
+		NeuralNetwork[] brains = new NeuralNetwork[count];
+		for (int i = 0; i < count; i++) {
+			int tag = in.readByte();
+			if (tag == RECORD_FULL) {
+				brains[i] = BrainCodec.read(in, functions);
+			} else if (tag == RECORD_DELTA) {
+				int base = in.readVarInt();
+				if (base >= i) {
+					throw new IOException("Brain " + i + " refers to base brain " + base);
+				}
+				brains[i] = BrainCodec.readDelta(in, brains[base], functions);
+				brains[i].setParentId(brains[base].getId());
+			} else {
+				throw new IOException("Unknown brain record " + tag);
+			}
+		}
+		return brains;
+	}
+
+	private static class Record {
+		private final NeuralNetwork brain;
+		private final byte[] bytes;
+		private final int base;
+		private final int depth;
+
+		Record(NeuralNetwork brain, byte[] bytes, int base, int depth) {
+			this.brain = brain;
+			this.bytes = bytes;
+			this.base = base;
+			this.depth = depth;
+		}
+
+		boolean isDelta() {
+			return base >= 0;
+		}
+	}
+
+	private static class EncodedBrain {
+		private final byte[] bytes;
+		private final int hash;
+
+		EncodedBrain(byte[] bytes) {
+			this.bytes = bytes;
+			this.hash = Arrays.hashCode(bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof EncodedBrain)) {
+				return false;
+			}
+			EncodedBrain other = (EncodedBrain) obj;
+			return (this.hash == other.hash) && Arrays.equals(this.bytes, other.bytes);
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.nn.serializing.xml;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.lagodiuk.nn.Links;
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.Neuron;
+import com.lagodiuk.nn.ThresholdFunction;
+import com.lagodiuk.nn.genetic.OptimizableNeuralNetwork;
+
+/**
+ * Streaming reader and writer of neural networks in the XML schema of JAXB
+ * mapping (brains/*.xml files, brains inside of XML worlds). <br/>
+ * Reading builds the same objects as JAXB does (links are put into hash maps,
+ * like {@link MapAdapter} does), but without intermediate
+ * {@link MapElement} arrays.
+ */
+public class BrainXmlCodec {
+	public static final String ROOT_ELEMENT = "neuralNetwork";
+	public static final String OPTIMIZABLE_TYPE = "optimizableNeuralNetwork";
+
+	private BrainXmlCodec() {
+	}
+
+	public static void marshall(NeuralNetwork nn, OutputStream out) throws Exception {
+		XMLStreamWriter writer = XmlStreams.createWriter(out);
+		// Standalone brain is always written as plain network, the same way
+		// JAXB context of NeuralNetwork class does
+		writeBody(writer, nn, ROOT_ELEMENT, 0);
+		XmlStreams.endDocument(writer);
+		writer.close();
+		out.flush();
+	}
+
+	public static NeuralNetwork unmarshall(InputStream in) throws Exception {
+		XMLStreamReader reader = XmlStreams.createReader(in);
+		try {
+			XmlStreams.startDocument(reader, ROOT_ELEMENT);
+			return read(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes network as element of an object (with "xsi:type" for subclasses)
+	 */
+	public static void write(XMLStreamWriter writer, NeuralNetwork nn, String element, int depth) throws XMLStreamException {
+		XmlStreams.writeStart(writer, element, depth);
+		if (nn instanceof OptimizableNeuralNetwork) {
+			XmlStreams.writeType(writer, OPTIMIZABLE_TYPE);
+		}
+		writeContent(writer, nn, depth);
+	}
+
+	private static void writeBody(XMLStreamWriter writer, NeuralNetwork nn, String element, int depth) throws XMLStreamException {
+		XmlStreams.writeStart(writer, element, depth);
+		writeContent(writer, nn, depth);
+	}
+
+	private static void writeContent(XMLStreamWriter writer, NeuralNetwork nn, int depth) throws XMLStreamException {
+		int neuronsCount = nn.getNeuronsCount();
+		if (neuronsCount == 0) {
+			XmlStreams.writeEmpty(writer, "neurons", depth + 1);
+		} else {
+			XmlStreams.writeStart(writer, "neurons", depth + 1);
+			for (int i = 0; i < neuronsCount; i++) {
+				XmlStreams.writeStart(writer, "neuron", depth + 2);
+				XmlStreams.writeElement(writer, "thresholdFunction", nn.getNeuronFunction(i).name(), depth + 3);
+				int paramsCount = nn.getNeuronParamsCount(i);
+				if (paramsCount == 0) {
+					XmlStreams.writeEmpty(writer, "parameters", depth + 3);
+				} else {
+					XmlStreams.writeStart(writer, "parameters", depth + 3);
+					for (int p = 0; p < paramsCount; p++) {
+						XmlStreams.writeElement(writer, "param", nn.getNeuronParam(i, p), depth + 4);
+					}
+					XmlStreams.writeEnd(writer, depth + 3);
+				}
+				XmlStreams.writeEnd(writer, depth + 2);
+			}
+			XmlStreams.writeEnd(writer, depth + 1);
+		}
+
+		XmlStreams.writeStart(writer, "neuronsLinks", depth + 1);
+		int linksCount = 0;
+		for (int activator : nn.getLinkActivators()) {
+			for (int receiver : nn.getLinkReceivers(activator)) {
+				if (linksCount == 0) {
+					XmlStreams.writeStart(writer, "links", depth + 2);
+				}
+				XmlStreams.writeStart(writer, "item", depth + 3);
+				XmlStreams.writeElement(writer, "from", activator, depth + 4);
+				XmlStreams.writeElement(writer, "to", receiver, depth + 4);
+				XmlStreams.writeElement(writer, "weight", nn.getLinkWeight(activator, receiver), depth + 4);
+				XmlStreams.writeEnd(writer, depth + 3);
+				linksCount++;
+			}
+		}
+		if (linksCount == 0) {
+			XmlStreams.writeEmpty(writer, "links", depth + 2);
+		} else {
+			XmlStreams.writeEnd(writer, depth + 2);
+		}
+		XmlStreams.writeElement(writer, "linksCount", nn.getLinksCount(), depth + 2);
+		XmlStreams.writeEnd(writer, depth + 1);
+
+		XmlStreams.writeElement(writer, "activationIterations", nn.getActivationIterations(), depth + 1);
+		XmlStreams.writeEnd(writer, depth);
+	}
+
+	/**
+	 * Reads network from current element, type is taken from "xsi:type"
+	 * attribute. Reader is left at the end of element.
+	 */
+	public static NeuralNetwork read(XMLStreamReader reader) throws XMLStreamException {
+		NeuralNetwork nn;
+		String type = XmlStreams.getType(reader);
+		if (OPTIMIZABLE_TYPE.equals(type)) {
+			nn = new OptimizableNeuralNetwork();
+		} else if ((type == null) || ROOT_ELEMENT.equals(type)) {
+			nn = new NeuralNetwork();
+		} else {
+			throw new XMLStreamException("Unknown type of neural network: " + type, reader.getLocation());
+		}
+
+		while (XmlStreams.nextChild(reader)) {
+			String name = reader.getLocalName();
+			if ("neurons".equals(name)) {
+				nn.setNeurons(readNeurons(reader));
+			} else if ("neuronsLinks".equals(name)) {
+				nn.setNeuronsLinks(readLinks(reader));
+			} else if ("activationIterations".equals(name)) {
+				nn.setActivationIterations(XmlStreams.readInt(reader));
+			} else {
+				XmlStreams.skipElement(reader);
+			}
+		}
+		return nn;
+	}
+
+	private static List<Neuron> readNeurons(XMLStreamReader reader) throws XMLStreamException {
+		List<Neuron> neurons = new ArrayList<Neuron>();
+		while (XmlStreams.nextChild(reader)) {
+			if (!"neuron".equals(reader.getLocalName())) {
+				XmlStreams.skipElement(reader);
+				continue;
+			}
+			ThresholdFunction function = null;
+			List<Double> params = new ArrayList<Double>();
+			while (XmlStreams.nextChild(reader)) {
+				String name = reader.getLocalName();
+				if ("thresholdFunction".equals(name)) {
+					function = ThresholdFunction.valueOf(XmlStreams.readText(reader));
+				} else if ("parameters".equals(name)) {
+					while (XmlStreams.nextChild(reader)) {
+						if ("param".equals(reader.getLocalName())) {
+							params.add(XmlStreams.readDouble(reader));
+						} else {
+							XmlStreams.skipElement(reader);
+						}
+					}
+				} else {
+					XmlStreams.skipElement(reader);
+				}
+			}
+			if (function == null) {
+				throw new XMLStreamException("Neuron without threshold function", reader.getLocation());
+			}
+			neurons.add(new Neuron(function, params));
+		}
+		return neurons;
+	}
+
+	private static Links readLinks(XMLStreamReader reader) throws XMLStreamException {
+		Map<Integer, Map<Integer, Double>> links = null;
+		int linksCount = 0;
+		while (XmlStreams.nextChild(reader)) {
+			String name = reader.getLocalName();
+			if ("links".equals(name)) {
+				links = new HashMap<Integer, Map<Integer, Double>>();
+				while (XmlStreams.nextChild(reader)) {
+					if ("item".equals(reader.getLocalName())) {
+						readLink(reader, links);
+					} else {
+						XmlStreams.skipElement(reader);
+					}
+				}
+			} else if ("linksCount".equals(name)) {
+				linksCount = XmlStreams.readInt(reader);
+			} else {
+				XmlStreams.skipElement(reader);
+			}
+		}
+		if (links == null) {
+			links = new LinkedHashMap<Integer, Map<Integer, Double>>();
+		}
+		return new Links(links, linksCount);
+	}
+
+	private static void readLink(XMLStreamReader reader, Map<Integer, Map<Integer, Double>> links) throws XMLStreamException {
+		Integer from = null;
+		Integer to = null;
+		Double weight = null;
+		while (XmlStreams.nextChild(reader)) {
+			String name = reader.getLocalName();
+			if ("from".equals(name)) {
+				from = XmlStreams.readInt(reader);
+			} else if ("to".equals(name)) {
+				to = XmlStreams.readInt(reader);
+			} else if ("weight".equals(name)) {
+				weight = XmlStreams.readDouble(reader);
+			} else {
+				XmlStreams.skipElement(reader);
+			}
+		}
+		Map<Integer, Double> toMap = links.get(from);
+		if (toMap == null) {
+			toMap = new HashMap<Integer, Double>();
+			links.put(from, toMap);
+		}
+		toMap.put(to, weight);
+	}
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.nn.serializing.xml;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Helpers for streaming (StAX) reading and writing of XML in the same shape
+ * JAXB produces: formatted with 4 spaces, types of polymorphic elements in
+ * "xsi:type" attribute, doubles printed as xsd:double
+ */
+public class XmlStreams {
+	public static final String XSI = "http://www.w3.org/2001/XMLSchema-instance";
+
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+	private static final String ENCODING = "UTF-8";
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	private static final String[] INDENTS = new String[16];
+
+	static {
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		StringBuilder indent = new StringBuilder("\n");
+		for (int i = 0; i < INDENTS.length; i++) {
+			INDENTS[i] = indent.toString();
+			indent.append("    ");
+		}
+	}
+
+	private XmlStreams() {
+	}
+
+	public static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+		return inputFactory.createXMLStreamReader(in);
+	}
+
+	/**
+	 * Writes XML declaration, then returns writer for the document body
+	 */
+	public static XMLStreamWriter createWriter(OutputStream out) throws XMLStreamException, IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, ENCODING), BUFFER_SIZE);
+		writer.write(HEADER);
+		writer.write('\n');
+		return outputFactory.createXMLStreamWriter(writer);
+	}
+
+	/**
+	 * Moves reader to the root element
+	 */
+	public static void startDocument(XMLStreamReader reader, String rootElement) throws XMLStreamException {
+		reader.nextTag();
+		if (!rootElement.equals(reader.getLocalName())) {
+			throw new XMLStreamException("Expected <" + rootElement + ">, but found <" + reader.getLocalName() + ">", reader.getLocation());
+		}
+	}
+
+	/**
+	 * Moves reader to the next child of current element
+	 *
+	 * @return false when there are no more children
+	 */
+	public static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+		return reader.nextTag() == XMLStreamConstants.START_ELEMENT;
+	}
+
+	public static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * @return value of "xsi:type" attribute of current element, without
+	 *         prefix, or null
+	 */
+	public static String getType(XMLStreamReader reader) {
+		String type = reader.getAttributeValue(XSI, "type");
+		if (type != null) {
+			int colon = type.indexOf(':');
+			if (colon >= 0) {
+				type = type.substring(colon + 1);
+			}
+		}
+		return type;
+	}
+
+	public static String readText(XMLStreamReader reader) throws XMLStreamException {
+		// Values are short and usually come as a single text event, which is
+		// cheaper than collecting them with getElementText()
+		int event = reader.next();
+		if (event == XMLStreamConstants.END_ELEMENT) {
+			return "";
+		}
+		String text = (event == XMLStreamConstants.CHARACTERS) ? reader.getText() : "";
+		if ((event == XMLStreamConstants.CHARACTERS) && (reader.next() == XMLStreamConstants.END_ELEMENT)) {
+			return text.trim();
+		}
+		StringBuilder builder = new StringBuilder(text);
+		for (event = reader.getEventType(); event != XMLStreamConstants.END_ELEMENT; event = reader.next()) {
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				throw new XMLStreamException("Element with text only expected", reader.getLocation());
+			}
+			if ((event == XMLStreamConstants.CHARACTERS) || (event == XMLStreamConstants.CDATA)
+					|| (event == XMLStreamConstants.SPACE) || (event == XMLStreamConstants.ENTITY_REFERENCE)) {
+				builder.append(reader.getText());
+			}
+		}
+		return builder.toString().trim();
+	}
+
+	public static int readInt(XMLStreamReader reader) throws XMLStreamException {
+		return Integer.parseInt(readText(reader));
+	}
+
+	public static long readLong(XMLStreamReader reader) throws XMLStreamException {
+		return Long.parseLong(readText(reader));
+	}
+
+	public static double readDouble(XMLStreamReader reader) throws XMLStreamException {
+		return parseDouble(readText(reader));
+	}
+
+	public static void indent(XMLStreamWriter writer, int depth) throws XMLStreamException {
+		writer.writeCharacters(depth < INDENTS.length ? INDENTS[depth] : indentOf(depth));
+	}
+
+	private static String indentOf(int depth) {
+		StringBuilder indent = new StringBuilder(INDENTS[INDENTS.length - 1]);
+		for (int i = INDENTS.length - 1; i < depth; i++) {
+			indent.append("    ");
+		}
+		return indent.toString();
+	}
+
+	public static void writeStart(XMLStreamWriter writer, String element, int depth) throws XMLStreamException {
+		if (depth > 0) {
+			indent(writer, depth);
+		}
+		writer.writeStartElement(element);
+	}
+
+	/**
+	 * Closes element which has children
+	 */
+	public static void writeEnd(XMLStreamWriter writer, int depth) throws XMLStreamException {
+		indent(writer, depth);
+		writer.writeEndElement();
+	}
+
+	public static void writeEmpty(XMLStreamWriter writer, String element, int depth) throws XMLStreamException {
+		indent(writer, depth);
+		writer.writeEmptyElement(element);
+	}
+
+	public static void writeElement(XMLStreamWriter writer, String element, String value, int depth) throws XMLStreamException {
+		indent(writer, depth);
+		writer.writeStartElement(element);
+		writer.writeCharacters(value);
+		writer.writeEndElement();
+	}
+
+	public static void writeElement(XMLStreamWriter writer, String element, int value, int depth) throws XMLStreamException {
+		writeElement(writer, element, Integer.toString(value), depth);
+	}
+
+	public static void writeElement(XMLStreamWriter writer, String element, long value, int depth) throws XMLStreamException {
+		writeElement(writer, element, Long.toString(value), depth);
+	}
+
+	public static void writeElement(XMLStreamWriter writer, String element, double value, int depth) throws XMLStreamException {
+		writeElement(writer, element, printDouble(value), depth);
+	}
+
+	public static void writeType(XMLStreamWriter writer, String type) throws XMLStreamException {
+		writer.writeAttribute("xsi", XSI, "type", type);
+	}
+
+	/**
+	 * Ends document, started by {@link #createWriter(OutputStream)}, after
+	 * root element is closed
+	 */
+	public static void endDocument(XMLStreamWriter writer) throws XMLStreamException {
+		writer.writeCharacters("\n");
+		writer.writeEndDocument();
+		writer.flush();
+	}
+
+	public static String printDouble(double value) {
+		if (Double.isNaN(value)) {
+			return "NaN";
+		}
+		if (value == Double.POSITIVE_INFINITY) {
+			return "INF";
+		}
+		if (value == Double.NEGATIVE_INFINITY) {
+			return "-INF";
+		}
+		return Double.toString(value);
+	}
+
+	public static double parseDouble(String value) {
+		if ("INF".equals(value)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		if ("-INF".equals(value)) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return Double.parseDouble(value);
+	}
+}
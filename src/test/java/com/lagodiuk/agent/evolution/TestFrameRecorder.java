@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.agent.evolution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.Worlds;
+
+public class TestFrameRecorder {
+
+	private File dir;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("frames").toFile();
+	}
+
+	@After
+	public void deleteDir() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testRecord() throws Exception {
+		Environment env = Worlds.create(300, 200, 200, 500);
+		// Queue is long enough for every frame
+		FrameRecorder recorder = new FrameRecorder(dir, 5, 0.5, 2, 10, new SimulationMetrics());
+		for (int i = 0; i < 20; i++) {
+			env.timeStep();
+			recorder.record(env);
+		}
+		recorder.close();
+
+		assertEquals(4, recorder.getRecordedCount());
+		assertEquals(0, recorder.getDroppedCount());
+		for (int time = 5; time <= 20; time += 5) {
+			BufferedImage image = ImageIO.read(new File(dir, String.format("frame-%08d.png", time)));
+			assertEquals(150, image.getWidth());
+			assertEquals(100, image.getHeight());
+		}
+	}
+
+	@Test
+	public void testDropFrames() throws Exception {
+		Environment env = Worlds.create(300, 200, 200, 500);
+		FrameRecorder recorder = new FrameRecorder(dir, 1, 4, 1, 1, new SimulationMetrics());
+		int recorded = 0;
+		for (int i = 0; i < 30; i++) {
+			env.timeStep();
+			if (recorder.record(env)) {
+				recorded++;
+			}
+		}
+		recorder.close();
+
+		// Encoder can not keep up with a frame every time step
+		assertTrue(recorder.getDroppedCount() > 0);
+		assertEquals(30, recorder.getRecordedCount() + recorder.getDroppedCount());
+		assertEquals(recorded, recorder.getRecordedCount());
+		assertEquals(recorded, dir.listFiles().length);
+	}
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.agent.evolution;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.Worlds;
+
+public class TestStateStreamEncoder {
+
+	/**
+	 * Applies messages as the viewer does: kind, x, y, energy by id
+	 */
+	private static int apply(byte[] message, Map<Integer, int[]> agents) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+		byte type = in.readByte();
+		int time = in.readInt();
+		in.readInt();
+		in.readInt();
+		if (type == StateStreamEncoder.KEYFRAME) {
+			agents.clear();
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			agents.put(in.readInt(), new int[] { in.readByte(), in.readUnsignedShort(), in.readUnsignedShort(), in.readInt() });
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			assertTrue(agents.remove(in.readInt()) != null);
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			int[] agent = agents.get(in.readInt());
+			agent[1] = in.readUnsignedShort();
+			agent[2] = in.readUnsignedShort();
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			agents.get(in.readInt())[3] = in.readInt();
+		}
+		assertEquals(-1, in.read());
+		return time;
+	}
+
+	private static void assertState(StateStreamEncoder.Capture capture, Map<Integer, int[]> agents) {
+		assertEquals(capture.count, agents.size());
+		for (int i = 0; i < capture.count; i++) {
+			assertArrayEquals(new int[] { capture.kind[i], capture.x[i], capture.y[i], capture.energy[i] }, agents.get(capture.id[i]));
+		}
+	}
+
+	@Test
+	public void testDeltas() throws Exception {
+		Environment env = Worlds.create(300, 200, 50, 300);
+		StateStreamEncoder encoder = new StateStreamEncoder();
+		Map<Integer, int[]> viewer = new HashMap<Integer, int[]>();
+		Map<Integer, int[]> joined = new HashMap<Integer, int[]>();
+
+		int keyframeSize = 0;
+		int deltaSize = 0;
+		for (int i = 0; i < 50; i++) {
+			env.timeStep();
+			StateStreamEncoder.Capture capture = StateStreamEncoder.capture(env);
+			assertEquals((int) env.getTime(), apply(encoder.encodeDelta(capture), viewer));
+			assertState(capture, viewer);
+
+			byte[] keyframe = encoder.encodeKeyframe();
+			apply(keyframe, joined);
+			assertState(capture, joined);
+			if (i > 0) {
+				keyframeSize += keyframe.length;
+				deltaSize += encoder.encodeDelta(capture).length;
+			}
+		}
+		// Nothing changed since the state was encoded: header and empty sections
+		assertEquals(1 + 3 * 4 + 4 * 4, deltaSize / 49);
+		assertTrue(keyframeSize > 0);
+	}
+
+	@Test
+	public void testQuantise() {
+		assertEquals(0, StateStreamEncoder.quantise(-1, 300));
+		assertEquals(0, StateStreamEncoder.quantise(0, 300));
+		assertEquals(32768, StateStreamEncoder.quantise(150, 300));
+		assertEquals(65535, StateStreamEncoder.quantise(300, 300));
+	}
+}
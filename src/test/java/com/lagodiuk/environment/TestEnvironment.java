@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.FertileAgent;
+import com.lagodiuk.agent.IFood;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+
+public class TestEnvironment {
+
+	@Test
+	public void testStats() {
+		Environment env = Worlds.run(Worlds.create(300, 200, 200, 500), 10);
+		PopulationStats stats = env.getStats();
+
+		int fish = 0;
+		int food = 0;
+		long fishEnergy = 0;
+		int[] generations = new int[1000];
+		int minGeneration = Integer.MAX_VALUE;
+		int maxGeneration = -1;
+		for (AbstractAgent agent : env.getAgents()) {
+			if (agent instanceof IFood) {
+				food++;
+			} else if (agent instanceof FertileAgent) {
+				fish++;
+				fishEnergy += agent.getEnergy();
+				int generation = ((NeuralNetworkDrivenAgent) agent).getGeneration();
+				generations[generation]++;
+				minGeneration = Math.min(minGeneration, generation);
+				maxGeneration = Math.max(maxGeneration, generation);
+			}
+		}
+		assertEquals(fish, stats.getFishCount());
+		assertEquals(food, stats.getFoodCount());
+		assertEquals(fish + food, stats.getAgentsCount());
+		assertEquals(fishEnergy, stats.getFishEnergy());
+		assertEquals(env.countEnergy(), stats.getTotalEnergy());
+		assertEquals(minGeneration, stats.getMinGeneration());
+		assertEquals(maxGeneration, stats.getMaxGeneration());
+		assertEquals(maxGeneration, env.getLongestGeneration());
+		for (int generation = 0; generation < generations.length; generation++) {
+			assertEquals(generations[generation], stats.getGenerationCount(generation));
+		}
+	}
+
+	@Test
+	public void testSnapshot() {
+		Environment env = Worlds.run(Worlds.create(300, 200, 200, 500), 10);
+		Environment snapshot = env.snapshot();
+
+		assertEquals(env.getTime(), snapshot.getTime(), 0);
+		assertEquals(env.countEnergy(), snapshot.countEnergy());
+
+		List<AbstractAgent> agents = env.getAgents();
+		List<AbstractAgent> copies = snapshot.getAgents();
+		assertEquals(agents.size(), copies.size());
+		for (int i = 0; i < agents.size(); i++) {
+			AbstractAgent agent = agents.get(i);
+			AbstractAgent copy = copies.get(i);
+			assertNotSame(agent, copy);
+			assertSame(agent.getClass(), copy.getClass());
+			assertEquals(agent.getX(), copy.getX(), 0);
+			assertEquals(agent.getY(), copy.getY(), 0);
+			assertEquals(agent.getEnergy(), copy.getEnergy());
+		}
+
+		// Snapshot does not change while the world goes on
+		int energy = snapshot.countEnergy();
+		double x = copies.get(0).getX();
+		for (int i = 0; i < 10; i++) {
+			env.timeStep();
+		}
+		assertEquals(energy, snapshot.countEnergy());
+		assertEquals(x, snapshot.getAgents().get(0).getX(), 0);
+	}
+
+	@Test
+	public void testMarshallSnapshot() throws Exception {
+		Environment env = Worlds.run(Worlds.create(300, 200, 200, 500), 10);
+		Environment snapshot = env.snapshot();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Environment.marshall(snapshot, out);
+		Environment loaded = Environment.unmarshall(new ByteArrayInputStream(out.toByteArray()));
+
+		assertEquals(snapshot.getTime(), loaded.getTime(), 0);
+		assertEquals(snapshot.countEnergy(), loaded.countEnergy());
+		assertEquals(snapshot.getAgents().size(), loaded.getAgents().size());
+		assertEquals(snapshot.getFishCount(), loaded.getFishCount());
+		assertEquals(snapshot.getFoodCount(), loaded.getFoodCount());
+		assertEquals(env.getLongestGeneration(), loaded.getLongestGeneration());
+
+		loaded.timeStep();
+		assertEquals(snapshot.getTime() + 1, loaded.getTime(), 0);
+	}
+
+	/**
+	 * Mutations are counted globally, so forks running at the same time
+	 * differ in the count only
+	 */
+	private static String toXml(Environment env) throws Exception {
+		return Worlds.toXml(env.snapshot()).replaceAll("<countMutation>\\d+</countMutation>", "");
+	}
+
+	@Test
+	public void testFork() throws Exception {
+		Environment env = Worlds.run(Worlds.create(300, 200, 200, 500), 10);
+		env.seedFood(10, 10);
+		final Environment fork = env.fork();
+		assertEquals(toXml(env), toXml(fork));
+
+		Worlds.run(env, 20);
+		String expected = toXml(env);
+		Worlds.run(fork, 20);
+		assertEquals(expected, toXml(fork));
+
+		// Forks of forks, running in parallel, do not interfere
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						Environment copy = fork.fork();
+						Worlds.run(copy, 20);
+						return toXml(copy);
+					}
+				}));
+			}
+			Worlds.run(env, 20);
+			expected = toXml(env);
+			for (Future<String> result : results) {
+				assertEquals(expected, result.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRadiateWhileMoving() {
+		Environment env = new Environment(3000, 3000);
+		env.setSeed(1);
+		env.setMinNumberOfAgents(0);
+		FertileAgent fish = new FertileAgent(100, 100, 0, 1) {
+			@Override
+			public FertileAgent reproduce(IEnvironment env) {
+				return null;
+			}
+		};
+		fish.setParentingEnergy(0);
+		fish.setEnergy(100);
+		env.addAgent(fish);
+		env.evaluateAll();
+
+		int radiated = 0;
+		for (int i = 0; i < 500; i++) {
+			double x = fish.getX();
+			int energy = fish.getEnergy();
+			int period = FertileAgent.dissipationPeriod(fish.getRadius());
+			env.timeStep();
+			// Fish is removed and added back by every move, its timer is kept
+			assertTrue(fish.getX() != x);
+			if (((long) fish.getAge() % period) == 0) {
+				assertEquals(energy - 1, fish.getEnergy());
+				radiated++;
+			} else {
+				assertEquals(energy, fish.getEnergy());
+			}
+		}
+		assertTrue(radiated > 1);
+	}
+}
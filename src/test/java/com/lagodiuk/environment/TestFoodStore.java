@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.lagodiuk.agent.AbstractAgent;
+
+public class TestFoodStore {
+
+	@Test
+	public void testViewsFollowFood() {
+		FoodStore store = new FoodStore();
+		int eaten = store.addStatic(10, 20, 1);
+		int moving = store.addMoving(30, 40, 0, 2, 1);
+		AbstractAgent eatenView = store.getView(eaten);
+		AbstractAgent movingView = store.getView(moving);
+		long id = movingView.getId();
+
+		eatenView.setEnergy(0);
+		store.removeEaten();
+
+		assertEquals(1, store.size());
+		assertSame(movingView, store.getView(0));
+		assertEquals(0, store.slotOf(movingView));
+		assertEquals(id, movingView.getId());
+		// Detached view keeps the last state of its food
+		assertEquals(-1, store.slotOf(eatenView));
+		assertFalse(eatenView.isAlive());
+		assertEquals(10, eatenView.getX(), 0);
+
+		store.move(100, 100);
+		assertEquals(32, movingView.getX(), 1e-9);
+		assertEquals(40, movingView.getY(), 1e-9);
+	}
+
+	@Test
+	public void testMoveWraps() {
+		FoodStore store = new FoodStore();
+		int slot = store.addMoving(99, 1, Math.PI, 2, 1);
+		store.move(100, 50);
+		assertEquals(97, store.getX(slot), 1e-9);
+
+		slot = store.addMoving(99, 1, 0, 2, 1);
+		store.move(100, 50);
+		assertEquals(1, store.getX(slot), 1e-9);
+		assertEquals(1, store.getY(slot), 1e-9);
+	}
+
+	@Test
+	public void testLazyMove() {
+		FoodStore eager = new FoodStore();
+		FoodStore lazy = new FoodStore();
+		lazy.setLazy(true);
+		for (int i = 0; i < 10; i++) {
+			eager.addMoving(i * 10, 5, i, 0.7, 1);
+			lazy.addMoving(i * 10, 5, i, 0.7, 1);
+		}
+		for (int step = 0; step < 1000; step++) {
+			eager.move(100, 50);
+			lazy.move(100, 50);
+		}
+		for (int i = 0; i < 10; i++) {
+			assertEquals(eager.getX(i), lazy.getX(i), 1e-9);
+			assertEquals(eager.getY(i), lazy.getY(i), 1e-9);
+		}
+
+		// Slots of the rest do not change, free slot is reused
+		AbstractAgent view = lazy.getView(7);
+		lazy.setEnergy(3, 0);
+		lazy.removeEaten();
+		assertEquals(10, lazy.size());
+		assertEquals(9, lazy.getLivingCount());
+		assertEquals(7, lazy.slotOf(view));
+		assertEquals(3, lazy.addStatic(1, 2, 1));
+
+		lazy.setLazy(false);
+		assertEquals(10, lazy.size());
+		assertEquals(eager.getX(9), lazy.getX(9), 1e-9);
+	}
+
+	@Test
+	public void testDivide() {
+		FoodStore store = new FoodStore();
+		store.setLazy(true);
+		for (int i = 0; i < 20; i++) {
+			store.addMoving(i, i, 0, 1, 1);
+		}
+		for (int i = 0; i < 20; i += 2) {
+			store.setEnergy(i, 0);
+		}
+		store.removeEaten();
+
+		Random random = new Random(1);
+		assertEquals(4, store.divide(4, random, 100, 100));
+		assertEquals(14, store.getLivingCount());
+		// Children take free slots, and are where their parents are
+		assertEquals(20, store.size());
+		Set<Double> places = new HashSet<Double>();
+		for (int i = 0; i < store.size(); i++) {
+			if (store.isAlive(i)) {
+				places.add(store.getX(i));
+			}
+		}
+		assertEquals(10, places.size());
+
+		// Every living piece divides once at most
+		assertEquals(14, store.divide(100, random, 100, 100));
+		assertEquals(28, store.getLivingCount());
+		assertEquals(28, store.size());
+		assertTrue(places.contains(store.getX(27)));
+	}
+}
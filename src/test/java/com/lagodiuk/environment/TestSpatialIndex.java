@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.FertileAgent;
+import com.lagodiuk.agent.IAgent;
+import com.lagodiuk.agent.IFood;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+
+public class TestSpatialIndex {
+
+	private static List<String> query(SpatialIndex index, double left, double top, double width, double height) {
+		final List<String> found = new ArrayList<String>();
+		index.query(left, top, width, height, new SpatialIndex.Visitor() {
+			@Override
+			public void visit(AbstractAgent agent, double x, double y) {
+				found.add(agent.getX() + "," + agent.getY() + "@" + x + "," + y);
+			}
+		});
+		Collections.sort(found);
+		return found;
+	}
+
+	/**
+	 * Looks at every agent, and at its copies over the borders
+	 */
+	private static List<String> scan(List<AbstractAgent> agents, int worldWidth, int worldHeight, double left, double top, double width,
+			double height) {
+		List<String> found = new ArrayList<String>();
+		for (AbstractAgent agent : agents) {
+			for (int i = -2; i <= 2; i++) {
+				for (int j = -2; j <= 2; j++) {
+					double x = agent.getX() + i * worldWidth;
+					double y = agent.getY() + j * worldHeight;
+					if ((x >= left) && (x <= left + width) && (y >= top) && (y <= top + height)) {
+						found.add(agent.getX() + "," + agent.getY() + "@" + x + "," + y);
+					}
+				}
+			}
+		}
+		Collections.sort(found);
+		return found;
+	}
+
+	private static List<String> coordinates(Iterable<? extends IAgent> agents) {
+		List<String> coordinates = new ArrayList<String>();
+		for (IAgent agent : agents) {
+			coordinates.add(agent.getX() + "," + agent.getY());
+		}
+		return coordinates;
+	}
+
+	@Test
+	public void testFoodInSight() {
+		// Small world, so eyesight reaches over the borders
+		Environment env = Worlds.run(Worlds.create(300, 200, 200, 2000), 5);
+		for (FertileAgent fish : env.getFishes()) {
+			NeuralNetworkDrivenAgent nnAgent = (NeuralNetworkDrivenAgent) fish;
+			SortedSet<AbstractAgent> seen = new TreeSet<AbstractAgent>(nnAgent.getFoodInSight().comparator());
+			for (IFood food : env.getFood()) {
+				if (nnAgent.inSight(food, env)) {
+					seen.add((AbstractAgent) food);
+				}
+			}
+			assertEquals(coordinates(seen), coordinates(nnAgent.getFoodInSight()));
+		}
+	}
+
+	@Test
+	public void testQuery() {
+		Environment env = Worlds.create(500, 300, 200, 1000);
+		env.timeStep();
+		List<AbstractAgent> agents = env.getAgents();
+		SpatialIndex index = env.getSpatialIndex();
+
+		double[][] rectangles = { { 0, 0, 500, 300 }, { 10, 20, 100, 50 }, { -40, -30, 100, 80 }, { 450, 250, 120, 90 },
+				{ -600, 100, 1700, 10 }, { 123.5, 77.25, 0.5, 300 } };
+		for (double[] r : rectangles) {
+			assertEquals(scan(agents, 500, 300, r[0], r[1], r[2], r[3]), query(index, r[0], r[1], r[2], r[3]));
+		}
+	}
+
+	@Test
+	public void testLazyFood() {
+		Environment env = Worlds.create(500, 300, 200, 1000);
+		env.getFoodStore().setLazy(true);
+		double[][] rectangles = { { 0, 0, 500, 300 }, { 10, 20, 100, 50 }, { -40, -30, 100, 80 } };
+		for (int step = 0; step < 150; step++) {
+			env.timeStep();
+			List<AbstractAgent> agents = env.getAgents();
+			SpatialIndex index = env.getSpatialIndex();
+			for (double[] r : rectangles) {
+				assertEquals(scan(agents, 500, 300, r[0], r[1], r[2], r[3]), query(index, r[0], r[1], r[2], r[3]));
+			}
+		}
+	}
+
+	@Test
+	public void testLevels() {
+		Environment env = Worlds.create(500, 300, 200, 1000);
+		SpatialIndex index = env.getSpatialIndex();
+
+		int last = index.getLevels() - 1;
+		assertEquals(1, index.getColumns(last));
+		assertEquals(1, index.getRows(last));
+		assertEquals(env.getFishCount(), index.getFishCount(last, 0, 0));
+		assertEquals(env.getFoodCount(), index.getFoodCount(last, 0, 0));
+
+		for (int level = 0; level <= last; level++) {
+			int food = 0;
+			for (int column = 0; column < index.getColumns(level); column++) {
+				for (int row = 0; row < index.getRows(level); row++) {
+					food += index.getFoodCount(level, column, row);
+				}
+			}
+			assertEquals(env.getFoodCount(), food);
+		}
+
+		// Cells wrap around
+		int count = 0;
+		for (IFood piece : env.getFood()) {
+			if ((piece.getX() < SpatialIndex.DEFAULT_CELL_SIZE) && (piece.getY() < SpatialIndex.DEFAULT_CELL_SIZE)) {
+				count++;
+			}
+		}
+		assertEquals(count, index.getFoodCount(0, index.getColumns(0), -index.getRows(0)));
+	}
+
+	@Test
+	public void testNearest() {
+		Environment env = Worlds.create(500, 300, 100, 1000);
+		List<AbstractAgent> agents = env.getAgents();
+		SpatialIndex index = env.getSpatialIndex();
+
+		Random random = new Random(1);
+		for (int i = 0; i < 200; i++) {
+			double x = random.nextDouble() * 500;
+			double y = random.nextDouble() * 300;
+			double maxDistance = random.nextDouble() * 300;
+
+			double expectedSquare = maxDistance * maxDistance;
+			AbstractAgent expected = null;
+			for (AbstractAgent agent : agents) {
+				if (agent instanceof NeuralNetworkDrivenAgent) {
+					double dx = Math.abs(agent.getX() - x);
+					double dy = Math.abs(agent.getY() - y);
+					dx = Math.min(dx, 500 - dx);
+					dy = Math.min(dy, 300 - dy);
+					if (dx * dx + dy * dy <= expectedSquare) {
+						expectedSquare = dx * dx + dy * dy;
+						expected = agent;
+					}
+				}
+			}
+			AbstractAgent nearest = index.nearest(x, y, maxDistance, NeuralNetworkDrivenAgent.class);
+			if (expected == null) {
+				assertNull(nearest);
+			} else {
+				// Equally distant agents may be found in any order
+				double dx = Math.abs(nearest.getX() - x);
+				double dy = Math.abs(nearest.getY() - y);
+				dx = Math.min(dx, 500 - dx);
+				dy = Math.min(dy, 300 - dy);
+				assertEquals(expectedSquare, dx * dx + dy * dy, 1e-9);
+			}
+		}
+	}
+}
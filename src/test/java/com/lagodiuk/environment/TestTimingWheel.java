@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestTimingWheel {
+
+	/**
+	 * Fires every period time steps, counting from the phase
+	 */
+	private static class Periodic extends TimingWheel.Timer {
+		long period;
+		long phase;
+		// As told to the wheel
+		long due = TimingWheel.NEVER;
+		int fired = 0;
+		boolean reset = false;
+
+		Periodic(long period, long phase) {
+			this.period = period;
+			this.phase = phase;
+		}
+
+		@Override
+		protected long next(long now, long from) {
+			if (period <= 0) {
+				due = TimingWheel.NEVER;
+			} else if (from <= phase) {
+				due = phase;
+			} else {
+				due = phase + ((from - phase + period - 1) / period) * period;
+			}
+			return due;
+		}
+
+		@Override
+		protected void fire(long time) {
+			assertEquals(due, time);
+			fired++;
+		}
+	}
+
+	@Test
+	public void testFire() {
+		Random random = new Random(1);
+		TimingWheel wheel = new TimingWheel(-1);
+		List<Periodic> timers = new ArrayList<Periodic>();
+		for (int i = 0; i < 300; i++) {
+			// Spans of every level, and beyond the last one
+			long period = 1 + random.nextInt(1 << (6 * (i % 5) + 1));
+			Periodic timer = new Periodic(period, random.nextInt(1000));
+			timers.add(timer);
+			wheel.add(timer);
+		}
+		wheel.reschedule(-1);
+
+		long end = 600000;
+		for (long time = 0; time <= end; time += 1000) {
+			wheel.advance(time);
+			// Owners change, timers are asked anew
+			Periodic timer = timers.get(random.nextInt(timers.size()));
+			timer.period = random.nextInt(3);
+			timer.phase = time + 1 + random.nextInt(10);
+			timer.reset = true;
+			timer.changed();
+			wheel.reschedule(time);
+		}
+		for (Periodic timer : timers) {
+			// None was missed
+			assertTrue((timer.due == TimingWheel.NEVER) || (timer.due > end));
+			if (!timer.reset) {
+				assertEquals((end - timer.phase) / timer.period + 1, timer.fired);
+			}
+		}
+	}
+
+	@Test
+	public void testCancel() {
+		TimingWheel wheel = new TimingWheel(0);
+		Periodic first = new Periodic(10, 5);
+		final Periodic second = new Periodic(10, 5);
+		Periodic canceller = new Periodic(10, 5) {
+			@Override
+			protected void fire(long time) {
+				super.fire(time);
+				second.cancel();
+			}
+		};
+		wheel.add(first);
+		wheel.add(second);
+		wheel.add(canceller);
+		wheel.reschedule(0);
+		assertEquals(3, wheel.size());
+
+		wheel.advance(30);
+		assertEquals(2, wheel.size());
+		assertEquals(3, first.fired);
+		assertEquals(3, canceller.fired);
+		// Fired before it was cancelled, or never
+		assertTrue(second.fired <= 1);
+		assertEquals(TimingWheel.NEVER, second.getDue());
+	}
+}
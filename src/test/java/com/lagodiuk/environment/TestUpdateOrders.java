@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.lagodiuk.nn.RandomStreams;
+
+public class TestUpdateOrders {
+
+	@Test
+	public void testPermutation() {
+		Environment env = new Environment(100, 100);
+		for (UpdateOrders updateOrder : UpdateOrders.values()) {
+			for (int count = 0; count < 50; count++) {
+				int[] order = new int[count + 3];
+				updateOrder.arrange(order, count, env);
+				boolean[] seen = new boolean[count];
+				for (int i = 0; i < count; i++) {
+					assertTrue(updateOrder + " of " + count, !seen[order[i]]);
+					seen[order[i]] = true;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testShuffleAsBefore() {
+		Environment env = new Environment(100, 100);
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 0; i < 100; i++) {
+			expected.add(i);
+		}
+		env.getRandom().setSeed(7);
+		Collections.shuffle(expected, new RandomStreams.Stream(7));
+		int[] order = new int[100];
+		UpdateOrders.SHUFFLE.arrange(order, 100, env);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(expected.get(i).intValue(), order[i]);
+		}
+	}
+
+	@Test
+	public void testSeededTakesNoRandomNumbers() {
+		Environment env = new Environment(100, 100);
+		env.getRandom().setSeed(7);
+		int[] first = new int[100];
+		UpdateOrders.SEEDED.arrange(first, 100, env);
+		assertEquals(new RandomStreams.Stream(7).nextLong(), env.getRandom().nextLong());
+
+		int[] second = new int[100];
+		UpdateOrders.SEEDED.arrange(second, 100, env);
+		assertArrayEquals(first, second);
+	}
+}
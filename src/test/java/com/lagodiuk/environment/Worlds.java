@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment;
+
+import java.io.ByteArrayOutputStream;
+
+import com.lagodiuk.environment.snapshot.WorldFiles;
+
+/**
+ * Worlds for tests: seeded, so every run of a test sees the same world
+ */
+public final class Worlds {
+	public static final long SEED = 42;
+
+	private Worlds() {
+	}
+
+	/**
+	 * Seeded world of 400 x 300, with the usual densities of fish and food
+	 */
+	public static Environment create() {
+		return create(400, 300, 200, 500);
+	}
+
+	/**
+	 * @param agentsDensity
+	 *            fish per million pixels
+	 * @param foodDensity
+	 *            food per million pixels
+	 */
+	public static Environment create(int width, int height, int agentsDensity, int foodDensity) {
+		Environment env = new Environment(width, height);
+		env.setSeed(SEED);
+		env.initialize(agentsDensity, foodDensity);
+		return env;
+	}
+
+	/**
+	 * Runs the world for the given number of time steps
+	 */
+	public static Environment run(Environment env, int ticks) {
+		for (int i = 0; i < ticks; i++) {
+			env.timeStep();
+		}
+		return env;
+	}
+
+	/**
+	 * World as it is written to XML files
+	 */
+	public static String toXml(Environment env) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WorldFiles.write(env, out, false);
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+	/**
+	 * World as it is written to snapshot files
+	 */
+	public static byte[] toSnapshot(Environment env) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WorldFiles.write(env, out, true);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.journal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.Worlds;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+
+public class TestEventJournal {
+
+	private File dir;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("journal").toFile();
+	}
+
+	@After
+	public void deleteDir() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testSameSeedSameWorld() throws Exception {
+		// Mutations are counted globally
+		NeuralNetworkDrivenAgent.setMutationCount(0);
+		Environment first = Worlds.create(400, 300, 100, 300);
+		Worlds.run(first, 30);
+		String firstXml = Worlds.toXml(first.snapshot());
+
+		NeuralNetworkDrivenAgent.setMutationCount(0);
+		Environment second = Worlds.create(400, 300, 100, 300);
+		Worlds.run(second, 30);
+		assertEquals(firstXml, Worlds.toXml(second.snapshot()));
+	}
+
+	@Test
+	public void testReplay() throws Exception {
+		File file = new File(dir, "world.journal");
+		EventJournal journal = new EventJournal(file);
+		Environment env = Worlds.create(400, 300, 100, 300);
+		env.setJournal(journal);
+
+		Worlds.run(env, 15);
+		env.seedFood(10, 10);
+		env.seedFood(390, 290);
+		env.setMinNumberOfAgents(15);
+		Worlds.run(env, 15);
+		String at30 = Worlds.toXml(env.snapshot());
+
+		Worlds.run(env, 10);
+		journal.recordKeyframe(env);
+		Worlds.run(env, 5);
+		NeuralNetworkDrivenAgent fish = (NeuralNetworkDrivenAgent) env.getFishes().get(0);
+		env.setBrain(fish, NeuralNetworkDrivenAgent.randomNeuralNetworkBrain(new Random(1)));
+		env.setSeed(7);
+		env.seedFood(200, 150);
+		Worlds.run(env, 15);
+		String at60 = Worlds.toXml(env.snapshot());
+		journal.close();
+
+		JournalReplay replay = new JournalReplay(file);
+		assertEquals(Arrays.asList(0.0, 40.0), replay.getKeyframeTimes());
+		assertEquals(at30, Worlds.toXml(replay.replay(30).snapshot()));
+		assertEquals(at60, Worlds.toXml(replay.replay(60).snapshot()));
+
+		// Without the later keyframe the whole run is replayed
+		EventJournal.keyframeFile(file, 1).delete();
+		assertEquals(at60, Worlds.toXml(new JournalReplay(file).replay(60).snapshot()));
+	}
+
+	@Test
+	public void testInterruptedRecord() throws Exception {
+		File file = new File(dir, "world.journal");
+		EventJournal journal = new EventJournal(file);
+		Environment env = Worlds.create(400, 300, 100, 300);
+		env.setJournal(journal);
+		Worlds.run(env, 5);
+		env.seedFood(10, 10);
+		Worlds.run(env, 5);
+		String at10 = Worlds.toXml(env.snapshot());
+		journal.close();
+
+		// Half of a record
+		FileOutputStream out = new FileOutputStream(file, true);
+		out.write(new byte[] { 20, JournalEvent.SEED, 0, 0 });
+		out.close();
+		long length = file.length();
+
+		journal = new EventJournal(file);
+		journal.recordMinNumberOfAgents(10, 20);
+		journal.close();
+		assertEquals(length - 4 + 1 + 1 + 8 + 1, file.length());
+		assertEquals(at10, Worlds.toXml(new JournalReplay(file).replay(10).snapshot()));
+	}
+}
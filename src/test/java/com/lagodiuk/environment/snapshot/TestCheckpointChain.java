@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lagodiuk.agent.FertileAgent;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.Worlds;
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+
+public class TestCheckpointChain {
+
+	private File dir;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("checkpoints").toFile();
+	}
+
+	@After
+	public void deleteDir() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	private void testRestore(String name) throws Exception {
+		File file = new File(dir, name);
+		Environment env = Worlds.create(400, 300, 100, 300);
+		CheckpointChain chain = new CheckpointChain(file, 3);
+
+		assertTrue(chain.write(Worlds.run(env, 10).snapshot()));
+		Environment last = null;
+		for (int i = 1; i <= 3; i++) {
+			last = Worlds.run(env, 20).snapshot();
+			assertFalse(chain.write(last));
+			assertEquals(i, chain.getDeltasCount());
+			assertTrue(CheckpointChain.deltaFile(file, i).exists());
+		}
+		assertEquals(Worlds.toXml(last), Worlds.toXml(CheckpointChain.restore(file).snapshot()));
+
+		// Chain is folded into a new base
+		last = Worlds.run(env, 20).snapshot();
+		assertTrue(chain.write(last));
+		assertFalse(CheckpointChain.deltaFile(file, 1).exists());
+		assertEquals(Worlds.toXml(last), Worlds.toXml(CheckpointChain.restore(file).snapshot()));
+	}
+
+	@Test
+	public void testRestoreSnapshotChain() throws Exception {
+		testRestore("world" + WorldFiles.SNAPSHOT_EXTENSION);
+	}
+
+	@Test
+	public void testRestoreXmlChain() throws Exception {
+		testRestore("world.xml");
+	}
+
+	@Test
+	public void testRestoredWorldGoesOnAsOriginal() throws Exception {
+		File file = new File(dir, "world" + WorldFiles.SNAPSHOT_EXTENSION);
+		Environment env = Worlds.create(400, 300, 100, 300);
+		CheckpointChain chain = new CheckpointChain(file, 3);
+		chain.write(Worlds.run(env, 10).snapshot());
+		Worlds.run(env, 20);
+		// Food waits for energy reserve
+		env.setEnergyReserve(0);
+		env.seedFood(200, 150);
+		assertFalse(chain.write(env.snapshot()));
+
+		String expected = Worlds.toXml(Worlds.run(env, 50).snapshot());
+		assertEquals(expected, Worlds.toXml(Worlds.run(CheckpointChain.restore(file), 50).snapshot()));
+	}
+
+	@Test
+	public void testStaleDeltaIgnored() throws Exception {
+		File file = new File(dir, "world" + WorldFiles.SNAPSHOT_EXTENSION);
+		Environment env = Worlds.create(400, 300, 100, 300);
+		CheckpointChain chain = new CheckpointChain(file, 1);
+		chain.write(Worlds.run(env, 10).snapshot());
+		chain.write(Worlds.run(env, 10).snapshot());
+		File stale = new File(dir, "stale");
+		Files.copy(CheckpointChain.deltaFile(file, 1).toPath(), stale.toPath());
+
+		Environment base = Worlds.run(env, 10).snapshot();
+		assertTrue(chain.write(base));
+		// As if the old delta was not deleted after the new base was written
+		Files.copy(stale.toPath(), CheckpointChain.deltaFile(file, 1).toPath());
+		assertEquals(Worlds.toXml(base), Worlds.toXml(CheckpointChain.restore(file).snapshot()));
+	}
+
+	@Test
+	public void testBrainOfPreviousOwner() throws Exception {
+		File file = new File(dir, "world" + WorldFiles.SNAPSHOT_EXTENSION);
+		Environment env = new Environment(400, 300);
+		NeuralNetwork[] brains = new NeuralNetwork[3];
+		NeuralNetworkDrivenAgent[] fish = new NeuralNetworkDrivenAgent[3];
+		for (int i = 0; i < 3; i++) {
+			brains[i] = NeuralNetworkDrivenAgent.randomNeuralNetworkBrain(new Random(i));
+			fish[i] = new NeuralNetworkDrivenAgent(10 + i, 10, 0, 1);
+			fish[i].setBrain(brains[i]);
+		}
+		env.addAgent(fish[0]);
+		env.addAgent(fish[1]);
+		CheckpointChain chain = new CheckpointChain(file, 1);
+		chain.write(env.snapshot());
+
+		// First one gets a new brain, the next one and a newborn get its old one
+		fish[0].setBrain(brains[2]);
+		fish[1].setBrain(brains[0]);
+		fish[2].setBrain(brains[0]);
+		env.addAgent(fish[2]);
+		assertFalse(chain.write(env.snapshot()));
+
+		List<FertileAgent> restored = CheckpointChain.restore(file).getFishes();
+		assertEquals(3, restored.size());
+		assertEquals(brains[2].toString(), ((NeuralNetworkDrivenAgent) restored.get(0)).getBrain().toString());
+		assertEquals(brains[0].toString(), ((NeuralNetworkDrivenAgent) restored.get(1)).getBrain().toString());
+		assertEquals(brains[0].toString(), ((NeuralNetworkDrivenAgent) restored.get(2)).getBrain().toString());
+	}
+}
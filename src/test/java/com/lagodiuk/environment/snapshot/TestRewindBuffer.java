@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.Worlds;
+
+public class TestRewindBuffer {
+
+	/**
+	 * Captures every 5 time steps and waits for every capture, so none is
+	 * skipped
+	 */
+	private static Map<Double, String> run(Environment env, RewindBuffer buffer, int ticks) throws Exception {
+		Map<Double, String> states = new HashMap<Double, String>();
+		for (int i = 0; i < ticks; i++) {
+			env.timeStep();
+			states.put(env.getTime(), Worlds.toXml(env.snapshot()));
+			if ((long) env.getTime() % 5 == 0) {
+				assertTrue(buffer.capture(env));
+				while (!buffer.getTimes().contains(env.getTime())) {
+					Thread.sleep(1);
+				}
+			}
+		}
+		return states;
+	}
+
+	@Test
+	public void testRestore() throws Exception {
+		Environment env = Worlds.create();
+		RewindBuffer buffer = new RewindBuffer(64 << 20);
+		env.seedFood(10, 10);
+		Map<Double, String> states = run(env, buffer, 30);
+		buffer.close();
+
+		assertEquals(Arrays.asList(5.0, 10.0, 15.0, 20.0, 25.0, 30.0), buffer.getTimes());
+		assertEquals(states.get(15.0), Worlds.toXml(buffer.restore(15).snapshot()));
+		// Between frames the world is run from the earlier one
+		assertEquals(states.get(17.0), Worlds.toXml(buffer.restore(17).snapshot()));
+		assertEquals(states.get(30.0), Worlds.toXml(buffer.restore(30).snapshot()));
+
+		// Restored world goes on as the original did
+		Environment restored = buffer.restore(20);
+		for (int i = 0; i < 5; i++) {
+			restored.timeStep();
+		}
+		assertEquals(states.get(25.0), Worlds.toXml(restored.snapshot()));
+
+		buffer.discardAfter(20);
+		assertEquals(Arrays.asList(5.0, 10.0, 15.0, 20.0), buffer.getTimes());
+	}
+
+	@Test
+	public void testMemoryBudget() throws Exception {
+		Environment env = Worlds.create();
+		RewindBuffer unbounded = new RewindBuffer(Long.MAX_VALUE);
+		run(env, unbounded, 10);
+		unbounded.close();
+		// Both frames do not fit
+		long budget = unbounded.getBytesCount() - 1;
+
+		RewindBuffer buffer = new RewindBuffer(budget);
+		Map<Double, String> states = run(env, buffer, 30);
+		buffer.close();
+		assertTrue(buffer.getBytesCount() <= budget);
+		assertTrue(buffer.getTimes().size() < 6);
+		assertEquals(40, buffer.getLatestTime(), 0);
+		assertEquals(states.get(40.0), Worlds.toXml(buffer.restore(40).snapshot()));
+
+		buffer.clear();
+		assertEquals(0, buffer.getBytesCount());
+	}
+}
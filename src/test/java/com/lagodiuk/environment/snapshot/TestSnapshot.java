@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.agent.MovingAgent;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.Worlds;
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+import com.lagodiuk.nn.genetic.OptimizableNeuralNetwork;
+import com.lagodiuk.nn.serializing.binary.BrainTable;
+
+public class TestSnapshot {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Environment env = Worlds.run(Worlds.create(), 30);
+		byte[] bytes = Worlds.toSnapshot(env);
+		Environment loaded = new SnapshotReader(bytes).read();
+
+		assertEquals(env.getWidth(), loaded.getWidth());
+		assertEquals(env.getHeight(), loaded.getHeight());
+		assertEquals(env.getTime(), loaded.getTime(), 0);
+		assertEquals(env.getEnergyReserve(), loaded.getEnergyReserve());
+		assertEquals(env.getMinNumberOfAgents(), loaded.getMinNumberOfAgents());
+		assertEquals(env.countEnergy(), loaded.countEnergy());
+		assertEquals(env.getFishCount(), loaded.getFishCount());
+		assertEquals(env.getFoodCount(), loaded.getFoodCount());
+
+		List<AbstractAgent> agents = env.getAgents();
+		List<AbstractAgent> loadedAgents = loaded.getAgents();
+		assertEquals(agents.size(), loadedAgents.size());
+		for (int i = 0; i < agents.size(); i++) {
+			AbstractAgent agent = agents.get(i);
+			AbstractAgent loadedAgent = loadedAgents.get(i);
+			assertEquals(agent.getClass(), loadedAgent.getClass());
+			assertEquals(agent.getX(), loadedAgent.getX(), 0);
+			assertEquals(agent.getY(), loadedAgent.getY(), 0);
+			assertEquals(agent.getEnergy(), loadedAgent.getEnergy());
+			assertEquals(agent.getRadius(), loadedAgent.getRadius(), 0);
+			if (agent instanceof MovingAgent) {
+				assertEquals(((MovingAgent) agent).getAngle(), ((MovingAgent) loadedAgent).getAngle(), 0);
+				assertEquals(((MovingAgent) agent).getSpeed(), ((MovingAgent) loadedAgent).getSpeed(), 0);
+			}
+			if (agent instanceof NeuralNetworkDrivenAgent) {
+				NeuralNetworkDrivenAgent fish = (NeuralNetworkDrivenAgent) agent;
+				NeuralNetworkDrivenAgent loadedFish = (NeuralNetworkDrivenAgent) loadedAgent;
+				assertEquals(fish.getAge(), loadedFish.getAge(), 0);
+				assertEquals(fish.getGeneration(), loadedFish.getGeneration());
+				assertEquals(fish.getNewbornEnergy(), loadedFish.getNewbornEnergy());
+				assertEquals(fish.getParentingEnergy(), loadedFish.getParentingEnergy());
+				assertEquals(fish.getBrain().getClass(), loadedFish.getBrain().getClass());
+				assertEquals(fish.getBrain().toString(), loadedFish.getBrain().toString());
+			}
+		}
+
+		// Loaded world goes on
+		loaded.timeStep();
+	}
+
+	@Test
+	public void testConversionPreservesXml() throws Exception {
+		Environment env = Worlds.run(Worlds.create(), 30);
+		String xml = Worlds.toXml(env);
+
+		Environment loaded = new SnapshotReader(Worlds.toSnapshot(env)).read();
+		assertEquals(xml, Worlds.toXml(loaded));
+
+		// And the way back
+		Environment fromXml = Environment.unmarshall(new java.io.ByteArrayInputStream(xml.getBytes("UTF-8")));
+		byte[] bytes = Worlds.toSnapshot(fromXml);
+		assertEquals(xml, Worlds.toXml(new SnapshotReader(bytes).read()));
+		assertTrue(bytes.length * 5 < xml.length());
+	}
+
+	@Test
+	public void testRestoredWorldGoesOnAsOriginal() throws Exception {
+		Environment env = Worlds.run(Worlds.create(), 30);
+		// Food waits for energy reserve
+		env.setEnergyReserve(0);
+		env.seedFood(200, 150);
+		byte[] bytes = Worlds.toSnapshot(env);
+		String xml = Worlds.toXml(env);
+		String expected = Worlds.toXml(Worlds.run(env, 50));
+
+		assertEquals(expected, Worlds.toXml(Worlds.run(new SnapshotReader(bytes).read(), 50)));
+		Environment fromXml = Environment.unmarshall(new java.io.ByteArrayInputStream(xml.getBytes("UTF-8")));
+		assertEquals(expected, Worlds.toXml(Worlds.run(fromXml, 50)));
+	}
+
+	@Test
+	public void testSkipBrains() throws Exception {
+		Environment env = Worlds.run(Worlds.create(), 30);
+		SnapshotReader reader = new SnapshotReader(Worlds.toSnapshot(env));
+		SnapshotHeader header = reader.readHeader();
+		assertEquals(SnapshotFormat.VERSION, header.getVersion());
+		assertTrue(reader.skipBrains() <= env.getFishCount());
+		AgentColumns columns = reader.readAgents();
+		assertEquals(env.getAgents().size(), columns.count);
+		assertEquals(env.getFishCount(), columns.fishCount);
+	}
+
+	@Test
+	public void testBrainsStoredOnce() throws Exception {
+		Environment env = new Environment(400, 300);
+		OptimizableNeuralNetwork shared = NeuralNetworkDrivenAgent.randomNeuralNetworkBrain();
+		OptimizableNeuralNetwork other = NeuralNetworkDrivenAgent.randomNeuralNetworkBrain();
+		NeuralNetwork[] brains = { shared, shared, shared.clone(), other };
+		for (NeuralNetwork brain : brains) {
+			NeuralNetworkDrivenAgent fish = new NeuralNetworkDrivenAgent(10, 10, 0, 1);
+			fish.setBrain(brain);
+			env.addAgent(fish);
+		}
+		byte[] bytes = Worlds.toSnapshot(env);
+
+		SnapshotReader reader = new SnapshotReader(bytes);
+		reader.readHeader();
+		assertEquals(2, reader.skipBrains());
+
+		List<AbstractAgent> loaded = new SnapshotReader(bytes).read().getAgents();
+		NeuralNetwork first = ((NeuralNetworkDrivenAgent) loaded.get(0)).getBrain();
+		assertSame(first, ((NeuralNetworkDrivenAgent) loaded.get(1)).getBrain());
+		assertSame(first, ((NeuralNetworkDrivenAgent) loaded.get(2)).getBrain());
+		assertNotSame(first, ((NeuralNetworkDrivenAgent) loaded.get(3)).getBrain());
+		assertEquals(other.toString(), ((NeuralNetworkDrivenAgent) loaded.get(3)).getBrain().toString());
+	}
+
+	@Test
+	public void testLineageDeltas() throws Exception {
+		Environment env = new Environment(400, 300);
+		OptimizableNeuralNetwork brain = NeuralNetworkDrivenAgent.randomNeuralNetworkBrain();
+		int generations = BrainTable.MAX_DELTA_CHAIN * 3;
+		for (int i = 0; i < generations; i++) {
+			NeuralNetworkDrivenAgent fish = new NeuralNetworkDrivenAgent(10, 10, 0, 1);
+			fish.setBrain(brain);
+			env.addAgent(fish);
+			brain = brain.mutate();
+		}
+
+		BrainTable table = new BrainTable();
+		for (AbstractAgent agent : env.getAgents()) {
+			table.add(((NeuralNetworkDrivenAgent) agent).getBrain());
+		}
+		assertTrue(table.getDeltasCount() > 0);
+		assertTrue(table.getDeltasCount() < generations);
+
+		List<AbstractAgent> agents = env.getAgents();
+		List<AbstractAgent> loaded = new SnapshotReader(Worlds.toSnapshot(env)).read().getAgents();
+		for (int i = 0; i < agents.size(); i++) {
+			assertEquals(((NeuralNetworkDrivenAgent) agents.get(i)).getBrain().toString(),
+					((NeuralNetworkDrivenAgent) loaded.get(i)).getBrain().toString());
+		}
+	}
+
+	@Test
+	public void testNotSnapshot() throws Exception {
+		try {
+			new SnapshotReader("<environment/>".getBytes("UTF-8")).read();
+			fail("Read XML as snapshot");
+		} catch (IOException e) {
+			assertEquals("Not a world snapshot", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.lagodiuk.agent.FertileAgent;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.Worlds;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+
+public class TestSnapshotStats {
+
+	@Test
+	public void testStatsOfWorld() throws Exception {
+		Environment env = Worlds.run(Worlds.create(), 30).snapshot();
+		SnapshotStats stats = SnapshotStats.of(new ByteArrayInputStream(Worlds.toSnapshot(env)));
+
+		assertEquals(env.getTime(), stats.getHeader().getTime(), 0);
+		assertEquals(env.getAgents().size(), stats.getAgentsCount());
+		assertEquals(env.getFishCount(), stats.getFishCount());
+		assertEquals(env.getFoodCount(), stats.getFoodCount());
+		assertEquals(env.countEnergy(), stats.getTotalEnergy());
+		assertEquals(env.getLongestGeneration(), stats.getMaxGeneration());
+
+		int fish = 0;
+		int minGeneration = Integer.MAX_VALUE;
+		Set<String> brains = new HashSet<String>();
+		for (FertileAgent agent : env.getFishes()) {
+			NeuralNetworkDrivenAgent nnAgent = (NeuralNetworkDrivenAgent) agent;
+			minGeneration = Math.min(minGeneration, nnAgent.getGeneration());
+			brains.add(nnAgent.getBrain().toString());
+			fish++;
+		}
+		assertEquals(minGeneration, stats.getMinGeneration());
+		int histogram = 0;
+		for (int generation = 0; generation <= stats.getMaxGeneration(); generation++) {
+			histogram += stats.getGenerationCount(generation);
+		}
+		assertEquals(fish, histogram);
+		assertEquals(brains.size(), stats.getBrainsCount());
+		assertTrue(stats.getLargestBrainFamily() >= 1);
+		assertTrue((stats.getBrainDiversity() >= 0) && (stats.getBrainDiversity() < 1));
+	}
+
+	@Test
+	public void testAnalyzeDirectory() throws Exception {
+		File dir = Files.createTempDirectory("analytics").toFile();
+		try {
+			Environment env = Worlds.create();
+			List<File> files = new ArrayList<File>();
+			// Names do not follow time, rows must
+			for (int i = 3; i > 0; i--) {
+				for (int t = 0; t < 5; t++) {
+					env.timeStep();
+				}
+				File file = new File(dir, "world" + i + WorldFiles.SNAPSHOT_EXTENSION);
+				FileOutputStream out = new FileOutputStream(file);
+				out.write(Worlds.toSnapshot(env.snapshot()));
+				out.close();
+				files.add(file);
+			}
+			File broken = new File(dir, "broken" + WorldFiles.SNAPSHOT_EXTENSION);
+			FileOutputStream out = new FileOutputStream(broken);
+			out.write(new byte[] { 1, 2, 3 });
+			out.close();
+			files.add(broken);
+
+			List<SnapshotAnalytics.Row> rows = SnapshotAnalytics.analyze(files, 2);
+			assertEquals(3, rows.size());
+			ByteArrayOutputStream csv = new ByteArrayOutputStream();
+			SnapshotAnalytics.print(rows, 10, new PrintStream(csv, true, "UTF-8"));
+			String[] lines = new String(csv.toByteArray(), "UTF-8").split("\n");
+			assertEquals(4, lines.length);
+			assertTrue(lines[1].startsWith(files.get(0).getPath() + ",5,"));
+			assertTrue(lines[3].startsWith(files.get(2).getPath() + ",15,"));
+			assertEquals(lines[0].split(",").length, lines[1].split(",").length);
+		} finally {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+}
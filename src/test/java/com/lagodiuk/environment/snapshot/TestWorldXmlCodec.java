@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.environment.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+
+import org.junit.Test;
+
+import com.lagodiuk.agent.AbstractAgent;
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.Worlds;
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+import com.lagodiuk.nn.serializing.xml.BrainXmlCodec;
+
+/**
+ * Streaming codecs have to be interchangeable with JAXB mapping
+ */
+public class TestWorldXmlCodec {
+
+	private static String jaxbXml(Object object) throws Exception {
+		JAXBContext context = JAXBContext.newInstance(object.getClass());
+		Marshaller marshaller = context.createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		marshaller.marshal(object, out);
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+	private static Object jaxbRead(Class<?> type, String xml) throws Exception {
+		JAXBContext context = JAXBContext.newInstance(type);
+		return context.createUnmarshaller().unmarshal(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+	}
+
+	private static String codecXml(Environment env) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WorldXmlCodec.write(env, out);
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+	private static String codecXml(NeuralNetwork nn) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BrainXmlCodec.marshall(nn, out);
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+	@Test
+	public void testWriteWorldAsJaxb() throws Exception {
+		// Snapshot keeps mutations count in the field JAXB writes
+		Environment env = Worlds.run(Worlds.create(), 30).snapshot();
+		assertEquals(jaxbXml(env), codecXml(env));
+		Environment empty = new Environment(10, 10).snapshot();
+		assertEquals(jaxbXml(empty), codecXml(empty));
+	}
+
+	@Test
+	public void testReadWorldAsJaxb() throws Exception {
+		String xml = jaxbXml(Worlds.run(Worlds.create(), 30).snapshot());
+		Environment fromJaxb = (Environment) jaxbRead(Environment.class, xml);
+		Environment fromCodec = WorldXmlCodec.read(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+		assertEquals(fromJaxb.getTime(), fromCodec.getTime(), 0);
+		assertEquals(fromJaxb.getEnergyReserve(), fromCodec.getEnergyReserve());
+		assertEquals(xml, codecXml(fromCodec));
+		List<AbstractAgent> jaxbAgents = fromJaxb.getAgents();
+		List<AbstractAgent> codecAgents = fromCodec.getAgents();
+		assertEquals(jaxbAgents.size(), codecAgents.size());
+		for (int i = 0; i < jaxbAgents.size(); i++) {
+			assertEquals(jaxbAgents.get(i).getClass(), codecAgents.get(i).getClass());
+			if (jaxbAgents.get(i) instanceof NeuralNetworkDrivenAgent) {
+				NeuralNetwork jaxbBrain = ((NeuralNetworkDrivenAgent) jaxbAgents.get(i)).getBrain();
+				NeuralNetwork codecBrain = ((NeuralNetworkDrivenAgent) codecAgents.get(i)).getBrain();
+				assertEquals(jaxbBrain.getClass(), codecBrain.getClass());
+				// Same links maps, so the same order of weights
+				assertEquals(jaxbBrain.toString(), codecBrain.toString());
+			}
+		}
+	}
+
+	@Test
+	public void testBrainFiles() throws Exception {
+		// Maven tells where the project is, the working directory may be any
+		File dir = new File(System.getProperty("basedir", "."), "brains");
+		File[] files = dir.listFiles();
+		assertNotNull("No brains in " + dir.getAbsolutePath(), files);
+		for (File file : files) {
+			NeuralNetwork fromJaxb;
+			NeuralNetwork fromCodec;
+			InputStream in = new FileInputStream(file);
+			try {
+				fromJaxb = (NeuralNetwork) JAXBContext.newInstance(NeuralNetwork.class).createUnmarshaller().unmarshal(in);
+			} finally {
+				in.close();
+			}
+			in = new FileInputStream(file);
+			try {
+				fromCodec = BrainXmlCodec.unmarshall(in);
+			} finally {
+				in.close();
+			}
+			assertEquals(file.getName(), fromJaxb.getClass(), fromCodec.getClass());
+			assertEquals(file.getName(), fromJaxb.toString(), fromCodec.toString());
+			assertEquals(file.getName(), jaxbXml(fromJaxb), codecXml(fromCodec));
+		}
+	}
+
+	@Test
+	public void testWriteBrainAsJaxb() throws Exception {
+		NeuralNetwork brain = NeuralNetworkDrivenAgent.randomNeuralNetworkBrain();
+		NeuralNetwork plain = new NeuralNetwork(3);
+		assertEquals(jaxbXml(plain), codecXml(plain));
+
+		JAXBContext context = JAXBContext.newInstance(NeuralNetwork.class);
+		Marshaller marshaller = context.createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		marshaller.marshal(brain, out);
+		assertEquals(new String(out.toByteArray(), "UTF-8"), codecXml(brain));
+	}
+}
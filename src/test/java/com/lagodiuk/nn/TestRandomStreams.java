@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.nn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.lagodiuk.environment.Environment;
+import com.lagodiuk.environment.Worlds;
+
+public class TestRandomStreams {
+
+	@Test
+	public void testReproducibleFromRoot() throws Exception {
+		assertEquals(run(false), run(true));
+	}
+
+	/**
+	 * XML of two worlds seeded from the root one after the other
+	 */
+	private static String run(boolean snapshot) throws Exception {
+		RandomStreams.setSeed(42);
+		// Counted across all worlds
+		NeuralNetworkDrivenAgent.setMutationCount(0);
+		Environment first = Worlds.run(createWorld(), 50);
+		if (snapshot) {
+			// Copies of a world do not draw from the root
+			first.snapshot();
+		}
+		Environment second = Worlds.run(createWorld(), 50);
+		return Worlds.toXml(first) + Worlds.toXml(second);
+	}
+
+	private static Environment createWorld() {
+		Environment env = new Environment(400, 300);
+		env.initialize(200, 500);
+		return env;
+	}
+
+	@Test
+	public void testSeeds() {
+		Random random = new RandomStreams.Stream(1);
+		long first = random.nextLong();
+		random.nextGaussian();
+		// Cached gaussian is dropped as well
+		random.setSeed(1);
+		assertEquals(first, random.nextLong());
+		assertEquals(new RandomStreams.Stream(1).nextGaussian(), new RandomStreams.Stream(1).nextGaussian(), 0);
+		// Neighbouring seeds, as of neighbouring time steps, are unrelated
+		Random next = new RandomStreams.Stream(2);
+		next.nextLong();
+		assertTrue(random.nextLong() != next.nextLong());
+	}
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright 2012 Yuriy Lagodiuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.lagodiuk.nn.serializing.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lagodiuk.nn.NeuralNetwork;
+import com.lagodiuk.nn.NeuralNetworkDrivenAgent;
+import com.lagodiuk.nn.genetic.OptimizableNeuralNetwork;
+
+public class TestBrainArchive {
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("brains", ".archive");
+		file.delete();
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+		new File(file.getPath() + BrainArchive.INDEX_EXTENSION).delete();
+	}
+
+	private static List<NeuralNetwork> lineage(int generations) {
+		List<NeuralNetwork> brains = new ArrayList<NeuralNetwork>();
+		OptimizableNeuralNetwork brain = NeuralNetworkDrivenAgent.randomNeuralNetworkBrain();
+		while (brains.size() < generations) {
+			// Mutation may leave brain unchanged, such brains are archived once
+			if (brains.isEmpty() || !brains.get(brains.size() - 1).toString().equals(brain.toString())) {
+				brains.add(brain);
+			}
+			brain = brain.mutate();
+		}
+		return brains;
+	}
+
+	@Test
+	public void testAppendAndReopen() throws Exception {
+		List<NeuralNetwork> brains = lineage(BrainTable.MAX_DELTA_CHAIN * 3);
+
+		BrainArchive archive = new BrainArchive(file);
+		try {
+			for (int i = 0; i < brains.size(); i++) {
+				assertEquals(i, archive.append(brains.get(i), i * 10, 1000 + i));
+			}
+		} finally {
+			archive.close();
+		}
+
+		archive = new BrainArchive(file, true);
+		try {
+			assertEquals(brains.size(), archive.size());
+			int deltas = 0;
+			for (int i = brains.size() - 1; i >= 0; i--) {
+				assertEquals(brains.get(i).toString(), archive.read(i).toString());
+				assertEquals(i * 10, archive.getGeneration(i));
+				assertEquals(1000 + i, archive.getTimestamp(i));
+				assertEquals(BrainArchive.hash(brains.get(i)), archive.getHash(i));
+				assertEquals(i, archive.findByHash(archive.getHash(i)));
+				if (archive.isDelta(i)) {
+					deltas++;
+				}
+			}
+			assertTrue(deltas > 0);
+
+			assertEquals(3, archive.findByGeneration(30));
+			assertEquals(-1, archive.findByGeneration(31));
+			assertEquals(-1, archive.findByGeneration(brains.size() * 10));
+			int[] range = archive.range(1002, 1005);
+			assertEquals(2, range[0]);
+			assertEquals(5, range[1]);
+			range = archive.range(0, 1000);
+			assertEquals(range[0], range[1]);
+
+			final List<String> visited = new ArrayList<String>();
+			archive.forEach(new BrainArchive.Visitor() {
+				@Override
+				public void visit(int index, NeuralNetwork brain) {
+					visited.add(brain.toString());
+				}
+			});
+			assertEquals(brains.size(), visited.size());
+			for (int i = 0; i < brains.size(); i++) {
+				assertEquals(brains.get(i).toString(), visited.get(i));
+			}
+		} finally {
+			archive.close();
+		}
+	}
+
+	@Test
+	public void testBrainStoredOnce() throws Exception {
+		List<NeuralNetwork> brains = lineage(3);
+		BrainArchive archive = new BrainArchive(file);
+		try {
+			assertEquals(0, archive.append(brains.get(0), 1, 0));
+			assertEquals(1, archive.append(brains.get(1), 2, 0));
+			assertEquals(0, archive.append(brains.get(0).clone(), 3, 0));
+			assertEquals(2, archive.size());
+			assertEquals(-1, archive.find(brains.get(2)));
+		} finally {
+			archive.close();
+		}
+	}
+
+	@Test
+	public void testInterruptedAppend() throws Exception {
+		List<NeuralNetwork> brains = lineage(3);
+		BrainArchive archive = new BrainArchive(file);
+		try {
+			archive.append(brains.get(0), 1, 0);
+			archive.append(brains.get(1), 2, 0);
+		} finally {
+			archive.close();
+		}
+
+		// Record of the third brain was written, but its index entry was not
+		long dataLength = file.length();
+		RandomAccessFile data = new RandomAccessFile(file, "rw");
+		RandomAccessFile index = new RandomAccessFile(file.getPath() + BrainArchive.INDEX_EXTENSION, "rw");
+		try {
+			data.setLength(dataLength + 100);
+			index.setLength(index.length() + (BrainArchive.ENTRY_SIZE / 2));
+		} finally {
+			data.close();
+			index.close();
+		}
+
+		archive = new BrainArchive(file);
+		try {
+			assertEquals(2, archive.size());
+			assertEquals(dataLength, file.length());
+			assertEquals(2, archive.append(brains.get(2), 3, 0));
+			assertEquals(brains.get(1).toString(), archive.read(1).toString());
+			assertEquals(brains.get(2).toString(), archive.read(2).toString());
+		} finally {
+			archive.close();
+		}
+	}
+}